@@ -20,10 +20,14 @@
 
 package edu.stanford.hivdb.drugresistance;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +36,7 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.fstrf.stanfordAsiInterpreter.resistance.evaluate.EvaluatedGene;
 
 import edu.stanford.hivdb.comments.BoundComment;
@@ -46,7 +51,10 @@ import edu.stanford.hivdb.mutations.MutationType;
 import edu.stanford.hivdb.seqreads.GeneSequenceReads;
 import edu.stanford.hivdb.sequences.AlignedGeneSeq;
 import edu.stanford.hivdb.utilities.AssertUtils;
+import edu.stanford.hivdb.utilities.BoundedMemoizer;
+import edu.stanford.hivdb.utilities.EnvUtils;
 import edu.stanford.hivdb.utilities.MySetUtils;
+import edu.stanford.hivdb.utilities.SharedExecutor;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Virus;
 import edu.stanford.hivdb.mutations.Mutation;
@@ -59,19 +67,216 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	private final DrugResistanceAlgorithm<VirusT> algorithm;
 
 	// Optional data structures used to instantiate the class
-	private final transient EvaluatedGene evalGene;
+	private final transient Evaluation<VirusT> evaluation;
 	private final transient SortedSet<ASIDrugSusc<VirusT>> drugSuscs;
 	private transient SortedMap<MutationType<VirusT>, MutationSet<VirusT>> mutTypes;
 	private transient SortedMap<CommentType, List<BoundComment<VirusT>>> commentsByTypes;
 
+	private static final BoundedMemoizer<EvaluationKey, Evaluation<?>> evaluations;
+
+	static {
+		evaluations = new BoundedMemoizer<>(
+			key -> new Evaluation<>(key),
+			EnvUtils.getLongEnv("SIERRA_GENEDR_CACHE_SIZE", 10000, 0));
+	}
+
+	private static final class EvaluationKey {
+		private final Gene<?> gene;
+		private final DrugResistanceAlgorithm<?> algorithm;
+		private final MutationSet<?> mutations;
+		private final int hashCode;
+
+		private EvaluationKey(Gene<?> gene, DrugResistanceAlgorithm<?> algorithm, MutationSet<?> mutations) {
+			this.gene = gene;
+			this.algorithm = algorithm;
+			this.mutations = mutations;
+			this.hashCode = new HashCodeBuilder(5521, 7057)
+				.append(System.identityHashCode(gene))
+				.append(System.identityHashCode(algorithm))
+				.append(mutations)
+				.toHashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) { return true; }
+			if (!(o instanceof EvaluationKey)) { return false; }
+			EvaluationKey k = (EvaluationKey) o;
+			return (
+				gene == k.gene && algorithm == k.algorithm &&
+				hashCode == k.hashCode && mutations.equals(k.mutations)
+			);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * ASI-compatible mutation strings of a gene, converted and validated
+	 * once and shared by the evaluations of multiple algorithms. Each
+	 * algorithm only evaluates its relevant mutations, which are selected
+	 * from the prepared strings by position.
+	 *
+	 * Only genes of the main strain are prepared, since their positions
+	 * are kept by the conversion. Genes of other strains are converted to
+	 * main strain positions as a whole by each evaluation.
+	 */
+	private static final class ASIMutations<VirusT extends Virus<VirusT>> {
+		private final Map<Integer, String> asiByPosition = new HashMap<>();
+		private final Set<Integer> invalidPositions = new HashSet<>();
+
+		private static <VirusT extends Virus<VirusT>> ASIMutations<VirusT> prepare(
+			Gene<VirusT> gene, MutationSet<VirusT> mutations
+		) {
+			if (gene.getMainStrainGene() != gene) {
+				return null;
+			}
+			ASIMutations<VirusT> prepared = new ASIMutations<>();
+			MutationSet<VirusT> asiCompatMuts = gene.getMainStrainModifier()
+				.modifyMutationSet(gene, gene, mutations);
+			for (Mutation<VirusT> mut : asiCompatMuts) {
+				String asiMut = mut.getASIFormat();
+				prepared.asiByPosition.put(mut.getPosition(), asiMut);
+				if (!ASIResultHandler.areASIMutationsValid(Collections.singletonList(asiMut))) {
+					prepared.invalidPositions.add(mut.getPosition());
+				}
+			}
+			return prepared;
+		}
+
+		/**
+		 * @param mutations	Subset of the prepared mutations
+		 * @return			ASI-compatible strings of given mutations; null
+		 * 					if any of them was not prepared
+		 */
+		private List<String> select(MutationSet<VirusT> mutations) {
+			List<String> asiMutations = new ArrayList<>(mutations.size());
+			boolean valid = true;
+			for (Mutation<VirusT> mut : mutations) {
+				String asiMut = asiByPosition.get(mut.getPosition());
+				if (asiMut == null) {
+					return null;
+				}
+				asiMutations.add(asiMut);
+				valid = valid && !invalidPositions.contains(mut.getPosition());
+			}
+			if (!valid) {
+				ASIResultHandler.validateASIMutations(asiMutations);
+			}
+			return asiMutations;
+		}
+	}
+
+	/**
+	 * ASI evaluation of a (gene, algorithm, mutations) combination, shared
+	 * by all GeneDR objects of the same combination.
+	 */
+	private static final class Evaluation<VirusT extends Virus<VirusT>> {
+		private final Gene<VirusT> gene;
+		private final MutationSet<VirusT> mutations;
+		private final DrugResistanceAlgorithm<VirusT> algorithm;
+		private final SortedSet<ASIDrugSusc<VirusT>> drugSuscs;
+		private final ASIMutations<VirusT> asiMutations;
+		private volatile EvaluatedGene evalGene;
+
+		private Evaluation(EvaluationKey key) {
+			this(key, null, Collections.emptySet(), null);
+		}
+
+		/**
+		 * @param key				Key of this evaluation
+		 * @param prev				Evaluation of the mutations before the
+		 * 							change; null to evaluate all drugs
+		 * @param changedPositions	Positions of the changed mutations
+		 * @param asiMutations		Prepared ASI-compatible mutations; null
+		 * 							to convert the mutations of this evaluation
+		 */
+		@SuppressWarnings("unchecked")
+		private Evaluation(
+			EvaluationKey key, Evaluation<VirusT> prev,
+			Set<Integer> changedPositions, ASIMutations<VirusT> asiMutations
+		) {
+			gene = (Gene<VirusT>) key.gene;
+			mutations = (MutationSet<VirusT>) key.mutations;
+			algorithm = (DrugResistanceAlgorithm<VirusT>) key.algorithm;
+			this.asiMutations = asiMutations;
+			// only drugs with rules referencing the changed positions need
+			// to be re-evaluated
+			Predicate<String> isAffected = (
+				prev == null ? drugName -> true :
+				drugName -> {
+					Set<Integer> positions = algorithm.getCompiled().getDrugPositions(drugName);
+					return positions == null || !Collections.disjoint(positions, changedPositions);
+				}
+			);
+			SortedSet<ASIDrugSusc<VirusT>> nativeDrugSuscs = (
+				ASIResultHandler.evaluateDrugSuscsNatively(gene, mutations, algorithm, isAffected)
+			);
+			if (nativeDrugSuscs == null) {
+				evalGene = evaluateByASI();
+				drugSuscs = Collections.unmodifiableSortedSet(
+					ASIResultHandler.extractDrugSuscs(gene, evalGene, algorithm));
+			}
+			else {
+				if (prev != null) {
+					for (ASIDrugSusc<VirusT> drugSusc : prev.drugSuscs) {
+						if (!isAffected.test(drugSusc.getDrug().getName())) {
+							nativeDrugSuscs.add(drugSusc);
+						}
+					}
+				}
+				// the ASI interpreter is only needed for comments
+				drugSuscs = Collections.unmodifiableSortedSet(nativeDrugSuscs);
+			}
+		}
+
+		private EvaluatedGene evaluateByASI() {
+			List<String> selected = asiMutations == null ? null : asiMutations.select(mutations);
+			if (selected == null) {
+				return ASIResultHandler.evalutateGeneMutations(gene, mutations, algorithm);
+			}
+			return ASIResultHandler.evaluateASIMutations(gene, selected, algorithm);
+		}
+
+		private EvaluatedGene getEvaluatedGene() {
+			if (evalGene == null) {
+				synchronized (this) {
+					if (evalGene == null) {
+						evalGene = evaluateByASI();
+					}
+				}
+			}
+			return evalGene;
+		}
+	}
+
+	/**
+	 * Returns the cache of ASI evaluations. GeneDR objects of the same gene,
+	 * algorithm and (filtered) mutations share one evaluation. The max size
+	 * is configured by the environment variable SIERRA_GENEDR_CACHE_SIZE
+	 * (default: 10000; 0 disables the cache).
+	 *
+	 * @return BoundedMemoizer
+	 */
+	public static BoundedMemoizer<?, ?> getEvaluationCache() {
+		return evaluations;
+	}
+
 	public static <VirusT extends Virus<VirusT>> SortedMap<Gene<VirusT>, GeneDR<VirusT>> newFromAlignedGeneSeqs(
 		List<AlignedGeneSeq<VirusT>> alignedGeneSeqs, DrugResistanceAlgorithm<VirusT> algorithm
 	) {
-		return alignedGeneSeqs
-			.parallelStream()
+		return SharedExecutor
+			.invokeAll(
+				alignedGeneSeqs,
+				geneSeq -> new GeneDR<>(geneSeq.getGene(), geneSeq.getMutations(), algorithm)
+			)
+			.stream()
 			.collect(Collectors.toMap(
-				geneSeq -> geneSeq.getGene(),
-				geneSeq -> new GeneDR<>(geneSeq.getGene(), geneSeq.getMutations(), algorithm),
+				geneDR -> geneDR.getGene(),
+				geneDR -> geneDR,
 				(g1, g2) -> g1,
 				TreeMap::new
 			));
@@ -80,11 +285,15 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	public static <VirusT extends Virus<VirusT>> SortedMap<Gene<VirusT>, GeneDR<VirusT>> newFromGeneSequenceReads(
 		List<GeneSequenceReads<VirusT>> allGeneSeqReads, DrugResistanceAlgorithm<VirusT> algorithm
 	) {
-		return allGeneSeqReads
-			.parallelStream()
+		return SharedExecutor
+			.invokeAll(
+				allGeneSeqReads,
+				geneReads -> new GeneDR<>(geneReads.getGene(), geneReads.getMutations(), algorithm)
+			)
+			.stream()
 			.collect(Collectors.toMap(
-				geneReads -> geneReads.getGene(),
-				geneReads -> new GeneDR<>(geneReads.getGene(), geneReads.getMutations(), algorithm),
+				geneDR -> geneDR.getGene(),
+				geneDR -> geneDR,
 				(r1, r2) -> r1,
 				TreeMap::new
 			));
@@ -93,14 +302,33 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	public static <VirusT extends Virus<VirusT>> SortedMap<MutationSet<VirusT>, GeneDR<VirusT>> newFromMutationSets(
 		Gene<VirusT> gene, Set<MutationSet<VirusT>> allMuts, DrugResistanceAlgorithm<VirusT> algorithm
 	) {
-		return allMuts
-			.parallelStream()
-			.collect(Collectors.toMap(
-				muts -> muts,
-				muts -> new GeneDR<>(gene, muts, algorithm),
-				(m1, m2) -> m1,
-				TreeMap::new
-			));
+		List<MutationSet<VirusT>> mutsList = new ArrayList<>(allMuts);
+		List<GeneDR<VirusT>> geneDRs = SharedExecutor.invokeAll(
+			mutsList, muts -> new GeneDR<>(gene, muts, algorithm));
+		SortedMap<MutationSet<VirusT>, GeneDR<VirusT>> results = new TreeMap<>();
+		for (int i = 0; i < mutsList.size(); i ++) {
+			results.putIfAbsent(mutsList.get(i), geneDRs.get(i));
+		}
+		return results;
+	}
+
+	/**
+	 * Evaluates the mutations of a gene by multiple algorithms in parallel.
+	 * The mutations are filtered and converted to ASI-compatible strings
+	 * once; the strings are shared by the ASI evaluations of all algorithms.
+	 *
+	 * @param gene			Gene of mutations
+	 * @param mutations		Mutations of the gene
+	 * @param algorithms	Algorithms
+	 * @return				List of GeneDR in the order of algorithms
+	 */
+	public static <VirusT extends Virus<VirusT>> List<GeneDR<VirusT>> newFromAlgorithms(
+		Gene<VirusT> gene, MutationSet<VirusT> mutations, Collection<DrugResistanceAlgorithm<VirusT>> algorithms
+	) {
+		MutationSet<VirusT> evaluableMuts = filterEvaluableMutations(mutations);
+		ASIMutations<VirusT> asiMutations = ASIMutations.prepare(gene, evaluableMuts);
+		return SharedExecutor.invokeAll(
+			algorithms, alg -> new GeneDR<>(evaluableMuts, gene, alg, asiMutations));
 	}
 
 	public GeneDR(Gene<VirusT> gene, AlignedGeneSeq<VirusT> seq, DrugResistanceAlgorithm<VirusT> algorithm) {
@@ -108,18 +336,170 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	}
 
 	public GeneDR(Gene<VirusT> gene, MutationSet<VirusT> mutations, DrugResistanceAlgorithm<VirusT> algorithm) {
-		mutations = new MutationSet<>(
+		this(filterEvaluableMutations(mutations), gene, algorithm);
+	}
+
+	private GeneDR(MutationSet<VirusT> mutations, Gene<VirusT> gene, DrugResistanceAlgorithm<VirusT> algorithm) {
+		this(mutations, gene, algorithm, null);
+	}
+
+	private GeneDR(
+		MutationSet<VirusT> mutations, Gene<VirusT> gene,
+		DrugResistanceAlgorithm<VirusT> algorithm, ASIMutations<VirusT> asiMutations
+	) {
+		this.gene = gene;
+		this.mutations = mutations;
+		this.algorithm = algorithm;
+		// only mutations referenced by the algorithm are evaluated; sequences
+		// differing only in other mutations share the same evaluation
+		evaluation = getEvaluation(
+			gene, algorithm.filterRelevantMutations(gene, mutations), algorithm,
+			key -> new Evaluation<>(key, null, Collections.emptySet(), asiMutations));
+		drugSuscs = evaluation.drugSuscs;
+	}
+
+	private GeneDR(GeneDR<VirusT> prev, MutationSet<VirusT> mutations, Set<Integer> changedPositions) {
+		this.gene = prev.gene;
+		this.mutations = filterEvaluableMutations(mutations);
+		this.algorithm = prev.algorithm;
+		MutationSet<VirusT> relevantMuts = algorithm.filterRelevantMutations(gene, this.mutations);
+		if (relevantMuts.equals(prev.evaluation.mutations)) {
+			// the change doesn't affect any rule
+			evaluation = prev.evaluation;
+		}
+		else if (gene.getMainStrainGene() != gene) {
+			// rules use the positions of main strain
+			evaluation = getEvaluation(gene, relevantMuts, algorithm);
+		}
+		else {
+			evaluation = getEvaluation(
+				gene, relevantMuts, algorithm,
+				key -> new Evaluation<>(key, prev.evaluation, changedPositions, null));
+		}
+		drugSuscs = evaluation.drugSuscs;
+	}
+
+	/**
+	 * Returns the drug resistance of the mutations of this object plus given
+	 * mutation. If the mutation is not referenced by any rule of the
+	 * algorithm, the evaluation of this object is reused.
+	 *
+	 * Per-drug re-evaluation is only available with the native evaluator
+	 * (SIERRA_ASI_EVALUATOR=native) and for genes supported by it: only the
+	 * drugs whose rules reference the position of given mutation are
+	 * re-evaluated and the other drug susceptibilities are reused. The ASI
+	 * interpreter (the default) can only evaluate a gene as a whole, so
+	 * otherwise all drugs are re-evaluated and this method costs as much
+	 * as creating a new GeneDR object.
+	 *
+	 * @param mutation	Mutation to be added; merged with the existing mutation
+	 * 					at the same position
+	 * @return			new GeneDR object
+	 */
+	public GeneDR<VirusT> withMutationAdded(Mutation<VirusT> mutation) {
+		AssertUtils.isTrue(
+			mutation.getGene() == gene,
+			"The input mutation %s is for gene %s, but this GeneDR object is for %s",
+			mutation, mutation.getGene(), gene
+		);
+		return new GeneDR<>(
+			this, mutations.mergesWith(mutation),
+			Collections.singleton(mutation.getPosition()));
+	}
+
+	/**
+	 * Returns the drug resistance of the mutations of this object minus given
+	 * mutation. Same as {@link #withMutationAdded(Mutation)}, the drugs are
+	 * re-evaluated individually only with the native evaluator; with the
+	 * ASI interpreter (the default) all drugs are re-evaluated unless the
+	 * mutation is not referenced by any rule.
+	 *
+	 * @param mutation	Mutation to be removed
+	 * @return			new GeneDR object
+	 */
+	public GeneDR<VirusT> withMutationRemoved(Mutation<VirusT> mutation) {
+		AssertUtils.isTrue(
+			mutation.getGene() == gene,
+			"The input mutation %s is for gene %s, but this GeneDR object is for %s",
+			mutation, mutation.getGene(), gene
+		);
+		return new GeneDR<>(
+			this, mutations.subtractsBy(mutation),
+			Collections.singleton(mutation.getPosition()));
+	}
+
+	/**
+	 * Evaluates a series of mutation sets of a gene, e.g. the mutations of
+	 * NGS reads at ascending prevalence cutoffs. Each result is derived from
+	 * the previous one: an identical set shares the previous GeneDR object,
+	 * and a set which differs only in mutations not referenced by any rule
+	 * shares the previous evaluation. Evaluations of the same mutations are
+	 * shared through {@link #getEvaluationCache()}.
+	 *
+	 * Only with the native evaluator (SIERRA_ASI_EVALUATOR=native), the
+	 * drugs whose rules don't reference a changed position keep their
+	 * previous results and the other drugs are re-evaluated. With the ASI
+	 * interpreter (the default) every changed set is evaluated as a whole.
+	 *
+	 * @param gene				Gene of mutations
+	 * @param mutationSeries	Mutation sets, ordered
+	 * @param algorithm			Algorithm
+	 * @return					List of GeneDR in the order of mutationSeries
+	 */
+	public static <VirusT extends Virus<VirusT>> List<GeneDR<VirusT>> newFromMutationSeries(
+		Gene<VirusT> gene, List<MutationSet<VirusT>> mutationSeries, DrugResistanceAlgorithm<VirusT> algorithm
+	) {
+		List<GeneDR<VirusT>> results = new ArrayList<>();
+		MutationSet<VirusT> prevMuts = null;
+		GeneDR<VirusT> prevGeneDR = null;
+		for (MutationSet<VirusT> mutations : mutationSeries) {
+			if (prevGeneDR == null) {
+				prevGeneDR = new GeneDR<>(gene, mutations, algorithm);
+			}
+			else if (mutations != prevMuts && !mutations.equals(prevMuts)) {
+				Set<Integer> changedPositions = new TreeSet<>();
+				for (Mutation<VirusT> mut : mutations.subtractsBy(prevMuts)) {
+					changedPositions.add(mut.getPosition());
+				}
+				for (Mutation<VirusT> mut : prevMuts.subtractsBy(mutations)) {
+					changedPositions.add(mut.getPosition());
+				}
+				prevGeneDR = new GeneDR<>(prevGeneDR, mutations, changedPositions);
+			}
+			prevMuts = mutations;
+			results.add(prevGeneDR);
+		}
+		return results;
+	}
+
+	private static <VirusT extends Virus<VirusT>> MutationSet<VirusT> filterEvaluableMutations(
+		MutationSet<VirusT> mutations
+	) {
+		return new MutationSet<>(
 			mutations.stream()
 			.filter(mut -> !mut.isUnsequenced())
 			.filter(mut -> !mut.isAmbiguousWithoutBDHVN())
 			.collect(Collectors.toList())
 		);
-		this.gene = gene;
-		this.mutations = mutations;
-		this.algorithm = algorithm;
-		evalGene = ASIResultHandler.evalutateGeneMutations(gene, mutations, algorithm);
-		drugSuscs = ASIResultHandler.extractDrugSuscs(gene, evalGene, algorithm);
-		
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> Evaluation<VirusT> getEvaluation(
+		Gene<VirusT> gene, MutationSet<VirusT> mutations, DrugResistanceAlgorithm<VirusT> algorithm
+	) {
+		return (Evaluation<VirusT>) evaluations.get(new EvaluationKey(gene, algorithm, mutations));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> Evaluation<VirusT> getEvaluation(
+		Gene<VirusT> gene, MutationSet<VirusT> mutations, DrugResistanceAlgorithm<VirusT> algorithm,
+		Function<EvaluationKey, Evaluation<VirusT>> computable
+	) {
+		return (Evaluation<VirusT>) evaluations.get(new EvaluationKey(gene, algorithm, mutations), computable);
+	}
+
+	private EvaluatedGene getEvaluatedGene() {
+		return evaluation.getEvaluatedGene();
 	}
 
 	public final Gene<VirusT> getGene() { return gene; }
@@ -139,14 +519,14 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 		List<BoundComment<VirusT>> comments = (
 			ASIResultHandler.extractMutationComments(
 				virusIns,
-				(Collection<?>) evalGene.getGeneCommentDefinitions(),
+				(Collection<?>) getEvaluatedGene().getGeneCommentDefinitions(),
 				getMutations()
 			)
 		);
 		comments.addAll(
 			ASIResultHandler.extractDrugLevelComments(
 				virusIns,
-				evalGene.getEvaluatedResultCommentRules()
+				getEvaluatedGene().getEvaluatedResultCommentRules()
 			)
 		);
 		return comments;
@@ -229,7 +609,7 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	public final SortedSet<MutationSet<VirusT>> getScoredMutations() {
 		return (
 			drugSuscs
-			.parallelStream()
+			.stream()
 			.flatMap(ds -> ds.getPartialScores().keySet().stream())
 			.collect(Collectors.toCollection(TreeSet::new))
 		);
@@ -238,7 +618,7 @@ public class GeneDR<VirusT extends Virus<VirusT>> {
 	public final SortedSet<MutationSet<VirusT>> getScoredMutations(Predicate<? super ASIDrugSusc<VirusT>> predicate) {
 		return (
 			drugSuscs
-			.parallelStream()
+			.stream()
 			.filter(predicate)
 			.flatMap(ds -> ds.getPartialScores().keySet().stream())
 			.collect(Collectors.toCollection(TreeSet::new))
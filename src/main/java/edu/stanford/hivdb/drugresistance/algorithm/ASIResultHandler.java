@@ -21,6 +21,7 @@ package edu.stanford.hivdb.drugresistance.algorithm;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,8 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -72,6 +75,43 @@ public class ASIResultHandler {
 		return virusIns.getDrug(drugName);
 	}
 	
+	/**
+	 * A scored item of a score rule: the score and the mutations
+	 * (of the target strain) which triggered the score.
+	 */
+	static class ScoredMutations<T extends Virus<T>> {
+		private final Double score;
+		private final MutationSet<T> mutations;
+
+		ScoredMutations(Double score, MutationSet<T> mutations) {
+			this.score = score;
+			this.mutations = mutations;
+		}
+	}
+
+	/**
+	 * The evaluated result of a rule condition of a drug, produced either by
+	 * the ASI interpreter or by {@link NativeASIEvaluator}.
+	 */
+	static class EvaluatedRule<T extends Virus<T>> {
+		// Double for score rules, Boolean for level rules
+		private final Object result;
+		private final String statement;
+		private final int numScoredItems;
+		// scored items are only converted when needed
+		private final Supplier<List<ScoredMutations<T>>> scoredItems;
+
+		EvaluatedRule(
+			Object result, String statement, int numScoredItems,
+			Supplier<List<ScoredMutations<T>>> scoredItems
+		) {
+			this.result = result;
+			this.statement = statement;
+			this.numScoredItems = numScoredItems;
+			this.scoredItems = scoredItems;
+		}
+	}
+
 	public final static <T extends Virus<T>> ASIDrugSusc<T> extractDrugSusc(
 		T virusIns,
 		Gene<T> targetGene,
@@ -83,27 +123,68 @@ public class ASIResultHandler {
 		
 		String drugName = evalDrug.getDrug().toString();
 		Drug<T> drug = virusIns.getDrug(drugName);
-		Map<String, MutationSet<T>> gpMutations = new TreeMap<>();
-		Map<String, Double> gpPartialScores = new HashMap<>();
 
 		if (drug == null) {
 			// skip unknown drug
 			return null;
 		}
 
+		List<EvaluatedRule<T>> evalRules = new ArrayList<>();
+		for(Object condObj : evalDrug.getEvaluatedConditions()) {
+			EvaluatedCondition evalCond = (EvaluatedCondition) condObj;
+			Object evaluatedResult = evalCond.getEvaluator().getResult();
+			String statement = evalCond.getRuleCondition().toString();
+			Collection<?> scoredItemObjs = (
+				evaluatedResult instanceof Double ?
+				evalCond.getEvaluator().getScoredItems() :
+				Collections.emptyList()
+			);
+			evalRules.add(new EvaluatedRule<>(
+				evaluatedResult, statement, scoredItemObjs.size(),
+				() -> {
+					List<ScoredMutations<T>> scoredItems = new ArrayList<>();
+					for (Object scoredItemObj : scoredItemObjs) {
+						ScoredItem scoredItem = (ScoredItem) scoredItemObj;
+
+						Set<?> muts = scoredItem.getMutations();
+						MutationSet<T> mutations = MutationSet.parseString(
+							srcGene, muts.stream()
+							.map(m -> "__ASI__" + ((String) m))
+							.collect(Collectors.toSet()))
+							.displayAmbiguities();
+						// use modifyMutationSet to convert all ASI-compat mutations back
+						mutations = strainModifier.modifyMutationSet(srcGene, targetGene, mutations);
+						scoredItems.add(new ScoredMutations<>(scoredItem.getScore(), mutations));
+					}
+					return scoredItems;
+				}
+			));
+		}
+
 		LevelDefinition levelDef = evalDrug.getHighestLevelDefinition();
+		return buildDrugSusc(
+			drug, algorithm, evalRules,
+			levelDef == null ? 1 : levelDef.getOrder(),
+			levelDef == null ? algorithm.getOriginalLevelText() : levelDef.getText(),
+			levelDef == null ? algorithm.getOriginalLevelSIR() : SIREnum.valueOf(levelDef.getSir())
+		);
+	}
+
+	static <T extends Virus<T>> ASIDrugSusc<T> buildDrugSusc(
+		Drug<T> drug,
+		DrugResistanceAlgorithm<T> algorithm,
+		List<EvaluatedRule<T>> evalRules,
+		int level, String levelText, SIREnum sir
+	) {
+		Map<String, MutationSet<T>> gpMutations = new TreeMap<>();
+		Map<String, Double> gpPartialScores = new HashMap<>();
 		Double highestTotalScore = Double.NEGATIVE_INFINITY;
 		String ruleStatement = "";
 		boolean isTriggered = false;
 
-		for(Object condObj : evalDrug.getEvaluatedConditions()) {
-			EvaluatedCondition evalCond = (EvaluatedCondition) condObj;
-			Object evaluatedResult = evalCond.getEvaluator().getResult();
-			String tmpRuleStatement = (
-				evalCond
-				.getRuleCondition().toString()
-				.replaceAll("\\s+", " ")
-			);
+		for (EvaluatedRule<T> evalRule : evalRules) {
+			Object evaluatedResult = evalRule.result;
+			String tmpRuleStatement = evalRule.statement.replaceAll("\\s+", " ");
 			if (evaluatedResult instanceof Double) {
 				// score rules available
 				Double totalScore = (Double) evaluatedResult;
@@ -111,24 +192,14 @@ public class ASIResultHandler {
 				if (totalScore <= highestTotalScore) {
 					continue;
 				}
-				Collection<?> scoredItemObjs = evalCond.getEvaluator().getScoredItems();
-				if (scoredItemObjs.size() > 0) {
+				if (evalRule.numScoredItems > 0) {
 					isTriggered = true;
 					highestTotalScore = totalScore;
 					ruleStatement = tmpRuleStatement;
 				}
 
-				for (Object scoredItemObj : scoredItemObjs) {
-					ScoredItem scoredItem = (ScoredItem) scoredItemObj;
-
-					Set<?> muts = scoredItem.getMutations();
-					MutationSet<T> mutations = MutationSet.parseString(
-						srcGene, muts.stream()
-						.map(m -> "__ASI__" + ((String) m))
-						.collect(Collectors.toSet()))
-						.displayAmbiguities();
-					// use modifyMutationSet to convert all ASI-compat mutations back
-					mutations = strainModifier.modifyMutationSet(srcGene, targetGene, mutations);
+				for (ScoredMutations<T> scoredItem : evalRule.scoredItems.get()) {
+					MutationSet<T> mutations = scoredItem.mutations;
 
 					// aggregate scores by positions instead of mutations
 					String gpKey = StringUtils.join(mutations.getPositions(), "+");
@@ -136,7 +207,7 @@ public class ASIResultHandler {
 					mutations = mutations.mergesWith(prevMuts);
      
 					gpMutations.put(gpKey, mutations);
-					Double newScore = scoredItem.getScore();
+					Double newScore = scoredItem.score;
 					if (Math.abs(newScore) > 1e-5) {
 						gpPartialScores.put(
 							gpKey,
@@ -177,9 +248,9 @@ public class ASIResultHandler {
 			drug,
 			algorithm,
 			highestTotalScore == Double.NEGATIVE_INFINITY ? 0 : highestTotalScore,
-			levelDef == null ? 1 : levelDef.getOrder(),
-			levelDef == null ? algorithm.getOriginalLevelText() : levelDef.getText(),
-			levelDef == null ? algorithm.getOriginalLevelSIR() : SIREnum.valueOf(levelDef.getSir()),
+			level,
+			levelText,
+			sir,
 			partialScores,
 			ruleStatement,
 			isTriggered
@@ -198,17 +269,55 @@ public class ASIResultHandler {
 		List<String> asiMutations = strainModifier.modifyMutationSet(
 			srcGene, targetGene, mutations
 		).toASIFormat();
+		validateASIMutations(asiMutations);
+		return evaluateASIMutations(srcGene, asiMutations, algorithm);
+	}
 
-		org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene asiGene = algorithm.getASIGene(srcGene);
+	/**
+	 * Checks if given ASI-compatible mutation strings can be evaluated.
+	 *
+	 * @param asiMutations	ASI-compatible mutation strings
+	 * @return				true if all mutations are valid
+	 */
+	public final static boolean areASIMutationsValid(List<String> asiMutations) {
+		return new StringMutationComparator(false).areMutationsValid(asiMutations);
+	}
 
-		MutationComparator mutationComparator = new StringMutationComparator(false);
-		if (!mutationComparator.areMutationsValid(asiMutations)){
+	/**
+	 * Throws an exception if any of given ASI-compatible mutation strings
+	 * can not be evaluated.
+	 *
+	 * @param asiMutations	ASI-compatible mutation strings
+	 */
+	public final static void validateASIMutations(List<String> asiMutations) {
+		if (!areASIMutationsValid(asiMutations)){
 			throw new RuntimeException(
 				String.format("Invalid list of mutations: %s",
 				asiMutations.toString()
 			));
 		}
+	}
+
+	/**
+	 * Evaluates ASI-compatible mutation strings which were converted to
+	 * main strain positions and validated, e.g. by
+	 * {@link #validateASIMutations(List)}. The strings are independent of
+	 * the algorithm, so they can be prepared once and shared by multiple
+	 * algorithms.
+	 *
+	 * @param srcGene		Gene of the mutations
+	 * @param asiMutations	Validated ASI-compatible mutation strings
+	 * @param algorithm		Algorithm
+	 * @return				EvaluatedGene
+	 */
+	public final static <T extends Virus<T>> EvaluatedGene evaluateASIMutations(
+		Gene<T> srcGene,
+		List<String> asiMutations,
+		DrugResistanceAlgorithm<T> algorithm
+	) {
+		org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene asiGene = algorithm.getASIGene(srcGene);
 
+		MutationComparator mutationComparator = new StringMutationComparator(false);
 		try {
 			return asiGene.evaluate(asiMutations, mutationComparator);
 		}
@@ -217,6 +326,33 @@ public class ASIResultHandler {
 		}
 	}
 
+	/**
+	 * Evaluates the drug susceptibilities of given gene mutations by
+	 * {@link NativeASIEvaluator}.
+	 *
+	 * @return SortedSet of ASIDrugSusc; or null if the native evaluator is
+	 * not enabled or doesn't support the gene or mutations
+	 */
+	public final static <T extends Virus<T>> SortedSet<ASIDrugSusc<T>> evaluateDrugSuscsNatively(
+		Gene<T> gene,
+		MutationSet<T> mutations,
+		DrugResistanceAlgorithm<T> algorithm
+	) {
+		return evaluateDrugSuscsNatively(gene, mutations, algorithm, drugName -> true);
+	}
+
+	public final static <T extends Virus<T>> SortedSet<ASIDrugSusc<T>> evaluateDrugSuscsNatively(
+		Gene<T> gene,
+		MutationSet<T> mutations,
+		DrugResistanceAlgorithm<T> algorithm,
+		Predicate<String> drugFilter
+	) {
+		if (!NativeASIEvaluator.isEnabled() || !algorithm.hasAbstractGene(gene.getAbstractGene())) {
+			return null;
+		}
+		return algorithm.getCompiled().getNativeEvaluator().evaluate(gene, mutations, algorithm, drugFilter);
+	}
+
 	public final static <T extends Virus<T>> SortedSet<ASIDrugSusc<T>> extractDrugSuscs(
 		Gene<T> targetGene, EvaluatedGene evaluatedGene, DrugResistanceAlgorithm<T> algorithm
 	) {
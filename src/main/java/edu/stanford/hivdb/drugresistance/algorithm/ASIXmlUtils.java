@@ -0,0 +1,105 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.drugresistance.algorithm;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * DOM helpers for reading ASI XML text outside of the ASI interpreter.
+ */
+final class ASIXmlUtils {
+
+	private ASIXmlUtils() {}
+
+	/**
+	 * Parses ASI XML text. The DTD (e.g. ASI2.dtd) and any external entity
+	 * are never loaded, so that parsing works offline and user-supplied
+	 * XML can not read local files or make network requests.
+	 */
+	static Document parse(String xmlText) {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			factory.setXIncludeAware(false);
+			factory.setExpandEntityReferences(false);
+			return factory.newDocumentBuilder().parse(
+				new ByteArrayInputStream(xmlText.getBytes(StandardCharsets.UTF_8)));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns all descendant elements of given tag name.
+	 */
+	static List<Element> getElements(Element parent, String tagName) {
+		List<Element> elems = new ArrayList<>();
+		NodeList nodes = parent.getElementsByTagName(tagName);
+		for (int i = 0; i < nodes.getLength(); i ++) {
+			elems.add((Element) nodes.item(i));
+		}
+		return elems;
+	}
+
+	/**
+	 * Returns the trimmed text of the first child element of given tag name;
+	 * null if no such element.
+	 */
+	static String getChildText(Element parent, String tagName) {
+		NodeList nodes = parent.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i ++) {
+			Node node = nodes.item(i);
+			if (node instanceof Element && ((Element) node).getTagName().equals(tagName)) {
+				return node.getTextContent().trim();
+			}
+		}
+		return null;
+	}
+
+	static List<String> splitList(String text) {
+		List<String> items = new ArrayList<>();
+		if (text == null) {
+			return items;
+		}
+		for (String item : text.split(",")) {
+			item = item.trim();
+			if (!item.isEmpty()) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
+
+}
@@ -22,10 +22,11 @@ package edu.stanford.hivdb.drugresistance.algorithm;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import edu.stanford.hivdb.drugresistance.GeneDR;
 import edu.stanford.hivdb.viruses.Gene;
@@ -39,28 +40,34 @@ public class AlgorithmComparison<VirusT extends Virus<VirusT>> {
 		MutationSet<VirusT> mutations,
 		Collection<DrugResistanceAlgorithm<VirusT>> algorithms
 	) {
-		return algorithms
-			.stream()
-			.map(alg -> new GeneDR<>(gene, mutations, alg))
-			.collect(Collectors.toList());
+		return GeneDR.newFromAlgorithms(gene, mutations, algorithms);
 	}
 
 	private final Collection<DrugResistanceAlgorithm<VirusT>> algorithms;
 	private final List<ASIDrugSusc<VirusT>> comparisonResults = new ArrayList<>();
 	private final transient Map<Gene<VirusT>, List<GeneDR<VirusT>>> geneDRMap;
+	private transient ComparisonMatrix<VirusT> comparisonMatrix;
 
 	public List<ASIDrugSusc<VirusT>> getComparisonResults() { return comparisonResults; }
 
+	/**
+	 * Evaluates all mutations by given algorithms. Duplicated algorithms
+	 * are evaluated only once.
+	 *
+	 * @param allMutations	Mutations of all genes
+	 * @param algorithms	Algorithms to be compared
+	 */
 	public AlgorithmComparison (
 		MutationSet<VirusT> allMutations,
 		Collection<DrugResistanceAlgorithm<VirusT>> algorithms
 	) {
-		this.algorithms = algorithms;
+		this.algorithms = Collections.unmodifiableList(
+			new ArrayList<>(new LinkedHashSet<>(algorithms)));
 		this.geneDRMap = new LinkedHashMap<>();
 		Map<Gene<VirusT>, MutationSet<VirusT>> mutationsByGroup = allMutations.groupByGene();
 		for (Gene<VirusT> gene : mutationsByGroup.keySet()) {
 			final MutationSet<VirusT> mutations = mutationsByGroup.get(gene);
-			geneDRMap.put(gene, calcGeneDRFromAlgorithms(gene, mutations, algorithms));
+			geneDRMap.put(gene, calcGeneDRFromAlgorithms(gene, mutations, this.algorithms));
 			compareResults(gene);
 		}
 	}
@@ -71,6 +78,16 @@ public class AlgorithmComparison<VirusT extends Virus<VirusT>> {
 		}
 	}
 
+	/**
+	 * @return drug x algorithm matrix of the comparison results
+	 */
+	public ComparisonMatrix<VirusT> getComparisonMatrix() {
+		if (comparisonMatrix == null) {
+			comparisonMatrix = new ComparisonMatrix<>(algorithms, comparisonResults);
+		}
+		return comparisonMatrix;
+	}
+
 	public List<GeneDR<VirusT>> getGeneDR(Gene<VirusT> gene) {
 		return this.geneDRMap.get(gene);
 	}
@@ -0,0 +1,169 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.drugresistance.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import edu.stanford.hivdb.drugs.Drug;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Drug susceptibilities of a comparison in columnar form: a drug (row) x
+ * algorithm (column) grid of scores, levels, level texts and SIRs.
+ *
+ * Cells without a result have a NaN score, a zero level and null level
+ * text and SIR. Duplicated algorithms are merged into one column.
+ */
+public class ComparisonMatrix<VirusT extends Virus<VirusT>> {
+
+	private final List<Drug<VirusT>> drugs;
+	private final List<DrugResistanceAlgorithm<VirusT>> algorithms;
+	private final Map<Drug<VirusT>, Integer> drugIndice = new HashMap<>();
+	private final Map<DrugResistanceAlgorithm<VirusT>, Integer> algorithmIndice = new IdentityHashMap<>();
+	// double[drug][algorithm], etc.
+	private final double[] scores;
+	private final int[] levels;
+	private final String[] levelTexts;
+	private final SIREnum[] sirs;
+
+	public ComparisonMatrix(
+		Collection<DrugResistanceAlgorithm<VirusT>> algorithms,
+		Collection<ASIDrugSusc<VirusT>> drugSuscs
+	) {
+		TreeSet<Drug<VirusT>> drugSet = new TreeSet<>();
+		for (ASIDrugSusc<VirusT> drugSusc : drugSuscs) {
+			drugSet.add(drugSusc.getDrug());
+		}
+		this.drugs = Collections.unmodifiableList(new ArrayList<>(drugSet));
+		this.algorithms = Collections.unmodifiableList(
+			new ArrayList<>(new LinkedHashSet<>(algorithms)));
+		for (Drug<VirusT> drug : this.drugs) {
+			drugIndice.put(drug, drugIndice.size());
+		}
+		for (DrugResistanceAlgorithm<VirusT> algorithm : this.algorithms) {
+			algorithmIndice.put(algorithm, algorithmIndice.size());
+		}
+		int size = this.drugs.size() * this.algorithms.size();
+		scores = new double[size];
+		levels = new int[size];
+		levelTexts = new String[size];
+		sirs = new SIREnum[size];
+		Arrays.fill(scores, Double.NaN);
+		for (ASIDrugSusc<VirusT> drugSusc : drugSuscs) {
+			int idx = indexOf(drugSusc.getDrug(), drugSusc.getAlgorithmObj());
+			if (idx < 0) {
+				continue;
+			}
+			scores[idx] = drugSusc.getScore();
+			levels[idx] = drugSusc.getLevel();
+			levelTexts[idx] = drugSusc.getLevelText();
+			sirs[idx] = drugSusc.getSIR();
+		}
+	}
+
+	private int indexOf(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		Integer drugIdx = drugIndice.get(drug);
+		Integer algIdx = algorithmIndice.get(algorithm);
+		if (drugIdx == null || algIdx == null) {
+			return -1;
+		}
+		return drugIdx * algorithms.size() + algIdx;
+	}
+
+	public List<Drug<VirusT>> getDrugs() { return drugs; }
+
+	public List<DrugResistanceAlgorithm<VirusT>> getAlgorithms() { return algorithms; }
+
+	public boolean hasResult(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		int idx = indexOf(drug, algorithm);
+		return idx > -1 && levelTexts[idx] != null;
+	}
+
+	public double getScore(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		int idx = indexOf(drug, algorithm);
+		return idx < 0 ? Double.NaN : scores[idx];
+	}
+
+	public int getLevel(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		int idx = indexOf(drug, algorithm);
+		return idx < 0 ? 0 : levels[idx];
+	}
+
+	public String getLevelText(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		int idx = indexOf(drug, algorithm);
+		return idx < 0 ? null : levelTexts[idx];
+	}
+
+	public SIREnum getSIR(Drug<VirusT> drug, DrugResistanceAlgorithm<VirusT> algorithm) {
+		int idx = indexOf(drug, algorithm);
+		return idx < 0 ? null : sirs[idx];
+	}
+
+	/**
+	 * @return scores of given drug, in the order of {@link #getAlgorithms()}
+	 */
+	public double[] getScores(Drug<VirusT> drug) {
+		Integer drugIdx = drugIndice.get(drug);
+		if (drugIdx == null) {
+			return new double[0];
+		}
+		int offset = drugIdx * algorithms.size();
+		return Arrays.copyOfRange(scores, offset, offset + algorithms.size());
+	}
+
+	/**
+	 * @return levels of given drug, in the order of {@link #getAlgorithms()}
+	 */
+	public int[] getLevels(Drug<VirusT> drug) {
+		Integer drugIdx = drugIndice.get(drug);
+		if (drugIdx == null) {
+			return new int[0];
+		}
+		int offset = drugIdx * algorithms.size();
+		return Arrays.copyOfRange(levels, offset, offset + algorithms.size());
+	}
+
+	/**
+	 * Checks if all algorithms yield the same level for given drug.
+	 *
+	 * @param drug	Drug
+	 * @return		true if the levels are identical
+	 */
+	public boolean isConcordant(Drug<VirusT> drug) {
+		int[] drugLevels = getLevels(drug);
+		for (int level : drugLevels) {
+			if (level != drugLevels[0]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
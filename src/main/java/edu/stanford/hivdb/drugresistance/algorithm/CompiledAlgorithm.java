@@ -0,0 +1,506 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.drugresistance.algorithm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.fstrf.stanfordAsiInterpreter.resistance.xml.XmlAsiTransformer;
+import org.w3c.dom.Element;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * An ASI algorithm which is parsed once and shared by all
+ * {@link DrugResistanceAlgorithm} objects of the same XML text.
+ *
+ * A compiled algorithm is identified by the SHA-512 hash of its XML text.
+ * Compiling an XML text runs the full ASI transformation, so that an
+ * invalid algorithm is rejected by {@link #compile(String)}, and the
+ * resulting gene map is kept. The XML text is then parsed only once more:
+ * the algorithm info (name, version, date and the original level), the
+ * relevant positions and the native rule engine are all read from that
+ * one DOM. The XML text is kept deflated.
+ *
+ * Compiled algorithms are cached in memory, and on disk if the environment
+ * variable SIERRA_ASI_CACHE_DIR is set. The on-disk cache stores the binary
+ * form (see {@link #write(OutputStream)}) as "{hash}.asi". It is written
+ * only after the XML was successfully transformed, so that later starts
+ * skip extracting the algorithm info and transform the already validated
+ * XML on first use of the gene map. The ASI gene definitions themselves
+ * are not serializable and are therefore not stored. Failing to write the
+ * on-disk cache only disables it.
+ */
+public class CompiledAlgorithm {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int MAGIC = 0x53415349;
+	private static final byte VERSION = 1;
+	private static final Pattern CONDITION_TOKEN_PATTERN = Pattern.compile(
+		"\\s*(=>|[(),]|-?\\d+(?:\\.\\d+)?(?![\\w.])|[A-Za-z]*\\d+[A-Za-z]*|[A-Za-z]+|\\S)");
+	private static final Pattern RESIDUE_PATTERN = Pattern.compile("^[A-Z]?(\\d+)[A-Za-z]+$");
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("^-?\\d+(?:\\.\\d+)?$");
+	private static final Set<String> CONDITION_KEYWORDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+		"AND", "OR", "NOT", "SELECT", "FROM", "ATLEAST", "EXACTLY", "NOTMORETHAN",
+		"ATMOST", "EXCLUDE", "MAX", "MIN", "SCORE", "=>", "(", ")", ",")));
+
+	private static final Cache<String, CompiledAlgorithm> compiledCache = (
+		CacheBuilder.newBuilder().softValues().build()
+	);
+
+	private final String hash;
+	private final String algName;
+	private final String algVersion;
+	private final String algDate;
+	private final String originalLevelText;
+	private final String originalLevelSIR;
+	private final byte[] deflatedXML;
+	private transient volatile Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> geneMap;
+	private transient volatile NativeASIEvaluator nativeEvaluator;
+	private transient volatile Map<String, Set<Integer>> relevantPositions;
+	private transient volatile Map<String, Set<Integer>> drugPositions;
+
+	private CompiledAlgorithm(
+		String hash, String algName, String algVersion, String algDate,
+		String originalLevelText, String originalLevelSIR, byte[] deflatedXML
+	) {
+		this.hash = hash;
+		this.algName = algName;
+		this.algVersion = algVersion;
+		this.algDate = algDate;
+		this.originalLevelText = originalLevelText;
+		this.originalLevelSIR = originalLevelSIR;
+		this.deflatedXML = deflatedXML;
+	}
+
+	/**
+	 * Returns the compiled algorithm of given XML text, from the in-memory
+	 * cache, the on-disk cache or by compiling the XML.
+	 *
+	 * @param xmlText	ASI XML text
+	 * @return			CompiledAlgorithm
+	 */
+	public static CompiledAlgorithm compile(String xmlText) {
+		String hash = DigestUtils.sha512Hex(xmlText);
+		try {
+			return compiledCache.get(hash, () -> {
+				File cacheFile = getCacheFile(hash);
+				if (cacheFile != null && cacheFile.exists()) {
+					try (InputStream input = new FileInputStream(cacheFile)) {
+						CompiledAlgorithm compiled = read(input);
+						if (compiled.hash.equals(hash)) {
+							return compiled;
+						}
+					} catch (IOException | IllegalArgumentException e) {
+						// corrupted cache file; compile again
+					}
+				}
+				CompiledAlgorithm compiled = compile(hash, xmlText);
+				if (cacheFile != null) {
+					writeCacheFile(compiled, cacheFile);
+				}
+				return compiled;
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof ExceptionInInitializerError) {
+				throw (ExceptionInInitializerError) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static CompiledAlgorithm compile(String hash, String xmlText) {
+		byte[] xmlBytes = xmlText.getBytes(StandardCharsets.UTF_8);
+		XmlAsiTransformer transformer = new XmlAsiTransformer(true);
+		Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> geneMap;
+		Element root;
+		try {
+			// the full transformation validates gene, drug and rule definitions
+			geneMap = transformer.transform(new ByteArrayInputStream(xmlBytes));
+			root = ASIXmlUtils.parse(xmlText).getDocumentElement();
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+		String originalLevelText = null;
+		String originalLevelSIR = null;
+		for (Element levelDef : ASIXmlUtils.getElements(root, "LEVEL_DEFINITION")) {
+			if ("1".equals(ASIXmlUtils.getChildText(levelDef, "ORDER"))) {
+				originalLevelText = ASIXmlUtils.getChildText(levelDef, "ORIGINAL");
+				originalLevelSIR = ASIXmlUtils.getChildText(levelDef, "SIR");
+				break;
+			}
+		}
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+		try (OutputStream output = new DeflaterOutputStream(deflated)) {
+			output.write(xmlBytes);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		CompiledAlgorithm compiled = new CompiledAlgorithm(
+			hash,
+			ASIXmlUtils.getChildText(root, "ALGNAME"),
+			ASIXmlUtils.getChildText(root, "ALGVERSION"),
+			ASIXmlUtils.getChildText(root, "ALGDATE"),
+			originalLevelText,
+			originalLevelSIR,
+			deflated.toByteArray());
+		compiled.geneMap = Collections.unmodifiableMap(geneMap);
+		compiled.prepareRules(root);
+		return compiled;
+	}
+
+	private static File getCacheFile(String hash) {
+		String cacheDir = System.getenv("SIERRA_ASI_CACHE_DIR");
+		if (cacheDir == null || cacheDir.isEmpty()) {
+			return null;
+		}
+		return new File(cacheDir, hash + ".asi");
+	}
+
+	private static void writeCacheFile(CompiledAlgorithm compiled, File cacheFile) {
+		Path target = cacheFile.getAbsoluteFile().toPath();
+		Path tmpFile = null;
+		try {
+			Files.createDirectories(target.getParent());
+			// write to a unique temporary file first so that a concurrent
+			// reader or writer never sees an incomplete file
+			tmpFile = Files.createTempFile(target.getParent(), cacheFile.getName(), ".tmp");
+			try (OutputStream output = Files.newOutputStream(tmpFile)) {
+				compiled.write(output);
+			}
+			Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to write compiled ASI algorithm cache {}: {}", cacheFile, e.toString());
+			if (tmpFile != null) {
+				try {
+					Files.deleteIfExists(tmpFile);
+				} catch (IOException e2) {
+					// nothing else to do
+				}
+			}
+		}
+	}
+
+	private static void writeNullableUTF(DataOutputStream out, String str) throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null) {
+			out.writeUTF(str);
+		}
+	}
+
+	private static String readNullableUTF(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Writes the binary form of this compiled algorithm.
+	 *
+	 * @param output	Output stream
+	 * @throws IOException
+	 */
+	public void write(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeUTF(hash);
+		writeNullableUTF(out, algName);
+		writeNullableUTF(out, algVersion);
+		writeNullableUTF(out, algDate);
+		writeNullableUTF(out, originalLevelText);
+		writeNullableUTF(out, originalLevelSIR);
+		out.writeInt(deflatedXML.length);
+		out.write(deflatedXML);
+		out.flush();
+	}
+
+	/**
+	 * Reads a compiled algorithm written by {@link #write(OutputStream)}.
+	 *
+	 * @param input	Input stream
+	 * @return		CompiledAlgorithm
+	 * @throws IOException
+	 */
+	public static CompiledAlgorithm read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		if (in.readInt() != MAGIC) {
+			throw new IllegalArgumentException("Not a compiled ASI algorithm");
+		}
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException(String.format(
+				"Unsupported compiled ASI algorithm version: %d", version));
+		}
+		String hash = in.readUTF();
+		String algName = readNullableUTF(in);
+		String algVersion = readNullableUTF(in);
+		String algDate = readNullableUTF(in);
+		String originalLevelText = readNullableUTF(in);
+		String originalLevelSIR = readNullableUTF(in);
+		byte[] deflatedXML = new byte[in.readInt()];
+		in.readFully(deflatedXML);
+		return new CompiledAlgorithm(
+			hash, algName, algVersion, algDate,
+			originalLevelText, originalLevelSIR, deflatedXML);
+	}
+
+	public String getHash() { return hash; }
+
+	public String getAlgName() { return algName; }
+
+	public String getAlgVersion() { return algVersion; }
+
+	public String getAlgDate() { return algDate; }
+
+	public String getOriginalLevelText() { return originalLevelText; }
+
+	public String getOriginalLevelSIR() { return originalLevelSIR; }
+
+	public String getXMLText() {
+		try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(deflatedXML))) {
+			return new String(IOUtils.toByteArray(input), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the ASI genes of this algorithm. If this algorithm was read
+	 * from the on-disk cache, the XML is transformed on first call.
+	 *
+	 * @return Map of abstract gene name and ASI gene
+	 */
+	public Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> getGeneMap() {
+		if (geneMap == null) {
+			synchronized (this) {
+				if (geneMap == null) {
+					geneMap = transformGeneMap();
+				}
+			}
+		}
+		return geneMap;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> transformGeneMap() {
+		XmlAsiTransformer transformer = new XmlAsiTransformer(true);
+		try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(deflatedXML))) {
+			return Collections.unmodifiableMap(transformer.transform(input));
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Returns the native rule engine of this algorithm. The rules are
+	 * compiled together with the relevant positions. If the XML text can not be compiled, the
+	 * returned engine supports no gene and all evaluations fall back to
+	 * the ASI interpreter.
+	 *
+	 * @return NativeASIEvaluator
+	 */
+	public NativeASIEvaluator getNativeEvaluator() {
+		prepareRules();
+		return nativeEvaluator;
+	}
+
+	/**
+	 * Returns the positions referenced by the drug rules and the mutation
+	 * comment rules of given gene. Mutations at other positions can not
+	 * change the evaluated result of this algorithm.
+	 *
+	 * @param absGene	Abstract gene name
+	 * @return			Set of positions; null if the gene is not defined or
+	 * 					any of its rules contains an unrecognized token
+	 */
+	public Set<Integer> getRelevantPositions(String absGene) {
+		prepareRules();
+		return relevantPositions.get(absGene);
+	}
+
+	/**
+	 * Returns the positions referenced by the rules of given drug.
+	 *
+	 * @param drugName	Drug name
+	 * @return			Set of positions; null if the drug is not defined or
+	 * 					any of its rules contains an unrecognized token
+	 */
+	public Set<Integer> getDrugPositions(String drugName) {
+		prepareRules();
+		return drugPositions.get(drugName);
+	}
+
+	private void prepareRules() {
+		if (relevantPositions != null) {
+			return;
+		}
+		synchronized (this) {
+			if (relevantPositions == null) {
+				prepareRules(ASIXmlUtils.parse(getXMLText()).getDocumentElement());
+			}
+		}
+	}
+
+	/**
+	 * Compiles the native rule engine and extracts the relevant positions
+	 * from one parsed DOM of the XML text.
+	 */
+	private void prepareRules(Element root) {
+		NativeASIEvaluator evaluator;
+		try {
+			evaluator = NativeASIEvaluator.compile(root);
+		} catch (RuntimeException e) {
+			evaluator = NativeASIEvaluator.EMPTY;
+		}
+		nativeEvaluator = evaluator;
+		Map<String, List<String>> drugClassDrugs = new HashMap<>();
+		for (Element drugClass : ASIXmlUtils.getElements(root, "DRUGCLASS")) {
+			drugClassDrugs.put(
+				ASIXmlUtils.getChildText(drugClass, "NAME"),
+				ASIXmlUtils.splitList(ASIXmlUtils.getChildText(drugClass, "DRUGLIST")));
+		}
+		// a drug or gene is mapped to null if any of its conditions
+		// contains a token which is not recognized
+		Map<String, Set<Integer>> drugPositions = new HashMap<>();
+		for (Element drugElem : ASIXmlUtils.getElements(root, "DRUG")) {
+			Set<Integer> positions = new TreeSet<>();
+			drugPositions.put(
+				ASIXmlUtils.getChildText(drugElem, "NAME"),
+				addRulePositions(drugElem, positions) ?
+				Collections.unmodifiableSet(positions) : null);
+		}
+
+		Map<String, Set<Integer>> genePositions = new HashMap<>();
+		Set<String> unknownGenes = new HashSet<>();
+		for (Element geneDef : ASIXmlUtils.getElements(root, "GENE_DEFINITION")) {
+			String geneName = ASIXmlUtils.getChildText(geneDef, "NAME");
+			Set<Integer> positions = genePositions.computeIfAbsent(geneName, g -> new TreeSet<>());
+			for (String drugClass : ASIXmlUtils.splitList(ASIXmlUtils.getChildText(geneDef, "DRUGCLASSLIST"))) {
+				for (String drugName : drugClassDrugs.getOrDefault(drugClass, Collections.emptyList())) {
+					if (!drugPositions.containsKey(drugName)) {
+						continue;
+					}
+					Set<Integer> drugPos = drugPositions.get(drugName);
+					if (drugPos == null) {
+						unknownGenes.add(geneName);
+					}
+					else {
+						positions.addAll(drugPos);
+					}
+				}
+			}
+		}
+		for (Element mutComments : ASIXmlUtils.getElements(root, "MUTATION_COMMENTS")) {
+			for (Element geneElem : ASIXmlUtils.getElements(mutComments, "GENE")) {
+				String geneName = ASIXmlUtils.getChildText(geneElem, "NAME");
+				if (!addRulePositions(
+					geneElem, genePositions.computeIfAbsent(geneName, g -> new TreeSet<>()))
+				) {
+					unknownGenes.add(geneName);
+				}
+			}
+		}
+		Map<String, Set<Integer>> result = new HashMap<>();
+		for (Map.Entry<String, Set<Integer>> entry : genePositions.entrySet()) {
+			result.put(
+				entry.getKey(),
+				unknownGenes.contains(entry.getKey()) ?
+				null : Collections.unmodifiableSet(entry.getValue()));
+		}
+		this.drugPositions = Collections.unmodifiableMap(drugPositions);
+		this.relevantPositions = Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Adds the positions of residues (e.g. "41L" or "M41L") referenced by
+	 * the rule conditions under given element.
+	 *
+	 * @return false if any condition contains an unrecognized token
+	 */
+	private static boolean addRulePositions(Element parent, Set<Integer> positions) {
+		boolean recognized = true;
+		for (Element ruleElem : ASIXmlUtils.getElements(parent, "RULE")) {
+			String condition = ASIXmlUtils.getChildText(ruleElem, "CONDITION");
+			if (condition == null) {
+				continue;
+			}
+			Matcher matcher = CONDITION_TOKEN_PATTERN.matcher(condition);
+			int end = 0;
+			while (matcher.lookingAt()) {
+				String token = matcher.group(1);
+				Matcher residue = RESIDUE_PATTERN.matcher(token);
+				if (residue.matches()) {
+					positions.add(Integer.parseInt(residue.group(1)));
+				}
+				else if (
+					!NUMBER_PATTERN.matcher(token).matches() &&
+					!CONDITION_KEYWORDS.contains(token.toUpperCase())
+				) {
+					recognized = false;
+				}
+				end = matcher.end();
+				matcher.region(end, condition.length());
+			}
+			if (!condition.substring(end).trim().isEmpty()) {
+				recognized = false;
+			}
+		}
+		return recognized;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s_%s (%s)", algName, algVersion, hash.substring(0, 8));
+	}
+
+}
@@ -19,19 +19,17 @@
 */
 package edu.stanford.hivdb.drugresistance.algorithm;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.builder.CompareToBuilder;
-import org.fstrf.stanfordAsiInterpreter.resistance.ASIParsingException;
-import org.fstrf.stanfordAsiInterpreter.resistance.xml.XmlAsiTransformer;
 
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Virus;
 
@@ -42,45 +40,8 @@ public class DrugResistanceAlgorithm<VirusT extends Virus<VirusT>> implements Co
 	final private String family;
 	final private String version;
 	final private String publishDate;
-	final private transient String xmlText;
-	final private transient String originalLevelText;
-	final private transient String originalLevelSIR;
-	final private transient Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> geneMap;
-
-	private static <VirusT extends Virus<VirusT>> Map<String, org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene> initGeneMap(
-		String xmlText, VirusT virus
-	) {
-		InputStream resource = new ByteArrayInputStream(xmlText.getBytes());
-		Map<?, ?> geneMap;
-		XmlAsiTransformer transformer = new XmlAsiTransformer(true);
-		try {
-			geneMap = transformer.transform(resource);
-		} catch (Exception e) {
-			throw new ExceptionInInitializerError(e);
-		}
-		Set<String> absGenes = new HashSet<>(virus.getAbstractGenes());
-		return Collections.unmodifiableMap(geneMap
-			.entrySet()
-			.stream()
-			// removes genes supported by algorithm but not by Virus implementation
-			.filter(e -> absGenes.contains(e.getKey()))
-			.collect(Collectors.toMap(
-				e -> ((String) e.getKey()),
-				e -> (org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene) e.getValue()
-			))
-		);
-	}
-	
-	private static Map<?, ?> getAlgorithmInfo(String xmlText) {
-		InputStream resource = new ByteArrayInputStream(xmlText.getBytes());
-		XmlAsiTransformer transformer = new XmlAsiTransformer(true);
-		try {
-			Map<?, ?> algInfo = (Map<?, ?>) transformer.getAlgorithmInfo(resource);
-			return algInfo;
-		} catch (ASIParsingException e) {
-			throw new ExceptionInInitializerError(e);
-		}
-	}
+	final private transient CompiledAlgorithm compiled;
+	final private transient Set<String> absGenes;
 	
 	public DrugResistanceAlgorithm(VirusT virus, String xmlText) {
 		this(null, null, null, null, virus, xmlText);
@@ -94,17 +55,42 @@ public class DrugResistanceAlgorithm<VirusT extends Virus<VirusT>> implements Co
 		String name, String family, String version,
 		String publishDate, VirusT virus, String xmlText
 	) {
-		Map<?, ?> algInfo = getAlgorithmInfo(xmlText);
-		Map<?, ?> algNVD = (Map<?, ?>) algInfo.get("ALGNAME_ALGVERSION_ALGDATE");
-		Map<?, ?> originalLevel = (Map<?, ?>) algInfo.get("ORDER1_ORIGINAL_SIR");
-		this.name = name == null ? String.format("%s_%s", algNVD.get("ALGNAME"), algNVD.get("ALGVERSION")) : name;
-		this.family = family == null ? (String) algNVD.get("ALGNAME") : family;
-		this.version = version == null ? (String) algNVD.get("ALGVERSION") : version;
-		this.publishDate = publishDate == null ? (String) algNVD.get("ALGDATE") : publishDate;
-		this.originalLevelText = (String) originalLevel.get("ORIGINAL");
-		this.originalLevelSIR = (String) originalLevel.get("SIR");
-		this.xmlText = xmlText;
-		this.geneMap = initGeneMap(xmlText, virus);
+		this(name, family, version, publishDate, virus, CompiledAlgorithm.compile(xmlText));
+	}
+	
+	protected DrugResistanceAlgorithm(
+		String name, String family, String version,
+		String publishDate, VirusT virus, CompiledAlgorithm compiled
+	) {
+		this.name = name == null ? String.format("%s_%s", compiled.getAlgName(), compiled.getAlgVersion()) : name;
+		this.family = family == null ? compiled.getAlgName() : family;
+		this.version = version == null ? compiled.getAlgVersion() : version;
+		this.publishDate = publishDate == null ? compiled.getAlgDate() : publishDate;
+		this.compiled = compiled;
+		// genes supported by algorithm but not by Virus implementation are ignored
+		this.absGenes = Collections.unmodifiableSet(new HashSet<>(virus.getAbstractGenes()));
+	}
+	
+	/**
+	 * Creates an algorithm from a compiled algorithm, e.g. one loaded by
+	 * {@link CompiledAlgorithm#read(java.io.InputStream)}. The XML text is
+	 * not parsed until the algorithm is used for evaluation.
+	 *
+	 * @param virus		Virus instance
+	 * @param compiled	Compiled algorithm
+	 * @return			DrugResistanceAlgorithm
+	 */
+	public static <VirusT extends Virus<VirusT>> DrugResistanceAlgorithm<VirusT> fromCompiled(
+		VirusT virus, CompiledAlgorithm compiled
+	) {
+		return new DrugResistanceAlgorithm<>(null, null, null, null, virus, compiled);
+	}
+	
+	public static <VirusT extends Virus<VirusT>> DrugResistanceAlgorithm<VirusT> fromCompiled(
+		String name, String family, String version,
+		String publishDate, VirusT virus, CompiledAlgorithm compiled
+	) {
+		return new DrugResistanceAlgorithm<>(name, family, version, publishDate, virus, compiled);
 	}
 	
 	public String getName() {
@@ -132,19 +118,62 @@ public class DrugResistanceAlgorithm<VirusT extends Virus<VirusT>> implements Co
 	}
 	
 	public String getOriginalLevelText() {
-		return originalLevelText;
+		return compiled.getOriginalLevelText();
 	}
 	
 	public SIREnum getOriginalLevelSIR() {
-		return SIREnum.valueOf(originalLevelSIR);
+		return SIREnum.valueOf(compiled.getOriginalLevelSIR());
+	}
+	
+	boolean hasAbstractGene(String absGene) {
+		return absGenes.contains(absGene);
 	}
 	
 	public org.fstrf.stanfordAsiInterpreter.resistance.definition.Gene getASIGene(Gene<VirusT> gene) {
-		return geneMap.get(gene.getAbstractGene());
+		String absGene = gene.getAbstractGene();
+		if (!hasAbstractGene(absGene)) {
+			return null;
+		}
+		return compiled.getGeneMap().get(absGene);
+	}
+	
+	/**
+	 * Removes the mutations which can not change the evaluated result of
+	 * this algorithm, i.e. those at positions not referenced by any drug or
+	 * mutation comment rule of the gene.
+	 *
+	 * Mutations of a gene which is not the main strain gene are returned
+	 * unchanged, since the rules use the positions of the main strain.
+	 *
+	 * @param gene		Gene of mutations
+	 * @param mutations	Mutations to be projected
+	 * @return			MutationSet of relevant mutations
+	 */
+	public MutationSet<VirusT> filterRelevantMutations(Gene<VirusT> gene, MutationSet<VirusT> mutations) {
+		if (gene.getMainStrainGene() != gene || !hasAbstractGene(gene.getAbstractGene())) {
+			return mutations;
+		}
+		Set<Integer> positions = compiled.getRelevantPositions(gene.getAbstractGene());
+		if (positions == null) {
+			return mutations;
+		}
+		List<Mutation<VirusT>> relevantMuts = (
+			mutations.stream()
+			.filter(mut -> positions.contains(mut.getPosition()))
+			.collect(Collectors.toList())
+		);
+		if (relevantMuts.size() == mutations.size()) {
+			return mutations;
+		}
+		return new MutationSet<>(relevantMuts);
+	}
+	
+	public CompiledAlgorithm getCompiled() {
+		return compiled;
 	}
 	
 	public String getXMLText() {
-		return xmlText;
+		return compiled.getXMLText();
 	}
 	
 	public String getEnumCompatName() {
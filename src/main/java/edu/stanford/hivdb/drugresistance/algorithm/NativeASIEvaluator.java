@@ -0,0 +1,887 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.drugresistance.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import edu.stanford.hivdb.drugs.Drug;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.mutations.StrainModifier;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * A rule engine evaluating the drug score and level rules of an ASI
+ * algorithm directly on a {@link MutationSet}.
+ *
+ * The rules of each gene are compiled from the XML text into a tree of
+ * position-indexed residue matchers. The mutations of a gene are indexed
+ * by position and matched by their AA characters, instead of being passed
+ * through the string based mutation comparator of the ASI interpreter.
+ *
+ * The engine supports the rule syntax used by the drug resistance
+ * algorithms: "SCORE FROM" with scored items and "MAX" groups, "AND"/"OR"
+ * chains, parentheses and "SELECT ... FROM" residue lists, with global
+ * or inline score ranges and level actions. A gene using anything else
+ * (e.g. "NOT", "EXCLUDE" or "MIN") is not compiled and is always
+ * evaluated by the ASI interpreter.
+ *
+ * The engine is used by {@link edu.stanford.hivdb.drugresistance.GeneDR}
+ * only if the environment variable SIERRA_ASI_EVALUATOR is set to
+ * "native". Use {@link #compareWithASI} to verify that an algorithm
+ * yields the same results as the ASI interpreter.
+ */
+public class NativeASIEvaluator {
+
+	private static final boolean ENABLED = "native".equalsIgnoreCase(System.getenv("SIERRA_ASI_EVALUATOR"));
+
+	private static final Pattern ASI_MUTATION_PATTERN = Pattern.compile("^[A-Z]?(\\d+)([A-Za-z]+)$");
+	private static final Pattern TOKEN_PATTERN = Pattern.compile(
+		"\\s*(=>|[(),]|-?\\d+(?:\\.\\d+)?[A-Za-z]*|[A-Za-z]+)");
+	private static final Pattern RANGE_PATTERN = Pattern.compile(
+		"(-?INF|-?\\d+(?:\\.\\d+)?)\\s+TO\\s+(-?INF|-?\\d+(?:\\.\\d+)?)\\s*=>\\s*(\\d+)");
+
+	private static class UnsupportedRuleException extends Exception {
+		private static final long serialVersionUID = 4418427071565254512L;
+
+		private UnsupportedRuleException(String message) {
+			super(message);
+		}
+	}
+
+	private static class Level {
+		private final int order;
+		private final String text;
+		private final SIREnum sir;
+
+		private Level(int order, String text, SIREnum sir) {
+			this.order = order;
+			this.text = text;
+			this.sir = sir;
+		}
+	}
+
+	private static class ScoreRange {
+		private final double min;
+		private final double max;
+		private final Level level;
+
+		private ScoreRange(double min, double max, Level level) {
+			this.min = min;
+			this.max = max;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Mutations of a gene indexed by position, and the positions matched
+	 * by the residues of the condition being evaluated.
+	 */
+	private static class Context {
+		private final long[] aaMasks;
+		private final String[] asiMutations;
+		private final boolean[] matched;
+		private final List<Integer> matchedPositions = new ArrayList<>();
+
+		private Context(int maxPosition) {
+			aaMasks = new long[maxPosition + 1];
+			asiMutations = new String[maxPosition + 1];
+			matched = new boolean[maxPosition + 1];
+		}
+
+		private void resetMatches() {
+			for (int pos : matchedPositions) {
+				matched[pos] = false;
+			}
+			matchedPositions.clear();
+		}
+
+		private List<String> getMatchedMutations() {
+			List<String> muts = new ArrayList<>();
+			for (int pos : matchedPositions) {
+				muts.add(asiMutations[pos]);
+			}
+			return muts;
+		}
+	}
+
+	private static interface Condition {
+		/**
+		 * Evaluates the condition. All residues are evaluated (no short
+		 * circuit) so that every matched mutation is recorded.
+		 */
+		boolean evaluate(Context ctx);
+
+		int getMaxPosition();
+	}
+
+	private static class Residue implements Condition {
+		private final int position;
+		private final long aaMask;
+
+		private Residue(int position, long aaMask) {
+			this.position = position;
+			this.aaMask = aaMask;
+		}
+
+		@Override
+		public boolean evaluate(Context ctx) {
+			if ((ctx.aaMasks[position] & aaMask) == 0) {
+				return false;
+			}
+			if (!ctx.matched[position]) {
+				ctx.matched[position] = true;
+				ctx.matchedPositions.add(position);
+			}
+			return true;
+		}
+
+		@Override
+		public int getMaxPosition() {
+			return position;
+		}
+	}
+
+	private static class Combination implements Condition {
+		private final boolean isAnd;
+		private final List<Condition> conditions;
+
+		private Combination(boolean isAnd, List<Condition> conditions) {
+			this.isAnd = isAnd;
+			this.conditions = conditions;
+		}
+
+		@Override
+		public boolean evaluate(Context ctx) {
+			boolean result = isAnd;
+			for (Condition cond : conditions) {
+				boolean r = cond.evaluate(ctx);
+				result = isAnd ? result && r : result || r;
+			}
+			return result;
+		}
+
+		@Override
+		public int getMaxPosition() {
+			return conditions.stream().mapToInt(Condition::getMaxPosition).max().orElse(0);
+		}
+	}
+
+	private static class Selection implements Condition {
+		private final int atLeast;
+		private final int notMoreThan;
+		private final List<Residue> residues;
+
+		private Selection(int atLeast, int notMoreThan, List<Residue> residues) {
+			this.atLeast = atLeast;
+			this.notMoreThan = notMoreThan;
+			this.residues = residues;
+		}
+
+		@Override
+		public boolean evaluate(Context ctx) {
+			int count = 0;
+			for (Residue residue : residues) {
+				if (residue.evaluate(ctx)) {
+					count ++;
+				}
+			}
+			return count >= atLeast && count <= notMoreThan;
+		}
+
+		@Override
+		public int getMaxPosition() {
+			return residues.stream().mapToInt(Residue::getMaxPosition).max().orElse(0);
+		}
+	}
+
+	private static class ScoreItem {
+		private final Condition condition;
+		private final double score;
+		// non-null for a MAX group
+		private final List<ScoreItem> maxItems;
+
+		private ScoreItem(Condition condition, double score) {
+			this.condition = condition;
+			this.score = score;
+			this.maxItems = null;
+		}
+
+		private ScoreItem(List<ScoreItem> maxItems) {
+			this.condition = null;
+			this.score = 0;
+			this.maxItems = maxItems;
+		}
+
+		private int getMaxPosition() {
+			if (maxItems == null) {
+				return condition.getMaxPosition();
+			}
+			return maxItems.stream().mapToInt(ScoreItem::getMaxPosition).max().orElse(0);
+		}
+	}
+
+	private static class Rule {
+		private final String statement;
+		// non-null for a score rule
+		private final List<ScoreItem> scoreItems;
+		private final List<ScoreRange> scoreRanges;
+		// non-null for a level rule
+		private final Condition condition;
+		private final Level level;
+
+		private Rule(String statement, List<ScoreItem> scoreItems, List<ScoreRange> scoreRanges) {
+			this.statement = statement;
+			this.scoreItems = scoreItems;
+			this.scoreRanges = scoreRanges;
+			this.condition = null;
+			this.level = null;
+		}
+
+		private Rule(String statement, Condition condition, Level level) {
+			this.statement = statement;
+			this.scoreItems = null;
+			this.scoreRanges = null;
+			this.condition = condition;
+			this.level = level;
+		}
+
+		private int getMaxPosition() {
+			if (scoreItems == null) {
+				return condition.getMaxPosition();
+			}
+			return scoreItems.stream().mapToInt(ScoreItem::getMaxPosition).max().orElse(0);
+		}
+	}
+
+	private static class GeneRules {
+		// drug name => rules
+		private final Map<String, List<Rule>> drugRules;
+		private final int maxPosition;
+
+		private GeneRules(Map<String, List<Rule>> drugRules) {
+			this.drugRules = drugRules;
+			this.maxPosition = (
+				drugRules.values().stream()
+				.flatMap(List::stream)
+				.mapToInt(Rule::getMaxPosition)
+				.max().orElse(0)
+			);
+		}
+	}
+
+	/**
+	 * An evaluator supporting no gene, i.e. everything is evaluated by the
+	 * ASI interpreter.
+	 */
+	static final NativeASIEvaluator EMPTY = new NativeASIEvaluator(Collections.emptyMap());
+
+	private final Map<String, GeneRules> geneRulesMap;
+
+	private NativeASIEvaluator(Map<String, GeneRules> geneRulesMap) {
+		this.geneRulesMap = geneRulesMap;
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Compiles the rules of given ASI XML text. Genes with unsupported
+	 * rules are skipped.
+	 *
+	 * @param xmlText	ASI XML text
+	 * @return			NativeASIEvaluator
+	 */
+	public static NativeASIEvaluator compile(String xmlText) {
+		return compile(ASIXmlUtils.parse(xmlText).getDocumentElement());
+	}
+
+	/**
+	 * Compiles the rules of given parsed ASI XML document.
+	 *
+	 * @param root	Root element of ASI XML document
+	 * @return		NativeASIEvaluator
+	 */
+	static NativeASIEvaluator compile(Element root) {
+		Map<Integer, Level> levels = new HashMap<>();
+		for (Element levelDef : ASIXmlUtils.getElements(root, "LEVEL_DEFINITION")) {
+			int order = Integer.parseInt(ASIXmlUtils.getChildText(levelDef, "ORDER"));
+			String sir = ASIXmlUtils.getChildText(levelDef, "SIR");
+			levels.put(order, new Level(
+				order, ASIXmlUtils.getChildText(levelDef, "ORIGINAL"),
+				sir == null ? null : SIREnum.valueOf(sir)));
+		}
+		List<Element> globalRanges = ASIXmlUtils.getElements(root, "GLOBALRANGE");
+		String globalRange = globalRanges.isEmpty() ? null : globalRanges.get(0).getTextContent();
+
+		Map<String, Element> drugElems = new HashMap<>();
+		for (Element drugElem : ASIXmlUtils.getElements(root, "DRUG")) {
+			drugElems.put(ASIXmlUtils.getChildText(drugElem, "NAME"), drugElem);
+		}
+		Map<String, List<String>> drugClassDrugs = new HashMap<>();
+		for (Element drugClass : ASIXmlUtils.getElements(root, "DRUGCLASS")) {
+			drugClassDrugs.put(
+				ASIXmlUtils.getChildText(drugClass, "NAME"),
+				ASIXmlUtils.splitList(ASIXmlUtils.getChildText(drugClass, "DRUGLIST")));
+		}
+
+		Map<String, GeneRules> geneRulesMap = new HashMap<>();
+		for (Element geneDef : ASIXmlUtils.getElements(root, "GENE_DEFINITION")) {
+			String geneName = ASIXmlUtils.getChildText(geneDef, "NAME");
+			try {
+				Map<String, List<Rule>> drugRules = new LinkedHashMap<>();
+				for (String drugClass : ASIXmlUtils.splitList(ASIXmlUtils.getChildText(geneDef, "DRUGCLASSLIST"))) {
+					List<String> drugNames = drugClassDrugs.get(drugClass);
+					if (drugNames == null) {
+						throw new UnsupportedRuleException("Unknown drug class " + drugClass);
+					}
+					for (String drugName : drugNames) {
+						Element drugElem = drugElems.get(drugName);
+						if (drugElem == null) {
+							throw new UnsupportedRuleException("Unknown drug " + drugName);
+						}
+						List<Rule> rules = new ArrayList<>();
+						for (Element ruleElem : ASIXmlUtils.getElements(drugElem, "RULE")) {
+							rules.add(compileRule(ruleElem, levels, globalRange));
+						}
+						drugRules.put(drugName, rules);
+					}
+				}
+				geneRulesMap.put(geneName, new GeneRules(drugRules));
+			} catch (UnsupportedRuleException | RuntimeException e) {
+				// leave this gene to the ASI interpreter
+			}
+		}
+		return new NativeASIEvaluator(Collections.unmodifiableMap(geneRulesMap));
+	}
+
+	private static Rule compileRule(
+		Element ruleElem, Map<Integer, Level> levels, String globalRange
+	) throws UnsupportedRuleException {
+		String statement = ASIXmlUtils.getChildText(ruleElem, "CONDITION");
+		NodeList actionsList = ruleElem.getElementsByTagName("ACTIONS");
+		if (statement == null || actionsList.getLength() != 1) {
+			throw new UnsupportedRuleException("Rule without condition or actions");
+		}
+		Element actions = (Element) actionsList.item(0);
+		Parser parser = new Parser(statement);
+		if (parser.peekKeyword("SCORE")) {
+			List<ScoreItem> scoreItems = parser.parseScoreRule();
+			NodeList rangeNodes = actions.getElementsByTagName("SCORERANGE");
+			if (rangeNodes.getLength() != 1) {
+				throw new UnsupportedRuleException("Score rule without score range");
+			}
+			Element rangeElem = (Element) rangeNodes.item(0);
+			String rangeText = (
+				rangeElem.getElementsByTagName("USE_GLOBALRANGE").getLength() > 0 ?
+				globalRange : rangeElem.getTextContent()
+			);
+			return new Rule(statement, scoreItems, parseScoreRanges(rangeText, levels));
+		}
+		else {
+			Condition condition = parser.parseRuleCondition();
+			String levelText = ASIXmlUtils.getChildText(actions, "LEVEL");
+			Level level = levelText == null ? null : levels.get(Integer.parseInt(levelText));
+			if (level == null) {
+				throw new UnsupportedRuleException("Level rule without level");
+			}
+			return new Rule(statement, condition, level);
+		}
+	}
+
+	private static double parseRangeValue(String value) {
+		switch (value) {
+			case "-INF":
+				return Double.NEGATIVE_INFINITY;
+			case "INF":
+				return Double.POSITIVE_INFINITY;
+			default:
+				return Double.parseDouble(value);
+		}
+	}
+
+	private static List<ScoreRange> parseScoreRanges(
+		String rangeText, Map<Integer, Level> levels
+	) throws UnsupportedRuleException {
+		if (rangeText == null) {
+			throw new UnsupportedRuleException("Missing score range");
+		}
+		List<ScoreRange> ranges = new ArrayList<>();
+		Matcher matcher = RANGE_PATTERN.matcher(rangeText);
+		while (matcher.find()) {
+			Level level = levels.get(Integer.parseInt(matcher.group(3)));
+			if (level == null) {
+				throw new UnsupportedRuleException("Unknown level " + matcher.group(3));
+			}
+			ranges.add(new ScoreRange(
+				parseRangeValue(matcher.group(1)),
+				parseRangeValue(matcher.group(2)),
+				level));
+		}
+		if (ranges.isEmpty()) {
+			throw new UnsupportedRuleException("Invalid score range " + rangeText);
+		}
+		return ranges;
+	}
+
+	private static long toAAMask(String aas) {
+		long mask = 0L;
+		for (char aa : aas.toCharArray()) {
+			mask |= 1L << (aa - 64);
+		}
+		return mask;
+	}
+
+	/**
+	 * Recursive descent parser of the supported rule syntax.
+	 */
+	private static class Parser {
+		private final List<String> tokens = new ArrayList<>();
+		private int cursor = 0;
+
+		private Parser(String statement) throws UnsupportedRuleException {
+			Matcher matcher = TOKEN_PATTERN.matcher(statement);
+			int end = 0;
+			while (matcher.find() && matcher.start() == end) {
+				tokens.add(matcher.group(1));
+				end = matcher.end();
+			}
+			if (!statement.substring(end).trim().isEmpty()) {
+				throw new UnsupportedRuleException("Unsupported rule: " + statement);
+			}
+		}
+
+		private String peek() {
+			return cursor < tokens.size() ? tokens.get(cursor) : null;
+		}
+
+		private boolean peekKeyword(String keyword) {
+			String token = peek();
+			return token != null && token.equalsIgnoreCase(keyword);
+		}
+
+		private String next() throws UnsupportedRuleException {
+			if (cursor >= tokens.size()) {
+				throw new UnsupportedRuleException("Unexpected end of rule");
+			}
+			return tokens.get(cursor ++);
+		}
+
+		private void expect(String expected) throws UnsupportedRuleException {
+			String token = next();
+			if (!token.equalsIgnoreCase(expected)) {
+				throw new UnsupportedRuleException(
+					String.format("Expected %s but got %s", expected, token));
+			}
+		}
+
+		private void expectEnd() throws UnsupportedRuleException {
+			if (cursor != tokens.size()) {
+				throw new UnsupportedRuleException("Unexpected token " + peek());
+			}
+		}
+
+		private int nextInt() throws UnsupportedRuleException {
+			String token = next();
+			if (!token.matches("\\d+")) {
+				throw new UnsupportedRuleException("Expected a number but got " + token);
+			}
+			return Integer.parseInt(token);
+		}
+
+		private List<ScoreItem> parseScoreRule() throws UnsupportedRuleException {
+			expect("SCORE");
+			expect("FROM");
+			List<ScoreItem> items = parseScoreList(true);
+			expectEnd();
+			return items;
+		}
+
+		private List<ScoreItem> parseScoreList(boolean allowMax) throws UnsupportedRuleException {
+			List<ScoreItem> items = new ArrayList<>();
+			expect("(");
+			do {
+				if (allowMax && peekKeyword("MAX")) {
+					next();
+					items.add(new ScoreItem(parseScoreList(false)));
+				}
+				else {
+					Condition cond = parseCondition();
+					expect("=>");
+					String score = next();
+					if (!score.matches("-?\\d+(\\.\\d+)?")) {
+						throw new UnsupportedRuleException("Invalid score " + score);
+					}
+					items.add(new ScoreItem(cond, Double.parseDouble(score)));
+				}
+			} while (",".equals(peek()) && next() != null);
+			expect(")");
+			return items;
+		}
+
+		private Condition parseRuleCondition() throws UnsupportedRuleException {
+			Condition cond = parseCondition();
+			expectEnd();
+			return cond;
+		}
+
+		private Condition parseCondition() throws UnsupportedRuleException {
+			List<Condition> conditions = new ArrayList<>();
+			conditions.add(parseTerm());
+			String operator = null;
+			while (peekKeyword("AND") || peekKeyword("OR")) {
+				String op = next().toUpperCase();
+				if (operator != null && !operator.equals(op)) {
+					// precedence of mixed AND/OR is left to the ASI interpreter
+					throw new UnsupportedRuleException("Mixed AND/OR without parentheses");
+				}
+				operator = op;
+				conditions.add(parseTerm());
+			}
+			if (operator == null) {
+				return conditions.get(0);
+			}
+			return new Combination(operator.equals("AND"), conditions);
+		}
+
+		private Condition parseTerm() throws UnsupportedRuleException {
+			if ("(".equals(peek())) {
+				next();
+				Condition cond = parseCondition();
+				expect(")");
+				return cond;
+			}
+			if (peekKeyword("SELECT")) {
+				return parseSelection();
+			}
+			return parseResidue();
+		}
+
+		private Residue parseResidue() throws UnsupportedRuleException {
+			String token = next();
+			Matcher matcher = ASI_MUTATION_PATTERN.matcher(token);
+			if (!Character.isDigit(token.charAt(0)) || !matcher.matches()) {
+				throw new UnsupportedRuleException("Unsupported residue " + token);
+			}
+			return new Residue(Integer.parseInt(matcher.group(1)), toAAMask(matcher.group(2)));
+		}
+
+		private Selection parseSelection() throws UnsupportedRuleException {
+			expect("SELECT");
+			int atLeast = 0;
+			int notMoreThan = Integer.MAX_VALUE;
+			if (peekKeyword("ATLEAST")) {
+				next();
+				atLeast = nextInt();
+				if (peekKeyword("AND")) {
+					next();
+					expect("NOTMORETHAN");
+					notMoreThan = nextInt();
+				}
+			}
+			else if (peekKeyword("EXACTLY")) {
+				next();
+				atLeast = notMoreThan = nextInt();
+			}
+			else if (peekKeyword("NOTMORETHAN")) {
+				next();
+				notMoreThan = nextInt();
+			}
+			else {
+				throw new UnsupportedRuleException("Unsupported selection " + peek());
+			}
+			expect("FROM");
+			expect("(");
+			List<Residue> residues = new ArrayList<>();
+			residues.add(parseResidue());
+			while (",".equals(peek())) {
+				next();
+				residues.add(parseResidue());
+			}
+			expect(")");
+			return new Selection(atLeast, notMoreThan, residues);
+		}
+	}
+
+	/**
+	 * Checks if the rules of given gene are compiled by this evaluator.
+	 *
+	 * @param abstractGene	Abstract gene name
+	 * @return				true if the gene is supported
+	 */
+	public boolean isGeneSupported(String abstractGene) {
+		return geneRulesMap.containsKey(abstractGene);
+	}
+
+	/**
+	 * Evaluates the drug susceptibilities of given gene mutations.
+	 *
+	 * Returns null if the gene or any of the mutations is not supported
+	 * by this evaluator; the caller should fall back to the ASI interpreter.
+	 *
+	 * @param gene			Gene of mutations
+	 * @param mutations		Mutations of the gene
+	 * @param algorithm		Algorithm compiled into this evaluator
+	 * @return				SortedSet of ASIDrugSusc or null
+	 */
+	public <T extends Virus<T>> SortedSet<ASIDrugSusc<T>> evaluate(
+		Gene<T> gene, MutationSet<T> mutations, DrugResistanceAlgorithm<T> algorithm
+	) {
+		return evaluate(gene, mutations, algorithm, drugName -> true);
+	}
+
+	/**
+	 * Evaluates the susceptibilities of the drugs accepted by drugFilter.
+	 *
+	 * @param gene			Gene of mutations
+	 * @param mutations		Mutations of the gene
+	 * @param algorithm		Algorithm compiled into this evaluator
+	 * @param drugFilter	Predicate of drug names to be evaluated
+	 * @return				SortedSet of ASIDrugSusc or null
+	 */
+	public <T extends Virus<T>> SortedSet<ASIDrugSusc<T>> evaluate(
+		Gene<T> gene, MutationSet<T> mutations, DrugResistanceAlgorithm<T> algorithm,
+		Predicate<String> drugFilter
+	) {
+		GeneRules geneRules = geneRulesMap.get(gene.getAbstractGene());
+		if (geneRules == null) {
+			return null;
+		}
+		Gene<T> mainGene = gene.getMainStrainGene();
+		StrainModifier mainStrainModifier = gene.getMainStrainModifier();
+		StrainModifier targetStrainModifier = mainGene.getTargetStrainModifier(gene);
+
+		// index the mutations by position
+		Context ctx = new Context(geneRules.maxPosition);
+		for (Mutation<T> mut : mainStrainModifier.modifyMutationSet(gene, mainGene, mutations)) {
+			String asiMut = mut.getASIFormat();
+			Matcher matcher = ASI_MUTATION_PATTERN.matcher(asiMut);
+			if (!matcher.matches()) {
+				return null;
+			}
+			int pos = Integer.parseInt(matcher.group(1));
+			if (pos <= geneRules.maxPosition) {
+				ctx.aaMasks[pos] = toAAMask(matcher.group(2));
+				ctx.asiMutations[pos] = asiMut;
+			}
+		}
+
+		// each matched mutation is converted back at most once
+		Map<String, Mutation<T>> convertedMuts = new HashMap<>();
+
+		T virusIns = gene.getVirusInstance();
+		SortedSet<ASIDrugSusc<T>> drugSuscs = new TreeSet<>();
+		for (Map.Entry<String, List<Rule>> entry : geneRules.drugRules.entrySet()) {
+			if (!drugFilter.test(entry.getKey())) {
+				continue;
+			}
+			Drug<T> drug = virusIns.getDrug(entry.getKey());
+			if (drug == null) {
+				// skip unknown drug
+				continue;
+			}
+			List<ASIResultHandler.EvaluatedRule<T>> evalRules = new ArrayList<>();
+			Level highestLevel = null;
+			for (Rule rule : entry.getValue()) {
+				Level level;
+				if (rule.scoreItems == null) {
+					boolean result = rule.condition.evaluate(ctx);
+					ctx.resetMatches();
+					level = result ? rule.level : null;
+					evalRules.add(new ASIResultHandler.EvaluatedRule<>(
+						result, rule.statement, 0, Collections::emptyList));
+				}
+				else {
+					List<Double> scores = new ArrayList<>();
+					List<List<String>> scoredMuts = new ArrayList<>();
+					double totalScore = evaluateScoreItems(rule.scoreItems, ctx, scores, scoredMuts);
+					level = null;
+					for (ScoreRange range : rule.scoreRanges) {
+						if (totalScore >= range.min && totalScore <= range.max) {
+							level = range.level;
+							break;
+						}
+					}
+					evalRules.add(new ASIResultHandler.EvaluatedRule<>(
+						totalScore, rule.statement, scores.size(),
+						() -> {
+							List<ASIResultHandler.ScoredMutations<T>> scoredItems = new ArrayList<>();
+							for (int i = 0; i < scores.size(); i ++) {
+								List<Mutation<T>> muts = new ArrayList<>();
+								for (String asiMut : scoredMuts.get(i)) {
+									muts.add(convertedMuts.computeIfAbsent(
+										asiMut,
+										m -> MutationSet.parseString(
+											mainGene, Collections.singleton("__ASI__" + m))
+											.displayAmbiguities().first()));
+								}
+								scoredItems.add(new ASIResultHandler.ScoredMutations<>(
+									scores.get(i),
+									targetStrainModifier.modifyMutationSet(
+										mainGene, gene, new MutationSet<>(muts))));
+							}
+							return scoredItems;
+						}
+					));
+				}
+				if (level != null && (highestLevel == null || level.order > highestLevel.order)) {
+					highestLevel = level;
+				}
+			}
+			drugSuscs.add(ASIResultHandler.buildDrugSusc(
+				drug, algorithm, evalRules,
+				highestLevel == null ? 1 : highestLevel.order,
+				highestLevel == null ? algorithm.getOriginalLevelText() : highestLevel.text,
+				highestLevel == null ? algorithm.getOriginalLevelSIR() : highestLevel.sir
+			));
+		}
+		return drugSuscs;
+	}
+
+	private static double evaluateScoreItems(
+		List<ScoreItem> items, Context ctx,
+		List<Double> scores, List<List<String>> scoredMuts
+	) {
+		double totalScore = 0.;
+		for (ScoreItem item : items) {
+			if (item.maxItems == null) {
+				boolean result = item.condition.evaluate(ctx);
+				if (result) {
+					totalScore += item.score;
+					scores.add(item.score);
+					scoredMuts.add(ctx.getMatchedMutations());
+				}
+				ctx.resetMatches();
+			}
+			else {
+				// only the highest scored item of a MAX group is counted
+				Double maxScore = null;
+				List<String> maxMuts = null;
+				for (ScoreItem maxItem : item.maxItems) {
+					boolean result = maxItem.condition.evaluate(ctx);
+					if (result && (maxScore == null || maxItem.score > maxScore)) {
+						maxScore = maxItem.score;
+						maxMuts = ctx.getMatchedMutations();
+					}
+					ctx.resetMatches();
+				}
+				if (maxScore != null) {
+					totalScore += maxScore;
+					scores.add(maxScore);
+					scoredMuts.add(maxMuts);
+				}
+			}
+		}
+		return totalScore;
+	}
+
+	/**
+	 * Evaluates given mutations by both the ASI interpreter and this
+	 * evaluator, and describes the differences of the results.
+	 *
+	 * @param gene			Gene of mutations
+	 * @param mutations		Mutations of the gene
+	 * @param algorithm		Algorithm to be compared
+	 * @return				List of differences; empty if the results are identical
+	 */
+	public static <T extends Virus<T>> List<String> compareWithASI(
+		Gene<T> gene, MutationSet<T> mutations, DrugResistanceAlgorithm<T> algorithm
+	) {
+		List<String> diffs = new ArrayList<>();
+		SortedSet<ASIDrugSusc<T>> nativeSuscs = algorithm.getCompiled().getNativeEvaluator().evaluate(gene, mutations, algorithm);
+		if (nativeSuscs == null) {
+			return diffs;
+		}
+		SortedSet<ASIDrugSusc<T>> asiSuscs = ASIResultHandler.extractDrugSuscs(
+			gene, ASIResultHandler.evalutateGeneMutations(gene, mutations, algorithm), algorithm);
+		Map<Drug<T>, ASIDrugSusc<T>> nativeMap = new HashMap<>();
+		for (ASIDrugSusc<T> susc : nativeSuscs) {
+			nativeMap.put(susc.getDrug(), susc);
+		}
+		for (ASIDrugSusc<T> asiSusc : asiSuscs) {
+			ASIDrugSusc<T> nativeSusc = nativeMap.remove(asiSusc.getDrug());
+			if (
+				nativeSusc == null ||
+				!asiSusc.equals(nativeSusc) ||
+				asiSusc.isTriggered() != nativeSusc.isTriggered() ||
+				!Objects.equals(asiSusc.getPartialScores(), nativeSusc.getPartialScores())
+			) {
+				diffs.add(String.format(
+					"%s %s %s: ASI %s (%s, %s), native %s",
+					algorithm, gene, mutations.join(), asiSusc,
+					asiSusc.getStatement(), asiSusc.getPartialScores(),
+					nativeSusc == null ? null : String.format(
+						"%s (%s, %s)", nativeSusc, nativeSusc.getStatement(),
+						nativeSusc.getPartialScores())));
+			}
+		}
+		for (ASIDrugSusc<T> nativeSusc : nativeMap.values()) {
+			diffs.add(String.format(
+				"%s %s %s: ASI null, native %s",
+				algorithm, gene, mutations.join(), nativeSusc));
+		}
+		return diffs;
+	}
+
+	/**
+	 * Compares the results of all algorithms of given virus over the
+	 * mutation sets. See {@link #compareWithASI(Gene, MutationSet, DrugResistanceAlgorithm)}.
+	 *
+	 * @param virusIns		Virus instance
+	 * @param allMutations	Mutation sets to be evaluated
+	 * @return				List of differences; empty if the results are identical
+	 */
+	public static <T extends Virus<T>> List<String> compareWithASI(
+		T virusIns, Collection<MutationSet<T>> allMutations
+	) {
+		List<String> diffs = new ArrayList<>();
+		for (DrugResistanceAlgorithm<T> algorithm : virusIns.getDrugResistAlgorithms()) {
+			for (MutationSet<T> mutations : allMutations) {
+				for (Map.Entry<Gene<T>, MutationSet<T>> entry : mutations.groupByGene().entrySet()) {
+					Gene<T> gene = entry.getKey();
+					if (!algorithm.hasAbstractGene(gene.getAbstractGene())) {
+						continue;
+					}
+					diffs.addAll(compareWithASI(gene, entry.getValue(), algorithm));
+				}
+			}
+		}
+		return diffs;
+	}
+
+}
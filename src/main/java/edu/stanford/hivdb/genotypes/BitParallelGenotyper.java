@@ -0,0 +1,270 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.genotypes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.primitives.Ints;
+
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Genotyper engine comparing a sequence with all references at once.
+ *
+ * For each reference column and each unambiguous NA (A, C, G, T), the
+ * references which mismatch the NA are stored as a bitset in `long[]`
+ * words. An (ambiguous) NA of the query sequence is translated into a
+ * 4-bit IUPAC mask; the references discordant at this position are the
+ * bitwise AND of the bitsets of all NAs in the mask. Codons matching an
+ * SDRM are excluded by a precomputed mask of SDRM codon positions.
+ *
+ * The results are identical to {@link Genotyper}.
+ */
+public class BitParallelGenotyper<VirusT extends Virus<VirusT>> extends Genotyper<VirusT> {
+
+	private static final byte[] NA_MASKS = new byte[128];
+
+	static {
+		for (char na = 0; na < 128; na ++) {
+			NA_MASKS[na] = toNAMask(na);
+		}
+	}
+
+	private final int numRefs;
+	private final int numWords;
+	// long[column][NA][word]: bitset of references mismatched with the NA
+	private final long[] mismatchBits;
+	// boolean[NA position - treeFirstNA + 3]: codon starts at an SDRM position
+	private transient volatile boolean[] sdrmCodonStarts;
+
+	private static byte toNAMask(char na) {
+		byte mask = 0;
+		for (int naIdx : getNAIndice(na)) {
+			mask |= 1 << naIdx;
+		}
+		return mask;
+	}
+
+	private static int getNAMask(char na) {
+		return na < 128 ? NA_MASKS[na] : toNAMask(na);
+	}
+
+	public BitParallelGenotyper(VirusT virusIns) {
+		super(virusIns, false);
+		List<GenotypeReference<VirusT>> references = virusIns.getGenotypeReferences();
+		int seqLen = getTreeLastNA() - getTreeFirstNA() + 1;
+		numRefs = references.size();
+		numWords = (numRefs + 63) >>> 6;
+		mismatchBits = new long[seqLen * 4 * numWords];
+		for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
+			String sequence = references.get(refIdx).getSequence().toUpperCase();
+			int word = refIdx >>> 6;
+			long bit = 1L << (refIdx & 63);
+			for (int i = 0; i < seqLen; i ++) {
+				for (int naIdx : getInverseNAIndice(sequence.charAt(i))) {
+					mismatchBits[(i * 4 + naIdx) * numWords + word] |= bit;
+				}
+			}
+		}
+	}
+
+	private boolean[] getSDRMCodonStarts() {
+		if (sdrmCodonStarts == null) {
+			int treeFirstNA = getTreeFirstNA();
+			boolean[] codonStarts = new boolean[getTreeLastNA() - treeFirstNA + 4];
+			for (int codonStart : getSDRMCodonMap().keySet()) {
+				int idx = codonStart - treeFirstNA + 3;
+				if (idx >= 0 && idx < codonStarts.length) {
+					codonStarts[idx] = true;
+				}
+			}
+			sdrmCodonStarts = codonStarts;
+		}
+		return sdrmCodonStarts;
+	}
+
+	private class BitsetComparison implements Comparison {
+		private final String sequence;
+		private final int maxFirstNA;
+		private final int minLastNA;
+		private final int treeOffset;
+		private final int seqOffset;
+		private final Map<Integer, Set<String>> ignoredCodons = getSDRMCodonMap();
+		private final boolean[] codonStarts = getSDRMCodonStarts();
+
+		// current codon
+		private final long[] codonBits = new long[3 * numWords];
+		private final int[] codonPositions = new int[3];
+		private final char[] codonNAs = new char[3];
+		private int codonLength = 0;
+		private boolean codonDiscordant = false;
+
+		// results
+		private final int[][] discordances = new int[numRefs][];
+		private final int[] numDiscordances = new int[numRefs];
+		private final long[] includedBits = new long[numWords];
+
+		private BitsetComparison(String sequence, int seqFirstNA, int seqLastNA) {
+			this.sequence = sequence;
+			maxFirstNA = Math.max(seqFirstNA, getTreeFirstNA());
+			minLastNA = Math.min(seqLastNA, getTreeLastNA());
+			treeOffset = maxFirstNA - getTreeFirstNA();
+			seqOffset = maxFirstNA - seqFirstNA;
+			Arrays.fill(includedBits, -1L);
+		}
+
+		@Override
+		public int getFirstNA() {
+			return maxFirstNA;
+		}
+
+		@Override
+		public int getLastNA() {
+			return minLastNA;
+		}
+
+		@Override
+		public void compare(int i) {
+			int naPos = maxFirstNA + i;
+			if (naPos % 3 == 0) {
+				// the current position is the beginning of a codon
+				flushCodon(naPos - 3);
+			}
+			char seqNA = sequence.charAt(seqOffset + i);
+			int offset = codonLength * numWords;
+			codonNAs[codonLength] = seqNA;
+			codonPositions[codonLength] = naPos;
+			codonLength ++;
+			int naMask = seqNA == '.' ? 0 : getNAMask(seqNA);
+			if (naMask == 0) {
+				Arrays.fill(codonBits, offset, offset + numWords, 0L);
+				return;
+			}
+			int column = (treeOffset + i) * 4;
+			boolean first = true;
+			for (int naIdx = 0; naIdx < 4; naIdx ++) {
+				if ((naMask & (1 << naIdx)) == 0) {
+					continue;
+				}
+				int naOffset = (column + naIdx) * numWords;
+				if (first) {
+					System.arraycopy(mismatchBits, naOffset, codonBits, offset, numWords);
+					first = false;
+				}
+				else {
+					for (int w = 0; w < numWords; w ++) {
+						codonBits[offset + w] &= mismatchBits[naOffset + w];
+					}
+				}
+			}
+			if (!codonDiscordant) {
+				for (int w = 0; w < numWords; w ++) {
+					if (codonBits[offset + w] != 0L) {
+						codonDiscordant = true;
+						break;
+					}
+				}
+			}
+		}
+
+		private boolean isIgnoredCodon(int codonStartNAPos) {
+			int idx = codonStartNAPos - getTreeFirstNA() + 3;
+			if (idx < 0 || idx >= codonStarts.length || !codonStarts[idx]) {
+				return false;
+			}
+			Set<String> codons = ignoredCodons.get(codonStartNAPos);
+			return codons.contains(new String(codonNAs, 0, codonLength));
+		}
+
+		private void flushCodon(int codonStartNAPos) {
+			if (codonDiscordant && !isIgnoredCodon(codonStartNAPos)) {
+				// keep the result if the current codon is not a SDRM
+				for (int k = 0; k < codonLength; k ++) {
+					int offset = k * numWords;
+					for (int w = 0; w < numWords; w ++) {
+						long bits = codonBits[offset + w] & includedBits[w];
+						while (bits != 0L) {
+							int refIdx = (w << 6) + Long.numberOfTrailingZeros(bits);
+							addDiscordance(refIdx, codonPositions[k]);
+							bits &= bits - 1;
+						}
+					}
+				}
+			}
+			codonLength = 0;
+			codonDiscordant = false;
+		}
+
+		private void addDiscordance(int refIdx, int naPos) {
+			int[] list = discordances[refIdx];
+			int size = numDiscordances[refIdx];
+			if (list == null) {
+				list = new int[16];
+				discordances[refIdx] = list;
+			}
+			else if (size == list.length) {
+				list = Arrays.copyOf(list, size * 2);
+				discordances[refIdx] = list;
+			}
+			list[size] = naPos;
+			numDiscordances[refIdx] = size + 1;
+		}
+
+		@Override
+		public void finish() {
+			flushCodon(minLastNA - 3);
+		}
+
+		@Override
+		public Map<Integer, List<Integer>> getDiscordanceListPerRef() {
+			Map<Integer, List<Integer>> discordanceListPerRef = new HashMap<>();
+			for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
+				int size = numDiscordances[refIdx];
+				if (size > 0) {
+					discordanceListPerRef.put(
+						refIdx,
+						Ints.asList(Arrays.copyOf(discordances[refIdx], size)));
+				}
+			}
+			return discordanceListPerRef;
+		}
+
+		@Override
+		public int getNumDiscordances(int refIdx) {
+			return numDiscordances[refIdx];
+		}
+
+		@Override
+		public void excludeReference(int refIdx) {
+			includedBits[refIdx >>> 6] &= ~(1L << (refIdx & 63));
+		}
+	}
+
+	@Override
+	protected Comparison newComparison(String sequence, int seqFirstNA, int seqLastNA) {
+		return new BitsetComparison(sequence, seqFirstNA, seqLastNA);
+	}
+
+}
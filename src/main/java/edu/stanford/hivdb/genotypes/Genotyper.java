@@ -20,12 +20,18 @@
 package edu.stanford.hivdb.genotypes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 
@@ -33,15 +39,22 @@ import edu.stanford.hivdb.drugs.DrugClass;
 import edu.stanford.hivdb.mutations.Mutation;
 import edu.stanford.hivdb.mutations.MutationSet;
 import edu.stanford.hivdb.utilities.CodonUtils;
+import edu.stanford.hivdb.utilities.SharedExecutor;
 import edu.stanford.hivdb.viruses.Virus;
 
 public class Genotyper<VirusT extends Virus<VirusT>> {
 
+	// number of sequences compared in one pass by batch genotyping
+	private static final int BATCH_CHUNK_SIZE = 64;
+	// number of compared NAs between two pruning rounds of top K mode
+	private static final int PRUNE_INTERVAL = 90;
+
 	private final Integer treeFirstNA;
 	private final Integer treeLastNA;
 	private final int[][][] referenceMismatchTree;
 	private final VirusT virusInstance;
 	private transient Map<Integer, Set<String>> sdrmCodonMap;
+	private transient boolean[] fallbackRefs;
 	// private final int codonNAOffset = 2253;
 
 	private static <VirusT extends Virus<VirusT>> int[][][] buildReferenceMismatchTree(
@@ -77,7 +90,7 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 		return rootNode;
 	}
 
-	private static int[] getNAIndice(char na) {
+	protected static int[] getNAIndice(char na) {
 		List<Integer> naIndice = new ArrayList<>();
 		String unNA = CodonUtils.expandAmbiguityNA(na);
 		for (char sNA : unNA.toCharArray()) {
@@ -99,7 +112,7 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 		return Ints.toArray(naIndice);
 	}
 	
-	private static int[] getInverseNAIndice(char na) {
+	protected static int[] getInverseNAIndice(char na) {
 		int[] naIndice = getNAIndice(na);
 		List<Integer> inverseNAIndice = new ArrayList<>();
 		for (int i = 0; i < 4; i ++) {
@@ -138,6 +151,15 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 	}
 
 	public Genotyper(VirusT virusIns) {
+		this(virusIns, true);
+	}
+
+	/**
+	 * @param virusIns virus instance
+	 * @param buildMismatchTree false if a subclass uses its own search
+	 *        structure instead of referenceMismatchTree
+	 */
+	protected Genotyper(VirusT virusIns, boolean buildMismatchTree) {
 		virusInstance = virusIns;
 		
 		List<GenotypeReference<VirusT>> references = virusIns.getGenotypeReferences(); 
@@ -164,11 +186,26 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 		treeFirstNA = firstNA;
 		treeLastNA = lastNA;
 		
-		referenceMismatchTree = buildReferenceMismatchTree(references, firstNA, lastNA);
+		referenceMismatchTree = (
+			buildMismatchTree ?
+			buildReferenceMismatchTree(references, firstNA, lastNA) : null
+		);
 		
 	}
+
+	protected VirusT getVirusInstance() {
+		return virusInstance;
+	}
+
+	protected int getTreeFirstNA() {
+		return treeFirstNA;
+	}
+
+	protected int getTreeLastNA() {
+		return treeLastNA;
+	}
 	
-	private Map<Integer, Set<String>> getSDRMCodonMap() {
+	protected Map<Integer, Set<String>> getSDRMCodonMap() {
 		if (this.sdrmCodonMap == null) {
 			Map<DrugClass<VirusT>, MutationSet<VirusT>> sdrmsMap = virusInstance.getSurveilDrugResistMutations();
 			Map<Integer, Set<String>> sdrmCodonMap = new HashMap<>();
@@ -193,28 +230,86 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 		return this.sdrmCodonMap;
 	}
 	
-	/** compare given sequence with a set of references (provided by mismatchTree)
-	 *
-	 * @param sequence a string of DNA sequence
-	 * @param seqFirstNA starting position of the given sequence
-	 * @param seqLastNA ending position of the given sequence
-	 * 
-	 * @return A list of discordance for each given reference
-	 * 
+	/**
+	 * Comparison state of one query sequence. The compared positions are
+	 * passed to {@link #compare(int)} one by one in ascending order.
 	 */
-	protected Map<Integer, List<Integer>> compareWithSearchTree(
-		String sequence, int seqFirstNA, int seqLastNA
-	) {
-		int maxFirstNA = Math.max(seqFirstNA, treeFirstNA);
-		int minLastNA = Math.min(seqLastNA, treeLastNA);
-		int treeOffset = maxFirstNA - treeFirstNA;
-		int seqOffset = maxFirstNA - seqFirstNA;
-		int compareLength = minLastNA - maxFirstNA + 1;
-		Map<Integer, Set<String>> ignoredCodons = getSDRMCodonMap();
-		Map<Integer, List<Integer>> discordanceListPerRef = new HashMap<>();
-		Map<Integer, List<Integer>> curCodonDiscordancePerRef = new HashMap<>();
-		StringBuffer curCodon = new StringBuffer();
-		for (int i = 0; i < compareLength; i ++) {
+	protected interface Comparison {
+
+		/**
+		 * @return first NA position to be compared
+		 */
+		public int getFirstNA();
+
+		/**
+		 * @return last NA position to be compared
+		 */
+		public int getLastNA();
+
+		/**
+		 * Compares the i-th position of the compared range.
+		 *
+		 * @param i offset from {@link #getFirstNA()}
+		 */
+		public void compare(int i);
+
+		/**
+		 * Completes the comparison after the last position was compared.
+		 */
+		public void finish();
+
+		/**
+		 * @return A list of discordance for each given reference
+		 */
+		public Map<Integer, List<Integer>> getDiscordanceListPerRef();
+
+		/**
+		 * @param refIdx
+		 * @return number of discordances found so far of given reference
+		 */
+		public int getNumDiscordances(int refIdx);
+
+		/**
+		 * Stops collecting discordances of given reference.
+		 *
+		 * @param refIdx
+		 */
+		public void excludeReference(int refIdx);
+
+	}
+
+	private class MismatchTreeComparison implements Comparison {
+		private final String sequence;
+		private final int maxFirstNA;
+		private final int minLastNA;
+		private final int treeOffset;
+		private final int seqOffset;
+		private final Map<Integer, Set<String>> ignoredCodons = getSDRMCodonMap();
+		private final Map<Integer, List<Integer>> discordanceListPerRef = new HashMap<>();
+		private final Map<Integer, List<Integer>> curCodonDiscordancePerRef = new HashMap<>();
+		private final StringBuffer curCodon = new StringBuffer();
+		private final Set<Integer> excludedRefs = new HashSet<>();
+
+		private MismatchTreeComparison(String sequence, int seqFirstNA, int seqLastNA) {
+			this.sequence = sequence;
+			maxFirstNA = Math.max(seqFirstNA, treeFirstNA);
+			minLastNA = Math.min(seqLastNA, treeLastNA);
+			treeOffset = maxFirstNA - treeFirstNA;
+			seqOffset = maxFirstNA - seqFirstNA;
+		}
+
+		@Override
+		public int getFirstNA() {
+			return maxFirstNA;
+		}
+
+		@Override
+		public int getLastNA() {
+			return minLastNA;
+		}
+
+		@Override
+		public void compare(int i) {
 			if ((maxFirstNA + i) % 3 == 0) {
 				// to check if the current position is the beginning of a codon
 				appendCodonDiscordance(
@@ -231,7 +326,7 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 			if (seqNA == '.') {
 				// no need for further processing if seqNA == '.'
 				curCodon.append(seqNA);
-				continue;
+				return;
 			}
 			int[] naIndice = getNAIndice(seqNA);
 			Map<Integer, Integer> mismatchRefs = new HashMap<>();
@@ -251,6 +346,9 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 					continue;
 				}
 				int mismatchRef = e.getKey();
+				if (excludedRefs.contains(mismatchRef)) {
+					continue;
+				}
 				if (!curCodonDiscordancePerRef.containsKey(mismatchRef)) {
 					curCodonDiscordancePerRef.put(mismatchRef, new ArrayList<>());
 				}
@@ -258,13 +356,122 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 			}
 			curCodon.append(seqNA);
 		}
-		appendCodonDiscordance(
-			/* codonStartNAPos */ minLastNA - 3,
-			curCodon.toString(),
-			discordanceListPerRef, curCodonDiscordancePerRef,
-			ignoredCodons
-		);
-		return discordanceListPerRef;
+
+		@Override
+		public void finish() {
+			appendCodonDiscordance(
+				/* codonStartNAPos */ minLastNA - 3,
+				curCodon.toString(),
+				discordanceListPerRef, curCodonDiscordancePerRef,
+				ignoredCodons
+			);
+		}
+
+		@Override
+		public Map<Integer, List<Integer>> getDiscordanceListPerRef() {
+			return discordanceListPerRef;
+		}
+
+		@Override
+		public int getNumDiscordances(int refIdx) {
+			List<Integer> discordanceList = discordanceListPerRef.get(refIdx);
+			return discordanceList == null ? 0 : discordanceList.size();
+		}
+
+		@Override
+		public void excludeReference(int refIdx) {
+			excludedRefs.add(refIdx);
+		}
+	}
+
+	/** create the comparison state of given sequence
+	 *
+	 * Subclasses using their own search structure override this method.
+	 *
+	 * @param sequence a string of DNA sequence
+	 * @param seqFirstNA starting position of the given sequence
+	 * @param seqLastNA ending position of the given sequence
+	 *
+	 * @return Comparison object
+	 */
+	protected Comparison newComparison(String sequence, int seqFirstNA, int seqLastNA) {
+		return new MismatchTreeComparison(sequence, seqFirstNA, seqLastNA);
+	}
+
+	/** compare given sequence with a set of references (provided by mismatchTree)
+	 *
+	 * @param sequence a string of DNA sequence
+	 * @param seqFirstNA starting position of the given sequence
+	 * @param seqLastNA ending position of the given sequence
+	 * 
+	 * @return A list of discordance for each given reference
+	 * 
+	 */
+	protected Map<Integer, List<Integer>> compareWithSearchTree(
+		String sequence, int seqFirstNA, int seqLastNA
+	) {
+		return compareWithSearchTree(
+			Collections.singletonList(sequence),
+			new int[] {seqFirstNA}, new int[] {seqLastNA}
+		).get(0);
+	}
+
+	/** compare given sequences with a set of references
+	 *
+	 * The search structure is walked column by column; each column is
+	 * compared with all sequences covering it before moving to the next.
+	 *
+	 * @param sequences a list of DNA sequences
+	 * @param seqFirstNAs starting positions of the given sequences
+	 * @param seqLastNAs ending positions of the given sequences
+	 *
+	 * @return A list of discordance for each given reference, per sequence
+	 */
+	protected List<Map<Integer, List<Integer>>> compareWithSearchTree(
+		List<String> sequences, int[] seqFirstNAs, int[] seqLastNAs
+	) {
+		int numSeqs = sequences.size();
+		List<Comparison> comparisons = new ArrayList<>(numSeqs);
+		int batchFirstNA = treeLastNA + 1;
+		int batchLastNA = treeFirstNA - 1;
+		for (int seqIdx = 0; seqIdx < numSeqs; seqIdx ++) {
+			Comparison comparison = newComparison(
+				sequences.get(seqIdx), seqFirstNAs[seqIdx], seqLastNAs[seqIdx]);
+			comparisons.add(comparison);
+			batchFirstNA = Math.min(batchFirstNA, comparison.getFirstNA());
+			batchLastNA = Math.max(batchLastNA, comparison.getLastNA());
+		}
+		for (int naPos = batchFirstNA; naPos <= batchLastNA; naPos ++) {
+			for (Comparison comparison : comparisons) {
+				int firstNA = comparison.getFirstNA();
+				if (naPos >= firstNA && naPos <= comparison.getLastNA()) {
+					comparison.compare(naPos - firstNA);
+				}
+			}
+		}
+		List<Map<Integer, List<Integer>>> results = new ArrayList<>(numSeqs);
+		for (Comparison comparison : comparisons) {
+			comparison.finish();
+			results.add(comparison.getDiscordanceListPerRef());
+		}
+		return results;
+	}
+
+	private GenotypeResult<VirusT> toGenotypeResult(
+		String sequence, int firstNA, int lastNA,
+		Map<Integer, List<Integer>> discordanceListPerRef
+	) {
+		List<GenotypeReference<VirusT>> references = virusInstance.getGenotypeReferences();
+		int numRefs = references.size();
+		List<BoundGenotype<VirusT>> results = new ArrayList<>();
+		for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
+			GenotypeReference<VirusT> ref = references.get(refIdx);
+			results.add(ref.getBoundGenotype(
+				sequence, firstNA, lastNA,
+				discordanceListPerRef.getOrDefault(refIdx, new ArrayList<>())
+			));
+		}
+		return new GenotypeResult<>(results);
 	}
 	
 	public GenotypeResult<VirusT> compareAll(String sequence, int firstNA) {
@@ -273,19 +480,198 @@ public class Genotyper<VirusT extends Virus<VirusT>> {
 	}
 
 	protected GenotypeResult<VirusT> compareAll(String sequence, int firstNA, int lastNA) {
-		List<GenotypeReference<VirusT>> references = virusInstance.getGenotypeReferences();
 		Map<Integer, List<Integer>> discordanceListPerRef = compareWithSearchTree(
 			sequence, firstNA, lastNA);
+		return toGenotypeResult(sequence, firstNA, lastNA, discordanceListPerRef);
+	}
+
+	private boolean[] getFallbackRefs() {
+		if (fallbackRefs == null) {
+			List<GenotypeReference<VirusT>> references = virusInstance.getGenotypeReferences();
+			boolean[] isFallback = new boolean[references.size()];
+			for (int refIdx = 0; refIdx < isFallback.length; refIdx ++) {
+				isFallback[refIdx] = !references.get(refIdx).getGenotype().hasParentGenotypes();
+			}
+			fallbackRefs = isFallback;
+		}
+		return fallbackRefs;
+	}
+
+	/** exclude references which can no longer be one of the top K matches
+	 *
+	 * All references share the same compared range, therefore the
+	 * distances are ordered by the numbers of discordances. A reference is
+	 * excluded when its discordances already outnumber the K-th best
+	 * reference after the latter gained all remaining positions. References
+	 * without parent genotypes are also kept if they can still be the best
+	 * fallback match (see {@link GenotypeResult#getFallbackMatch()}).
+	 *
+	 * @param comparison
+	 * @param topK
+	 * @param remaining max number of discordances a reference can still gain
+	 * @param included included references; updated in place
+	 */
+	private void excludeReferences(
+		Comparison comparison, int topK, int remaining, boolean[] included
+	) {
+		boolean[] isFallback = getFallbackRefs();
+		int numRefs = included.length;
+		int[] counts = new int[numRefs];
+		int numIncluded = 0;
+		int bestFallbackCount = Integer.MAX_VALUE;
+		for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
+			if (included[refIdx]) {
+				int count = comparison.getNumDiscordances(refIdx);
+				counts[numIncluded ++] = count;
+				if (isFallback[refIdx]) {
+					bestFallbackCount = Math.min(bestFallbackCount, count);
+				}
+			}
+		}
+		if (numIncluded <= topK) {
+			return;
+		}
+		int[] sortedCounts = Arrays.copyOf(counts, numIncluded);
+		Arrays.sort(sortedCounts);
+		long maxCount = (long) sortedCounts[topK - 1] + remaining;
+		long maxFallbackCount = (long) bestFallbackCount + remaining;
+		for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
+			if (!included[refIdx]) {
+				continue;
+			}
+			int count = comparison.getNumDiscordances(refIdx);
+			if (count > maxCount && (!isFallback[refIdx] || count > maxFallbackCount)) {
+				included[refIdx] = false;
+				comparison.excludeReference(refIdx);
+			}
+		}
+	}
+
+	/** compare given sequence and only keep the top K matches
+	 *
+	 * References which can no longer be one of the K best matches are
+	 * excluded during the comparison; BoundGenotype objects are only
+	 * created for the K best matches. The best match without parent
+	 * genotypes is always kept, so that {@link GenotypeResult#getBestMatch()}
+	 * returns the same result as {@link #compareAll(String, int)}.
+	 *
+	 * @param sequence a string of DNA sequence
+	 * @param firstNA starting position of the given sequence
+	 * @param topK number of best matches to keep
+	 *
+	 * @return GenotypeResult of the top K (plus the fallback) matches
+	 */
+	public GenotypeResult<VirusT> compareTopK(String sequence, int firstNA, int topK) {
+		if (topK < 1) {
+			throw new IllegalArgumentException("topK must be a positive integer.");
+		}
+		int lastNA = firstNA + sequence.length() - 1;
+		List<GenotypeReference<VirusT>> references = virusInstance.getGenotypeReferences();
 		int numRefs = references.size();
-		List<BoundGenotype<VirusT>> results = new ArrayList<>();
+		boolean[] included = new boolean[numRefs];
+		Arrays.fill(included, true);
+		Comparison comparison = newComparison(sequence, firstNA, lastNA);
+		int compareLength = comparison.getLastNA() - comparison.getFirstNA() + 1;
+		for (int i = 0; i < compareLength; i ++) {
+			comparison.compare(i);
+			if ((i + 1) % PRUNE_INTERVAL == 0) {
+				// discordances of the current codon are not counted yet
+				excludeReferences(comparison, topK, compareLength - i + 2, included);
+			}
+		}
+		comparison.finish();
+
+		List<Integer> refIndice = new ArrayList<>();
 		for (int refIdx = 0; refIdx < numRefs; refIdx ++) {
-			GenotypeReference<VirusT> ref = references.get(refIdx);
-			results.add(ref.getBoundGenotype(
+			if (included[refIdx]) {
+				refIndice.add(refIdx);
+			}
+		}
+		refIndice.sort(Comparator
+			.comparingInt((Integer refIdx) -> comparison.getNumDiscordances(refIdx))
+			.thenComparingInt(refIdx -> refIdx));
+		boolean[] isFallback = getFallbackRefs();
+		Map<Integer, List<Integer>> discordanceListPerRef = comparison.getDiscordanceListPerRef();
+		List<BoundGenotype<VirusT>> results = new ArrayList<>();
+		boolean hasFallback = false;
+		for (int refIdx : refIndice) {
+			boolean fallback = isFallback[refIdx] && !hasFallback;
+			if (results.size() >= topK && !fallback) {
+				continue;
+			}
+			hasFallback = hasFallback || isFallback[refIdx];
+			results.add(references.get(refIdx).getBoundGenotype(
 				sequence, firstNA, lastNA,
 				discordanceListPerRef.getOrDefault(refIdx, new ArrayList<>())
 			));
+			if (results.size() >= topK && hasFallback) {
+				break;
+			}
 		}
 		return new GenotypeResult<>(results);
 	}
 
+	/** genotype given sequences in batch
+	 *
+	 * The sequences are split into chunks of {@value #BATCH_CHUNK_SIZE}.
+	 * Each chunk is compared in one pass over the references on the
+	 * shared executor.
+	 *
+	 * @param sequences a list of DNA sequences
+	 * @param firstNAs starting positions of the given sequences
+	 *
+	 * @return one GenotypeResult per sequence, in the same order
+	 */
+	public List<GenotypeResult<VirusT>> compareAll(List<String> sequences, int[] firstNAs) {
+		int numSeqs = sequences.size();
+		if (firstNAs.length != numSeqs) {
+			throw new IllegalArgumentException(String.format(
+				"Expect %d starting positions but received %d.",
+				numSeqs, firstNAs.length
+			));
+		}
+		List<List<Integer>> chunks = Lists.partition(
+			IntStream.range(0, numSeqs).boxed().collect(Collectors.toList()),
+			BATCH_CHUNK_SIZE
+		);
+		List<List<GenotypeResult<VirusT>>> chunkResults = SharedExecutor.invokeAll(
+			chunks,
+			chunk -> {
+				int chunkSize = chunk.size();
+				List<String> chunkSeqs = new ArrayList<>(chunkSize);
+				int[] chunkFirstNAs = new int[chunkSize];
+				int[] chunkLastNAs = new int[chunkSize];
+				for (int i = 0; i < chunkSize; i ++) {
+					int seqIdx = chunk.get(i);
+					String sequence = sequences.get(seqIdx);
+					chunkSeqs.add(sequence);
+					chunkFirstNAs[i] = firstNAs[seqIdx];
+					chunkLastNAs[i] = firstNAs[seqIdx] + sequence.length() - 1;
+				}
+				return compareAll(chunkSeqs, chunkFirstNAs, chunkLastNAs);
+			}
+		);
+		List<GenotypeResult<VirusT>> results = new ArrayList<>(numSeqs);
+		for (List<GenotypeResult<VirusT>> chunkResult : chunkResults) {
+			results.addAll(chunkResult);
+		}
+		return results;
+	}
+
+	protected List<GenotypeResult<VirusT>> compareAll(
+		List<String> sequences, int[] firstNAs, int[] lastNAs
+	) {
+		List<Map<Integer, List<Integer>>> discordanceListsPerRef = compareWithSearchTree(
+			sequences, firstNAs, lastNAs);
+		int numSeqs = sequences.size();
+		List<GenotypeResult<VirusT>> results = new ArrayList<>(numSeqs);
+		for (int seqIdx = 0; seqIdx < numSeqs; seqIdx ++) {
+			results.add(toGenotypeResult(
+				sequences.get(seqIdx), firstNAs[seqIdx], lastNAs[seqIdx],
+				discordanceListsPerRef.get(seqIdx)
+			));
+		}
+		return results;
+	}
+
 }
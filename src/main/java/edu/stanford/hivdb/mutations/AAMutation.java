@@ -23,21 +23,22 @@ package edu.stanford.hivdb.mutations;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import com.google.common.primitives.Chars;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import edu.stanford.hivdb.comments.BoundComment;
 import edu.stanford.hivdb.drugs.DrugClass;
+import edu.stanford.hivdb.utilities.AABitmask;
+import edu.stanford.hivdb.utilities.EnvUtils;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Strain;
 import edu.stanford.hivdb.viruses.Virus;
@@ -50,7 +51,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	protected final Gene<VirusT> gene;
 	protected final int position;
-	protected final Set<Character> aaChars;
+	// bitmask of normalized AAs, see AABitmask
+	protected final int aaMask;
 	protected final int maxDisplayAAs;
 	protected transient Character ref;
 	protected transient List<MutationType<VirusT>> types;
@@ -65,7 +67,107 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	protected transient DrugClass<VirusT> drmDrugClass;
 	protected transient DrugClass<VirusT> sdrmDrugClass;
 	protected transient DrugClass<VirusT> tsmDrugClass;
-	
+	private transient AAMutation<VirusT> canonical;
+
+	private static final Cache<InternKey, AAMutation<?>> internedMutations;
+
+	static {
+		internedMutations = CacheBuilder.newBuilder()
+			.maximumSize(EnvUtils.getLongEnv("SIERRA_MUTATION_CACHE_SIZE", 100000, 0))
+			.build();
+	}
+
+	private static final class InternKey {
+		private final Gene<?> gene;
+		private final int position;
+		private final int aaMask;
+		private final int maxDisplayAAs;
+
+		private InternKey(Gene<?> gene, int position, int aaMask, int maxDisplayAAs) {
+			this.gene = gene;
+			this.position = position;
+			this.aaMask = aaMask;
+			this.maxDisplayAAs = maxDisplayAAs;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) { return true; }
+			if (!(o instanceof InternKey)) { return false; }
+			InternKey k = (InternKey) o;
+			return (
+				gene == k.gene && position == k.position &&
+				aaMask == k.aaMask && maxDisplayAAs == k.maxDisplayAAs
+			);
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder(7919, 104729)
+				.append(gene)
+				.append(position)
+				.append(aaMask)
+				.append(maxDisplayAAs)
+				.toHashCode();
+		}
+	}
+
+	/**
+	 * Returns the canonical instance of given mutation.
+	 *
+	 * Canonical instances are shared by all callers in the same JVM, so
+	 * that the classification of a mutation (DRM, SDRM, unusual, etc.) is
+	 * only computed once. The number of canonical instances is bounded by
+	 * SIERRA_MUTATION_CACHE_SIZE (default: 100000); the least recently
+	 * used ones are evicted.
+	 *
+	 * @param gene			Gene
+	 * @param position		Position
+	 * @param aaChars		AA chars
+	 * @param maxDisplayAAs	Max number of AAs to be displayed
+	 * @return				The canonical AAMutation object
+	 */
+	public static <VirusT extends Virus<VirusT>> AAMutation<VirusT> intern(
+		Gene<VirusT> gene, int position, Set<Character> aaChars, int maxDisplayAAs
+	) {
+		return intern(gene, position, AABitmask.fromChars(aaChars), maxDisplayAAs);
+	}
+
+	/**
+	 * Returns the canonical instance of given mutation.
+	 *
+	 * @param gene			Gene
+	 * @param position		Position
+	 * @param aaMask		AA bitmask, see {@link AABitmask}
+	 * @param maxDisplayAAs	Max number of AAs to be displayed
+	 * @return				The canonical AAMutation object
+	 */
+	@SuppressWarnings("unchecked")
+	public static <VirusT extends Virus<VirusT>> AAMutation<VirusT> intern(
+		Gene<VirusT> gene, int position, int aaMask, int maxDisplayAAs
+	) {
+		InternKey key = new InternKey(gene, position, aaMask, maxDisplayAAs);
+		try {
+			return (AAMutation<VirusT>) internedMutations.get(key, () -> {
+				AAMutation<VirusT> mut = new AAMutation<>(gene, position, aaMask, maxDisplayAAs);
+				mut.canonical = mut;
+				return mut;
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	public static <VirusT extends Virus<VirusT>> AAMutation<VirusT> intern(
+		Gene<VirusT> gene, int position, Set<Character> aaChars
+	) {
+		return intern(gene, position, aaChars, DEFAULT_MAX_DISPLAY_AAS);
+	}
+
 	public static Set<Character> normalizeAAChars(Set<Character> aaChars) {
 		if (aaChars == null) { return null; }
 		aaChars = new TreeSet<>(aaChars);
@@ -92,11 +194,11 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	}
 
 	public AAMutation(Gene<VirusT> gene, int position, char[] aaCharArray) {
-		this(gene, position, new TreeSet<>(Chars.asList(aaCharArray)), DEFAULT_MAX_DISPLAY_AAS);
+		this(gene, position, AABitmask.fromChars(aaCharArray), DEFAULT_MAX_DISPLAY_AAS);
 	}
 
 	public AAMutation(Gene<VirusT> gene, int position, char[] aaCharArray, int maxDisplayAAs) {
-		this(gene, position, new TreeSet<>(Chars.asList(aaCharArray)), maxDisplayAAs);
+		this(gene, position, AABitmask.fromChars(aaCharArray), maxDisplayAAs);
 	}
 
 	public AAMutation(Gene<VirusT> gene, int position, Set<Character> aaChars) {
@@ -104,18 +206,41 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	}
 
 	public AAMutation(Gene<VirusT> gene, int position, Set<Character> aaChars, int maxDisplayAAs) {
+		this(gene, position, AABitmask.fromChars(aaChars), maxDisplayAAs);
+	}
+
+	/**
+	 * @param gene			Gene
+	 * @param position		Position
+	 * @param aaMask		AA bitmask, see {@link AABitmask}
+	 * @param maxDisplayAAs	Max number of AAs to be displayed
+	 */
+	protected AAMutation(Gene<VirusT> gene, int position, int aaMask, int maxDisplayAAs) {
 		if (position > gene.getAASize()) {
 			throw new IllegalArgumentException(String.format(
 				"Position is out of bounds for %s: %d (1-%d).", gene, position, gene.getAASize()
 			));
 		}
 		this.gene = gene;
-		this.aaChars = normalizeAAChars(aaChars);
+		this.aaMask = aaMask;
 		this.position = position;
 		this.maxDisplayAAs = maxDisplayAAs;
 	}
 
 	protected int getMaxDisplayAAs() { return maxDisplayAAs; }
+
+	/**
+	 * Returns the canonical instance of this mutation, which holds the
+	 * shared classification results.
+	 *
+	 * @return AAMutation
+	 */
+	protected final AAMutation<VirusT> getCanonical() {
+		if (canonical == null) {
+			canonical = intern(gene, position, aaMask, maxDisplayAAs);
+		}
+		return canonical;
+	}
 	
 	protected AminoAcidPercents<VirusT> getMainAAPcnts() {
 		if (mainAAPcnts == null) {
@@ -142,9 +267,7 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public Mutation<VirusT> mergesWith(Collection<Character> otherAAChars) {
-		Set<Character> newAAChars = getAAChars();
-		newAAChars.addAll(otherAAChars);
-		return new AAMutation<>(gene, position, newAAChars, maxDisplayAAs);
+		return intern(gene, position, aaMask | AABitmask.fromChars(otherAAChars), maxDisplayAAs);
 	}
 
 	@Override
@@ -163,12 +286,11 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public Mutation<VirusT> subtractsBy(Collection<Character> otherAAChars) {
-		Set<Character> newAAChars = getAAChars();
-		newAAChars.removeAll(otherAAChars);
-		if (newAAChars.size() == 0) {
+		int newAAMask = aaMask & ~AABitmask.fromChars(otherAAChars);
+		if (newAAMask == 0) {
 			return null;
 		}
-		return new AAMutation<>(gene, position, newAAChars, maxDisplayAAs);
+		return intern(gene, position, newAAMask, maxDisplayAAs);
 	}
 
 	@Override
@@ -187,12 +309,11 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public Mutation<VirusT> intersectsWith(Collection<Character> otherAAChars) {
-		Set<Character> newAAChars = getAAChars();
-		newAAChars.retainAll(otherAAChars);
-		if (newAAChars.size() == 0) {
+		int newAAMask = aaMask & AABitmask.fromChars(otherAAChars);
+		if (newAAMask == 0) {
 			return null;
 		}
-		return new AAMutation<>(gene, position, newAAChars, maxDisplayAAs);
+		return intern(gene, position, newAAMask, maxDisplayAAs);
 	}
 
 	@Override
@@ -224,30 +345,38 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public String getDisplayAAs() {
-		if (aaChars.size() > maxDisplayAAs) {
-			return "X";
-		}
-		return StringUtils.join(aaChars.toArray());
+		return AABitmask.toString(getDisplayAAMask());
+	}
+
+	int getDisplayAAMask() {
+		return AABitmask.size(aaMask) > maxDisplayAAs ? AABitmask.UNKNOWN : aaMask;
+	}
+
+	private int getRefMask() {
+		char refChar = getRefChar();
+		return AABitmask.isSupported(refChar) ? AABitmask.bitOf(refChar) : 0;
+	}
+
+	/**
+	 * @return bitmask of AAs, see {@link AABitmask}
+	 */
+	public final int getAAMask() {
+		return aaMask;
 	}
 
 	@Override
 	public final Set<Character> getDisplayAAChars() {
-		Set<Character> myAAChars = new TreeSet<>(aaChars);
-		if (myAAChars.size() > maxDisplayAAs) {
-			myAAChars.clear();
-			myAAChars.add('X');
-		}
-		return myAAChars;
+		return AABitmask.toCharSet(getDisplayAAMask());
 	}
 
 	@Override
 	public String getAAs() {
-		return StringUtils.join(aaChars.toArray());
+		return AABitmask.toString(aaMask);
 	}
 
 	@Override
 	public final Set<Character> getAAChars() {
-		return new TreeSet<>(aaChars);
+		return AABitmask.toCharSet(aaMask);
 	}
 
 	@Override
@@ -257,12 +386,12 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			r.add(this);
 		}
 		else {
-			for (char aa : getAAChars()) {
-				if (aa == getRefChar()) {
-					// ignore reference
-					continue;
-				}
-				r.add(new AAMutation<>(gene, position, Sets.newHashSet(aa), DEFAULT_MAX_DISPLAY_AAS));
+			// ignore reference
+			int mask = aaMask & ~getRefMask();
+			while (mask != 0) {
+				int aaBit = Integer.lowestOneBit(mask);
+				r.add(intern(gene, position, aaBit, DEFAULT_MAX_DISPLAY_AAS));
+				mask &= ~aaBit;
 			}
 		}
 		return r;
@@ -276,18 +405,17 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public final boolean isInsertion() {
-		return getAAChars().contains('_');
-		}
+		return (aaMask & AABitmask.INSERTION) != 0;
+	}
 
 	@Override
 	public final boolean isDeletion() {
-		return getAAChars().contains('-');
+		return (aaMask & AABitmask.DELETION) != 0;
 	}
 
 	@Override
 	public final boolean isIndel() {
-		Set<Character> myAAChars = getAAChars();
-		return myAAChars.contains('_') || myAAChars.contains('-');
+		return (aaMask & (AABitmask.INSERTION | AABitmask.DELETION)) != 0;
 	}
 
 	@Override
@@ -295,19 +423,18 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 		if (isUnsequenced()) {
 			return false;
 		}
-		Set<Character> myAAChars = getAAChars();
-		return myAAChars.size() > 1 || myAAChars.contains('X');
+		return AABitmask.size(aaMask) > 1 || (aaMask & AABitmask.UNKNOWN) != 0;
 	}
 
 	@Override
-	public final boolean hasReference () { return getAAChars().contains(getRefChar()); }
+	public final boolean hasReference () { return (aaMask & getRefMask()) != 0; }
 
 	@Override
 	public final boolean hasStop() {
 		if (isUnsequenced()) {
 			return false;
 		}
-		return getAAChars().contains('*');
+		return (aaMask & AABitmask.STOP) != 0;
 	}
 
 	@Override
@@ -318,24 +445,23 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public boolean isAmbiguous() {
-		Set<Character> myAAChars = getAAChars();
-		return hasBDHVN() || myAAChars.size() > maxDisplayAAs || myAAChars.contains('X');
+		return hasBDHVN() || isAmbiguousWithoutBDHVN();
 	}
 	
 	@Override
 	public boolean isAmbiguousWithoutBDHVN() {
-		Set<Character> myAAChars = getAAChars();
-		return myAAChars.size() > maxDisplayAAs || myAAChars.contains('X');
+		return AABitmask.size(aaMask) > maxDisplayAAs || (aaMask & AABitmask.UNKNOWN) != 0;
 	}
 
 	@Override
 	public String getAAsWithRefFirst() {
-		Set<Character> myAAChars = getDisplayAAChars();
+		int displayMask = getDisplayAAMask();
+		int refMask = getRefMask();
 		StringBuilder resultAAs = new StringBuilder();
-		if (myAAChars.remove(getRefChar())) {
+		if ((displayMask & refMask) != 0) {
 			resultAAs.append(getRefChar());
 		}
-		resultAAs.append(StringUtils.join(myAAChars.toArray()));
+		resultAAs.append(AABitmask.toString(displayMask & ~refMask));
 		return resultAAs.toString();
 	}
 
@@ -349,9 +475,7 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public String getAAsWithoutReference () {
-		Set<Character> myAAChars = getDisplayAAChars();
-		myAAChars.remove(getRefChar());
-		return StringUtils.join(myAAChars.toArray());
+		return AABitmask.toString(getDisplayAAMask() & ~getRefMask());
 	}
 
 	@Override
@@ -365,7 +489,7 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 		return new EqualsBuilder()
 			.append(gene, m.gene)
 			.append(position, m.position)
-			.append(getAAChars(), m.getAAChars())
+			.append(aaMask, m.aaMask)
 			.isEquals();
 	}
 
@@ -374,7 +498,7 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 		return new HashCodeBuilder(4541, 83345463)
 			.append(gene)
 			.append(position)
-			.append(getAAChars())
+			.append(aaMask)
 			.toHashCode();
 	}
 
@@ -405,7 +529,12 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 		if (this.gene.equals(queryMut.getGene()) &&
 			this.position == queryMut.getPosition()
 		) {
-			return containsSharedAA(queryMut.getAAChars(), true);
+			int queryAAMask = (
+				queryMut instanceof AAMutation ?
+				((AAMutation<VirusT>) queryMut).aaMask :
+				AABitmask.fromChars(queryMut.getAAChars())
+			);
+			return containsSharedAA(queryAAMask, true);
 		}
 		return false;
 	}
@@ -414,43 +543,34 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	public boolean containsSharedAA(
 		Set<Character> queryAAChars, boolean ignoreRefOrStops
 	) {
-		Set<Character> myAAChars = getAAChars();
-		myAAChars.retainAll(queryAAChars);
+		return containsSharedAA(AABitmask.fromChars(queryAAChars), ignoreRefOrStops);
+	}
+
+	private boolean containsSharedAA(int queryAAMask, boolean ignoreRefOrStops) {
+		int sharedMask = aaMask & queryAAMask;
 		if (ignoreRefOrStops) {
 			// Remove reference and stop codons so
 			// that they are not responsible for a match
-			myAAChars.remove(getRefChar());
-			myAAChars.remove('*');
+			sharedMask &= ~(getRefMask() | AABitmask.STOP);
 		}
-		return !myAAChars.isEmpty();
+		return sharedMask != 0;
 	}
 
 	@Override
 	public boolean isAtDrugResistancePosition() {
 		if (isAtDrugResistancePosition == null) {
-			isAtDrugResistancePosition = getGenePosition().isDrugResistancePosition();
+			AAMutation<VirusT> canonical = getCanonical();
+			isAtDrugResistancePosition = (
+				canonical == this ?
+				getClassificationIndex().isDrugResistancePosition(gene, position) :
+				canonical.isAtDrugResistancePosition()
+			);
 		}
 		return isAtDrugResistancePosition;
 	}
 	
-	private final boolean existsInMutationSets(Collection<MutationSet<VirusT>> mutSets) {
-		return (
-			mutSets.stream()
-			.anyMatch(muts -> (
-				muts.hasSharedAAMutation(this, /* ignoreRefOrStops = */false)
-			))
-		);
-	}
-	
-	private final DrugClass<VirusT> lookupDrugClass(Map<DrugClass<VirusT>, MutationSet<VirusT>> lookup) {
-		for (
-			Map.Entry<DrugClass<VirusT>, MutationSet<VirusT>> entry : lookup.entrySet()
-		) {
-			if (entry.getValue().hasSharedAAMutation(this, /* ignoreRefOrStops=*/false)) {
-				return entry.getKey();
-			}
-		}
-		return null;
+	private MutationClassificationIndex<VirusT> getClassificationIndex() {
+		return MutationClassificationIndex.getInstance(gene.getVirusInstance());
 	}
 
 	@Override
@@ -462,10 +582,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isDRM == null) {
-			isDRM = existsInMutationSets(
-				gene.getVirusInstance()
-				.getDrugResistMutations()
-				.values());
+			AAMutation<VirusT> canonical = getCanonical();
+			isDRM = canonical == this ? getClassificationIndex().isDRM(this) : canonical.isDRM();
 		}
 		return isDRM;
 	}
@@ -476,7 +594,12 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			if (!isDRM()) {
 				return null;
 			}
-			drmDrugClass = lookupDrugClass(gene.getVirusInstance().getDrugResistMutations());
+			AAMutation<VirusT> canonical = getCanonical();
+			drmDrugClass = (
+				canonical == this ?
+				getClassificationIndex().getDRMDrugClass(this) :
+				canonical.getDRMDrugClass()
+			);
 		}
 		return drmDrugClass;
 	}
@@ -490,10 +613,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isTSM == null) {
-			isTSM = existsInMutationSets(
-				gene.getVirusInstance()
-				.getRxSelectedMutations()
-				.values());
+			AAMutation<VirusT> canonical = getCanonical();
+			isTSM = canonical == this ? getClassificationIndex().isTSM(this) : canonical.isTSM();
 		}
 		return isTSM;
 	}
@@ -504,7 +625,12 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			if (!isTSM()) {
 				return null;
 			}
-			tsmDrugClass = lookupDrugClass(gene.getVirusInstance().getRxSelectedMutations());
+			AAMutation<VirusT> canonical = getCanonical();
+			tsmDrugClass = (
+				canonical == this ?
+				getClassificationIndex().getTSMDrugClass(this) :
+				canonical.getTSMDrugClass()
+			);
 		}
 		return tsmDrugClass;
 	}
@@ -520,17 +646,17 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isUnusual == null) {
-			Set<Character> myAAChars = getAAChars();
-			if (myAAChars.contains('X')) {
+			AAMutation<VirusT> canonical = getCanonical();
+			if (canonical != this) {
+				isUnusual = canonical.isUnusual();
+			}
+			else if ((aaMask & AABitmask.UNKNOWN) != 0) {
 				isUnusual = true;
 			}
 			else {
 				isUnusual = (
 					getMainAAPcnts()
-					.containsUnusualAA(
-						gene, position,
-						StringUtils.join(myAAChars.toArray())
-					)
+					.containsUnusualAA(gene, position, aaMask)
 				);
 			}
 		}
@@ -546,10 +672,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isSDRM == null) {
-			isSDRM = existsInMutationSets(
-				gene.getVirusInstance()
-				.getSurveilDrugResistMutations()
-				.values());
+			AAMutation<VirusT> canonical = getCanonical();
+			isSDRM = canonical == this ? getClassificationIndex().isSDRM(this) : canonical.isSDRM();
 		}
 		return isSDRM;
 	}
@@ -560,7 +684,12 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			if (!isSDRM()) {
 				return null;
 			}
-			sdrmDrugClass = lookupDrugClass(gene.getVirusInstance().getSurveilDrugResistMutations());
+			AAMutation<VirusT> canonical = getCanonical();
+			sdrmDrugClass = (
+				canonical == this ?
+				getClassificationIndex().getSDRMDrugClass(this) :
+				canonical.getSDRMDrugClass()
+			);
 		}
 		return sdrmDrugClass;
 	}
@@ -571,11 +700,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isApobecMutation == null) {
-			isApobecMutation = (
-				gene.getVirusInstance()
-				.getApobecMutations()
-				.hasSharedAAMutation(this, /* ignoreRefOrStops = */false)
-			);
+			AAMutation<VirusT> canonical = getCanonical();
+			isApobecMutation = canonical == this ? getClassificationIndex().isApobecMutation(this) : canonical.isApobecMutation();
 		}
 		return isApobecMutation;
 	}
@@ -586,11 +712,8 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 			return false;
 		}
 		if (isApobecDRM == null) {
-			isApobecDRM = (
-				gene.getVirusInstance()
-				.getApobecDRMs()
-				.hasSharedAAMutation(this, /* ignoreRefOrStops = */false)
-			);
+			AAMutation<VirusT> canonical = getCanonical();
+			isApobecDRM = canonical == this ? getClassificationIndex().isApobecDRM(this) : canonical.isApobecDRM();
 		}
 		return isApobecDRM;
 	}
@@ -598,16 +721,17 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	@Override
 	public double getHighestMutPrevalence() {
 		if (highestMutPrevalence == null) {
-			Set<Character> myAAChars = getAAChars();
-			myAAChars.remove(getRefChar());
-			myAAChars.remove('X');
-			if (myAAChars.isEmpty()) {
+			int myAAMask = aaMask & ~(getRefMask() | AABitmask.UNKNOWN);
+			AAMutation<VirusT> canonical = getCanonical();
+			if (canonical != this) {
+				highestMutPrevalence = canonical.getHighestMutPrevalence();
+			}
+			else if (myAAMask == 0) {
 				highestMutPrevalence = .0;
 			}
 			else {
 				highestMutPrevalence = getMainAAPcnts().getHighestAAPercentValue(
-					gene, position,
-					StringUtils.join(myAAChars.toArray())) * 100;
+					gene, position, myAAMask) * 100;
 			}
 		}
 		return highestMutPrevalence;
@@ -621,26 +745,26 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 	@Override
 	public List<MutationType<VirusT>> getTypes() {
 		if (types == null) {
-			types = (
-				gene.getVirusInstance()
-				.getMutationTypePairs()
-				.stream()
-				.filter(mtp -> mtp.isMutationMatched(this))
-				.map(mtp -> mtp.getMutationType())
-				.collect(Collectors.toList())
-			);
-			if (types.size() == 0) {
-				types = Lists.newArrayList(
+			AAMutation<VirusT> canonical = getCanonical();
+			if (canonical != this) {
+				types = canonical.getTypes();
+				return types;
+			}
+			List<MutationType<VirusT>> myTypes = getClassificationIndex().getMutationTypes(this);
+			if (myTypes.size() == 0) {
+				myTypes = Lists.newArrayList(
 					gene.getVirusInstance().getOtherMutationType()
 				);
 			}
+			// shared by all copies of this mutation
+			types = Collections.unmodifiableList(myTypes);
 		}
 		return types;
 	}
 
 	@Override
 	public final String getASIFormat() {
-		String fmtAAs = StringUtils.join(getAAChars().toArray());
+		String fmtAAs = AABitmask.toString(aaMask);
 		fmtAAs = (
 			fmtAAs
 			.replace('_', 'i')
@@ -655,7 +779,7 @@ public class AAMutation<VirusT extends Virus<VirusT>> implements Mutation<VirusT
 
 	@Override
 	public final String getHIVDBFormat() {
-		String fmtAAs = StringUtils.join(getAAChars().toArray());
+		String fmtAAs = AABitmask.toString(aaMask);
 		fmtAAs = (
 			fmtAAs
 			.replace('_', '#')
@@ -25,18 +25,16 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 
-import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import edu.stanford.hivdb.utilities.AABitmask;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Strain;
 import edu.stanford.hivdb.viruses.Virus;
@@ -45,13 +43,38 @@ import edu.stanford.hivdb.viruses.Virus;
 /**
  * There are two public methods: getHighestMutPrevalence, unusualMutations
  *
+ * Percents are stored in dense arrays indexed by gene ordinal, position
+ * and AA bit index (see {@link AABitmask}), so that looking up an AA does
+ * not allocate any object. The data is loaded from the binary resource
+ * (see {@link BinaryPercents}) if there's one, otherwise from the JSON
+ * resource. AminoAcidPercent objects are only created when requested.
  */
 public class AminoAcidPercents<VirusT extends Virus<VirusT>> {
 
 	final static protected Gson gson = new Gson();
+	final static private int NUM_AAS = AABitmask.NUM_BITS;
+
+	final private BinaryPercents.Table table;
+	final private Gene<VirusT>[] recordGenes;
+
+	// indexed by gene ordinal
+	final private Gene<VirusT>[] genes;
+	final private int[] geneOffsets;
+	final private int[] geneSizes;
+
+	// indexed by position offset; false/0 if the position has no data
+	final private boolean[] posHasData;
+	final private int[] totals;
+	final private int[] unusualMasks;
+
+	// indexed by position offset * NUM_AAS + AA bit index
+	final private double[] percents;
 
-	final private List<AminoAcidPercent<VirusT>> aminoAcidPcnts;
-	final private Map<GenePosition<VirusT>, Map<Character, AminoAcidPercent<VirusT>>> aminoAcidPcntMap = new HashMap<>();
+	// created on demand by initObjects()
+	private volatile List<AminoAcidPercent<VirusT>> aminoAcidPcnts;
+	private List<List<AminoAcidPercent<VirusT>>> geneAAPcnts;
+	private List<List<AminoAcidPercent<VirusT>>> posAAPcnts;
+	private AminoAcidPercent<VirusT>[] aaPcntTable;
 
 
 	/**
@@ -64,41 +87,108 @@ public class AminoAcidPercents<VirusT extends Virus<VirusT>> {
 	 */
 	public AminoAcidPercents(String resourceName, VirusT virusInstance, Strain<VirusT> strain) {
 
-		try (
-			InputStream stream = this
-				.getClass().getClassLoader()
-				.getResourceAsStream(resourceName);
-		) {
-			String raw = IOUtils.toString(stream, StandardCharsets.UTF_8);
-			List<Map<String, ?>> aminoAcidPcntData = gson.fromJson(
-				raw, new TypeToken<List<Map<String, ?>>>(){}.getType());
-			List<AminoAcidPercent<VirusT>> aminoAcidPcnts = (
-				aminoAcidPcntData.stream()
-				.map(aaPcnt -> new AminoAcidPercent<>(
-					strain.getGene((String) aaPcnt.get("gene")),
-					((Double) aaPcnt.get("position")).intValue(),
-					((String) aaPcnt.get("aa")).charAt(0),
-					(Double) aaPcnt.get("percent"),
-					((Double) aaPcnt.get("count")).intValue(),
-					((Double) aaPcnt.get("total")).intValue(),
-					(String) aaPcnt.get("reason"),
-					(Boolean) aaPcnt.get("isUnusual")
-				))
-				.collect(Collectors.toList())
-			);
-			this.aminoAcidPcnts = Collections.unmodifiableList(aminoAcidPcnts);
-		} catch (IOException|NullPointerException e) {
-			throw new ExceptionInInitializerError(
-				String.format("Invalid resource name (%s)", resourceName)
-			);
+		BinaryPercents.Table table = BinaryPercents.loadTable(
+			resourceName, BinaryPercents.TYPE_AMINO_ACID);
+		if (table == null) {
+			try (
+				InputStream stream = this
+					.getClass().getClassLoader()
+					.getResourceAsStream(resourceName);
+			) {
+				String raw = IOUtils.toString(stream, StandardCharsets.UTF_8);
+				List<Map<String, ?>> aminoAcidPcntData = gson.fromJson(
+					raw, new TypeToken<List<Map<String, ?>>>(){}.getType());
+				table = BinaryPercents.toTable(aminoAcidPcntData, BinaryPercents.TYPE_AMINO_ACID);
+			} catch (IOException|NullPointerException e) {
+				throw new ExceptionInInitializerError(
+					String.format("Invalid resource name (%s)", resourceName)
+				);
+			}
 		}
+		this.table = table;
+		int numRecords = table.size();
 
-		for (AminoAcidPercent<VirusT> aaPcnt : aminoAcidPcnts) {
-			GenePosition<VirusT> gp = aaPcnt.getGenePosition();
-			aminoAcidPcntMap.putIfAbsent(gp, new LinkedHashMap<>());
-			aminoAcidPcntMap.get(gp).put(aaPcnt.getAA(), aaPcnt);
+		Map<String, Gene<VirusT>> genesByName = new HashMap<>();
+		recordGenes = newGeneArray(numRecords);
+		int numGenes = 0;
+		for (int i = 0; i < numRecords; i ++) {
+			String geneName = table.getGene(i);
+			Gene<VirusT> gene = genesByName.computeIfAbsent(geneName, strain::getGene);
+			if (gene == null) {
+				throw new ExceptionInInitializerError(
+					String.format("Invalid gene %s in resource (%s)", geneName, resourceName)
+				);
+			}
+			recordGenes[i] = gene;
+			numGenes = Math.max(numGenes, gene.getOrdinal() + 1);
+		}
+		genes = newGeneArray(numGenes);
+		geneOffsets = new int[numGenes];
+		geneSizes = new int[numGenes];
+		for (int i = 0; i < numRecords; i ++) {
+			Gene<VirusT> gene = recordGenes[i];
+			int ordinal = gene.getOrdinal();
+			if (genes[ordinal] == null) {
+				genes[ordinal] = gene;
+			}
+			else if (genes[ordinal] != gene) {
+				throw new ExceptionInInitializerError(
+					String.format("Duplicated gene ordinal in resource (%s)", resourceName)
+				);
+			}
+			geneSizes[ordinal] = Math.max(geneSizes[ordinal], table.getPosition(i));
+		}
+		int numPositions = 0;
+		for (int ordinal = 0; ordinal < numGenes; ordinal ++) {
+			geneOffsets[ordinal] = numPositions;
+			numPositions += geneSizes[ordinal];
+		}
+
+		posHasData = new boolean[numPositions];
+		totals = new int[numPositions];
+		unusualMasks = new int[numPositions];
+		percents = new double[numPositions * NUM_AAS];
+		int[] seenMasks = new int[numPositions];
+
+		for (int i = 0; i < numRecords; i ++) {
+			int posOffset = geneOffsets[recordGenes[i].getOrdinal()] + table.getPosition(i) - 1;
+			if (!posHasData[posOffset]) {
+				posHasData[posOffset] = true;
+				totals[posOffset] = table.getAATotal(i);
+			}
+			int aaIdx = AABitmask.indexOf(table.getAA(i));
+			if (aaIdx < 0) {
+				continue;
+			}
+			// the later one replaces the earlier one of the same AA
+			int bit = 1 << aaIdx;
+			percents[posOffset * NUM_AAS + aaIdx] = table.getAAPercent(i);
+			seenMasks[posOffset] |= bit;
+			if (table.isUnusual(i)) {
+				unusualMasks[posOffset] |= bit;
+			}
+			else {
+				unusualMasks[posOffset] &= ~bit;
+			}
+		}
+		int allAAs = (1 << NUM_AAS) - 1;
+		for (int posOffset = 0; posOffset < numPositions; posOffset ++) {
+			if (posHasData[posOffset]) {
+				// unseen AAs are unusual
+				unusualMasks[posOffset] |= allAAs & ~seenMasks[posOffset];
+			}
 		}
 	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> Gene<VirusT>[] newGeneArray(int size) {
+		return new Gene[size];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> AminoAcidPercent<VirusT>[] newAAPcntArray(int size) {
+		return new AminoAcidPercent[size];
+	}
 	
 	public static <VirusT extends Virus<VirusT>> AminoAcidPercents<VirusT> newEmptyInstance() {
 		return new AminoAcidPercents<>();
@@ -109,52 +199,168 @@ public class AminoAcidPercents<VirusT extends Virus<VirusT>> {
 	 * 
 	 */
 	private AminoAcidPercents() {
+		table = null;
+		recordGenes = newGeneArray(0);
+		genes = newGeneArray(0);
+		geneOffsets = new int[0];
+		geneSizes = new int[0];
+		posHasData = new boolean[0];
+		totals = new int[0];
+		unusualMasks = new int[0];
+		percents = new double[0];
+		geneAAPcnts = Collections.emptyList();
+		posAAPcnts = Collections.emptyList();
+		aaPcntTable = newAAPcntArray(0);
 		aminoAcidPcnts = Collections.emptyList();
 	}
 
+	/**
+	 * Creates AminoAcidPercent objects of all records and their indices.
+	 */
+	private void initObjects() {
+		if (aminoAcidPcnts != null) {
+			return;
+		}
+		synchronized (this) {
+			if (aminoAcidPcnts != null) {
+				return;
+			}
+			int numRecords = table.size();
+			List<AminoAcidPercent<VirusT>> aaPcnts = new ArrayList<>(numRecords);
+			List<List<AminoAcidPercent<VirusT>>> geneLists = new ArrayList<>(
+				Collections.nCopies(genes.length, null));
+			List<List<AminoAcidPercent<VirusT>>> posLists = new ArrayList<>(
+				Collections.nCopies(posHasData.length, null));
+			AminoAcidPercent<VirusT>[] aaTable = newAAPcntArray(posHasData.length * NUM_AAS);
+			for (int i = 0; i < numRecords; i ++) {
+				Gene<VirusT> gene = recordGenes[i];
+				int pos = table.getPosition(i);
+				char aa = table.getAA(i);
+				AminoAcidPercent<VirusT> aaPcnt = new AminoAcidPercent<>(
+					gene, pos, aa,
+					table.getAAPercent(i),
+					table.getAACount(i),
+					table.getAATotal(i),
+					table.getReason(i),
+					table.isUnusual(i));
+				aaPcnts.add(aaPcnt);
+
+				int ordinal = gene.getOrdinal();
+				if (geneLists.get(ordinal) == null) {
+					geneLists.set(ordinal, new ArrayList<>());
+				}
+				geneLists.get(ordinal).add(aaPcnt);
+
+				int posOffset = geneOffsets[ordinal] + pos - 1;
+				List<AminoAcidPercent<VirusT>> aaPcntList = posLists.get(posOffset);
+				if (aaPcntList == null) {
+					aaPcntList = new ArrayList<>();
+					posLists.set(posOffset, aaPcntList);
+				}
+				// the later one replaces the earlier one of the same AA
+				boolean replaced = false;
+				for (int j = 0; j < aaPcntList.size(); j ++) {
+					if (aaPcntList.get(j).getAA() == aa) {
+						aaPcntList.set(j, aaPcnt);
+						replaced = true;
+						break;
+					}
+				}
+				if (!replaced) {
+					aaPcntList.add(aaPcnt);
+				}
+				int aaIdx = AABitmask.indexOf(aa);
+				if (aaIdx >= 0) {
+					aaTable[posOffset * NUM_AAS + aaIdx] = aaPcnt;
+				}
+			}
+			geneAAPcnts = geneLists;
+			posAAPcnts = posLists;
+			aaPcntTable = aaTable;
+			// written last; readers check this volatile field first
+			aminoAcidPcnts = Collections.unmodifiableList(aaPcnts);
+		}
+	}
+
+	/**
+	 * Returns the offset of given position in the dense arrays.
+	 *
+	 * @param gene	Gene
+	 * @param pos	Position
+	 * @return		Offset; -1 if the position has no data
+	 */
+	private int indexOf(Gene<VirusT> gene, int pos) {
+		int ordinal = gene.getOrdinal();
+		if (
+			ordinal < 0 || ordinal >= genes.length ||
+			genes[ordinal] != gene ||
+			pos < 1 || pos > geneSizes[ordinal]
+		) {
+			return -1;
+		}
+		int posOffset = geneOffsets[ordinal] + pos - 1;
+		return posHasData[posOffset] ? posOffset : -1;
+	}
+
 	public List<AminoAcidPercent<VirusT>> get() {
+		initObjects();
 		// make a copy in case of any modification
 		return new ArrayList<>(aminoAcidPcnts);
 	}
 
 	public List<AminoAcidPercent<VirusT>> get(Gene<VirusT> gene) {
-		return (aminoAcidPcnts
-				.stream().filter(aap -> aap.getGene().equals(gene))
-				.collect(Collectors.toList()));
+		int ordinal = gene.getOrdinal();
+		if (ordinal < 0 || ordinal >= genes.length || genes[ordinal] != gene) {
+			return new ArrayList<>();
+		}
+		initObjects();
+		return new ArrayList<>(geneAAPcnts.get(ordinal));
 	}
 
 	public List<AminoAcidPercent<VirusT>> get(Gene<VirusT> gene, int pos) {
-		return new ArrayList<>(
-			aminoAcidPcntMap.get(new GenePosition<>(gene, pos))
-			.values());
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
+			return new ArrayList<>();
+		}
+		initObjects();
+		return new ArrayList<>(posAAPcnts.get(posOffset));
 	}
 
 	public List<AminoAcidPercent<VirusT>> get(GenePosition<VirusT> genePos) {
-		return new ArrayList<>(
-			aminoAcidPcntMap.getOrDefault(genePos, Collections.emptyMap())
-			.values());
+		return get(genePos.getGene(), genePos.getPosition());
 	}
 
 	public AminoAcidPercent<VirusT> get(Gene<VirusT> gene, int pos, char aa) {
-		return get(new GenePosition<>(gene, pos), aa);
-	}
-
-	public AminoAcidPercent<VirusT> get(GenePosition<VirusT> genePos, char aa) {
-		Map<Character, AminoAcidPercent<VirusT>> posAAPcnts = aminoAcidPcntMap
-			.getOrDefault(genePos, Collections.emptyMap());
-		if (posAAPcnts.isEmpty()) {
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
 			return null;
 		}
-		AminoAcidPercent<VirusT> aaPcnt = posAAPcnts.get(aa);
-		if (aaPcnt != null) {
-			return aaPcnt;
+		initObjects();
+		int aaIdx = AABitmask.indexOf(aa);
+		if (aaIdx < 0) {
+			for (AminoAcidPercent<VirusT> aaPcnt : posAAPcnts.get(posOffset)) {
+				if (aaPcnt.getAA() == aa) {
+					return aaPcnt;
+				}
+			}
+			return newUnseenAAPcnt(gene, pos, aa, posOffset);
 		}
-		else {
-			int total = Lists.newArrayList(posAAPcnts.values()).get(0).getTotal();
-			return new AminoAcidPercent<>(
-				genePos.getGene(), genePos.getPosition(),
-				aa, .0, 0, total, "PCNT", true);
+		int tableIdx = posOffset * NUM_AAS + aaIdx;
+		AminoAcidPercent<VirusT> aaPcnt = aaPcntTable[tableIdx];
+		if (aaPcnt == null) {
+			// immutable, therefore it's safe to share it between threads
+			aaPcnt = newUnseenAAPcnt(gene, pos, aa, posOffset);
+			aaPcntTable[tableIdx] = aaPcnt;
 		}
+		return aaPcnt;
+	}
+
+	public AminoAcidPercent<VirusT> get(GenePosition<VirusT> genePos, char aa) {
+		return get(genePos.getGene(), genePos.getPosition(), aa);
+	}
+
+	private AminoAcidPercent<VirusT> newUnseenAAPcnt(Gene<VirusT> gene, int pos, char aa, int posOffset) {
+		return new AminoAcidPercent<>(gene, pos, aa, .0, 0, totals[posOffset], "PCNT", true);
 	}
 
 	/**
@@ -171,20 +377,51 @@ public class AminoAcidPercents<VirusT extends Virus<VirusT>> {
 	public Double getHighestAAPercentValue(
 		Gene<VirusT> gene, int pos, /* char cons,*/ String mixture
 	) {
-		Double pcntVal = 0.0;
-		GenePosition<VirusT> gpos = new GenePosition<>(gene, pos);
-
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
+			return .0;
+		}
+		double pcntVal = 0.0;
 		for (char aa : mixture.toCharArray()) {
 			/* if (aa == cons || aa == '*') {
 				// ignore consensus and stop codon
 				continue;
 			} */
-			double aaPcntVal = aminoAcidPcntMap.get(gpos).get(aa).getPercent();
+			int aaIdx = AABitmask.indexOf(aa);
+			double aaPcntVal = (
+				aaIdx < 0 ?
+				get(gene, pos, aa).getPercent() :
+				percents[posOffset * NUM_AAS + aaIdx]
+			);
 			pcntVal = Math.max(pcntVal, aaPcntVal);
 		}
 		return pcntVal;
 	}
 
+	/**
+	 * Returns the highest amino acid prevalence associated with each of
+	 * the AA in a mixture.
+	 *
+	 * @param gene		Gene
+	 * @param pos		Position
+	 * @param aaMask	Mixture as an {@link AABitmask}
+	 *
+	 * @return highest amino acid prevalence
+	 */
+	public double getHighestAAPercentValue(Gene<VirusT> gene, int pos, int aaMask) {
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
+			return .0;
+		}
+		double pcntVal = 0.0;
+		int offset = posOffset * NUM_AAS;
+		while (aaMask != 0) {
+			pcntVal = Math.max(pcntVal, percents[offset + Integer.numberOfTrailingZeros(aaMask)]);
+			aaMask &= aaMask - 1;
+		}
+		return pcntVal;
+	}
+
 	/**
 	 * Returns true if the given mutation contains any unusual AA
 	 *
@@ -195,14 +432,36 @@ public class AminoAcidPercents<VirusT extends Virus<VirusT>> {
 	 * @return true if contains unusual AA
 	 */
 	public Boolean containsUnusualAA(Gene<VirusT> gene, int pos, String aas) {
-		GenePosition<VirusT> gpos = new GenePosition<VirusT>(gene, pos);
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
+			return false;
+		}
 		for (char aa : aas.toCharArray()) {
-			AminoAcidPercent<VirusT> aaPcnt = get(gpos, aa);
-			if (aaPcnt != null && aaPcnt.isUnusual()) {
+			int aaIdx = AABitmask.indexOf(aa);
+			boolean isUnusual = (
+				aaIdx < 0 ?
+				get(gene, pos, aa).isUnusual() :
+				(unusualMasks[posOffset] & (1 << aaIdx)) != 0
+			);
+			if (isUnusual) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Returns true if the given mutation contains any unusual AA
+	 *
+	 * @param gene		Gene
+	 * @param pos 		Position
+	 * @param aaMask	Amino acids as an {@link AABitmask}
+	 * 
+	 * @return true if contains unusual AA
+	 */
+	public boolean containsUnusualAA(Gene<VirusT> gene, int pos, int aaMask) {
+		int posOffset = indexOf(gene, pos);
+		return posOffset >= 0 && (unusualMasks[posOffset] & aaMask) != 0;
+	}
+
 }
@@ -0,0 +1,510 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compact binary format of {@link AminoAcidPercents} and
+ * {@link CodonPercents} resources.
+ *
+ * A binary file is stored next to its JSON source with the extension
+ * ".bin" (e.g. "aapcnt/rx-all_subtype-all.bin"). When present, it is
+ * loaded instead of the JSON file. File resources are memory-mapped and
+ * records are read on demand, so that no JSON is parsed at startup.
+ *
+ * The header contains the size and the SHA-256 hash of the JSON source.
+ * A binary file is ignored and the JSON is parsed instead if it was written
+ * in an older version of this format, or if the size of the JSON resource
+ * differs from the converted one. Checking the size does not read the
+ * JSON resource. The hash is also checked only if the environment variable
+ * SIERRA_PERCENTS_VERIFY_HASH is "true", e.g. when editing the JSON files.
+ *
+ * Layout (big-endian):
+ *
+ *   [int magic][byte version][byte type][long size of JSON]
+ *   [32 bytes SHA-256 of JSON]
+ *   [int numStrings]([short length][UTF-8 bytes])*
+ *   [int numRecords][record]*
+ *
+ * All strings (gene names, codons, reasons) are stored in the string table
+ * and referred by their index. Amino acid records (25 bytes):
+ *
+ *   [short gene][short position][char aa][double percent]
+ *   [int count][int total][short reason][byte isUnusual]
+ *
+ * Codon records (24 bytes):
+ *
+ *   [short gene][short position][short codon][char aa]
+ *   [double percent][int count][int total]
+ *
+ * The files are generated by running this class with the JSON files (or
+ * directories containing them) as arguments, e.g. by the gradle task
+ * `convertPercents`.
+ */
+public class BinaryPercents {
+
+	public static final int MAGIC = 0x53504354;
+	public static final byte VERSION = 3;
+	public static final byte TYPE_AMINO_ACID = 1;
+	public static final byte TYPE_CODON = 2;
+
+	private static final int HEADER_SIZE = 46;
+	private static final int SIZE_OFFSET = 6;
+	private static final int HASH_OFFSET = 14;
+	private static final int HASH_SIZE = 32;
+	private static final int AA_RECORD_SIZE = 25;
+	private static final int CODON_RECORD_SIZE = 24;
+	private static final Gson gson = new Gson();
+	private static final boolean VERIFY_HASH = Boolean.parseBoolean(
+		System.getenv("SIERRA_PERCENTS_VERIFY_HASH"));
+
+	/**
+	 * Only for static access. DO NOT instantiate this class
+	 */
+	private BinaryPercents() {}
+
+	/**
+	 * Table of records backed by a (memory-mapped) buffer. Fields are
+	 * read with absolute getters, therefore a table can be shared by
+	 * threads.
+	 */
+	static class Table {
+		private final ByteBuffer buffer;
+		private final String[] strings;
+		private final int numRecords;
+		private final int recordsOffset;
+		private final int recordSize;
+
+		private Table(ByteBuffer buffer, byte expectedType) {
+			this.buffer = buffer;
+			int offset = 0;
+			if (buffer.getInt(offset) != MAGIC) {
+				throw new IllegalArgumentException("Not a binary percents file");
+			}
+			if (buffer.get(offset + 4) != VERSION) {
+				throw new IllegalArgumentException(String.format(
+					"Unsupported binary percents version: %d", buffer.get(offset + 4)));
+			}
+			byte type = buffer.get(offset + 5);
+			if (type != expectedType) {
+				throw new IllegalArgumentException(String.format(
+					"Unexpected binary percents type: %d", type));
+			}
+			offset += HEADER_SIZE;
+			strings = new String[buffer.getInt(offset)];
+			offset += 4;
+			for (int i = 0; i < strings.length; i ++) {
+				int length = buffer.getShort(offset) & 0xffff;
+				byte[] bytes = new byte[length];
+				ByteBuffer dup = buffer.duplicate();
+				dup.position(offset + 2);
+				dup.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+				offset += 2 + length;
+			}
+			numRecords = buffer.getInt(offset);
+			recordsOffset = offset + 4;
+			recordSize = type == TYPE_AMINO_ACID ? AA_RECORD_SIZE : CODON_RECORD_SIZE;
+		}
+
+		int size() { return numRecords; }
+
+		private int offsetOf(int record) { return recordsOffset + record * recordSize; }
+
+		private String getString(int offset) {
+			short idx = buffer.getShort(offset);
+			return idx < 0 ? null : strings[idx];
+		}
+
+		String getGene(int record) { return getString(offsetOf(record)); }
+
+		int getPosition(int record) { return buffer.getShort(offsetOf(record) + 2) & 0xffff; }
+
+		// amino acid records
+
+		char getAA(int record) { return buffer.getChar(offsetOf(record) + 4); }
+
+		double getAAPercent(int record) { return buffer.getDouble(offsetOf(record) + 6); }
+
+		int getAACount(int record) { return buffer.getInt(offsetOf(record) + 14); }
+
+		int getAATotal(int record) { return buffer.getInt(offsetOf(record) + 18); }
+
+		String getReason(int record) { return getString(offsetOf(record) + 22); }
+
+		boolean isUnusual(int record) { return buffer.get(offsetOf(record) + 24) != 0; }
+
+		// codon records
+
+		String getCodon(int record) { return getString(offsetOf(record) + 4); }
+
+		char getCodonAA(int record) { return buffer.getChar(offsetOf(record) + 6); }
+
+		double getCodonPercent(int record) { return buffer.getDouble(offsetOf(record) + 8); }
+
+		int getCodonCount(int record) { return buffer.getInt(offsetOf(record) + 16); }
+
+		int getCodonTotal(int record) { return buffer.getInt(offsetOf(record) + 20); }
+	}
+
+	/**
+	 * Returns the name of binary resource of a JSON resource.
+	 *
+	 * @param resourceName	JSON resource name
+	 * @return				Binary resource name
+	 */
+	public static String toBinaryResourceName(String resourceName) {
+		return resourceName.replaceFirst("\\.json$", "") + ".bin";
+	}
+
+	/**
+	 * Returns the size of a resource without reading it.
+	 *
+	 * @param url	Resource URL; can be null
+	 * @return		Size in bytes; -1 if the resource does not exist or its
+	 * 				size is unknown
+	 */
+	private static long getResourceSize(URL url) {
+		if (url == null) {
+			return -1;
+		}
+		try {
+			if (url.getProtocol().equals("file")) {
+				return Paths.get(url.toURI()).toFile().length();
+			}
+			// e.g. the size of a jar entry
+			return url.openConnection().getContentLengthLong();
+		} catch (IOException | URISyntaxException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks if a binary buffer is of current format version and was
+	 * converted from the JSON source of given size and hash.
+	 *
+	 * @param buffer	Binary buffer
+	 * @param jsonSize	Size of JSON source; -1 if unknown
+	 * @param jsonHash	SHA-256 hash of JSON source; null if not checked
+	 * @return			true if the buffer is up to date
+	 */
+	private static boolean isUpToDate(ByteBuffer buffer, long jsonSize, byte[] jsonHash) {
+		if (
+			buffer.capacity() < HEADER_SIZE ||
+			buffer.getInt(0) != MAGIC ||
+			buffer.get(4) != VERSION
+		) {
+			return false;
+		}
+		if (jsonSize >= 0 && buffer.getLong(SIZE_OFFSET) != jsonSize) {
+			return false;
+		}
+		if (jsonHash == null) {
+			return true;
+		}
+		for (int i = 0; i < HASH_SIZE; i ++) {
+			if (buffer.get(HASH_OFFSET + i) != jsonHash[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the binary table of a JSON resource.
+	 *
+	 * @param resourceName	JSON resource name
+	 * @param expectedType	TYPE_AMINO_ACID or TYPE_CODON
+	 * @return				Table or null if there's no binary resource or
+	 * 						the binary resource is outdated
+	 */
+	static Table loadTable(String resourceName, byte expectedType) {
+		ClassLoader classLoader = BinaryPercents.class.getClassLoader();
+		URL url = classLoader.getResource(toBinaryResourceName(resourceName));
+		if (url == null) {
+			return null;
+		}
+		long jsonSize = getResourceSize(classLoader.getResource(resourceName));
+		byte[] jsonHash = null;
+		if (VERIFY_HASH) {
+			try (InputStream jsonStream = classLoader.getResourceAsStream(resourceName)) {
+				if (jsonStream != null) {
+					jsonHash = DigestUtils.sha256(jsonStream);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		ByteBuffer buffer;
+		try {
+			if (url.getProtocol().equals("file")) {
+				try (
+					FileChannel channel = FileChannel.open(
+						Paths.get(url.toURI()), StandardOpenOption.READ)
+				) {
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+			}
+			else {
+				// e.g. packed in a jar file
+				try (InputStream stream = url.openStream()) {
+					buffer = ByteBuffer.wrap(IOUtils.toByteArray(stream));
+				}
+			}
+		} catch (IOException | URISyntaxException e) {
+			throw new RuntimeException(e);
+		}
+		if (!isUpToDate(buffer, jsonSize, jsonHash)) {
+			return null;
+		}
+		return new Table(buffer, expectedType);
+	}
+
+	/**
+	 * Converts parsed JSON data into an in-memory table.
+	 *
+	 * @param data	Parsed JSON data of AminoAcidPercents or CodonPercents
+	 * @param type	TYPE_AMINO_ACID or TYPE_CODON
+	 * @return		Table
+	 */
+	static Table toTable(List<Map<String, ?>> data, byte type) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			if (type == TYPE_AMINO_ACID) {
+				writeAminoAcidPercents(data, -1, new byte[HASH_SIZE], output);
+			}
+			else {
+				writeCodonPercents(data, -1, new byte[HASH_SIZE], output);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return new Table(ByteBuffer.wrap(output.toByteArray()), type);
+	}
+
+	private static class StringTable {
+		private final Map<String, Short> indice = new LinkedHashMap<>();
+
+		private short indexOf(String str) {
+			if (str == null) {
+				return -1;
+			}
+			Short idx = indice.get(str);
+			if (idx == null) {
+				if (indice.size() == Short.MAX_VALUE) {
+					throw new IllegalArgumentException("Too many distinct strings");
+				}
+				idx = (short) indice.size();
+				indice.put(str, idx);
+			}
+			return idx;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(indice.size());
+			for (String str : indice.keySet()) {
+				byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	private static int intValue(Object value) {
+		return ((Double) value).intValue();
+	}
+
+	/**
+	 * Writes amino acid percents in binary format.
+	 *
+	 * @param aaPcntData	Parsed JSON data of AminoAcidPercents
+	 * @param jsonSize		Size of the JSON source in bytes
+	 * @param jsonHash		SHA-256 hash of the JSON source
+	 * @param output		Output stream
+	 * @throws IOException
+	 */
+	public static void writeAminoAcidPercents(
+		List<Map<String, ?>> aaPcntData, long jsonSize, byte[] jsonHash, OutputStream output
+	) throws IOException {
+		StringTable strings = new StringTable();
+		for (Map<String, ?> aaPcnt : aaPcntData) {
+			strings.indexOf((String) aaPcnt.get("gene"));
+			strings.indexOf((String) aaPcnt.get("reason"));
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(TYPE_AMINO_ACID);
+		out.writeLong(jsonSize);
+		out.write(jsonHash, 0, HASH_SIZE);
+		strings.write(out);
+		out.writeInt(aaPcntData.size());
+		for (Map<String, ?> aaPcnt : aaPcntData) {
+			out.writeShort(strings.indexOf((String) aaPcnt.get("gene")));
+			out.writeShort(intValue(aaPcnt.get("position")));
+			out.writeChar(((String) aaPcnt.get("aa")).charAt(0));
+			out.writeDouble((Double) aaPcnt.get("percent"));
+			out.writeInt(intValue(aaPcnt.get("count")));
+			out.writeInt(intValue(aaPcnt.get("total")));
+			out.writeShort(strings.indexOf((String) aaPcnt.get("reason")));
+			out.writeByte((Boolean) aaPcnt.get("isUnusual") ? 1 : 0);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes codon percents in binary format.
+	 *
+	 * @param codonPcntData	Parsed JSON data of CodonPercents
+	 * @param jsonSize		Size of the JSON source in bytes
+	 * @param jsonHash		SHA-256 hash of the JSON source
+	 * @param output		Output stream
+	 * @throws IOException
+	 */
+	public static void writeCodonPercents(
+		List<Map<String, ?>> codonPcntData, long jsonSize, byte[] jsonHash, OutputStream output
+	) throws IOException {
+		StringTable strings = new StringTable();
+		for (Map<String, ?> cdPcnt : codonPcntData) {
+			strings.indexOf((String) cdPcnt.get("gene"));
+			strings.indexOf((String) cdPcnt.get("codon"));
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(TYPE_CODON);
+		out.writeLong(jsonSize);
+		out.write(jsonHash, 0, HASH_SIZE);
+		strings.write(out);
+		out.writeInt(codonPcntData.size());
+		for (Map<String, ?> cdPcnt : codonPcntData) {
+			out.writeShort(strings.indexOf((String) cdPcnt.get("gene")));
+			out.writeShort(intValue(cdPcnt.get("position")));
+			out.writeShort(strings.indexOf((String) cdPcnt.get("codon")));
+			out.writeChar(((String) cdPcnt.get("aa")).charAt(0));
+			out.writeDouble((Double) cdPcnt.get("percent"));
+			out.writeInt(intValue(cdPcnt.get("count")));
+			out.writeInt(intValue(cdPcnt.get("total")));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Converts a JSON file of amino acid or codon percents into a ".bin"
+	 * file in the same directory. Other JSON files are skipped.
+	 *
+	 * @param jsonFile	JSON file
+	 * @return			true if the file was converted
+	 * @throws IOException
+	 */
+	public static boolean convert(File jsonFile) throws IOException {
+		byte[] rawBytes = FileUtils.readFileToByteArray(jsonFile);
+		byte[] jsonHash = DigestUtils.sha256(rawBytes);
+		String raw = new String(rawBytes, StandardCharsets.UTF_8);
+		List<Map<String, ?>> data;
+		try {
+			data = gson.fromJson(raw, new TypeToken<List<Map<String, ?>>>(){}.getType());
+		} catch (RuntimeException e) {
+			// not a list of objects
+			return false;
+		}
+		if (data == null || data.isEmpty()) {
+			return false;
+		}
+		Map<String, ?> first = data.get(0);
+		File binFile = new File(
+			jsonFile.getParentFile(), toBinaryResourceName(jsonFile.getName()));
+		if (first.containsKey("codon")) {
+			try (OutputStream output = new FileOutputStream(binFile)) {
+				writeCodonPercents(data, rawBytes.length, jsonHash, output);
+			}
+		}
+		else if (first.containsKey("isUnusual")) {
+			try (OutputStream output = new FileOutputStream(binFile)) {
+				writeAminoAcidPercents(data, rawBytes.length, jsonHash, output);
+			}
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	private static void collectJsonFiles(File file, List<File> jsonFiles) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					collectJsonFiles(child, jsonFiles);
+				}
+			}
+		}
+		else if (file.getName().endsWith(".json")) {
+			jsonFiles.add(file);
+		}
+	}
+
+	/**
+	 * Converts JSON files of amino acid or codon percents into binary
+	 * format.
+	 *
+	 * @param args	JSON files or directories containing them
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		List<File> jsonFiles = new ArrayList<>();
+		for (String arg : args) {
+			collectJsonFiles(new File(arg), jsonFiles);
+		}
+		for (File jsonFile : jsonFiles) {
+			if (convert(jsonFile)) {
+				System.out.println("Converted " + jsonFile);
+			}
+		}
+	}
+
+}
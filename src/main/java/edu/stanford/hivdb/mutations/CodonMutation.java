@@ -24,6 +24,7 @@ import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
+import edu.stanford.hivdb.utilities.AABitmask;
 import edu.stanford.hivdb.utilities.AAUtils;
 import edu.stanford.hivdb.utilities.CodonUtils;
 import edu.stanford.hivdb.viruses.Gene;
@@ -35,34 +36,52 @@ public class CodonMutation<VirusT extends Virus<VirusT>> extends AAMutation<Viru
 	private final String triplet;
 	private final String insertedNAs;
 	
-	private static char[] calcAACharArray(String aas) {
+	private static int calcAAMask(String aas) {
 		aas = AAUtils.normalizeAAs(aas);
 		if (aas.contains("_")) {
-			aas = "_";
+			return AABitmask.INSERTION;
 		}
-		return aas.toCharArray();
+		return AABitmask.fromString(aas);
 	}
 
 	public static <VirusT extends Virus<VirusT>> CodonMutation<VirusT> fromNucAminoMutation(Gene<VirusT> gene, int aaStart, Map<?, ?> mut) {
 		int pos = ((Double) mut.get("Position")).intValue() - aaStart + 1;
+		boolean isInsertion = (Boolean) mut.get("IsInsertion");
+		boolean isDeletion = (Boolean) mut.get("IsDeletion");
+		String codon = isDeletion ? "" : (String) mut.get("CodonText");
+		String insertedCodon = isInsertion && !isDeletion ? (String) mut.get("InsertedCodonsText") : "";
+		return fromNucAminoMutation(gene, pos, codon, insertedCodon, isInsertion, isDeletion);
+	}
 
+	/**
+	 * Creates a mutation from the decoded fields of a NucAmino mutation.
+	 *
+	 * @param gene				Gene
+	 * @param pos				Position relative to the gene
+	 * @param codonText			`CodonText` of NucAmino mutation
+	 * @param insertedCodonText	`InsertedCodonsText` of NucAmino mutation
+	 * @param isInsertion		`IsInsertion` of NucAmino mutation
+	 * @param isDeletion		`IsDeletion` of NucAmino mutation
+	 * @return CodonMutation
+	 */
+	public static <VirusT extends Virus<VirusT>> CodonMutation<VirusT> fromNucAminoMutation(
+		Gene<VirusT> gene, int pos, String codonText, String insertedCodonText,
+		boolean isInsertion, boolean isDeletion
+	) {
 		String codon = "";
 		String insertedCodon = "";
-		boolean isInsertion = (Boolean) mut.get("IsInsertion");
-		boolean isDeletion = (Boolean) mut.get("IsDeletion");
 
 		StringBuilder aas = new StringBuilder();
 		if (isDeletion) {
 			aas.append('-');
 		}
 		else {
-			codon = (String) mut.get("CodonText");
-			codon = codon.replace(' ', '-');
+			codon = codonText.replace(' ', '-');
 			// The length of `CodonText` from NucAmino always equals to 3
 			aas.append(CodonUtils.translateNATriplet(codon));
 			if (isInsertion) {
 				aas.append('_');
-				insertedCodon = (String) mut.get("InsertedCodonsText");
+				insertedCodon = insertedCodonText;
 				aas.append(CodonUtils.simpleTranslate(insertedCodon));
 			}
 		}
@@ -83,7 +102,7 @@ public class CodonMutation<VirusT extends Virus<VirusT>> extends AAMutation<Viru
 		String triplet, String insertedNAs,
 		int maxDisplayAAs
 	) {
-		super(gene, position, calcAACharArray(aas), maxDisplayAAs);
+		super(gene, position, calcAAMask(aas), maxDisplayAAs);
 		this.aas = AAUtils.normalizeAAs(aas);
 		this.triplet = triplet.toUpperCase();
 		this.insertedNAs = insertedNAs;
@@ -29,7 +29,6 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 
@@ -44,13 +43,40 @@ import edu.stanford.hivdb.viruses.Virus;
 /**
  * There are two public methods: getHighestMutPrevalence, unusualMutations
  *
+ * Percents are stored in dense arrays indexed by gene ordinal, position
+ * and codon index (0-63 for unambiguous codons, plus slots of "ins" and
+ * "del"), so that looking up a codon does not allocate any object. The
+ * data is loaded from the binary resource (see {@link BinaryPercents}) if
+ * there's one, otherwise from the JSON resource. CodonPercent objects are
+ * only created when requested.
  */
 public class CodonPercents<VirusT extends Virus<VirusT>> {
 
 	final static protected Gson gson = new Gson();
+	final static private int INS_INDEX = 64;
+	final static private int DEL_INDEX = 65;
+	final static private int NUM_CODONS = 66;
 
-	final protected List<CodonPercent<VirusT>> codonPcnts;
-	final private Map<GenePosition<VirusT>, Map<String, CodonPercent<VirusT>>> codonPcntMap = new HashMap<>();
+	final private BinaryPercents.Table table;
+	final private Gene<VirusT>[] recordGenes;
+
+	// indexed by gene ordinal
+	final private Gene<VirusT>[] genes;
+	final private int[] geneOffsets;
+	final private int[] geneSizes;
+
+	// indexed by position offset; false/0 if the position has no data
+	final private boolean[] posHasData;
+	final private int[] totals;
+
+	// indexed by position offset * NUM_CODONS + codon index
+	final private double[] percents;
+
+	// created on demand by initObjects()
+	protected volatile List<CodonPercent<VirusT>> codonPcnts;
+	private List<List<CodonPercent<VirusT>>> geneCodonPcnts;
+	private List<Map<String, CodonPercent<VirusT>>> posCodonPcnts;
+	private CodonPercent<VirusT>[] codonPcntTable;
 	
 	/**
 	 * CodonPercents initializer
@@ -61,39 +87,131 @@ public class CodonPercents<VirusT extends Virus<VirusT>> {
 	 */
 	public CodonPercents(String resourceName, VirusT virusInstance, Strain<VirusT> strain) {
 
-		try (
-			InputStream stream = this
-				.getClass().getClassLoader()
-				.getResourceAsStream(resourceName);
-		) {
-			String raw = IOUtils.toString(stream, StandardCharsets.UTF_8);
-			List<Map<String, ?>> codonPcntData = gson.fromJson(
-				raw, new TypeToken<List<Map<String, ?>>>(){}.getType());
-			List<CodonPercent<VirusT>> codonPcnts = (
-				codonPcntData.stream()
-				.map(aaPcnt -> new CodonPercent<>(
-					strain.getGene((String) aaPcnt.get("gene")),
-					((Double) aaPcnt.get("position")).intValue(),
-					(String) aaPcnt.get("codon"),
-					((String) aaPcnt.get("aa")).charAt(0),
-					(Double) aaPcnt.get("percent"),
-					((Double) aaPcnt.get("count")).intValue(),
-					((Double) aaPcnt.get("total")).intValue()
-				))
-				.collect(Collectors.toList())
-			);
-			this.codonPcnts = Collections.unmodifiableList(codonPcnts);
-		} catch (IOException|NullPointerException e) {
-			throw new ExceptionInInitializerError(
-				String.format("Invalid resource name (%s)", resourceName)
-			);
+		BinaryPercents.Table table = BinaryPercents.loadTable(
+			resourceName, BinaryPercents.TYPE_CODON);
+		if (table == null) {
+			try (
+				InputStream stream = this
+					.getClass().getClassLoader()
+					.getResourceAsStream(resourceName);
+			) {
+				String raw = IOUtils.toString(stream, StandardCharsets.UTF_8);
+				List<Map<String, ?>> codonPcntData = gson.fromJson(
+					raw, new TypeToken<List<Map<String, ?>>>(){}.getType());
+				table = BinaryPercents.toTable(codonPcntData, BinaryPercents.TYPE_CODON);
+			} catch (IOException|NullPointerException e) {
+				throw new ExceptionInInitializerError(
+					String.format("Invalid resource name (%s)", resourceName)
+				);
+			}
 		}
+		this.table = table;
+		int numRecords = table.size();
 
-		for (CodonPercent<VirusT> cdPcnt : codonPcnts) {
-			GenePosition<VirusT> gp = cdPcnt.getGenePosition();
-			codonPcntMap.putIfAbsent(gp, new LinkedHashMap<>());
-			codonPcntMap.get(gp).put(cdPcnt.getCodon(), cdPcnt);
+		Map<String, Gene<VirusT>> genesByName = new HashMap<>();
+		recordGenes = newGeneArray(numRecords);
+		int numGenes = 0;
+		for (int i = 0; i < numRecords; i ++) {
+			String geneName = table.getGene(i);
+			Gene<VirusT> gene = genesByName.computeIfAbsent(geneName, strain::getGene);
+			if (gene == null) {
+				throw new ExceptionInInitializerError(
+					String.format("Invalid gene %s in resource (%s)", geneName, resourceName)
+				);
+			}
+			recordGenes[i] = gene;
+			numGenes = Math.max(numGenes, gene.getOrdinal() + 1);
+		}
+		genes = newGeneArray(numGenes);
+		geneOffsets = new int[numGenes];
+		geneSizes = new int[numGenes];
+		for (int i = 0; i < numRecords; i ++) {
+			Gene<VirusT> gene = recordGenes[i];
+			int ordinal = gene.getOrdinal();
+			if (genes[ordinal] == null) {
+				genes[ordinal] = gene;
+			}
+			else if (genes[ordinal] != gene) {
+				throw new ExceptionInInitializerError(
+					String.format("Duplicated gene ordinal in resource (%s)", resourceName)
+				);
+			}
+			geneSizes[ordinal] = Math.max(geneSizes[ordinal], table.getPosition(i));
+		}
+		int numPositions = 0;
+		for (int ordinal = 0; ordinal < numGenes; ordinal ++) {
+			geneOffsets[ordinal] = numPositions;
+			numPositions += geneSizes[ordinal];
+		}
+
+		posHasData = new boolean[numPositions];
+		totals = new int[numPositions];
+		percents = new double[numPositions * NUM_CODONS];
+
+		for (int i = 0; i < numRecords; i ++) {
+			int posOffset = geneOffsets[recordGenes[i].getOrdinal()] + table.getPosition(i) - 1;
+			if (!posHasData[posOffset]) {
+				posHasData[posOffset] = true;
+				totals[posOffset] = table.getCodonTotal(i);
+			}
+			int codonIdx = codonIndexOf(table.getCodon(i));
+			if (codonIdx >= 0) {
+				percents[posOffset * NUM_CODONS + codonIdx] = table.getCodonPercent(i);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> Gene<VirusT>[] newGeneArray(int size) {
+		return new Gene[size];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> CodonPercent<VirusT>[] newCodonPcntArray(int size) {
+		return new CodonPercent[size];
+	}
+
+	private static int naIndexOf(char na) {
+		switch (na) {
+			case 'A':
+				return 0;
+			case 'C':
+				return 1;
+			case 'G':
+				return 2;
+			case 'T':
+				return 3;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Returns the index of given codon: 0-63 for unambiguous codons,
+	 * INS_INDEX for "ins" and DEL_INDEX for "del".
+	 *
+	 * @param codon	Codon
+	 * @return		Codon index; -1 for other codons
+	 */
+	private static int codonIndexOf(String codon) {
+		if (codon.length() != 3) {
+			return -1;
 		}
+		if (codon.equals("ins")) {
+			return INS_INDEX;
+		}
+		if (codon.equals("del")) {
+			return DEL_INDEX;
+		}
+		int codonIdx = 0;
+		for (int i = 0; i < 3; i ++) {
+			int naIdx = naIndexOf(codon.charAt(i));
+			if (naIdx < 0) {
+				return -1;
+			}
+			codonIdx = (codonIdx << 2) | naIdx;
+		}
+		return codonIdx;
 	}
 	
 	public static <VirusT extends Virus<VirusT>> CodonPercents<VirusT> newEmptyInstance() {
@@ -105,53 +223,143 @@ public class CodonPercents<VirusT extends Virus<VirusT>> {
 	 * 
 	 */
 	private CodonPercents() {
+		table = null;
+		recordGenes = newGeneArray(0);
+		genes = newGeneArray(0);
+		geneOffsets = new int[0];
+		geneSizes = new int[0];
+		posHasData = new boolean[0];
+		totals = new int[0];
+		percents = new double[0];
+		geneCodonPcnts = Collections.emptyList();
+		posCodonPcnts = Collections.emptyList();
+		codonPcntTable = newCodonPcntArray(0);
 		codonPcnts = Collections.emptyList();
 	}
 
+	/**
+	 * Creates CodonPercent objects of all records and their indices.
+	 */
+	private void initObjects() {
+		if (codonPcnts != null) {
+			return;
+		}
+		synchronized (this) {
+			if (codonPcnts != null) {
+				return;
+			}
+			int numRecords = table.size();
+			List<CodonPercent<VirusT>> cdPcnts = new ArrayList<>(numRecords);
+			List<List<CodonPercent<VirusT>>> geneLists = new ArrayList<>(
+				Collections.nCopies(genes.length, null));
+			List<Map<String, CodonPercent<VirusT>>> posMaps = new ArrayList<>(
+				Collections.nCopies(posHasData.length, null));
+			CodonPercent<VirusT>[] cdTable = newCodonPcntArray(posHasData.length * NUM_CODONS);
+			for (int i = 0; i < numRecords; i ++) {
+				Gene<VirusT> gene = recordGenes[i];
+				int pos = table.getPosition(i);
+				String codon = table.getCodon(i);
+				CodonPercent<VirusT> cdPcnt = new CodonPercent<>(
+					gene, pos, codon,
+					table.getCodonAA(i),
+					table.getCodonPercent(i),
+					table.getCodonCount(i),
+					table.getCodonTotal(i));
+				cdPcnts.add(cdPcnt);
+
+				int ordinal = gene.getOrdinal();
+				if (geneLists.get(ordinal) == null) {
+					geneLists.set(ordinal, new ArrayList<>());
+				}
+				geneLists.get(ordinal).add(cdPcnt);
+
+				int posOffset = geneOffsets[ordinal] + pos - 1;
+				if (posMaps.get(posOffset) == null) {
+					posMaps.set(posOffset, new LinkedHashMap<>());
+				}
+				posMaps.get(posOffset).put(codon, cdPcnt);
+				int codonIdx = codonIndexOf(codon);
+				if (codonIdx >= 0) {
+					cdTable[posOffset * NUM_CODONS + codonIdx] = cdPcnt;
+				}
+			}
+			geneCodonPcnts = geneLists;
+			posCodonPcnts = posMaps;
+			codonPcntTable = cdTable;
+			// written last; readers check this volatile field first
+			codonPcnts = Collections.unmodifiableList(cdPcnts);
+		}
+	}
+
+	/**
+	 * Returns the offset of given position in the dense arrays.
+	 *
+	 * @param gene	Gene
+	 * @param pos	Position
+	 * @return		Offset; -1 if the position has no data
+	 */
+	private int indexOf(Gene<VirusT> gene, int pos) {
+		int ordinal = gene.getOrdinal();
+		if (
+			ordinal < 0 || ordinal >= genes.length ||
+			genes[ordinal] != gene ||
+			pos < 1 || pos > geneSizes[ordinal]
+		) {
+			return -1;
+		}
+		int posOffset = geneOffsets[ordinal] + pos - 1;
+		return posHasData[posOffset] ? posOffset : -1;
+	}
+
 	public List<CodonPercent<VirusT>> get() {
+		initObjects();
 		// make a copy in case of any modification
 		return new ArrayList<>(codonPcnts);
 	}
 
 	public List<CodonPercent<VirusT>> get(Gene<VirusT> gene) {
-		return (codonPcnts
-				.stream().filter(cdp -> cdp.getGene().equals(gene))
-				.collect(Collectors.toList()));
+		int ordinal = gene.getOrdinal();
+		if (ordinal < 0 || ordinal >= genes.length || genes[ordinal] != gene) {
+			return new ArrayList<>();
+		}
+		initObjects();
+		return new ArrayList<>(geneCodonPcnts.get(ordinal));
 	}
 
 	public List<CodonPercent<VirusT>> get(Gene<VirusT> gene, int pos) {
-		return new ArrayList<>(
-			codonPcntMap.getOrDefault(new GenePosition<VirusT>(gene, pos), Collections.emptyMap())
-			.values());
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
+			return new ArrayList<>();
+		}
+		initObjects();
+		return new ArrayList<>(posCodonPcnts.get(posOffset).values());
 	}
 
 	public CodonPercent<VirusT> get(Gene<VirusT> gene, int pos, String codon) {
-		Map<String, CodonPercent<VirusT>> posCodons =
-			codonPcntMap.getOrDefault(new GenePosition<VirusT>(gene, pos), Collections.emptyMap());
-		if (posCodons.containsKey(codon)) {
-			return posCodons.get(codon);
-		}
-		else if (posCodons.isEmpty()) {
+		int posOffset = indexOf(gene, pos);
+		if (posOffset < 0) {
 			throw new IllegalArgumentException(
 				String.format("Argument 'pos' is out of range: %d", pos));
 		}
-		else if (codon.matches("^(ins|del)$")) {
-			int total = posCodons.values().iterator().next().getTotal();
-			char aa = codon.equals("ins") ? '_' : '-';
-			CodonPercent<VirusT> posCodon = new CodonPercent<>(gene, pos, codon, aa, .0, 0, total);
-			posCodons.put(codon, posCodon);
-			return posCodon;
-		}
-		else if (codon.matches("^[ACGT]{3}$")) {
-			int total = posCodons.values().iterator().next().getTotal();
-			CodonPercent<VirusT> posCodon = new CodonPercent<>(gene, pos, codon, 'X', .0, 0, total);
-			posCodons.put(codon, posCodon);
+		initObjects();
+		int codonIdx = codonIndexOf(codon);
+		if (codonIdx < 0) {
+			CodonPercent<VirusT> posCodon = posCodonPcnts.get(posOffset).get(codon);
+			if (posCodon == null) {
+				throw new IllegalArgumentException(
+					String.format("Invalid argument codon \"%s\" at %s%d", codon, gene, pos));
+			}
 			return posCodon;
 		}
-		else {
-			throw new IllegalArgumentException(
-				String.format("Invalid argument codon \"%s\" at %s%d", codon, gene, pos));
+		int tableIdx = posOffset * NUM_CODONS + codonIdx;
+		CodonPercent<VirusT> posCodon = codonPcntTable[tableIdx];
+		if (posCodon == null) {
+			// unseen codon; immutable, therefore it's safe to share it between threads
+			char aa = codonIdx == INS_INDEX ? '_' : codonIdx == DEL_INDEX ? '-' : 'X';
+			posCodon = new CodonPercent<>(gene, pos, codon, aa, .0, 0, totals[posOffset]);
+			codonPcntTable[tableIdx] = posCodon;
 		}
+		return posCodon;
 	}
 
 	/**
@@ -167,10 +375,16 @@ public class CodonPercents<VirusT extends Virus<VirusT>> {
 	public Double getHighestCodonPercentValue(
 		Gene<VirusT> gene, int pos, String... codonMixture
 	) {
-		Double pcntVal = 0.0;
+		int posOffset = indexOf(gene, pos);
+		double pcntVal = 0.0;
 
 		for (String cd : codonMixture) {
-			double cdPcntVal = get(gene, pos, cd).getPercent();
+			int codonIdx = codonIndexOf(cd);
+			double cdPcntVal = (
+				posOffset < 0 || codonIdx < 0 ?
+				get(gene, pos, cd).getPercent() :
+				percents[posOffset * NUM_CODONS + codonIdx]
+			);
 			pcntVal = Math.max(pcntVal, cdPcntVal);
 		}
 		return pcntVal;
@@ -58,6 +58,23 @@ public class CodonReads<VirusT extends Virus<VirusT>> implements WithGene<VirusT
 		this.totalReads = totalReads;
 		this.proportion = (double) reads / totalReads;
 	}
+
+	/**
+	 * Creates CodonReads of an already normalized and translated codon.
+	 */
+	CodonReads(
+		final Gene<VirusT> gene, final int position,
+		final String codon, final char aminoAcid,
+		final long reads, final long totalReads
+	) {
+		this.gene = gene;
+		this.position = position;
+		this.codon = codon;
+		this.aminoAcid = aminoAcid;
+		this.reads = reads;
+		this.totalReads = totalReads;
+		this.proportion = (double) reads / totalReads;
+	}
 	
 	public String getCodon() { return codon; }
 	public Long getReads() { return reads; }
@@ -76,32 +93,41 @@ public class CodonReads<VirusT extends Virus<VirusT>> implements WithGene<VirusT
 		return gene.getRefChar(position);
 	}
 	
-	public Character getAminoAcid() {
-		if (aminoAcid == null) {
-			if (!codon.matches("^[ACGT]*$")) {
-				// do not allow ambiguous codes
+	/**
+	 * Translates a normalized codon of NGS codon reads to an amino acid.
+	 *
+	 * @param codon	Normalized codon
+	 * @return		Amino acid; '_' for insertion, '-' for deletion and 'X'
+	 * 				for ambiguous codon
+	 */
+	public static char translateCodon(String codon) {
+		char aminoAcid;
+		if (codon.length() > 5) {
+			aminoAcid = '_';  // insertion
+		}
+		else if (codon.length() < 3) {
+			aminoAcid = '-';  // deletion
+		}
+		else {
+			String aminoAcids = CodonUtils.translateNATriplet(codon.substring(0, 3));
+			if (aminoAcids.length() > 1) {
+				// Ambiguous codon should not happen in NGS codons
 				aminoAcid = 'X';
 			}
-			if (codon.length() > 5) {
-				aminoAcid = '_';  // insertion
-			}
-			else if (codon.length() < 3) {
-				aminoAcid = '-';  // deletion
-			}
 			else {
-				String aminoAcids = CodonUtils.translateNATriplet(codon.substring(0, 3));
-				if (aminoAcids.length() > 1) {
-					// Ambiguous codon should not happen in NGS codons
-					aminoAcid = 'X';
-				}
-				else {
-					aminoAcid = aminoAcids.charAt(0);
-				}
+				aminoAcid = aminoAcids.charAt(0);
 			}
 		}
 		return aminoAcid;
 	}
 
+	public Character getAminoAcid() {
+		if (aminoAcid == null) {
+			aminoAcid = translateCodon(codon);
+		}
+		return aminoAcid;
+	}
+
 	private Mutation<VirusT> getMutation() {
 		if (mutation == null) {
 			mutation = new AAMutation<>(gene, position, getAminoAcid());
@@ -113,34 +139,42 @@ public class CodonReads<VirusT extends Virus<VirusT>> implements WithGene<VirusT
 		return this.proportion;
 	}
 	
+	/**
+	 * Looks up the highest codon prevalence of a normalized codon of NGS
+	 * codon reads at given gene position.
+	 *
+	 * @param gene		Gene
+	 * @param position	AA position
+	 * @param codon		Normalized codon
+	 * @return			Codon prevalence; 0 if the position has no data
+	 */
+	public static <VirusT extends Virus<VirusT>> double getCodonPercent(
+		Gene<VirusT> gene, int position, String codon
+	) {
+		double codonPcntNumber;
+		String cleanedCodon = codon;
+		if (codon.length() > 5) {
+			cleanedCodon = "ins";
+		}
+		else if (codon.length() < 3) {
+			cleanedCodon = "del";
+		}
+		try {
+			codonPcntNumber = (
+				gene.getVirusInstance()
+				.getCodonPercents(gene.getStrain(), "all", "all")
+				.getHighestCodonPercentValue(gene, position, cleanedCodon)
+			);
+		}
+		catch (IllegalArgumentException e) {
+			codonPcntNumber = .0;
+		}
+		return codonPcntNumber;
+	}
+
 	public Double getCodonPercent() {
 		if (this.codonPcnt == null) {
-			Double codonPcntNumber;
-			CodonPercent<VirusT> codonPcnt;
-			String cleanedCodon = codon;
-			if (codon.length() > 5) {
-				cleanedCodon = "ins";
-			}
-			else if (codon.length() < 3) {
-				cleanedCodon = "del";
-			}
-			try {
-				codonPcnt = (
-					gene.getVirusInstance()
-					.getCodonPercents(gene.getStrain(), "all", "all")
-					.get(gene, position, cleanedCodon)
-				);
-				if (codonPcnt == null) {
-					codonPcntNumber = .0;
-				}
-				else {
-					codonPcntNumber = codonPcnt.getPercent();
-				}
-			}
-			catch (IllegalArgumentException e) {
-				codonPcntNumber = .0;
-			}
-			this.codonPcnt = codonPcntNumber;
+			this.codonPcnt = getCodonPercent(gene, position, codon);
 		}
 		return this.codonPcnt;
 	}
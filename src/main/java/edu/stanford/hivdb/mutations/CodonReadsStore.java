@@ -0,0 +1,466 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Columnar storage of NGS codon reads.
+ *
+ * Positions are kept in parallel primitive arrays (gene, position, total
+ * reads) ordered by gene and position. Codon reads of position <tt>i</tt>
+ * are entries <tt>getCodonStart(i)</tt> (inclusive) to
+ * <tt>getCodonEnd(i)</tt> (exclusive) of another pair of parallel arrays
+ * (codon, reads), ordered by reads descendingly. Codons are stored once in
+ * a dictionary together with their normalized form and amino acid.
+ *
+ * The index-based accessors do not allocate; {@link PositionCodonReads}
+ * views are available for the existing object API.
+ */
+public class CodonReadsStore<VirusT extends Virus<VirusT>> {
+
+	private final List<Gene<VirusT>> genes;
+	// per position
+	private final int[] geneIndice;
+	private final int[] positions;
+	private final long[] totalReads;
+	private final int[] offsets;
+	// per codon reads entry
+	private final int[] codonIndice;
+	private final long[] reads;
+	// codon dictionary
+	private final String[] codons;
+	private final String[] normalizedCodons;
+	private final char[] aminoAcids;
+
+	private transient volatile List<PositionCodonReads<VirusT>> allPositionCodonReads;
+
+	public static <VirusT extends Virus<VirusT>> Builder<VirusT> newBuilder() {
+		return new Builder<>();
+	}
+
+	public static <VirusT extends Virus<VirusT>> CodonReadsStore<VirusT> fromPositionCodonReads(
+		List<PositionCodonReads<VirusT>> allReads
+	) {
+		Builder<VirusT> builder = new Builder<>();
+		for (PositionCodonReads<VirusT> pcr : allReads) {
+			builder.addPositionCodonReads(pcr);
+		}
+		return builder.build();
+	}
+
+	private CodonReadsStore(
+		List<Gene<VirusT>> genes, int[] geneIndice, int[] positions,
+		long[] totalReads, int[] offsets, int[] codonIndice, long[] reads,
+		List<String> codons
+	) {
+		this.genes = Collections.unmodifiableList(genes);
+		this.geneIndice = geneIndice;
+		this.positions = positions;
+		this.totalReads = totalReads;
+		this.offsets = offsets;
+		this.codonIndice = codonIndice;
+		this.reads = reads;
+		int numCodons = codons.size();
+		this.codons = codons.toArray(new String[numCodons]);
+		this.normalizedCodons = new String[numCodons];
+		this.aminoAcids = new char[numCodons];
+		for (int i = 0; i < numCodons; i ++) {
+			normalizedCodons[i] = CodonReads.normalizeCodon(this.codons[i]);
+			aminoAcids[i] = CodonReads.translateCodon(normalizedCodons[i]);
+		}
+	}
+
+	/**
+	 * @return genes present in this store, ordered
+	 */
+	public List<Gene<VirusT>> getGenes() { return genes; }
+
+	public int getNumPositions() { return positions.length; }
+
+	public int getNumCodonReads() { return reads.length; }
+
+	public Gene<VirusT> getGene(int posIdx) { return genes.get(geneIndice[posIdx]); }
+
+	public int getPosition(int posIdx) { return positions[posIdx]; }
+
+	public long getTotalReads(int posIdx) { return totalReads[posIdx]; }
+
+	/**
+	 * @return index of the first codon reads entry of given position
+	 */
+	public int getCodonStart(int posIdx) { return offsets[posIdx]; }
+
+	/**
+	 * @return index after the last codon reads entry of given position
+	 */
+	public int getCodonEnd(int posIdx) { return offsets[posIdx + 1]; }
+
+	/**
+	 * @return the codon as it was ingested
+	 */
+	public String getRawCodon(int entryIdx) { return codons[codonIndice[entryIdx]]; }
+
+	/**
+	 * @return the codon normalized by {@link CodonReads#normalizeCodon}
+	 */
+	public String getCodon(int entryIdx) { return normalizedCodons[codonIndice[entryIdx]]; }
+
+	public char getAminoAcid(int entryIdx) { return aminoAcids[codonIndice[entryIdx]]; }
+
+	public long getReads(int entryIdx) { return reads[entryIdx]; }
+
+	public double getProportion(int posIdx, int entryIdx) {
+		return (double) reads[entryIdx] / totalReads[posIdx];
+	}
+
+	/**
+	 * Finds the position index of given gene position.
+	 *
+	 * @param gene		Gene
+	 * @param position	AA position
+	 * @return			position index; -1 if not found
+	 */
+	public int indexOf(Gene<VirusT> gene, int position) {
+		int low = 0;
+		int high = positions.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(genes.get(geneIndice[mid]), positions[mid], gene, position);
+			if (cmp < 0) {
+				low = mid + 1;
+			}
+			else if (cmp > 0) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a {@link PositionCodonReads} view of given position.
+	 *
+	 * @param posIdx	Position index
+	 * @return			PositionCodonReads
+	 */
+	public PositionCodonReads<VirusT> getPositionCodonReads(int posIdx) {
+		return getAllPositionCodonReads().get(posIdx);
+	}
+
+	/**
+	 * @return {@link PositionCodonReads} views of all positions, ordered
+	 */
+	public List<PositionCodonReads<VirusT>> getAllPositionCodonReads() {
+		if (allPositionCodonReads == null) {
+			List<PositionCodonReads<VirusT>> views = new ArrayList<>(positions.length);
+			for (int posIdx = 0; posIdx < positions.length; posIdx ++) {
+				views.add(new PositionCodonReads<>(this, posIdx));
+			}
+			allPositionCodonReads = Collections.unmodifiableList(views);
+		}
+		return allPositionCodonReads;
+	}
+
+	private static <VirusT extends Virus<VirusT>> int compare(
+		Gene<VirusT> gene1, int pos1, Gene<VirusT> gene2, int pos2
+	) {
+		int cmp = gene1.compareTo(gene2);
+		if (cmp == 0) {
+			cmp = Integer.compare(pos1, pos2);
+		}
+		return cmp;
+	}
+
+	/**
+	 * Builds a {@link CodonReadsStore} from codon frequency tables.
+	 *
+	 * Rows of the same gene position are aggregated: reads of the same codon
+	 * are summed. Consecutive rows of a position are aggregated as they are
+	 * added, therefore the memory usage of ordered input is bounded by the
+	 * number of distinct positions and codons rather than the number of
+	 * rows. Input ordered by gene and position is stored as it is;
+	 * otherwise the positions are sorted once by {@link #build()}.
+	 */
+	public static class Builder<VirusT extends Virus<VirusT>> {
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		private final List<Gene<VirusT>> genes = new ArrayList<>();
+		private final Map<Gene<VirusT>, Integer> geneIndexLookup = new IdentityHashMap<>();
+		private final List<String> codons = new ArrayList<>();
+		private final Map<String, Integer> codonIndexLookup = new HashMap<>();
+
+		private int numPositions = 0;
+		private int[] geneIndice = new int[INITIAL_CAPACITY];
+		private int[] positions = new int[INITIAL_CAPACITY];
+		private long[] totalReads = new long[INITIAL_CAPACITY];
+		private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+		private int numEntries = 0;
+		private int[] codonIndice = new int[INITIAL_CAPACITY];
+		private long[] reads = new long[INITIAL_CAPACITY];
+
+		// true if each position was only added once and in order
+		private boolean ordered = true;
+		// whether the total reads of current position is the sum of its reads
+		private boolean summingTotalReads = false;
+
+		private Builder() {}
+
+		/**
+		 * Starts a new position with a given read depth. Codon reads added
+		 * by {@link #addCodonReads(String, long)} are assigned to it.
+		 *
+		 * @param gene			Gene
+		 * @param position		AA position
+		 * @param totalReads	Read depth of this position
+		 * @return				this builder
+		 */
+		public Builder<VirusT> addPosition(Gene<VirusT> gene, int position, long totalReads) {
+			startPosition(gene, position, totalReads);
+			summingTotalReads = false;
+			return this;
+		}
+
+		/**
+		 * Adds codon reads to the position last added.
+		 *
+		 * @param codon		Codon
+		 * @param reads		Number of reads
+		 * @return			this builder
+		 */
+		public Builder<VirusT> addCodonReads(String codon, long reads) {
+			if (numPositions == 0) {
+				throw new IllegalStateException("No position was added yet.");
+			}
+			int codonIdx = codonIndexLookup.computeIfAbsent(codon, cd -> {
+				codons.add(cd);
+				return codons.size() - 1;
+			});
+			int entryIdx = offsets[numPositions - 1];
+			while (entryIdx < numEntries && codonIndice[entryIdx] != codonIdx) {
+				entryIdx ++;
+			}
+			if (entryIdx < numEntries) {
+				// same codon of current position; aggregate
+				this.reads[entryIdx] += reads;
+			}
+			else {
+				if (numEntries == codonIndice.length) {
+					int capacity = numEntries * 2;
+					codonIndice = Arrays.copyOf(codonIndice, capacity);
+					this.reads = Arrays.copyOf(this.reads, capacity);
+				}
+				codonIndice[numEntries] = codonIdx;
+				this.reads[numEntries] = reads;
+				numEntries ++;
+				offsets[numPositions] = numEntries;
+			}
+			if (summingTotalReads) {
+				totalReads[numPositions - 1] += reads;
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a row of a codon frequency table. The read depth of a position
+		 * added by this method is the sum of its codon reads.
+		 *
+		 * @param gene		Gene
+		 * @param position	AA position
+		 * @param codon		Codon
+		 * @param reads		Number of reads
+		 * @return			this builder
+		 */
+		public Builder<VirusT> addCodonReads(
+			Gene<VirusT> gene, int position, String codon, long reads
+		) {
+			if (
+				numPositions == 0 ||
+				!summingTotalReads ||
+				genes.get(geneIndice[numPositions - 1]) != gene ||
+				positions[numPositions - 1] != position
+			) {
+				startPosition(gene, position, 0);
+				summingTotalReads = true;
+			}
+			return addCodonReads(codon, reads);
+		}
+
+		public Builder<VirusT> addPositionCodonReads(PositionCodonReads<VirusT> pcr) {
+			addPosition(pcr.getGene(), (int) pcr.getPosition(), pcr.getTotalReads());
+			for (Map.Entry<String, Long> entry : pcr.getAllCodonReads().entrySet()) {
+				addCodonReads(entry.getKey(), entry.getValue());
+			}
+			return this;
+		}
+
+		private void startPosition(Gene<VirusT> gene, int position, long totalReads) {
+			if (numPositions == positions.length) {
+				int capacity = numPositions * 2;
+				geneIndice = Arrays.copyOf(geneIndice, capacity);
+				positions = Arrays.copyOf(positions, capacity);
+				this.totalReads = Arrays.copyOf(this.totalReads, capacity);
+				offsets = Arrays.copyOf(offsets, capacity + 1);
+			}
+			if (numPositions > 0 && ordered) {
+				ordered = compare(
+					genes.get(geneIndice[numPositions - 1]),
+					positions[numPositions - 1], gene, position) < 0;
+			}
+			geneIndice[numPositions] = geneIndexLookup.computeIfAbsent(gene, g -> {
+				genes.add(g);
+				return genes.size() - 1;
+			});
+			positions[numPositions] = position;
+			this.totalReads[numPositions] = totalReads;
+			offsets[numPositions] = numEntries;
+			numPositions ++;
+			offsets[numPositions] = numEntries;
+		}
+
+		public CodonReadsStore<VirusT> build() {
+			// genes are stored in their natural order
+			List<Gene<VirusT>> sortedGenes = new ArrayList<>(genes);
+			Collections.sort(sortedGenes);
+			int[] geneRemap = new int[genes.size()];
+			for (int i = 0; i < genes.size(); i ++) {
+				geneRemap[i] = sortedGenes.indexOf(genes.get(i));
+			}
+
+			Integer[] order = new Integer[numPositions];
+			for (int i = 0; i < numPositions; i ++) {
+				order[i] = i;
+			}
+			if (!ordered) {
+				// stable; rows of a duplicated position remain in input order
+				Arrays.sort(order, (i1, i2) -> {
+					int cmp = Integer.compare(geneRemap[geneIndice[i1]], geneRemap[geneIndice[i2]]);
+					if (cmp == 0) {
+						cmp = Integer.compare(positions[i1], positions[i2]);
+					}
+					return cmp;
+				});
+			}
+
+			int[] newGeneIndice = new int[numPositions];
+			int[] newPositions = new int[numPositions];
+			long[] newTotalReads = new long[numPositions];
+			int[] newOffsets = new int[numPositions + 1];
+			int[] newCodonIndice = new int[numEntries];
+			long[] newReads = new long[numEntries];
+			// reads of each codon of current position, indexed by codon index
+			long[] codonReads = new long[codons.size()];
+			int[] posCodons = new int[codons.size()];
+
+			int newNumPositions = 0;
+			int newNumEntries = 0;
+			for (int i = 0; i < numPositions; ) {
+				int posIdx = order[i];
+				int geneIdx = geneRemap[geneIndice[posIdx]];
+				int position = positions[posIdx];
+				long total = 0;
+				int numPosCodons = 0;
+				// aggregate all rows of this gene position
+				for (; i < numPositions; i ++) {
+					int dupIdx = order[i];
+					if (
+						geneRemap[geneIndice[dupIdx]] != geneIdx ||
+						positions[dupIdx] != position
+					) {
+						break;
+					}
+					total += totalReads[dupIdx];
+					for (int e = offsets[dupIdx]; e < offsets[dupIdx + 1]; e ++) {
+						int codonIdx = codonIndice[e];
+						if (codonReads[codonIdx] == 0 && !contains(posCodons, numPosCodons, codonIdx)) {
+							posCodons[numPosCodons ++] = codonIdx;
+						}
+						codonReads[codonIdx] += reads[e];
+					}
+				}
+				sortByReadsDesc(posCodons, numPosCodons, codonReads);
+				newGeneIndice[newNumPositions] = geneIdx;
+				newPositions[newNumPositions] = position;
+				newTotalReads[newNumPositions] = total;
+				newOffsets[newNumPositions] = newNumEntries;
+				for (int j = 0; j < numPosCodons; j ++) {
+					int codonIdx = posCodons[j];
+					newCodonIndice[newNumEntries] = codonIdx;
+					newReads[newNumEntries] = codonReads[codonIdx];
+					codonReads[codonIdx] = 0;
+					newNumEntries ++;
+				}
+				newNumPositions ++;
+			}
+			newOffsets[newNumPositions] = newNumEntries;
+
+			return new CodonReadsStore<>(
+				sortedGenes,
+				Arrays.copyOf(newGeneIndice, newNumPositions),
+				Arrays.copyOf(newPositions, newNumPositions),
+				Arrays.copyOf(newTotalReads, newNumPositions),
+				Arrays.copyOf(newOffsets, newNumPositions + 1),
+				Arrays.copyOf(newCodonIndice, newNumEntries),
+				Arrays.copyOf(newReads, newNumEntries),
+				new ArrayList<>(codons));
+		}
+
+		private static boolean contains(int[] values, int size, int value) {
+			for (int i = 0; i < size; i ++) {
+				if (values[i] == value) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Stable insertion sort; a position has only a handful of codons.
+		 */
+		private static void sortByReadsDesc(int[] posCodons, int size, long[] codonReads) {
+			for (int i = 1; i < size; i ++) {
+				int codonIdx = posCodons[i];
+				long value = codonReads[codonIdx];
+				int j = i - 1;
+				while (j >= 0 && codonReads[posCodons[j]] < value) {
+					posCodons[j + 1] = posCodons[j];
+					j --;
+				}
+				posCodons[j + 1] = codonIdx;
+			}
+		}
+
+	}
+
+}
@@ -106,6 +106,15 @@ public class FrameShift<VirusT extends Virus<VirusT>> implements Comparable<Fram
 		);
 	}
 
+	public static <VirusT extends Virus<VirusT>> FrameShift<VirusT> fromNucAminoFrameShift(
+		Gene<VirusT> gene, int aaPosition, int gapLength, String nas, boolean isInsertion
+	) {
+		return new FrameShift<>(
+			gene, aaPosition, gapLength, nas,
+			isInsertion ? Type.INSERTION : Type.DELETION
+		);
+	}
+
 	@Override
 	public Strain<VirusT> getStrain() { return gene.getStrain(); }
 
@@ -120,9 +120,8 @@ public class GenePosition<VirusT extends Virus<VirusT>> implements Comparable<Ge
 	public boolean isDrugResistancePosition() {
 		if (isDrugResistancePosition == null) {
 			isDrugResistancePosition = (
-				gene.getVirusInstance().getDrugResistMutations()
-				.values().stream()
-				.anyMatch(drms -> drms.get(this) != null)
+				MutationClassificationIndex.getInstance(gene.getVirusInstance())
+				.isDrugResistancePosition(gene, position)
 			);
 		}
 		return isDrugResistancePosition;
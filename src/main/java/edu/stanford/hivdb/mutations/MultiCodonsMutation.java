@@ -21,11 +21,9 @@
 package edu.stanford.hivdb.mutations;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
+import edu.stanford.hivdb.utilities.AABitmask;
 import edu.stanford.hivdb.utilities.CodonUtils;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Virus;
@@ -43,14 +41,14 @@ public class MultiCodonsMutation<VirusT extends Virus<VirusT>> extends AAMutatio
 	private final String compatTriplet;
 
 	public static <VirusT extends Virus<VirusT>> MultiCodonsMutation<VirusT> initUnsequenced(Gene<VirusT> gene, int position) {
-		return new MultiCodonsMutation<>(gene, position, Collections.emptySet(), 0, "NNN");
+		return new MultiCodonsMutation<>(gene, position, 0, 0, "NNN");
 	}
 
-	private static <VirusT extends Virus<VirusT>> Set<Character>
-	getAACharSet(PositionCodonReads<VirusT> posCodonReads, long minReads) {
-		Set<Character> aaCharSet = new TreeSet<>();
+	private static <VirusT extends Virus<VirusT>> int
+	getAAMask(List<CodonReads<VirusT>> allCodonReads, long minReads) {
+		int aaMask = 0;
 
-		for (CodonReads<VirusT> codonReads : posCodonReads.getCodonReads()) {
+		for (CodonReads<VirusT> codonReads : allCodonReads) {
 			char aa = codonReads.getAminoAcid();
 			if (aa == 'X') {
 				continue;
@@ -60,16 +58,16 @@ public class MultiCodonsMutation<VirusT extends Virus<VirusT>> extends AAMutatio
 				// remove minor variants below min-prevalence
 				continue;
 			}
-			aaCharSet.add(aa);
+			aaMask |= AABitmask.bitOf(aa);
 		}
-		return aaCharSet;
+		return aaMask;
 	}
 
 	private static <VirusT extends Virus<VirusT>> String getCompatTriplet(
-		PositionCodonReads<VirusT> posCodonReads, long minReads
+		List<CodonReads<VirusT>> allCodonReads, long minReads
 	) {
 		List<String> cleanCodons = new ArrayList<>();
-		for (CodonReads<VirusT> codonReads : posCodonReads.getCodonReads()) {
+		for (CodonReads<VirusT> codonReads : allCodonReads) {
 			// Tolerant spaces and dashes
 			String codon = codonReads.getCodon().replaceAll("[ -]", "");
 			long count = codonReads.getReads();
@@ -93,29 +91,81 @@ public class MultiCodonsMutation<VirusT extends Virus<VirusT>> extends AAMutatio
 
 	public static <VirusT extends Virus<VirusT>> MultiCodonsMutation<VirusT> fromPositionCodonReads(
 		PositionCodonReads<VirusT> posCodonReads, double minPrevalence
+	) {
+		long minReads = Math.round(posCodonReads.getTotalReads() * minPrevalence + 0.5);
+		return fromCodonReads(posCodonReads, posCodonReads.getCodonReads(), minReads);
+	}
+
+	/**
+	 * Creates mutations of a position at multiple prevalence cutoffs.
+	 *
+	 * A mutation only changes when a cutoff drops a codon; cutoffs keeping
+	 * the same codons share the same mutation instance.
+	 *
+	 * @param posCodonReads		Codon reads of the position
+	 * @param minPrevalences	Prevalence cutoffs in ascending order
+	 * @return					Mutation of each cutoff; null if there's no
+	 * 							mutation at that cutoff
+	 */
+	public static <VirusT extends Virus<VirusT>> List<MultiCodonsMutation<VirusT>> fromPositionCodonReads(
+		PositionCodonReads<VirusT> posCodonReads, double[] minPrevalences
+	) {
+		List<CodonReads<VirusT>> allCodonReads = posCodonReads.getCodonReads();
+		long totalCount = posCodonReads.getTotalReads();
+		List<MultiCodonsMutation<VirusT>> mutations = new ArrayList<>(minPrevalences.length);
+		MultiCodonsMutation<VirusT> prevMut = null;
+		int prevNumAboveOrEqual = -1;
+		int prevNumAbove = -1;
+		for (double minPrevalence : minPrevalences) {
+			long minReads = Math.round(totalCount * minPrevalence + 0.5);
+			// AA mask uses codons of reads >= minReads; compat triplet uses
+			// reads > minReads. The mutation is the same if neither changed.
+			int numAboveOrEqual = 0;
+			int numAbove = 0;
+			for (CodonReads<VirusT> codonReads : allCodonReads) {
+				long count = codonReads.getReads();
+				if (count >= minReads) {
+					numAboveOrEqual ++;
+					if (count > minReads) {
+						numAbove ++;
+					}
+				}
+			}
+			if (numAboveOrEqual != prevNumAboveOrEqual || numAbove != prevNumAbove) {
+				prevMut = numAboveOrEqual == 0 ? null : fromCodonReads(posCodonReads, allCodonReads, minReads);
+				prevNumAboveOrEqual = numAboveOrEqual;
+				prevNumAbove = numAbove;
+			}
+			mutations.add(prevMut);
+		}
+		return mutations;
+	}
+
+	private static <VirusT extends Virus<VirusT>> MultiCodonsMutation<VirusT> fromCodonReads(
+		PositionCodonReads<VirusT> posCodonReads,
+		List<CodonReads<VirusT>> allCodonReads, long minReads
 	) {
 		Gene<VirusT> gene = posCodonReads.getGene();
 		int position = (int) posCodonReads.getPosition();
 		long totalCount = posCodonReads.getTotalReads();
-		long minReads = Math.round(totalCount * minPrevalence + 0.5);
-		Set<Character> aaCharSet = getAACharSet(posCodonReads, minReads);
+		int aaMask = getAAMask(allCodonReads, minReads);
 		char ref = gene.getRefChar(position);
-		if (aaCharSet.isEmpty() ||
-			(aaCharSet.size() == 1 && aaCharSet.contains(ref))
+		if (aaMask == 0 ||
+			(AABitmask.size(aaMask) == 1 && AABitmask.contains(aaMask, ref))
 		) {
 			return null;
 		}
-		String compatTriplet = getCompatTriplet(posCodonReads, minReads);
+		String compatTriplet = getCompatTriplet(allCodonReads, minReads);
 		return new MultiCodonsMutation<>(
-			gene, position, aaCharSet, totalCount, compatTriplet);
+			gene, position, aaMask, totalCount, compatTriplet);
 	}
 
 	private MultiCodonsMutation(
 		Gene<VirusT> gene, int position,
-		Set<Character> aaCharSet,
+		int aaMask,
 		long totalCount, String compatTriplet
 	) {
-		super(gene, position, aaCharSet, DEFAULT_MAX_DISPLAY_AAS);
+		super(gene, position, aaMask, DEFAULT_MAX_DISPLAY_AAS);
 		this.totalCount = totalCount;
 		this.compatTriplet = compatTriplet;
 	}
@@ -0,0 +1,238 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.stanford.hivdb.drugs.DrugClass;
+import edu.stanford.hivdb.utilities.AABitmask;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Precomputed classification (DRM, SDRM, TSM, APOBEC and mutation types)
+ * of all positions of a virus.
+ *
+ * Positions are laid out gene after gene by gene ordinal, i.e. by their
+ * absolute position in strain. Genes are matched by ordinal the same way
+ * as {@link MutationSet#get(Gene, int)}. Each category holds an AA bitmask
+ * (see {@link AABitmask}) per position, so that a classification query is
+ * an array read plus a mask test.
+ */
+public class MutationClassificationIndex<VirusT extends Virus<VirusT>> {
+
+	private static final Map<Virus<?>, MutationClassificationIndex<?>> singletons = new ConcurrentHashMap<>();
+
+	/**
+	 * AA bitmasks of a category (e.g. DRMs), in total and per drug class.
+	 */
+	private class Category {
+		private final int[] masks = new int[size];
+		private final List<DrugClass<VirusT>> drugClasses = new ArrayList<>();
+		private final List<int[]> drugClassMasks = new ArrayList<>();
+
+		private Category(Map<DrugClass<VirusT>, MutationSet<VirusT>> mutsByDrugClass) {
+			for (Map.Entry<DrugClass<VirusT>, MutationSet<VirusT>> entry : mutsByDrugClass.entrySet()) {
+				int[] dcMasks = new int[size];
+				fillMasks(entry.getValue(), masks);
+				fillMasks(entry.getValue(), dcMasks);
+				drugClasses.add(entry.getKey());
+				drugClassMasks.add(dcMasks);
+			}
+		}
+
+		private Category(MutationSet<VirusT> mutations) {
+			fillMasks(mutations, masks);
+		}
+
+		private boolean contains(Mutation<VirusT> mut) {
+			int idx = indexOf(mut.getGene(), mut.getPosition());
+			return idx >= 0 && (masks[idx] & getAAMask(mut)) != 0;
+		}
+
+		private DrugClass<VirusT> getDrugClass(Mutation<VirusT> mut) {
+			int idx = indexOf(mut.getGene(), mut.getPosition());
+			if (idx < 0) {
+				return null;
+			}
+			int aaMask = getAAMask(mut);
+			for (int i = 0; i < drugClasses.size(); i ++) {
+				if ((drugClassMasks.get(i)[idx] & aaMask) != 0) {
+					return drugClasses.get(i);
+				}
+			}
+			return null;
+		}
+	}
+
+	// offset and AA size of each gene ordinal
+	private final Map<Integer, int[]> geneOffsets = new TreeMap<>();
+	private final int size;
+	private final Category drms;
+	private final Category sdrms;
+	private final Category tsms;
+	private final Category apobecs;
+	private final Category apobecDRMs;
+	// per position: AA bitmasks and MutationTypePairs
+	private final int[][] mutTypeMasks;
+	private final MutationTypePair<?>[][] mutTypePairs;
+
+	@SuppressWarnings("unchecked")
+	public static <VirusT extends Virus<VirusT>> MutationClassificationIndex<VirusT> getInstance(VirusT virusIns) {
+		return (MutationClassificationIndex<VirusT>) singletons.computeIfAbsent(
+			virusIns, v -> new MutationClassificationIndex<>(virusIns));
+	}
+
+	private static <VirusT extends Virus<VirusT>> int getAAMask(Mutation<VirusT> mut) {
+		if (mut instanceof AAMutation) {
+			return ((AAMutation<VirusT>) mut).getAAMask();
+		}
+		return AABitmask.fromChars(mut.getAAChars());
+	}
+
+	// the reference AA and stop codon are not responsible for a match
+	// (see Mutation#containsSharedAA(Set, boolean))
+	private static <VirusT extends Virus<VirusT>> int getNonRefAAMask(Mutation<VirusT> mut) {
+		int aaMask = getAAMask(mut) & ~AABitmask.STOP;
+		char ref = mut.getGene().getRefChar(mut.getPosition());
+		if (AABitmask.isSupported(ref)) {
+			aaMask &= ~AABitmask.bitOf(ref);
+		}
+		return aaMask;
+	}
+
+	private MutationClassificationIndex(VirusT virusIns) {
+		Map<Integer, Integer> geneSizes = new TreeMap<>();
+		for (Strain<VirusT> strain : virusIns.getStrains()) {
+			for (Gene<VirusT> gene : strain.getGenes()) {
+				geneSizes.merge(gene.getOrdinal(), gene.getAASize(), Math::max);
+			}
+		}
+		int offset = 0;
+		for (Map.Entry<Integer, Integer> entry : geneSizes.entrySet()) {
+			geneOffsets.put(entry.getKey(), new int[] {offset, entry.getValue()});
+			offset += entry.getValue();
+		}
+		size = offset;
+		drms = new Category(virusIns.getDrugResistMutations());
+		sdrms = new Category(virusIns.getSurveilDrugResistMutations());
+		tsms = new Category(virusIns.getRxSelectedMutations());
+		apobecs = new Category(virusIns.getApobecMutations());
+		apobecDRMs = new Category(virusIns.getApobecDRMs());
+
+		mutTypeMasks = new int[size][];
+		mutTypePairs = new MutationTypePair<?>[size][];
+		for (MutationTypePair<VirusT> mtp : virusIns.getMutationTypePairs()) {
+			Mutation<VirusT> mutObj = mtp.getMutObj();
+			int idx = indexOf(mutObj.getGene(), mutObj.getPosition());
+			if (idx < 0) {
+				continue;
+			}
+			int[] masks = mutTypeMasks[idx];
+			MutationTypePair<?>[] mtps = mutTypePairs[idx];
+			int numPairs = masks == null ? 0 : masks.length;
+			masks = masks == null ? new int[1] : Arrays.copyOf(masks, numPairs + 1);
+			mtps = mtps == null ? new MutationTypePair<?>[1] : Arrays.copyOf(mtps, numPairs + 1);
+			masks[numPairs] = getAAMask(mutObj);
+			mtps[numPairs] = mtp;
+			mutTypeMasks[idx] = masks;
+			mutTypePairs[idx] = mtps;
+		}
+	}
+
+	private void fillMasks(MutationSet<VirusT> mutations, int[] masks) {
+		for (Mutation<VirusT> mut : mutations) {
+			int idx = indexOf(mut.getGene(), mut.getPosition());
+			if (idx >= 0) {
+				masks[idx] |= getNonRefAAMask(mut);
+			}
+		}
+	}
+
+	private int indexOf(Gene<VirusT> gene, int pos) {
+		int[] offsetAndSize = geneOffsets.get(gene.getOrdinal());
+		if (offsetAndSize == null || pos < 1 || pos > offsetAndSize[1]) {
+			return -1;
+		}
+		return offsetAndSize[0] + pos - 1;
+	}
+
+	public boolean isDRM(Mutation<VirusT> mut) { return drms.contains(mut); }
+
+	public DrugClass<VirusT> getDRMDrugClass(Mutation<VirusT> mut) { return drms.getDrugClass(mut); }
+
+	public boolean isSDRM(Mutation<VirusT> mut) { return sdrms.contains(mut); }
+
+	public DrugClass<VirusT> getSDRMDrugClass(Mutation<VirusT> mut) { return sdrms.getDrugClass(mut); }
+
+	public boolean isTSM(Mutation<VirusT> mut) { return tsms.contains(mut); }
+
+	public DrugClass<VirusT> getTSMDrugClass(Mutation<VirusT> mut) { return tsms.getDrugClass(mut); }
+
+	public boolean isApobecMutation(Mutation<VirusT> mut) { return apobecs.contains(mut); }
+
+	public boolean isApobecDRM(Mutation<VirusT> mut) { return apobecDRMs.contains(mut); }
+
+	/**
+	 * Returns true if any DRM is at the given position.
+	 *
+	 * @param gene	Gene
+	 * @param pos	Position
+	 * @return		Is DR position or not
+	 */
+	public boolean isDrugResistancePosition(Gene<VirusT> gene, int pos) {
+		int idx = indexOf(gene, pos);
+		return idx >= 0 && drms.masks[idx] != 0;
+	}
+
+	/**
+	 * Returns mutation types of all MutationTypePairs matching the given
+	 * mutation (see {@link MutationTypePair#isMutationMatched(Mutation)}).
+	 *
+	 * @param mut	Mutation
+	 * @return		List of mutation types; empty if no type is matched
+	 */
+	@SuppressWarnings("unchecked")
+	public List<MutationType<VirusT>> getMutationTypes(Mutation<VirusT> mut) {
+		int idx = indexOf(mut.getGene(), mut.getPosition());
+		if (idx < 0 || mutTypeMasks[idx] == null) {
+			return new ArrayList<>();
+		}
+		int aaMask = getNonRefAAMask(mut);
+		int[] masks = mutTypeMasks[idx];
+		MutationTypePair<?>[] mtps = mutTypePairs[idx];
+		List<MutationType<VirusT>> types = new ArrayList<>();
+		for (int i = 0; i < masks.length; i ++) {
+			MutationTypePair<VirusT> mtp = (MutationTypePair<VirusT>) mtps[i];
+			if ((masks[i] & aaMask) != 0 && mtp.getMutObj().getGene() == mut.getGene()) {
+				types.add(mtp.getMutationType());
+			}
+		}
+		return types;
+	}
+
+}
@@ -26,17 +26,26 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Chars;
 import com.google.gson.reflect.TypeToken;
 
 import edu.stanford.hivdb.drugs.DrugClass;
@@ -64,11 +73,14 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	) {
 		return new MutationSet<VirusT>(
 			muts.stream()
-			.map(m -> new AAMutation<VirusT>(
-				getGene.apply((String) m.get("gene")),
-				((Double) m.get("position")).intValue(),
-				((String) m.get("aa")).toCharArray()
-			))
+			.map(m -> {
+				Gene<VirusT> gene = getGene.apply((String) m.get("gene"));
+				return (Mutation<VirusT>) gene.getVirusInstance().internMutation(
+					gene,
+					((Double) m.get("position")).intValue(),
+					Sets.newTreeSet(Chars.asList(((String) m.get("aa")).toCharArray()))
+				);
+			})
 			.collect(Collectors.toList()));
 	}
 
@@ -184,15 +196,89 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 		);
 	}
 
-	private transient Map<GenePosition<VirusT>, Mutation<VirusT>> genePositionMap;
+	// sorted keys of (gene ordinal, position), see toKey()
+	private final int[] keys;
+
+	// mutations of each key; same order as keys
+	private final Mutation<VirusT>[] mutations;
 
 	private transient Map<Mutation<VirusT>, List<MutationPrevalence<VirusT>>> prevalences;
 
+	/**
+	 * Packs gene ordinal and position into one integer. The keys are
+	 * ordered the same way as GenePosition objects.
+	 *
+	 * @param gene	Gene
+	 * @param pos	Position, should be less than 65536
+	 * @return		The key
+	 */
+	private static int toKey(Gene<?> gene, int pos) {
+		return (gene.getOrdinal() << 16) | (pos & 0xffff);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <VirusT extends Virus<VirusT>> Mutation<VirusT>[] newArray(int size) {
+		return (Mutation<VirusT>[]) new Mutation<?>[size];
+	}
+
 	public MutationSet(Collection<Mutation<VirusT>> mutations) {
-		genePositionMap = new TreeMap<>();
-		_addAll(mutations);
-		// prevent any future changes to genePositionMap
-		genePositionMap = Collections.unmodifiableMap(genePositionMap);
+		int numMuts = mutations.size();
+		int[] tmpKeys = new int[numMuts];
+		Mutation<VirusT>[] tmpMuts = newArray(numMuts);
+		boolean sorted = true;
+		numMuts = 0;
+		for (Mutation<VirusT> mut : mutations) {
+			if (mut == null) {
+				continue;
+			}
+			int key = toKey(mut.getGene(), mut.getPosition());
+			if (numMuts > 0 && key < tmpKeys[numMuts - 1]) {
+				sorted = false;
+			}
+			tmpKeys[numMuts] = key;
+			tmpMuts[numMuts ++] = mut;
+		}
+		if (!sorted) {
+			// stable sort: mutations of the same position keep their order
+			long[] keyIndice = new long[numMuts];
+			for (int i = 0; i < numMuts; i ++) {
+				keyIndice[i] = ((long) tmpKeys[i] << 32) | i;
+			}
+			Arrays.sort(keyIndice);
+			int[] sortedKeys = new int[numMuts];
+			Mutation<VirusT>[] sortedMuts = newArray(numMuts);
+			for (int i = 0; i < numMuts; i ++) {
+				int idx = (int) keyIndice[i];
+				sortedKeys[i] = tmpKeys[idx];
+				sortedMuts[i] = tmpMuts[idx];
+			}
+			tmpKeys = sortedKeys;
+			tmpMuts = sortedMuts;
+		}
+		int size = 0;
+		for (int i = 0; i < numMuts; i ++) {
+			int key = tmpKeys[i];
+			Mutation<VirusT> mut = tmpMuts[i];
+			Mutation<VirusT> origMut = size > 0 && tmpKeys[size - 1] == key ? tmpMuts[size - 1] : null;
+			if (mut.equals(origMut) || mut.getReference().equals(mut.getAAs())) {
+				continue;
+			}
+			if (origMut == null) {
+				tmpKeys[size] = key;
+				tmpMuts[size ++] = mut;
+			}
+			else {
+				tmpMuts[size - 1] = origMut.mergesWith(mut.getAAChars());
+			}
+		}
+		this.keys = size == tmpKeys.length ? tmpKeys : Arrays.copyOf(tmpKeys, size);
+		this.mutations = size == tmpMuts.length ? tmpMuts : Arrays.copyOf(tmpMuts, size);
+	}
+
+	// trusted constructor: keys are sorted and unique
+	private MutationSet(int[] keys, Mutation<VirusT>[] mutations, int size) {
+		this.keys = size == keys.length ? keys : Arrays.copyOf(keys, size);
+		this.mutations = size == mutations.length ? mutations : Arrays.copyOf(mutations, size);
 	}
 
 	@SafeVarargs
@@ -210,32 +296,6 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 		return new MutationSet<>(tmpMuts);
 	}
 
-	// private addAll method for internal usage
-	private boolean _addAll(Collection<Mutation<VirusT>> muts) {
-		List<Boolean> rr = muts
-			.stream().map(mut -> _add(mut)).collect(Collectors.toList());
-		return rr.stream().anyMatch(r -> r);
-	}
-
-	// private add method for internal usage
-	private boolean _add(Mutation<VirusT> mut) {
-		if (mut == null) {
-			return false;
-		}
-		GenePosition<VirusT> gp = mut.getGenePosition();
-		Mutation<VirusT> origMut = genePositionMap.getOrDefault(gp, null);
-		if (mut.equals(origMut) || mut.getReference().equals(mut.getAAs())) {
-			return false;
-		}
-		if (origMut != null) {
-			mut = origMut.mergesWith(mut.getAAChars());
-			super.remove(origMut);
-		}
-		super.add(mut);
-		genePositionMap.put(gp, mut);
-		return true;
-	}
-
 	// Begin of all write methods
 	@Override
 	public boolean addAll(Collection<? extends Mutation<VirusT>> muts) {
@@ -276,6 +336,11 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	public Mutation<VirusT> pollLast() {
 		throw new UnsupportedOperationException(MESSAGE_ON_WRITE);
 	}
+
+	@Override
+	public boolean removeIf(Predicate<? super Mutation<VirusT>> filter) {
+		throw new UnsupportedOperationException(MESSAGE_ON_WRITE);
+	}
 	// End of all write methods
 
 	/**
@@ -292,9 +357,38 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return 			A new MutationSet object contains matched mutations
 	 */
 	public MutationSet<VirusT> mergesWith(Collection<Mutation<VirusT>> another) {
-		List<Mutation<VirusT>> newList = new ArrayList<>(this);
-		newList.addAll(another);
-		return new MutationSet<>(newList);
+		if (!(another instanceof MutationSet)) {
+			List<Mutation<VirusT>> newList = new ArrayList<>(this);
+			newList.addAll(another);
+			return new MutationSet<>(newList);
+		}
+		MutationSet<VirusT> anotherSet = (MutationSet<VirusT>) another;
+		int[] otherKeys = anotherSet.keys;
+		Mutation<VirusT>[] otherMuts = anotherSet.mutations;
+		int maxSize = keys.length + otherKeys.length;
+		int[] newKeys = new int[maxSize];
+		Mutation<VirusT>[] newMuts = newArray(maxSize);
+		int i = 0, j = 0, size = 0;
+		while (i < keys.length || j < otherKeys.length) {
+			if (j == otherKeys.length || (i < keys.length && keys[i] < otherKeys[j])) {
+				newKeys[size] = keys[i];
+				newMuts[size ++] = mutations[i ++];
+			}
+			else if (i == keys.length || keys[i] > otherKeys[j]) {
+				newKeys[size] = otherKeys[j];
+				newMuts[size ++] = otherMuts[j ++];
+			}
+			else {
+				Mutation<VirusT> thisMut = mutations[i ++];
+				Mutation<VirusT> otherMut = otherMuts[j ++];
+				newKeys[size] = keys[i - 1];
+				newMuts[size ++] = (
+					otherMut.equals(thisMut) ? thisMut :
+					thisMut.mergesWith(otherMut.getAAChars())
+				);
+			}
+		}
+		return new MutationSet<>(newKeys, newMuts, size);
 	}
 
 	/**
@@ -321,36 +415,39 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return 			A new MutationSet object contains matched mutations
 	 */
 	public MutationSet<VirusT> intersectsWith(Collection<Mutation<VirusT>> another) {
-		Set<GenePosition<VirusT>> gpKeys = new HashSet<>(genePositionMap.keySet());
-		Set<GenePosition<VirusT>> gpKeysAnother;
+		List<Mutation<VirusT>> newList = new ArrayList<>();
 		if (another instanceof MutationSet) {
-			gpKeysAnother = ((MutationSet<VirusT>) another).genePositionMap.keySet();
-		} else {
-			gpKeysAnother = another
-				.stream()
-				.map(m -> m.getGenePosition())
-				.collect(Collectors.toSet());
+			MutationSet<VirusT> anotherSet = (MutationSet<VirusT>) another;
+			int[] otherKeys = anotherSet.keys;
+			int i = 0, j = 0;
+			while (i < keys.length && j < otherKeys.length) {
+				if (keys[i] < otherKeys[j]) {
+					i ++;
+				}
+				else if (keys[i] > otherKeys[j]) {
+					j ++;
+				}
+				else {
+					newList.add(mutations[i ++].intersectsWith(
+						anotherSet.mutations[j ++].getAAChars()));
+				}
+			}
 		}
-		gpKeys.retainAll(gpKeysAnother);
-		List<Mutation<VirusT>> mutations = new ArrayList<>();
-		for (GenePosition<VirusT> gp : gpKeys) {
-			Mutation<VirusT> thisMut = genePositionMap.get(gp);
-			Set<Character> otherAAChars = new TreeSet<>();
-			if (another instanceof MutationSet) {
-				otherAAChars.addAll(
-					((MutationSet<VirusT>) another).genePositionMap.get(gp).getAAChars()
-				);
+		else {
+			Map<Integer, Set<Character>> otherAACharsMap = new HashMap<>();
+			for (Mutation<VirusT> mut : another) {
+				otherAACharsMap
+					.computeIfAbsent(toKey(mut.getGene(), mut.getPosition()), k -> new TreeSet<>())
+					.addAll(mut.getAAChars());
 			}
-			else {
-				for (Mutation<VirusT> mut : another) {
-					if (mut.getGenePosition().equals(gp)) {
-						otherAAChars.addAll(mut.getAAChars());
-					}
+			for (int i = 0; i < keys.length; i ++) {
+				Set<Character> otherAAChars = otherAACharsMap.get(keys[i]);
+				if (otherAAChars != null) {
+					newList.add(mutations[i].intersectsWith(otherAAChars));
 				}
 			}
-			mutations.add(thisMut.intersectsWith(otherAAChars));
 		}
-		return new MutationSet<>(mutations);
+		return new MutationSet<>(newList);
 	}
 
 	/**
@@ -377,18 +474,21 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 		else {
 			anotherSet = new MutationSet<>(another);
 		}
-		List<Mutation<VirusT>> mutations = new ArrayList<>();
-		for (GenePosition<VirusT> gp : genePositionMap.keySet()) {
-			Mutation<VirusT> thisMut = genePositionMap.get(gp);
-			Mutation<VirusT> anotherMut = anotherSet.genePositionMap.get(gp);
-			if (anotherMut == null) {
-				mutations.add(thisMut);
+		int[] otherKeys = anotherSet.keys;
+		List<Mutation<VirusT>> newList = new ArrayList<>(keys.length);
+		int j = 0;
+		for (int i = 0; i < keys.length; i ++) {
+			while (j < otherKeys.length && otherKeys[j] < keys[i]) {
+				j ++;
+			}
+			if (j < otherKeys.length && otherKeys[j] == keys[i]) {
+				newList.add(mutations[i].subtractsBy(anotherSet.mutations[j].getAAChars()));
 			}
 			else {
-				mutations.add(thisMut.subtractsBy(anotherMut.getAAChars()));
+				newList.add(mutations[i]);
 			}
 		}
-		return new MutationSet<>(mutations);
+		return new MutationSet<>(newList);
 	}
 
 	public MutationSet<VirusT> subtractsBy(Mutation<VirusT> mutations) {
@@ -622,7 +722,7 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return The matched mutation
 	 */
 	public Mutation<VirusT> get(GenePosition<VirusT> gp) {
-		return genePositionMap.get(gp);
+		return get(gp.getGene(), gp.getPosition());
 	}
 
 	/** Returns a mutation at specified gene position.
@@ -632,8 +732,8 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return 		The matched mutation
 	 */
 	public Mutation<VirusT> get(Gene<VirusT> gene, int pos) {
-		GenePosition<VirusT> gp = new GenePosition<VirusT>(gene, pos);
-		return genePositionMap.get(gp);
+		int idx = Arrays.binarySearch(keys, toKey(gene, pos));
+		return idx < 0 ? null : mutations[idx];
 	}
 
 	/** Returns a set of non-mixture mutations for all mutations.
@@ -642,7 +742,7 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 */
 	public Set<Mutation<VirusT>> getSplitted() {
 		Set<Mutation<VirusT>> splittedMuts = new TreeSet<>();
-		for(Mutation<VirusT> mut : genePositionMap.values()) {
+		for(Mutation<VirusT> mut : mutations) {
 			splittedMuts.addAll(mut.split());
 		}
 		return splittedMuts;
@@ -653,7 +753,11 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return a list of mutation positions
 	 */
 	public List<GenePosition<VirusT>> getPositions() {
-		return new ArrayList<>(genePositionMap.keySet());
+		List<GenePosition<VirusT>> positions = new ArrayList<>(mutations.length);
+		for (Mutation<VirusT> mut : mutations) {
+			positions.add(mut.getGenePosition());
+		}
+		return positions;
 	}
 
 	/** Check if the given position is an insertion
@@ -696,8 +800,7 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 	 * @return					Has shared Amino acid mutation
 	 */
 	public boolean hasSharedAAMutation(Mutation<VirusT> anotherMut, boolean ignoreRefOrStops) {
-		GenePosition<VirusT> gp = anotherMut.getGenePosition();
-		Mutation<VirusT> selfMut = genePositionMap.get(gp);
+		Mutation<VirusT> selfMut = get(anotherMut.getGene(), anotherMut.getPosition());
 		if (selfMut == null) {
 			return false;
 		}
@@ -766,6 +869,144 @@ public class MutationSet<VirusT extends Virus<VirusT>> extends TreeSet<Mutation<
 		return toStringList(Mutation<VirusT>::getASIFormat);
 	}
 
+	// Begin of all read methods of TreeSet
+	private List<Mutation<VirusT>> asList() {
+		return Collections.unmodifiableList(Arrays.asList(mutations));
+	}
+
+	private NavigableSet<Mutation<VirusT>> toTreeSet() {
+		return new TreeSet<>(asList());
+	}
+
+	// index of given mutation, or (-(insertion point) - 1) if not found
+	private int indexOf(Mutation<VirusT> mut) {
+		return Arrays.binarySearch(mutations, mut);
+	}
+
+	@Override
+	public Iterator<Mutation<VirusT>> iterator() {
+		return asList().iterator();
+	}
+
+	@Override
+	public Iterator<Mutation<VirusT>> descendingIterator() {
+		return Lists.reverse(asList()).iterator();
+	}
+
+	@Override
+	public NavigableSet<Mutation<VirusT>> descendingSet() {
+		return Collections.unmodifiableNavigableSet(toTreeSet().descendingSet());
+	}
+
+	@Override
+	public Spliterator<Mutation<VirusT>> spliterator() {
+		return Spliterators.spliterator(
+			mutations,
+			Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.ORDERED |
+			Spliterator.NONNULL | Spliterator.IMMUTABLE
+		);
+	}
+
+	@Override
+	public int size() {
+		return mutations.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mutations.length == 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean contains(Object o) {
+		if (!(o instanceof Mutation)) {
+			return false;
+		}
+		Mutation<VirusT> mut = (Mutation<VirusT>) o;
+		int idx = Arrays.binarySearch(keys, toKey(mut.getGene(), mut.getPosition()));
+		return idx >= 0 && mutations[idx].compareTo(mut) == 0;
+	}
+
+	@Override
+	public Mutation<VirusT> first() {
+		if (mutations.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return mutations[0];
+	}
+
+	@Override
+	public Mutation<VirusT> last() {
+		if (mutations.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return mutations[mutations.length - 1];
+	}
+
+	@Override
+	public Mutation<VirusT> lower(Mutation<VirusT> mut) {
+		int idx = indexOf(mut);
+		idx = idx < 0 ? -idx - 2 : idx - 1;
+		return idx < 0 ? null : mutations[idx];
+	}
+
+	@Override
+	public Mutation<VirusT> floor(Mutation<VirusT> mut) {
+		int idx = indexOf(mut);
+		idx = idx < 0 ? -idx - 2 : idx;
+		return idx < 0 ? null : mutations[idx];
+	}
+
+	@Override
+	public Mutation<VirusT> ceiling(Mutation<VirusT> mut) {
+		int idx = indexOf(mut);
+		idx = idx < 0 ? -idx - 1 : idx;
+		return idx < mutations.length ? mutations[idx] : null;
+	}
+
+	@Override
+	public Mutation<VirusT> higher(Mutation<VirusT> mut) {
+		int idx = indexOf(mut);
+		idx = idx < 0 ? -idx - 1 : idx + 1;
+		return idx < mutations.length ? mutations[idx] : null;
+	}
+
+	@Override
+	public NavigableSet<Mutation<VirusT>> subSet(
+		Mutation<VirusT> fromElement, boolean fromInclusive,
+		Mutation<VirusT> toElement, boolean toInclusive
+	) {
+		return Collections.unmodifiableNavigableSet(
+			toTreeSet().subSet(fromElement, fromInclusive, toElement, toInclusive));
+	}
+
+	@Override
+	public NavigableSet<Mutation<VirusT>> headSet(Mutation<VirusT> toElement, boolean inclusive) {
+		return Collections.unmodifiableNavigableSet(toTreeSet().headSet(toElement, inclusive));
+	}
+
+	@Override
+	public NavigableSet<Mutation<VirusT>> tailSet(Mutation<VirusT> fromElement, boolean inclusive) {
+		return Collections.unmodifiableNavigableSet(toTreeSet().tailSet(fromElement, inclusive));
+	}
+
+	@Override
+	public SortedSet<Mutation<VirusT>> subSet(Mutation<VirusT> fromElement, Mutation<VirusT> toElement) {
+		return subSet(fromElement, true, toElement, false);
+	}
+
+	@Override
+	public SortedSet<Mutation<VirusT>> headSet(Mutation<VirusT> toElement) {
+		return headSet(toElement, false);
+	}
+
+	@Override
+	public SortedSet<Mutation<VirusT>> tailSet(Mutation<VirusT> fromElement) {
+		return tailSet(fromElement, true);
+	}
+	// End of all read methods of TreeSet
+
 	@Override
 	public int compareTo(MutationSet<VirusT> o) {
 		List<Mutation<VirusT>> mutsLeft = new ArrayList<>(getSplitted());
@@ -20,6 +20,8 @@
 
 package edu.stanford.hivdb.mutations;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -38,7 +40,24 @@ public class PositionCodonReads<VirusT extends Virus<VirusT>> implements WithGen
 	private final Gene<VirusT> gene;
 	private final int position;
 	private final long totalReads;
+	// the store is only used for creating CodonReads objects; it is not
+	// serialized, so that the serialized form stays the same as objects
+	// created from a map of codon reads
+	private final transient CodonReadsStore<VirusT> store;
+	private final transient int storeIndex;
 	private final Map<String, Long> allCodonReads;
+	private transient List<CodonReads<VirusT>> codonReads;
+
+	private static Map<String, Long> sortByReads(Map<String, Long> allCodonReads) {
+		return Collections.unmodifiableMap(
+			allCodonReads.entrySet().stream()
+			.sorted(Comparator.comparingLong(Map.Entry<String, Long>::getValue).reversed())
+			.collect(Collectors.toMap(
+				e -> e.getKey(),
+				e -> e.getValue(),
+				(e1, e2) -> e1,
+				LinkedHashMap::new)));
+	}
 
 	public PositionCodonReads(
 		final Gene<VirusT> gene,
@@ -48,13 +67,27 @@ public class PositionCodonReads<VirusT extends Virus<VirusT>> implements WithGen
 		this.gene = gene;
 		this.position = position;
 		this.totalReads = totalReads;
-		this.allCodonReads = allCodonReads.entrySet().stream()
-			.sorted(Comparator.comparingLong(Map.Entry<String, Long>::getValue).reversed())
-			.collect(Collectors.toMap(
-				e -> e.getKey(),
-				e -> e.getValue(),
-				(e1, e2) -> e1,
-				LinkedHashMap::new));
+		this.store = null;
+		this.storeIndex = -1;
+		this.allCodonReads = sortByReads(allCodonReads);
+	}
+
+	/**
+	 * Creates a view of a position in given {@link CodonReadsStore}.
+	 */
+	PositionCodonReads(final CodonReadsStore<VirusT> store, final int storeIndex) {
+		this.gene = store.getGene(storeIndex);
+		this.position = store.getPosition(storeIndex);
+		this.totalReads = store.getTotalReads(storeIndex);
+		this.store = store;
+		this.storeIndex = storeIndex;
+		Map<String, Long> codonReadsMap = new LinkedHashMap<>();
+		int end = store.getCodonEnd(storeIndex);
+		for (int idx = store.getCodonStart(storeIndex); idx < end; idx ++) {
+			codonReadsMap.put(store.getRawCodon(idx), store.getReads(idx));
+		}
+		// the store keeps codons of each position ordered by reads
+		this.allCodonReads = Collections.unmodifiableMap(codonReadsMap);
 	}
 
 	@Override
@@ -70,16 +103,45 @@ public class PositionCodonReads<VirusT extends Virus<VirusT>> implements WithGen
 	
 	public GenePosition<VirusT> getGenePositon() { return new GenePosition<VirusT>(gene, position); }
 	public long getTotalReads() { return totalReads; }
+	/**
+	 * @return all codon reads of this position, ordered by reads descendingly
+	 */
+	public Map<String, Long> getAllCodonReads() {
+		return allCodonReads;
+	}
+
 	public List<CodonReads<VirusT>> getCodonReads() {
 		return getCodonReads(false, 1., .0);
 	}
+
+	private List<CodonReads<VirusT>> getAllCodonReadsList() {
+		if (codonReads == null) {
+			List<CodonReads<VirusT>> codonReadsList = new ArrayList<>();
+			if (store == null) {
+				for (Map.Entry<String, Long> e : allCodonReads.entrySet()) {
+					codonReadsList.add(new CodonReads<>(
+						gene, position, e.getKey(), e.getValue(), totalReads));
+				}
+			}
+			else {
+				int end = store.getCodonEnd(storeIndex);
+				for (int idx = store.getCodonStart(storeIndex); idx < end; idx ++) {
+					codonReadsList.add(new CodonReads<>(
+						gene, position, store.getCodon(idx), store.getAminoAcid(idx),
+						store.getReads(idx), totalReads));
+				}
+			}
+			codonReads = Collections.unmodifiableList(codonReadsList);
+		}
+		return codonReads;
+	}
+
 	public List<CodonReads<VirusT>> getCodonReads(
 		boolean mutationOnly,
 		double maxProportion,
 		double minProportion
 	) {
-		return allCodonReads.entrySet().stream()
-			.map(e -> new CodonReads<>(gene, position, e.getKey(), e.getValue(), totalReads))
+		return getAllCodonReadsList().stream()
 			.filter(cr -> cr.getAminoAcid() != 'X')
 			.filter(cr -> mutationOnly ? !cr.isReference() : true)
 			.filter(cr -> {
@@ -91,7 +153,7 @@ public class PositionCodonReads<VirusT extends Virus<VirusT>> implements WithGen
 	
 	public Map<String, Double> getCodonWithPrevalence(double minPrevalence) {
 		long minReads = Math.round(totalReads * minPrevalence + 0.5);
-		return allCodonReads.entrySet().stream()
+		return getAllCodonReads().entrySet().stream()
 			.filter(e -> e.getValue() > minReads)
 			.collect(Collectors.toMap(
 				e -> e.getKey(),
@@ -0,0 +1,325 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.seqreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.stanford.hivdb.mutations.CodonReadsStore;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Streaming reader of codon frequency tables.
+ *
+ * Each line of the input is a tab- or comma-delimited row of gene,
+ * position, codon and reads. Empty lines and lines started with "#" are
+ * skipped. The first row is treated as a header if its position and reads
+ * fields are non-empty texts without digits; any other malformed row is
+ * rejected with its line number. Rows are parsed from bytes and
+ * aggregated into a {@link CodonReadsStore} as they are read; no row
+ * object is retained.
+ *
+ * The memory usage is only bounded by the number of distinct positions
+ * (regardless of the file size) if the rows of each position are
+ * consecutive, e.g. the file is sorted by gene and position. Otherwise
+ * every non-consecutive row of a position is stored separately until
+ * {@link CodonReadsStore.Builder#build()} merges them, and the memory
+ * usage grows with the number of rows.
+ */
+public class CodonReadsFileReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long MAPPED_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private CodonReadsFileReader() {}
+
+	/**
+	 * Reads codon frequency table from an input stream.
+	 *
+	 * @param <VirusT>	Virus subclass
+	 * @param stream	Input stream; closed when finished
+	 * @param strain	Strain of the genes
+	 * @return			CodonReadsStore
+	 */
+	public static <VirusT extends Virus<VirusT>> CodonReadsStore<VirusT> readStream(
+		InputStream stream, Strain<VirusT> strain
+	) {
+		RowParser<VirusT> parser = new RowParser<>(strain);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream input = stream) {
+			int len;
+			while ((len = input.read(buffer)) != -1) {
+				parser.accept(buffer, 0, len);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return parser.finish();
+	}
+
+	/**
+	 * Reads codon frequency table from a file. The file is memory-mapped
+	 * chunk by chunk instead of being read through a stream.
+	 *
+	 * @param <VirusT>	Virus subclass
+	 * @param filePath	File path
+	 * @param strain	Strain of the genes
+	 * @return			CodonReadsStore
+	 */
+	public static <VirusT extends Virus<VirusT>> CodonReadsStore<VirusT> readFile(
+		String filePath, Strain<VirusT> strain
+	) {
+		RowParser<VirusT> parser = new RowParser<>(strain);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (
+			RandomAccessFile file = new RandomAccessFile(filePath, "r");
+			FileChannel channel = file.getChannel()
+		) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += MAPPED_CHUNK_SIZE) {
+				MappedByteBuffer chunk = channel.map(
+					FileChannel.MapMode.READ_ONLY, offset,
+					Math.min(MAPPED_CHUNK_SIZE, size - offset));
+				while (chunk.hasRemaining()) {
+					int len = Math.min(buffer.length, chunk.remaining());
+					chunk.get(buffer, 0, len);
+					parser.accept(buffer, 0, len);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return parser.finish();
+	}
+
+	private static class RowParser<VirusT extends Virus<VirusT>> {
+
+		private static final int NUM_COLUMNS = 4;
+
+		private final Strain<VirusT> strain;
+		private final CodonReadsStore.Builder<VirusT> builder = CodonReadsStore.newBuilder();
+		private final Map<String, Gene<VirusT>> geneLookup = new HashMap<>();
+		private final int[] fieldStarts = new int[NUM_COLUMNS];
+		private final int[] fieldEnds = new int[NUM_COLUMNS];
+		private byte[] line = new byte[256];
+		private int lineLength = 0;
+		private long lineNumber = 0;
+		private boolean headerChecked = false;
+		private byte[] lastGeneName = new byte[0];
+		private Gene<VirusT> lastGene;
+
+		private RowParser(Strain<VirusT> strain) {
+			this.strain = strain;
+		}
+
+		/**
+		 * Appends bytes to current line; each complete line is parsed.
+		 */
+		private void accept(byte[] buffer, int offset, int length) {
+			int end = offset + length;
+			int start = offset;
+			while (start < end) {
+				int newline = indexOf(buffer, start, end, (byte) '\n');
+				int segmentEnd = newline < 0 ? end : newline;
+				append(buffer, start, segmentEnd);
+				if (newline < 0) {
+					break;
+				}
+				parseLine();
+				lineLength = 0;
+				start = newline + 1;
+			}
+		}
+
+		private void append(byte[] buffer, int start, int end) {
+			int segmentLength = end - start;
+			if (lineLength + segmentLength > line.length) {
+				line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + segmentLength));
+			}
+			System.arraycopy(buffer, start, line, lineLength, segmentLength);
+			lineLength += segmentLength;
+		}
+
+		private CodonReadsStore<VirusT> finish() {
+			if (lineLength > 0) {
+				parseLine();
+				lineLength = 0;
+			}
+			return builder.build();
+		}
+
+		private void parseLine() {
+			lineNumber ++;
+			int end = lineLength;
+			if (end > 0 && line[end - 1] == '\r') {
+				end --;
+			}
+			if (end == 0 || line[0] == '#') {
+				return;
+			}
+			byte delimiter = '\t';
+			if (indexOf(line, 0, end, (byte) '\t') < 0) {
+				delimiter = ',';
+			}
+			int start = 0;
+			for (int col = 0; col < NUM_COLUMNS; col ++) {
+				int fieldEnd = indexOf(line, start, end, delimiter);
+				if (fieldEnd < 0) {
+					if (col < NUM_COLUMNS - 1) {
+						throw new IllegalArgumentException(String.format(
+							"Line %d of codon reads: expected %d columns",
+							lineNumber, NUM_COLUMNS));
+					}
+					fieldEnd = end;
+				}
+				setField(col, start, fieldEnd);
+				start = fieldEnd + 1;
+			}
+
+			long position = parseLong(1);
+			long reads = parseLong(3);
+			boolean isFirstRow = !headerChecked;
+			headerChecked = true;
+			if (position < 0 || position > Integer.MAX_VALUE || reads < 0) {
+				if (isFirstRow && isHeaderField(1) && isHeaderField(3)) {
+					// the first row is a header
+					return;
+				}
+				throw new IllegalArgumentException(String.format(
+					"Line %d of codon reads: position and reads must be non-negative integers",
+					lineNumber));
+			}
+			builder.addCodonReads(getGene(), (int) position, getCodon(), reads);
+		}
+
+		/**
+		 * Trims spaces and quotes surrounding a field.
+		 */
+		private void setField(int col, int start, int end) {
+			while (start < end && (line[start] == ' ' || line[start] == '"')) {
+				start ++;
+			}
+			while (end > start && (line[end - 1] == ' ' || line[end - 1] == '"')) {
+				end --;
+			}
+			fieldStarts[col] = start;
+			fieldEnds[col] = end;
+		}
+
+		/**
+		 * @return the parsed integer; -1 if it is not a non-negative integer
+		 * 		   or it overflows long
+		 */
+		private long parseLong(int col) {
+			int start = fieldStarts[col];
+			int end = fieldEnds[col];
+			if (start == end) {
+				return -1;
+			}
+			long value = 0;
+			for (int i = start; i < end; i ++) {
+				int digit = line[i] - '0';
+				if (digit < 0 || digit > 9) {
+					return -1;
+				}
+				if (value > (Long.MAX_VALUE - digit) / 10) {
+					return -1;
+				}
+				value = value * 10 + digit;
+			}
+			return value;
+		}
+
+		/**
+		 * @return true if the field is a non-empty text without any digit
+		 */
+		private boolean isHeaderField(int col) {
+			if (fieldStarts[col] == fieldEnds[col]) {
+				return false;
+			}
+			for (int i = fieldStarts[col]; i < fieldEnds[col]; i ++) {
+				if (line[i] >= '0' && line[i] <= '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Gene<VirusT> getGene() {
+			int start = fieldStarts[0];
+			int end = fieldEnds[0];
+			// consecutive rows are usually of the same gene
+			if (
+				lastGene != null &&
+				regionEquals(lastGeneName, line, start, end)
+			) {
+				return lastGene;
+			}
+			String geneName = new String(line, start, end - start, StandardCharsets.US_ASCII);
+			Gene<VirusT> gene = geneLookup.computeIfAbsent(geneName, strain::getGene);
+			if (gene == null) {
+				throw new IllegalArgumentException(String.format(
+					"Line %d of codon reads: unknown gene %s", lineNumber, geneName));
+			}
+			lastGeneName = Arrays.copyOfRange(line, start, end);
+			lastGene = gene;
+			return gene;
+		}
+
+		private String getCodon() {
+			return new String(
+				line, fieldStarts[2], fieldEnds[2] - fieldStarts[2],
+				StandardCharsets.US_ASCII);
+		}
+
+		private static boolean regionEquals(byte[] expected, byte[] bytes, int start, int end) {
+			if (expected.length != end - start) {
+				return false;
+			}
+			for (int i = 0; i < expected.length; i ++) {
+				if (expected[i] != bytes[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int indexOf(byte[] bytes, int start, int end, byte b) {
+			for (int i = start; i < end; i ++) {
+				if (bytes[i] == b) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+}
@@ -20,116 +20,262 @@
 package edu.stanford.hivdb.seqreads;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.IntToDoubleFunction;
 
 import edu.stanford.hivdb.mutations.CodonReads;
+import edu.stanford.hivdb.mutations.CodonReadsStore;
 import edu.stanford.hivdb.mutations.PositionCodonReads;
 import edu.stanford.hivdb.viruses.Virus;
 
+/**
+ * Suggests minimal prevalence cutoffs of NGS codon reads.
+ *
+ * Codon reads are visited by their proportion descendingly to find the
+ * window where the fold of expected and observed reads drops. The
+ * suggestion is computed on primitive arrays: codon reads are bucketed
+ * by proportion and only the buckets visited before the window ends are
+ * sorted.
+ */
 public class CutoffSuggestion<VirusT extends Virus<VirusT>> {
 
+	private static final double MAX_PROPORTION = 0.2;
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
 	private final double looserLimit;
 	private final double stricterLimit;
 	
 	
 	public CutoffSuggestion(List<PositionCodonReads<VirusT>> allReads) {
-		List<CodonReads<VirusT>> sortedCodonReads = allReads
-			.stream()
-			.flatMap(pcr -> pcr.getCodonReads().stream())
-			.sorted((r1, r2) -> r2.getProportion().compareTo(r1.getProportion()))
-			.collect(Collectors.toList());
-		long totalCount = sortedCodonReads
-			.stream()
-			.mapToLong(r -> r.getReads())
-			.sum();
+		List<CodonReads<VirusT>> allCodonReads = new ArrayList<>();
+		for (PositionCodonReads<VirusT> pcr : allReads) {
+			allCodonReads.addAll(pcr.getCodonReads());
+		}
+		int size = allCodonReads.size();
+		double[] proportions = new double[size];
+		long[] reads = new long[size];
+		long[] totalReads = new long[size];
+		for (int i = 0; i < size; i ++) {
+			CodonReads<VirusT> cr = allCodonReads.get(i);
+			proportions[i] = cr.getProportion();
+			reads[i] = cr.getReads();
+			totalReads[i] = cr.getTotalReads();
+		}
+		double[] limits = suggestLimits(
+			size, proportions, reads, totalReads,
+			i -> allCodonReads.get(i).getCodonPercent());
+		this.looserLimit = limits[0];
+		this.stricterLimit = limits[1];
+	}
+
+	/**
+	 * Suggests cutoffs of codon reads in given store. The result is
+	 * identical to the one of <tt>store.getAllPositionCodonReads()</tt>.
+	 *
+	 * @param store		Codon reads
+	 */
+	public CutoffSuggestion(CodonReadsStore<VirusT> store) {
+		int numEntries = store.getNumCodonReads();
+		int[] posIndice = new int[numEntries];
+		int[] entryIndice = new int[numEntries];
+		double[] proportions = new double[numEntries];
+		long[] reads = new long[numEntries];
+		long[] totalReads = new long[numEntries];
+		int size = 0;
+		for (int posIdx = 0; posIdx < store.getNumPositions(); posIdx ++) {
+			int end = store.getCodonEnd(posIdx);
+			for (int entryIdx = store.getCodonStart(posIdx); entryIdx < end; entryIdx ++) {
+				double proportion = store.getProportion(posIdx, entryIdx);
+				// same as PositionCodonReads#getCodonReads()
+				if (
+					store.getAminoAcid(entryIdx) == 'X' ||
+					!(proportion > .0 && proportion < 1.)
+				) {
+					continue;
+				}
+				posIndice[size] = posIdx;
+				entryIndice[size] = entryIdx;
+				proportions[size] = proportion;
+				reads[size] = store.getReads(entryIdx);
+				totalReads[size] = store.getTotalReads(posIdx);
+				size ++;
+			}
+		}
+		double[] limits = suggestLimits(
+			size, proportions, reads, totalReads,
+			i -> CodonReads.getCodonPercent(
+				store.getGene(posIndice[i]),
+				store.getPosition(posIndice[i]),
+				store.getCodon(entryIndice[i])));
+		this.looserLimit = limits[0];
+		this.stricterLimit = limits[1];
+	}
+
+	/**
+	 * @return {looserLimit, stricterLimit}
+	 */
+	private static double[] suggestLimits(
+		int size, double[] proportions, long[] reads, long[] totalReads,
+		IntToDoubleFunction codonPcntGetter
+	) {
+		long totalCount = 0;
+		int numCandidates = 0;
+		for (int i = 0; i < size; i ++) {
+			totalCount += reads[i];
+			if (proportions[i] <= MAX_PROPORTION) {
+				numCandidates ++;
+			}
+		}
+		// codons with proportion > 20% are ignored, they are always visited
+		// before the others therefore only their reads are subtracted
 		long remainCount = totalCount;
-		
-		boolean started = false;
-		double fold = 1;
-		List<Double> proportionInWindow = new ArrayList<>();
-		List<Double> codonPcntsInWindow = new ArrayList<>();
-		List<Double> foldsInWindow = new ArrayList<>();
-		
-		for (CodonReads<VirusT> r : sortedCodonReads) {
-			double proportion = r.getProportion();
-			long curReads = r.getReads();
-			if (proportion > 0.2) {
-				// ignore codons with proportion > 20%
-				remainCount -= curReads;
-				continue;
+		for (int i = 0; i < size; i ++) {
+			if (proportions[i] > MAX_PROPORTION) {
+				remainCount -= reads[i];
 			}
-			fold = (double) r.getTotalReads() * remainCount / totalCount / curReads;
-			if (Double.isNaN(fold)) {
-				fold = 0;
+		}
+
+		// bucket the candidates by proportion; input order is kept in each
+		// bucket so that ties are visited in the same order as a stable sort
+		int numBuckets = Math.max(1, numCandidates);
+		int[] bucketOffsets = new int[numBuckets + 1];
+		for (int i = 0; i < size; i ++) {
+			if (proportions[i] <= MAX_PROPORTION) {
+				bucketOffsets[bucketOf(proportions[i], numBuckets) + 1] ++;
 			}
-			if (!started && fold < 0.8) {
-				started = true;
+		}
+		for (int b = 0; b < numBuckets; b ++) {
+			bucketOffsets[b + 1] += bucketOffsets[b];
+		}
+		int[] candidates = new int[numCandidates];
+		int[] fillOffsets = Arrays.copyOf(bucketOffsets, numBuckets);
+		for (int i = 0; i < size; i ++) {
+			if (proportions[i] <= MAX_PROPORTION) {
+				candidates[fillOffsets[bucketOf(proportions[i], numBuckets)] ++] = i;
 			}
-			if (started) {
-				if (fold >= 1) {
-					break;
+		}
+
+		boolean started = false;
+		double fold = 1;
+		int windowSize = 0;
+		int[] windowItems = new int[numCandidates];
+		double[] foldsInWindow = new double[numCandidates];
+		int[] sortBuffer = new int[numCandidates];
+
+		visit:
+		for (int b = numBuckets - 1; b >= 0; b --) {
+			int from = bucketOffsets[b];
+			int to = bucketOffsets[b + 1];
+			sortByProportionDesc(candidates, from, to, proportions, sortBuffer);
+			for (int c = from; c < to; c ++) {
+				int i = candidates[c];
+				long curReads = reads[i];
+				fold = (double) totalReads[i] * remainCount / totalCount / curReads;
+				if (Double.isNaN(fold)) {
+					fold = 0;
+				}
+				if (!started && fold < 0.8) {
+					started = true;
+				}
+				if (started) {
+					if (fold >= 1) {
+						break visit;
+					}
+					remainCount -= curReads;
+					windowItems[windowSize] = i;
+					foldsInWindow[windowSize] = fold;
+					windowSize ++;
 				}
-				remainCount -= curReads;
-				proportionInWindow.add(proportion);
-				double codonPcnt = r.getCodonPercent();
-				// codon percent is more precise to tell if the codon/AA is rare
-				codonPcntsInWindow.add(codonPcnt);
-				foldsInWindow.add(fold);
 			}
 		}
-		
-		if (foldsInWindow.isEmpty()) {
-			this.stricterLimit = .0;
-			this.looserLimit = .0;
-			return;
+
+		if (windowSize == 0) {
+			return new double[] {.0, .0};
 		}
-		
+
 		// sometime the fold >= 1 didn't reached and we went all the way to the end
-		double maxFold = Collections.max(foldsInWindow);
+		double maxFold = foldsInWindow[0];
+		for (int w = 1; w < windowSize; w ++) {
+			maxFold = Math.max(maxFold, foldsInWindow[w]);
+		}
 		// tolerant fluctuation
 		double nearMaxFold = maxFold * 0.95;
-		maxFold = foldsInWindow.stream().filter(f -> f > nearMaxFold).findFirst().get();
-		int maxFoldIndex = foldsInWindow.indexOf(maxFold);
-		
-		proportionInWindow = proportionInWindow.subList(0, maxFoldIndex + 1);
-		codonPcntsInWindow = codonPcntsInWindow.subList(0 , maxFoldIndex + 1);
-		foldsInWindow = foldsInWindow.subList(0, maxFoldIndex + 1);
-		
-		int minFoldIndex = foldsInWindow.indexOf(Collections.min(foldsInWindow));
-		int tmpsize = foldsInWindow.size();
-		proportionInWindow = proportionInWindow.subList(minFoldIndex, tmpsize);
-		codonPcntsInWindow = codonPcntsInWindow.subList(minFoldIndex, tmpsize);
-		foldsInWindow = foldsInWindow.subList(minFoldIndex, tmpsize);
-
-		double totalRareCodonInWindow = codonPcntsInWindow.stream()
-			.mapToDouble(pcnt -> 1 - Math.sqrt(pcnt))
-			.sum();
-		long totalCodonInWindow = codonPcntsInWindow.size(); //stream().filter(pcnt -> pcnt < 0.5).count();
-		double rareRate = totalRareCodonInWindow / totalCodonInWindow;
-		if (totalCodonInWindow == 0) {
-			rareRate = 0;
-		}
-
-		int newsize = proportionInWindow.size();
-		double[] proportionInWindowArr = new double[newsize];
-		for (int i = 0; i < newsize; i ++) {
-			proportionInWindowArr[i] = proportionInWindow.get(i);
+		int maxFoldIndex = 0;
+		while (!(foldsInWindow[maxFoldIndex] > nearMaxFold)) {
+			maxFoldIndex ++;
 		}
+		int minFoldIndex = 0;
+		for (int w = 1; w <= maxFoldIndex; w ++) {
+			if (foldsInWindow[w] < foldsInWindow[minFoldIndex]) {
+				minFoldIndex = w;
+			}
+		}
+
+		// codon percent is more precise to tell if the codon/AA is rare
+		int newsize = maxFoldIndex - minFoldIndex + 1;
+		double[] rareCodons = new double[newsize];
+		for (int w = 0; w < newsize; w ++) {
+			double codonPcnt = codonPcntGetter.applyAsDouble(windowItems[minFoldIndex + w]);
+			rareCodons[w] = 1 - Math.sqrt(codonPcnt);
+		}
+		double totalRareCodonInWindow = Arrays.stream(rareCodons).sum();
+		double rareRate = totalRareCodonInWindow / newsize;
+
 		// this is similar to finding percentile, however it uses ceil() to
 		// final a smaller cutoff (especially useful when the distribution of
 		// proportion is very sparse)
 		int indexFromRareRate = (int) Math.ceil(newsize * (1 - rareRate));
-		if (proportionInWindow.size() > indexFromRareRate) {
-			this.stricterLimit = proportionInWindow.get(indexFromRareRate);
-			this.looserLimit = proportionInWindow.get(proportionInWindow.size() - 1);
+		if (newsize > indexFromRareRate) {
+			return new double[] {
+				proportions[windowItems[maxFoldIndex]],
+				proportions[windowItems[minFoldIndex + indexFromRareRate]]
+			};
 		}
 		else {
-			this.stricterLimit = .0;
-			this.looserLimit = .0;
+			return new double[] {.0, .0};
+		}
+	}
+
+	private static int bucketOf(double proportion, int numBuckets) {
+		return Math.min(numBuckets - 1, (int) (proportion / MAX_PROPORTION * numBuckets));
+	}
+
+	/**
+	 * Stable merge sort of items[from, to) by their proportion descendingly.
+	 */
+	private static void sortByProportionDesc(
+		int[] items, int from, int to, double[] proportions, int[] buffer
+	) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i ++) {
+				int item = items[i];
+				int j = i - 1;
+				while (j >= from && proportions[items[j]] < proportions[item]) {
+					items[j + 1] = items[j];
+					j --;
+				}
+				items[j + 1] = item;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortByProportionDesc(items, from, mid, proportions, buffer);
+		sortByProportionDesc(items, mid, to, proportions, buffer);
+		System.arraycopy(items, from, buffer, from, to - from);
+		int left = from;
+		int right = mid;
+		for (int k = from; k < to; k ++) {
+			if (
+				right >= to ||
+				(left < mid && proportions[buffer[left]] >= proportions[buffer[right]])
+			) {
+				items[k] = buffer[left ++];
+			}
+			else {
+				items[k] = buffer[right ++];
+			}
 		}
-		// this.stricterLimit = upperLimit;
 	}
 	
 	public Double getLooserLimit() { return looserLimit; }
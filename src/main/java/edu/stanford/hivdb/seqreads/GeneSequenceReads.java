@@ -21,8 +21,12 @@
 package edu.stanford.hivdb.seqreads;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -120,6 +124,68 @@ public class GeneSequenceReads<VirusT extends Virus<VirusT>> implements WithSequ
 		return mutations;
 	}
 
+	/**
+	 * Gets mutations at multiple prevalence cutoffs in one pass.
+	 *
+	 * Mutations are monotone in the cutoff: a position's mutation is only
+	 * re-created at the cutoffs where a codon is dropped, otherwise the same
+	 * instance is shared. A cutoff whose mutations are identical to the
+	 * previous (lower) cutoff shares the same MutationSet.
+	 *
+	 * @param minPrevalences	Prevalence cutoffs
+	 * @return					MutationSet of each cutoff
+	 */
+	public NavigableMap<Double, MutationSet<VirusT>> getMutations(
+		final Collection<Double> minPrevalences
+	) {
+		double[] cutoffs = new TreeSet<>(minPrevalences)
+			.stream().mapToDouble(Double::doubleValue).toArray();
+		int numCutoffs = cutoffs.length;
+		List<List<Mutation<VirusT>>> allMutations = new ArrayList<>(numCutoffs);
+		for (int i = 0; i < numCutoffs; i ++) {
+			allMutations.add(new ArrayList<>());
+		}
+		// changed[i]: mutations of cutoff i differ from those of cutoff i - 1
+		boolean[] changed = new boolean[numCutoffs];
+		if (numCutoffs > 0) {
+			changed[0] = true;
+		}
+		long prevPos = firstAA - 1;
+		for (PositionCodonReads<VirusT> pcr : posCodonReads) {
+			long curPos = pcr.getPosition();
+			for (Long pos = prevPos + 1; pos < curPos - 1; pos ++) {
+				// add unsequenced regions
+				Mutation<VirusT> unseq = MultiCodonsMutation.initUnsequenced(
+					gene, pos.intValue()
+				);
+				for (List<Mutation<VirusT>> myMutations : allMutations) {
+					myMutations.add(unseq);
+				}
+			}
+			prevPos = curPos;
+			List<MultiCodonsMutation<VirusT>> muts = MultiCodonsMutation
+				.fromPositionCodonReads(pcr, cutoffs);
+			for (int i = 0; i < numCutoffs; i ++) {
+				Mutation<VirusT> mut = muts.get(i);
+				if (mut != null) {
+					allMutations.get(i).add(mut);
+				}
+				if (i > 0 && mut != muts.get(i - 1)) {
+					changed[i] = true;
+				}
+			}
+		}
+		NavigableMap<Double, MutationSet<VirusT>> result = new TreeMap<>();
+		MutationSet<VirusT> prevMutSet = null;
+		for (int i = 0; i < numCutoffs; i ++) {
+			if (changed[i]) {
+				prevMutSet = new MutationSet<>(allMutations.get(i));
+			}
+			result.put(cutoffs[i], prevMutSet);
+		}
+		return result;
+	}
+
 	public Double getMedianReadDepth() {
 		Median median = new Median();
 		double[] ReadDepths = (
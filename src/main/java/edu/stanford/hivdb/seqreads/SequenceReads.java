@@ -21,11 +21,15 @@
 package edu.stanford.hivdb.seqreads;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 
@@ -34,15 +38,20 @@ import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import com.google.common.collect.Streams;
 
+import edu.stanford.hivdb.drugresistance.GeneDR;
+import edu.stanford.hivdb.drugresistance.algorithm.DrugResistanceAlgorithm;
 import edu.stanford.hivdb.genotypes.BoundGenotype;
 import edu.stanford.hivdb.genotypes.GenotypeResult;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.mutations.CodonReadsStore;
+import edu.stanford.hivdb.mutations.Mutation;
 import edu.stanford.hivdb.mutations.MutationSet;
 import edu.stanford.hivdb.mutations.PositionCodonReads;
 import edu.stanford.hivdb.seqreads.SequenceReadsHistogram.AggregationOption;
 import edu.stanford.hivdb.seqreads.SequenceReadsHistogram.WithSequenceReadsHistogram;
 import edu.stanford.hivdb.sequences.SeqUtils;
+import edu.stanford.hivdb.utilities.SharedExecutor;
 import edu.stanford.hivdb.utilities.ValidationResult;
 import edu.stanford.hivdb.viruses.Virus;
 
@@ -66,16 +75,47 @@ public class SequenceReads<VirusT extends Virus<VirusT>> implements WithSequence
 	private transient DescriptiveStatistics readDepthStatsDRP;
 	private transient List<ValidationResult> validationResults;
 	
+	/**
+	 * Creates SequenceReads from a columnar {@link CodonReadsStore}.
+	 *
+	 * @param name			Sequence name
+	 * @param strain		Strain
+	 * @param store			Codon reads of all positions
+	 * @param minPrevalence	Minimal prevalence; auto-suggest if negative
+	 * @param minReadDepth	Minimal read depth; 1000 if not positive
+	 * @return				SequenceReads
+	 */
+	public static <VirusT extends Virus<VirusT>> SequenceReads<VirusT> fromCodonReadsStore(
+			String name, Strain<VirusT> strain, CodonReadsStore<VirusT> store,
+			Double minPrevalence, Long minReadDepth) {
+		List<PositionCodonReads<VirusT>> allReads = store.getAllPositionCodonReads();
+		// the store is already sorted by genePosition
+		return fromSortedCodonReads(
+			name, strain, allReads,
+			new CutoffSuggestion<>(store),
+			minPrevalence, minReadDepth);
+	}
+
 	public static <VirusT extends Virus<VirusT>> SequenceReads<VirusT> fromCodonReadsTable(
 			String name, Strain<VirusT> strain, List<PositionCodonReads<VirusT>> allReads,
 			Double minPrevalence, Long minReadDepth) {
 		// TODO: dynamic cutoff
 		CutoffSuggestion<VirusT> cutoffSuggestion = new CutoffSuggestion<>(allReads);
-		double finalMinPrevalence = minPrevalence >= 0 ? minPrevalence : cutoffSuggestion.getStricterLimit();
-		long finalMinReadDepth = minReadDepth > 0 ? minReadDepth : (long) 1000;
 		
 		// sort by genePosition first
 		allReads.sort((o1, o2) -> o1.getGenePositon().compareTo(o2.getGenePositon()));
+
+		return fromSortedCodonReads(
+			name, strain, allReads, cutoffSuggestion,
+			minPrevalence, minReadDepth);
+	}
+
+	private static <VirusT extends Virus<VirusT>> SequenceReads<VirusT> fromSortedCodonReads(
+			String name, Strain<VirusT> strain, List<PositionCodonReads<VirusT>> allReads,
+			CutoffSuggestion<VirusT> cutoffSuggestion,
+			Double minPrevalence, Long minReadDepth) {
+		double finalMinPrevalence = minPrevalence >= 0 ? minPrevalence : cutoffSuggestion.getStricterLimit();
+		long finalMinReadDepth = minReadDepth > 0 ? minReadDepth : (long) 1000;
 		
 		List<PositionCodonReads<VirusT>> filteredAllReads = allReads.stream()
 			// remove all codons with their read depth < minReadDepth
@@ -284,6 +324,90 @@ public class SequenceReads<VirusT extends Virus<VirusT>> implements WithSequence
 		}
 	}
 
+	/**
+	 * Gets mutations at multiple prevalence cutoffs in one pass over the
+	 * codon reads of each gene.
+	 *
+	 * @param minPrevalences	Prevalence cutoffs
+	 * @return					MutationSet of each cutoff
+	 */
+	public NavigableMap<Double, MutationSet<VirusT>> getMutations(
+		final Collection<Double> minPrevalences
+	) {
+		List<NavigableMap<Double, MutationSet<VirusT>>> geneMutations = (
+			allGeneSequenceReads.values().stream()
+			.map(gs -> gs.getMutations(minPrevalences))
+			.collect(Collectors.toList())
+		);
+		NavigableMap<Double, MutationSet<VirusT>> result = new TreeMap<>();
+		MutationSet<VirusT> prevMutSet = null;
+		List<MutationSet<VirusT>> prevGeneMutSets = null;
+		for (Double minPrevalence : new TreeSet<>(minPrevalences)) {
+			List<MutationSet<VirusT>> geneMutSets = new ArrayList<>();
+			for (NavigableMap<Double, MutationSet<VirusT>> geneMuts : geneMutations) {
+				geneMutSets.add(geneMuts.get(minPrevalence));
+			}
+			if (prevGeneMutSets == null || !sameInstances(prevGeneMutSets, geneMutSets)) {
+				List<Mutation<VirusT>> mutations = new ArrayList<>();
+				for (MutationSet<VirusT> geneMutSet : geneMutSets) {
+					mutations.addAll(geneMutSet);
+				}
+				// genes never overlap; no need to merge pairwise
+				prevMutSet = new MutationSet<>(mutations);
+				prevGeneMutSets = geneMutSets;
+			}
+			result.put(minPrevalence, prevMutSet);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates drug resistance at multiple prevalence cutoffs.
+	 *
+	 * Mutations of all cutoffs are extracted in one pass (see
+	 * {@link #getMutations(Collection)}). For each gene, the cutoffs are
+	 * evaluated in ascending order and ASI is only re-evaluated when the
+	 * gene's mutations changed from the previous cutoff (see
+	 * {@link GeneDR#newFromMutationSeries}). Genes are evaluated in parallel.
+	 *
+	 * @param minPrevalences	Prevalence cutoffs
+	 * @param algorithm			Algorithm
+	 * @return					GeneDR of each gene at each cutoff
+	 */
+	public NavigableMap<Double, SortedMap<Gene<VirusT>, GeneDR<VirusT>>> getDrugResistanceByCutoffs(
+		final Collection<Double> minPrevalences,
+		final DrugResistanceAlgorithm<VirusT> algorithm
+	) {
+		List<Double> cutoffs = new ArrayList<>(new TreeSet<>(minPrevalences));
+		List<GeneSequenceReads<VirusT>> allGeneSeqReads = getAllGeneSequenceReads();
+		List<List<GeneDR<VirusT>>> allGeneDRs = SharedExecutor.invokeAll(
+			allGeneSeqReads,
+			geneReads -> GeneDR.newFromMutationSeries(
+				geneReads.getGene(),
+				new ArrayList<>(geneReads.getMutations(cutoffs).values()),
+				algorithm
+			)
+		);
+		NavigableMap<Double, SortedMap<Gene<VirusT>, GeneDR<VirusT>>> result = new TreeMap<>();
+		for (int i = 0; i < cutoffs.size(); i ++) {
+			SortedMap<Gene<VirusT>, GeneDR<VirusT>> geneDRs = new TreeMap<>();
+			for (int g = 0; g < allGeneSeqReads.size(); g ++) {
+				geneDRs.put(allGeneSeqReads.get(g).getGene(), allGeneDRs.get(g).get(i));
+			}
+			result.put(cutoffs.get(i), Collections.unmodifiableSortedMap(geneDRs));
+		}
+		return result;
+	}
+
+	private static <T> boolean sameInstances(List<T> list1, List<T> list2) {
+		for (int i = 0; i < list1.size(); i ++) {
+			if (list1.get(i) != list2.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public MutationSet<VirusT> getMutations() {
 		if (!isEmpty() && mutations == null) {
 			mutations = getMutations(this.minPrevalence);
@@ -21,6 +21,9 @@
 package edu.stanford.hivdb.sequences;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -206,6 +209,46 @@ public class AlignedSequence<VirusT extends Virus<VirusT>> {
 		return genotypeResult;
 	}
 	
+	/**
+	 * Genotypes given sequences in batch, so that later calls of
+	 * {@link #getGenotypeResult()} return precomputed results.
+	 *
+	 * @param alignedSeqs
+	 */
+	public static <VirusT extends Virus<VirusT>> void genotypeAll(
+		Collection<AlignedSequence<VirusT>> alignedSeqs
+	) {
+		Map<VirusT, List<AlignedSequence<VirusT>>> seqsByVirus = new LinkedHashMap<>();
+		for (AlignedSequence<VirusT> alignedSeq : alignedSeqs) {
+			if (alignedSeq.isEmpty || alignedSeq.genotypeResult != null) {
+				continue;
+			}
+			seqsByVirus
+				.computeIfAbsent(alignedSeq.virusInstance, v -> new ArrayList<>())
+				.add(alignedSeq);
+		}
+		for (Map.Entry<VirusT, List<AlignedSequence<VirusT>>> entry : seqsByVirus.entrySet()) {
+			VirusT virusIns = entry.getKey();
+			List<AlignedSequence<VirusT>> virusSeqs = entry.getValue();
+			Strain<VirusT> targetStrain = virusIns.getMainStrain();
+			int absFirstNA = targetStrain.getAbsoluteFirstNA();
+			List<String> compatConcatSeqs = new ArrayList<>(virusSeqs.size());
+			for (AlignedSequence<VirusT> alignedSeq : virusSeqs) {
+				compatConcatSeqs.add(alignedSeq.concatAlignments(false, targetStrain));
+			}
+			int[] firstNAs = new int[virusSeqs.size()];
+			Arrays.fill(firstNAs, absFirstNA);
+			List<GenotypeResult<VirusT>> results = (
+				virusIns
+				.getGenotyper()
+				.compareAll(compatConcatSeqs, firstNAs)
+			);
+			for (int i = 0; i < virusSeqs.size(); i ++) {
+				virusSeqs.get(i).genotypeResult = results.get(i);
+			}
+		}
+	}
+	
 	public GenotypeResult<VirusT> getSubtypeResult() {
 		return getGenotypeResult();
 	}
@@ -0,0 +1,161 @@
+/*
+
+	Copyright (C) 2017-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.sequences;
+
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Content-addressed cache of NucAmino alignment results.
+ *
+ * The cached value is the raw NucAmino result of a single sequence
+ * aligned against a single strain profile. Since the key only contains
+ * the hash of the sequence, the same value is shared by sequences
+ * submitted with different headers.
+ */
+public interface AlignmentCache {
+
+	public static class Key {
+		private final String sequenceHash;
+		private final String virusName;
+		private final String strainProfile;
+		private final String nucaminoVersion;
+
+		public Key(String sequenceHash, String virusName, String strainProfile, String nucaminoVersion) {
+			this.sequenceHash = sequenceHash;
+			this.virusName = virusName;
+			this.strainProfile = strainProfile;
+			this.nucaminoVersion = nucaminoVersion;
+		}
+
+		/**
+		 * Parses a key from the text created by {@link #toString()}.
+		 *
+		 * @param text
+		 * @return Key object
+		 */
+		public static Key fromString(String text) {
+			String[] parts = text.split("\\|", 4);
+			if (parts.length != 4) {
+				throw new IllegalArgumentException("Invalid alignment cache key: " + text);
+			}
+			return new Key(parts[2], parts[0], parts[1], parts[3]);
+		}
+
+		/**
+		 * Joins NucAmino profile and gene into the strain profile of a key.
+		 *
+		 * @param nucaminoProfile
+		 * @param nucaminoGene
+		 * @return strain profile text
+		 */
+		public static String toStrainProfile(String nucaminoProfile, String nucaminoGene) {
+			return nucaminoProfile + ":" + nucaminoGene;
+		}
+
+		public String getSequenceHash() { return sequenceHash; }
+
+		public String getVirusName() { return virusName; }
+
+		public String getStrainProfile() { return strainProfile; }
+
+		public String getNucaminoVersion() { return nucaminoVersion; }
+
+		@Override
+		public String toString() {
+			return String.join("|", virusName, strainProfile, sequenceHash, nucaminoVersion);
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder(1372513, 7152451)
+				.append(sequenceHash)
+				.append(virusName)
+				.append(strainProfile)
+				.append(nucaminoVersion)
+				.toHashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) { return true; }
+			if (obj == null) { return false; }
+			if (!(obj instanceof Key)) { return false; }
+			Key other = (Key) obj;
+			return new EqualsBuilder()
+				.append(sequenceHash, other.sequenceHash)
+				.append(virusName, other.virusName)
+				.append(strainProfile, other.strainProfile)
+				.append(nucaminoVersion, other.nucaminoVersion)
+				.isEquals();
+		}
+	}
+
+	/**
+	 * Returns cached NucAmino result of given key or null if not found.
+	 *
+	 * @param key
+	 * @return JSON text of the cached result
+	 */
+	public String get(Key key);
+
+	public void put(Key key, String result);
+
+	/**
+	 * Removes all entries matched by given predicate. This method should
+	 * be called when a strain profile or the NucAmino program was changed.
+	 *
+	 * @param predicate
+	 */
+	public void invalidate(Predicate<Key> predicate);
+
+	/**
+	 * Removes all entries of given virus and NucAmino profile.
+	 *
+	 * The strain profile of a key is made of the NucAmino profile and gene
+	 * (see {@link Key#toStrainProfile}). Given strainProfile can either be
+	 * a NucAmino profile, which matches all genes of the profile, or a
+	 * complete strain profile which matches only one gene.
+	 *
+	 * @param virusName
+	 * @param strainProfile
+	 */
+	public default void invalidate(String virusName, String strainProfile) {
+		String profilePrefix = strainProfile + ":";
+		invalidate(key -> (
+			key.getVirusName().equals(virusName) && (
+				key.getStrainProfile().equals(strainProfile) ||
+				key.getStrainProfile().startsWith(profilePrefix)
+			)
+		));
+	}
+
+	public default void invalidateAll() {
+		invalidate(key -> true);
+	}
+
+	public long getHitCount();
+
+	public long getMissCount();
+
+}
@@ -0,0 +1,515 @@
+/*
+
+	Copyright (C) 2017-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.sequences;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only on-disk store of alignment results which survives restarts.
+ *
+ * Each record is stored as:
+ *
+ *   [int keyLength][key (UTF-8)][int valueLength][value (UTF-8)]
+ *
+ * A valueLength of -1 marks a removed key. Values are read from read-only
+ * memory mappings of the file, one for every 1 GB segment, so the file is
+ * not limited to 2 GB; new segments are mapped when the file grows.
+ *
+ * The store can be shared by multiple processes. Appending is done while
+ * holding an exclusive {@link FileLock}, and records appended by other
+ * processes are loaded before a new record is written. Lookups of found
+ * keys take no file lock; after a key is not found, records of other
+ * processes are loaded under a shared lock, at most once per second.
+ * An incomplete trailing record (e.g. the process was killed while
+ * writing) is truncated by the next writer.
+ *
+ * Removed and overwritten records are reclaimed by {@link #compact()},
+ * which is also called on open and after invalidation when more than
+ * half of the file is garbage. The compacted file replaces the original
+ * one by an atomic rename; other processes reopen the file once they
+ * notice the replacement. Within a process, only one instance should be
+ * opened for the same file.
+ *
+ * The store is best-effort: if the file can not be opened or written
+ * (e.g. the directory is not writable or the disk is full), a warning is
+ * logged and the store disables itself. All lookups then miss.
+ */
+public class MappedAlignmentStore implements Closeable {
+
+	private static final int TOMBSTONE = -1;
+	private static final long SEGMENT_SIZE = 1L << 30;
+	private static final long MIN_COMPACT_GARBAGE = 1L << 20;
+	private static final long REFRESH_INTERVAL = 1000;
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final Path path;
+	private final Map<AlignmentCache.Key, long[]> index = new HashMap<>();
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private boolean disabled;
+	private long lastRefresh;
+	private FileChannel channel;
+	private Object fileKey;
+	private long mappedSize;
+	private long fileSize;
+	private long liveSize;
+
+	public MappedAlignmentStore(File file) {
+		path = file.getAbsoluteFile().toPath();
+		try {
+			File parent = path.toFile().getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			openChannel();
+			lock(false).release();
+		} catch (IOException e) {
+			disable(e);
+			return;
+		}
+		lastRefresh = System.currentTimeMillis();
+		if (isCompactionNeeded()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Disables the store after an I/O error. Must be called while holding
+	 * the write lock.
+	 */
+	private void disable(IOException e) {
+		LOGGER.warn("On-disk alignment cache {} is disabled: {}", path, e.toString());
+		disabled = true;
+		index.clear();
+		segments.clear();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e2) {
+				// already failed
+			}
+		}
+	}
+
+	private static Object readFileKey(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+	}
+
+	private void openChannel() throws IOException {
+		channel = FileChannel.open(
+			path,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		fileKey = readFileKey(path);
+		index.clear();
+		segments.clear();
+		mappedSize = 0;
+		fileSize = 0;
+		liveSize = 0;
+	}
+
+	/**
+	 * Checks if the file is still the one opened by this store, i.e. it
+	 * was not replaced by the compaction of another process. Always true
+	 * on file systems which have no file key.
+	 */
+	private boolean isCurrentFile() throws IOException {
+		if (fileKey == null) {
+			return true;
+		}
+		try {
+			return fileKey.equals(readFileKey(path));
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Acquires the lock of the file and loads records appended by other
+	 * processes. Must be called while holding the write lock.
+	 *
+	 * @param shared	acquires a shared lock for reading only
+	 */
+	private FileLock lock(boolean shared) throws IOException {
+		while (true) {
+			FileLock lock = channel.lock(0L, Long.MAX_VALUE, shared);
+			if (isCurrentFile()) {
+				loadRecords(!shared);
+				return lock;
+			}
+			lock.release();
+			channel.close();
+			openChannel();
+		}
+	}
+
+	private void remap(long size) throws IOException {
+		if (size <= mappedSize) {
+			return;
+		}
+		if (mappedSize % SEGMENT_SIZE != 0) {
+			// replace the last partial segment
+			segments.remove(segments.size() - 1);
+			mappedSize = segments.size() * SEGMENT_SIZE;
+		}
+		while (mappedSize < size) {
+			long length = Math.min(SEGMENT_SIZE, size - mappedSize);
+			segments.add(channel.map(FileChannel.MapMode.READ_ONLY, mappedSize, length));
+			mappedSize += length;
+		}
+	}
+
+	private void read(long position, byte[] dest) {
+		int offset = 0;
+		while (offset < dest.length) {
+			long pos = position + offset;
+			ByteBuffer segment = segments.get((int) (pos / SEGMENT_SIZE)).duplicate();
+			segment.position((int) (pos % SEGMENT_SIZE));
+			int length = Math.min(dest.length - offset, segment.remaining());
+			segment.get(dest, offset, length);
+			offset += length;
+		}
+	}
+
+	private int readInt(long position) {
+		byte[] bytes = new byte[4];
+		read(position, bytes);
+		return ByteBuffer.wrap(bytes).getInt();
+	}
+
+	private void putIndex(AlignmentCache.Key key, long[] location) {
+		long[] prev = index.put(key, location);
+		if (prev != null) {
+			liveSize -= prev[2];
+		}
+		liveSize += location[2];
+	}
+
+	private void removeIndex(AlignmentCache.Key key) {
+		long[] prev = index.remove(key);
+		if (prev != null) {
+			liveSize -= prev[2];
+		}
+	}
+
+	/**
+	 * Indexes records after the last known position. Must be called
+	 * while holding the file lock.
+	 *
+	 * @param truncate	truncates an incomplete trailing record; requires
+	 * 					the exclusive lock
+	 */
+	private void loadRecords(boolean truncate) throws IOException {
+		long size = channel.size();
+		remap(size);
+		long position = fileSize;
+		while (size - position >= 4) {
+			int keyLen = readInt(position);
+			if (keyLen < 0 || size - position - 8 < keyLen) {
+				break;
+			}
+			byte[] keyBytes = new byte[keyLen];
+			read(position + 4, keyBytes);
+			int valueLen = readInt(position + 4 + keyLen);
+			long valuePosition = position + 8 + keyLen;
+			AlignmentCache.Key key = AlignmentCache.Key.fromString(
+				new String(keyBytes, StandardCharsets.UTF_8));
+			if (valueLen == TOMBSTONE) {
+				removeIndex(key);
+				position = valuePosition;
+			}
+			else if (valueLen < 0 || size - valuePosition < valueLen) {
+				break;
+			}
+			else {
+				putIndex(key, new long[] {valuePosition, valueLen, 8 + keyLen + valueLen});
+				position = valuePosition + valueLen;
+			}
+		}
+		fileSize = position;
+		if (truncate && fileSize < size) {
+			channel.truncate(fileSize);
+			segments.clear();
+			mappedSize = 0;
+			remap(fileSize);
+		}
+	}
+
+	private static ByteBuffer encode(byte[] keyBytes, byte[] value) {
+		ByteBuffer buf = ByteBuffer.allocate(
+			8 + keyBytes.length + (value == null ? 0 : value.length));
+		buf.putInt(keyBytes.length);
+		buf.put(keyBytes);
+		buf.putInt(value == null ? TOMBSTONE : value.length);
+		if (value != null) {
+			buf.put(value);
+		}
+		buf.flip();
+		return buf;
+	}
+
+	private static long write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+		return position;
+	}
+
+	/**
+	 * Appends a record. Must be called while holding the exclusive lock.
+	 */
+	private void append(AlignmentCache.Key key, byte[] value) throws IOException {
+		byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+		long position = write(channel, encode(keyBytes, value), fileSize);
+		if (value == null) {
+			removeIndex(key);
+		}
+		else {
+			putIndex(key, new long[] {
+				position - value.length, value.length, position - fileSize});
+		}
+		fileSize = position;
+		remap(fileSize);
+	}
+
+	private String readValue(AlignmentCache.Key key) {
+		long[] location = index.get(key);
+		if (location == null) {
+			return null;
+		}
+		byte[] value = new byte[(int) location[1]];
+		read(location[0], value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	public String get(AlignmentCache.Key key) {
+		rwLock.readLock().lock();
+		try {
+			if (disabled) {
+				return null;
+			}
+			String value = readValue(key);
+			if (value != null || System.currentTimeMillis() - lastRefresh < REFRESH_INTERVAL) {
+				return value;
+			}
+		} finally {
+			rwLock.readLock().unlock();
+		}
+		// the value may be added by another process
+		rwLock.writeLock().lock();
+		try {
+			if (disabled) {
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			if (now - lastRefresh >= REFRESH_INTERVAL) {
+				lastRefresh = now;
+				lock(true).release();
+			}
+			return readValue(key);
+		} catch (IOException e) {
+			disable(e);
+			return null;
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	public void put(AlignmentCache.Key key, String result) {
+		rwLock.writeLock().lock();
+		try {
+			if (disabled) {
+				return;
+			}
+			FileLock lock = lock(false);
+			try {
+				append(key, result.getBytes(StandardCharsets.UTF_8));
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			disable(e);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	public void invalidate(Predicate<AlignmentCache.Key> predicate) {
+		rwLock.writeLock().lock();
+		try {
+			if (disabled) {
+				return;
+			}
+			FileLock lock = lock(false);
+			try {
+				List<AlignmentCache.Key> removals = new ArrayList<>();
+				for (AlignmentCache.Key key : index.keySet()) {
+					if (predicate.test(key)) {
+						removals.add(key);
+					}
+				}
+				for (AlignmentCache.Key key : removals) {
+					append(key, null);
+				}
+			} finally {
+				lock.release();
+			}
+			if (isCompactionNeeded()) {
+				compact();
+			}
+		} catch (IOException e) {
+			disable(e);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	private boolean isCompactionNeeded() {
+		long garbage = fileSize - liveSize;
+		return garbage >= MIN_COMPACT_GARBAGE && garbage > liveSize;
+	}
+
+	/**
+	 * Rewrites the file with only the current values, dropping removed
+	 * and overwritten records.
+	 */
+	public void compact() {
+		rwLock.writeLock().lock();
+		try {
+			if (!disabled) {
+				compactFile();
+			}
+		} catch (IOException e) {
+			disable(e);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	private void compactFile() throws IOException {
+		Path compactPath = path.resolveSibling(path.getFileName() + ".compact");
+		Map<AlignmentCache.Key, long[]> newIndex = new HashMap<>();
+		FileChannel newChannel = null;
+		long newSize = 0;
+		try {
+			FileLock lock = lock(false);
+			try {
+				newChannel = FileChannel.open(
+					compactPath,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+				for (Map.Entry<AlignmentCache.Key, long[]> entry : index.entrySet()) {
+					long[] location = entry.getValue();
+					byte[] keyBytes = entry.getKey().toString().getBytes(StandardCharsets.UTF_8);
+					byte[] value = new byte[(int) location[1]];
+					read(location[0], value);
+					long position = write(newChannel, encode(keyBytes, value), newSize);
+					newIndex.put(entry.getKey(), new long[] {
+						position - value.length, value.length, position - newSize});
+					newSize = position;
+				}
+				newChannel.force(true);
+				Object newFileKey = readFileKey(compactPath);
+				Files.move(
+					compactPath, path,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+				fileKey = newFileKey;
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			if (newChannel != null) {
+				try {
+					newChannel.close();
+					Files.deleteIfExists(compactPath);
+				} catch (IOException e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			throw e;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the old file is already replaced
+		}
+		channel = newChannel;
+		index.clear();
+		index.putAll(newIndex);
+		segments.clear();
+		mappedSize = 0;
+		fileSize = newSize;
+		liveSize = newSize;
+		remap(fileSize);
+	}
+
+	public int size() {
+		rwLock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		rwLock.writeLock().lock();
+		try {
+			disabled = true;
+			index.clear();
+			segments.clear();
+			if (channel != null) {
+				channel.close();
+			}
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+}
@@ -20,42 +20,43 @@
 
 package edu.stanford.hivdb.sequences;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
-
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 import com.amazonaws.services.lambda.model.InvokeRequest;
 import com.amazonaws.services.lambda.model.InvokeResult;
-import com.google.gson.reflect.TypeToken;
 
 import edu.stanford.hivdb.mutations.Mutation;
-import edu.stanford.hivdb.mutations.CodonMutation;
 import edu.stanford.hivdb.mutations.FrameShift;
+import edu.stanford.hivdb.utilities.EnvUtils;
 import edu.stanford.hivdb.utilities.FastaUtils;
 import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.utilities.SharedExecutor;
 import edu.stanford.hivdb.viruses.Gene;
 import edu.stanford.hivdb.viruses.Strain;
 import edu.stanford.hivdb.viruses.Virus;
@@ -77,8 +78,13 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 	private final int MIN_MATCH_PCNT = 60;
 	private final int SEQUENCE_SHRINKAGE_WINDOW = 15;
 	private final int SEQUENCE_SHRINKAGE_CUTOFF_PCNT = 30;
-	private final Executor executor = Executors.newFixedThreadPool(20);
-	private final Map<Strain<VirusT>, String[]> NUCAMINO_LOCAL_COMMANDS;
+	// NucAmino processes and AWS Lambda calls block on I/O
+	private final Executor ioExecutor = SharedExecutor.getIOInstance();
+	private final int MAX_IN_FLIGHT_CHUNKS;
+	private final String NUCAMINO_VERSION;
+	private AlignmentCache alignmentCache;
+	private final Map<Strain<VirusT>, NucAminoWorkerPool> NUCAMINO_WORKER_POOLS;
+	private final Map<Strain<VirusT>, NucAminoJsonDecoder<VirusT>> NUCAMINO_DECODERS;
 	
 	private final VirusT virusInstance;
 
@@ -115,11 +121,11 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 			// use "nucamino" as default program path
 			executable = "nucamino";
 		}
-		Map<Strain<VirusT>, String[]> nucaminoCommands = new HashMap<>();
+		Map<Strain<VirusT>, NucAminoWorkerPool> nucaminoWorkerPools = new HashMap<>();
 		for (Strain<VirusT> strain : virusIns.getStrains()) {
-			nucaminoCommands.put(
+			nucaminoWorkerPools.put(
 				strain,
-				new String[] {
+				new NucAminoWorkerPool(new String[] {
 					/* Command */
 					executable,	 	// path to nucamino binary
 					"align", 		// sub-command: use built-in alignment profile
@@ -129,11 +135,29 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 					/* Flags */
 					"-q", 			// quiet mode
 					"-f", "json", 	// return output format as json
-				}
+				})
 			);
 		}
 		
-		NUCAMINO_LOCAL_COMMANDS = Collections.unmodifiableMap(nucaminoCommands);
+		NUCAMINO_WORKER_POOLS = Collections.unmodifiableMap(nucaminoWorkerPools);
+		// terminate the standby NucAmino processes when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(
+			() -> nucaminoWorkerPools.values().forEach(NucAminoWorkerPool::shutdown),
+			"nucamino-shutdown"));
+
+		Map<Strain<VirusT>, NucAminoJsonDecoder<VirusT>> nucaminoDecoders = new HashMap<>();
+		for (Strain<VirusT> strain : virusIns.getStrains()) {
+			nucaminoDecoders.put(strain, new NucAminoJsonDecoder<>(strain));
+		}
+		NUCAMINO_DECODERS = Collections.unmodifiableMap(nucaminoDecoders);
+
+		// keep every worker of each strain busy by default
+		MAX_IN_FLIGHT_CHUNKS = EnvUtils.getIntEnv(
+			"NUCAMINO_MAX_IN_FLIGHT_CHUNKS",
+			nucaminoWorkerPools.values().iterator().next().getPoolSize() * 2, 1);
+
+		NUCAMINO_VERSION = detectNucaminoVersion(executable);
+		alignmentCache = TieredAlignmentCache.fromEnv(virusIns.getName());
 	
 		/* initialize GENE_AA_RANGE */
 		Map<Gene<VirusT>, Integer[]> geneAARange = new HashMap<>();
@@ -159,6 +183,65 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 		MIN_NUM_OF_SITES_PER_GENE = Collections.unmodifiableMap(minNumOfSitesPerGene);
 	}
 
+	/**
+	 * Identifies the NucAmino program used for alignment. The version is
+	 * a part of alignment cache keys, so results of a replaced program are
+	 * never served from the cache.
+	 *
+	 * Uses NUCAMINO_VERSION if specified; otherwise the AWS Lambda function,
+	 * or the path and the modification time of the local executable.
+	 */
+	private static String detectNucaminoVersion(String executable) {
+		String version = System.getenv("NUCAMINO_VERSION");
+		if (version != null && !version.isEmpty()) {
+			return version;
+		}
+		String awsFunc = System.getenv("NUCAMINO_AWS_LAMBDA");
+		if (awsFunc != null && !awsFunc.isEmpty()) {
+			return awsFunc;
+		}
+		File exeFile = new File(executable);
+		if (!exeFile.isFile()) {
+			String path = System.getenv("PATH");
+			if (path != null) {
+				for (String dir : path.split(File.pathSeparator)) {
+					File candidate = new File(dir, executable);
+					if (candidate.isFile()) {
+						exeFile = candidate;
+						break;
+					}
+				}
+			}
+		}
+		if (exeFile.isFile()) {
+			return exeFile.getAbsolutePath() + "@" + exeFile.lastModified();
+		}
+		return executable;
+	}
+
+	/**
+	 * Replaces the alignment cache. Use null to disable caching.
+	 *
+	 * @param alignmentCache
+	 */
+	public void setAlignmentCache(AlignmentCache alignmentCache) {
+		this.alignmentCache = alignmentCache;
+	}
+
+	public AlignmentCache getAlignmentCache() {
+		return alignmentCache;
+	}
+
+	private AlignmentCache.Key getCacheKey(Strain<VirusT> strain, Sequence sequence) {
+		return new AlignmentCache.Key(
+			sequence.getSHA512(),
+			virusInstance.getName(),
+			AlignmentCache.Key.toStrainProfile(
+				strain.getNucaminoProfile(), strain.getNucaminoGene()),
+			NUCAMINO_VERSION
+		);
+	}
+
 	/**
 	 * Receives a sequence and aligns it to each HIV gene by NucAmino.
 	 *
@@ -182,106 +265,110 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 	 * @return 				list of AlignedSequence objects
 	 */
 	public List<AlignedSequence<VirusT>> parallelAlign(Collection<Sequence> sequences) {
-		return parallelAlign(sequences, false);
+		return Lists.newArrayList(streamAlign(sequences.iterator()));
 	}
 
 	/**
-	 * Uses locally installed NucAmino to align HIV sequences.
-	 *  
-	 * @param sequences
-	 * @return
+	 * Receives a stream of sequences and aligns them to each HIV gene by NucAmino.
+	 *
+	 * Aligned sequences are emitted in input order as soon as all strains
+	 * have reported for their chunk. At most MAX_IN_FLIGHT_CHUNKS chunks
+	 * are aligned at the same time; the input stream is only consumed when
+	 * a chunk is finished.
+	 *
+	 * @param sequences		Stream of sequences waiting to be aligned
+	 * @return 				stream of AlignedSequence objects
 	 */
-	private Map<Strain<VirusT>, List<String>> localNucamino(Collection<Sequence> sequences) {
-		Map<Strain<VirusT>, CompletableFuture<List<String>>> futures = new TreeMap<>();
-		
-		for (Strain<VirusT> strain : virusInstance.getStrains()) {
-			String[] cmd = NUCAMINO_LOCAL_COMMANDS.get(strain);
-			CompletableFuture<List<String>> future = CompletableFuture.supplyAsync(() -> {
-				List<String> jsonStrings = new ArrayList<>();
-				Iterable<List<Sequence>> partialSets = Iterables.partition(sequences, 10);
-				for (List<Sequence> partialSet : partialSets) {
-					try {
-						Process proc = Runtime.getRuntime().exec(cmd);
-						OutputStream stdin = proc.getOutputStream();
-						BufferedReader stdout = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-						// System.out.println(partialSet);
-						FastaUtils.writeStream(partialSet, stdin);
-						jsonStrings.add(stdout.lines().collect(Collectors.joining()));
-						stdout.close();
-						proc.waitFor();
-					} catch (InterruptedException e) {
-						throw new RuntimeException(e);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
-				}
-				return jsonStrings;
-			}, executor);
-			futures.put(strain, future);
-		}
+	public Stream<AlignedSequence<VirusT>> streamAlign(Stream<Sequence> sequences) {
+		return StreamSupport.stream(
+			Spliterators.spliteratorUnknownSize(
+				streamAlign(sequences.iterator()),
+				Spliterator.ORDERED | Spliterator.NONNULL),
+			false
+		);
+	}
 
-		CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
-		
-		Map<Strain<VirusT>, List<String>> results = new TreeMap<>();
-		for (Strain<VirusT> strain : virusInstance.getStrains()) {
-			CompletableFuture<List<String>> future = futures.get(strain);
-			try {
-				results.put(strain, future.get());
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			} catch (ExecutionException e) {
-				throw new RuntimeException(e);
-			}
+	/**
+	 * Iterator version of {@link #streamAlign(Stream)}.
+	 *
+	 * @param sequences		Iterator of sequences waiting to be aligned
+	 * @return 				iterator of AlignedSequence objects
+	 */
+	public Iterator<AlignedSequence<VirusT>> streamAlign(Iterator<Sequence> sequences) {
+		String awsFunc = System.getenv("NUCAMINO_AWS_LAMBDA");
+		int chunkSize;
+		if (awsFunc == null || awsFunc.equals("")) {
+			awsFunc = null;
+			chunkSize = NUCAMINO_WORKER_POOLS.values().iterator().next().getBatchSize();
+		} else {
+			chunkSize = 5;
 		}
-		return results;
-	}
+		final String awsFuncAndQual = awsFunc;
+		final Iterator<List<Sequence>> chunks = Iterators.partition(sequences, chunkSize);
 
-	private Map<Strain<VirusT>, List<String>> awsNucamino(Collection<Sequence> sequences, String awsFuncAndQual) {
-		List<CompletableFuture<Pair<Strain<VirusT>, String>>> futures = new ArrayList<>();
-		String[] funcAndQual = awsFuncAndQual.split(":");
+		return new Iterator<AlignedSequence<VirusT>>() {
+			private final Deque<CompletableFuture<List<AlignedSequence<VirusT>>>> inFlight = new ArrayDeque<>();
+			private Iterator<AlignedSequence<VirusT>> current = Collections.emptyIterator();
 
-		Iterable<List<Sequence>> partialSets = Iterables.partition(sequences, 5);
-		for (List<Sequence> partialSet : partialSets) {
-			for (Strain<VirusT> strain : virusInstance.getStrains()) {
-				Map<String, String> payload = new HashMap<>();
-				payload.put("profile", strain.getNucaminoProfile());
-				payload.put("genes", "pol");
-				payload.put("fasta", FastaUtils.writeString(partialSet));
-				String payloadText = Json.dumps(payload);
-				AWSLambda client = AWSLambdaClientBuilder.standard().build();
-				InvokeRequest request = new InvokeRequest()
-					.withFunctionName(funcAndQual[0])
-					.withPayload(payloadText)
-					.withQualifier(funcAndQual[1]);
-				CompletableFuture<Pair<Strain<VirusT>, String>> future = CompletableFuture.supplyAsync(() -> {
-					InvokeResult response = client.invoke(request);
-					ByteBuffer respPayload = response.getPayload();
-					return Pair.of(
-						strain,
-						new String(respPayload.array(), Charset.forName("UTF-8"))
-					);
-				}, executor);
-				futures.add(future);
+			private void fill() {
+				while (inFlight.size() < MAX_IN_FLIGHT_CHUNKS && chunks.hasNext()) {
+					inFlight.add(alignChunk(chunks.next(), false, awsFuncAndQual));
+				}
 			}
-		}
 
-		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
-		Map<Strain<VirusT>, List<String>> results = new TreeMap<>();
-		for (CompletableFuture<Pair<Strain<VirusT>, String>> future : futures) {
-			Pair<Strain<VirusT>, String> result;
-			try {
-				result = future.get();
-				Strain<VirusT> strain = result.getLeft();
-				String jsonString = result.getRight();
-				if (!results.containsKey(strain)) {
-					results.put(strain, new ArrayList<>());
+			@Override
+			public boolean hasNext() {
+				while (!current.hasNext()) {
+					fill();
+					if (inFlight.isEmpty()) {
+						return false;
+					}
+					current = inFlight.poll().join().iterator();
 				}
-				results.get(strain).add(jsonString);
-			} catch (InterruptedException | ExecutionException e) {
-				throw new RuntimeException(e);
+				return true;
 			}
-		}
-		return results;
+
+			@Override
+			public AlignedSequence<VirusT> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+	}
+
+	/**
+	 * Uses locally installed NucAmino to align HIV sequences.
+	 *
+	 * The chunk is sent to the worker pool of given strain.
+	 *  
+	 * @param strain
+	 * @param sequences
+	 * @return
+	 */
+	private CompletableFuture<String> localNucamino(Strain<VirusT> strain, List<Sequence> sequences) {
+		NucAminoWorkerPool workerPool = NUCAMINO_WORKER_POOLS.get(strain);
+		return CompletableFuture.supplyAsync(() -> workerPool.align(sequences), ioExecutor);
+	}
+
+	private CompletableFuture<String> awsNucamino(Strain<VirusT> strain, List<Sequence> sequences, String awsFuncAndQual) {
+		String[] funcAndQual = awsFuncAndQual.split(":");
+		Map<String, String> payload = new HashMap<>();
+		payload.put("profile", strain.getNucaminoProfile());
+		payload.put("genes", "pol");
+		payload.put("fasta", FastaUtils.writeString(sequences));
+		String payloadText = Json.dumps(payload);
+		AWSLambda client = AWSLambdaClientBuilder.standard().build();
+		InvokeRequest request = new InvokeRequest()
+			.withFunctionName(funcAndQual[0])
+			.withPayload(payloadText)
+			.withQualifier(funcAndQual[1]);
+		return CompletableFuture.supplyAsync(() -> {
+			InvokeResult response = client.invoke(request);
+			ByteBuffer respPayload = response.getPayload();
+			return new String(respPayload.array(), Charset.forName("UTF-8"));
+		}, ioExecutor);
 	}
 	
 	private Map<Sequence, AlignedSequence<VirusT>> selectBestAlignments(
@@ -310,59 +397,138 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 		return knownAlignments;
 	}
 
-	private List<AlignedSequence<VirusT>> parallelAlign(Collection<Sequence> sequences, boolean reversingSequence) {
-		Map<Sequence, Map<Strain<VirusT>, StringBuilder>> errors = new LinkedHashMap<>();
-		Collection<Sequence> preparedSeqs = sequences;
-		if (reversingSequence) {
-			preparedSeqs = preparedSeqs.stream()
-				.map(s -> s.reverseCompliment())
-				.collect(Collectors.toList());
+	/**
+	 * Aligns sequences against given strain. Sequences found in the
+	 * alignment cache are not sent to NucAmino.
+	 *
+	 * @param strain
+	 * @param sequences - sequences to be sent to NucAmino
+	 * @param awsFuncAndQual - AWS Lambda function and qualifier; null for local NucAmino
+	 * @return future of NucAmino results in input order; null for sequences without result
+	 */
+	private CompletableFuture<List<NucAminoJsonDecoder.Result<VirusT>>> alignByStrain(
+		Strain<VirusT> strain, List<Sequence> sequences, String awsFuncAndQual
+	) {
+		AlignmentCache cache = alignmentCache;
+		NucAminoJsonDecoder<VirusT> decoder = NUCAMINO_DECODERS.get(strain);
+		List<NucAminoJsonDecoder.Result<VirusT>> results = new ArrayList<>(
+			Collections.nCopies(sequences.size(), null));
+		List<Sequence> uncachedSeqs = new ArrayList<>();
+		for (int i = 0; i < sequences.size(); i ++) {
+			Sequence seq = sequences.get(i);
+			String cached = cache == null ? null : cache.get(getCacheKey(strain, seq));
+			if (cached == null) {
+				// NucAmino results are matched by name; use the index
+				// so sequences sharing a header can not be mixed up
+				uncachedSeqs.add(new Sequence(String.valueOf(i), seq.getSequence()));
+			}
+			else {
+				results.set(i, decoder.decodeResult(cached));
+			}
 		}
-		Map<Strain<VirusT>, List<String>> jsonStrings;
-		
-		String awsFunc = System.getenv("NUCAMINO_AWS_LAMBDA");
-		if (awsFunc == null || awsFunc.equals("")) {
-			jsonStrings = localNucamino(preparedSeqs);
+		if (uncachedSeqs.isEmpty()) {
+			return CompletableFuture.completedFuture(results);
+		}
+
+		CompletableFuture<String> future;
+		if (awsFuncAndQual == null) {
+			future = localNucamino(strain, uncachedSeqs);
 		} else {
-			jsonStrings = awsNucamino(preparedSeqs, awsFunc);
+			future = awsNucamino(strain, uncachedSeqs, awsFuncAndQual);
 		}
-		
-		Map<Sequence, AlignedSequence<VirusT>> results = new LinkedHashMap<>();
-		for (Strain<VirusT> strain : jsonStrings.keySet()) {
-			for (String jsonString : jsonStrings.get(strain)) {
-				List<AlignedSequence<VirusT>> alignedSeqs = processCommandOutput(
-					strain, sequences, jsonString,
-					reversingSequence, errors
-				);
-				results = selectBestAlignments(alignedSeqs, results);
+		return future.thenApply(jsonString -> {
+			Map<String, NucAminoJsonDecoder.Result<VirusT>> resultMap = new HashMap<>();
+			for (NucAminoJsonDecoder.Result<VirusT> result : decoder.decodeOutput(jsonString)) {
+				resultMap.put(result.getName(), result);
 			}
-		}
-		if (!reversingSequence && !errors.isEmpty()) {
-			// a second run for reverse complement
-
-			int numStrains = virusInstance.getStrains().size();
-			List<Sequence> errorSeqs = errors
-				.entrySet().stream()
-				.filter(e -> e.getValue().size() == numStrains)
-				.map(e -> e.getKey())
-				.collect(Collectors.toList());
-			if (!errorSeqs.isEmpty()) {
-				List<AlignedSequence<VirusT>> reversedResults = parallelAlign(errorSeqs, true);
-				results = selectBestAlignments(reversedResults, results);
+			for (int i = 0; i < sequences.size(); i ++) {
+				if (results.get(i) != null) {
+					continue;
+				}
+				Sequence seq = sequences.get(i);
+				NucAminoJsonDecoder.Result<VirusT> result = resultMap.get(String.valueOf(i));
+				results.set(i, result);
+				if (result != null && cache != null) {
+					cache.put(getCacheKey(strain, seq), decoder.encodeResult(result));
+				}
 			}
+			return results;
+		});
+	}
+
+	/**
+	 * Aligns one chunk of sequences against all strains.
+	 *
+	 * Sequences which can not be aligned by any strain are retried as
+	 * reverse complement once their chunk is finished; the retry is
+	 * chained to the chunk's future instead of waiting for other chunks.
+	 *
+	 * @param sequences - chunk of input sequences
+	 * @param reversingSequence - align the reverse complement of input sequences
+	 * @param awsFuncAndQual - AWS Lambda function and qualifier; null for local NucAmino
+	 * @return future of aligned sequences in input order
+	 */
+	private CompletableFuture<List<AlignedSequence<VirusT>>> alignChunk(
+		List<Sequence> sequences, boolean reversingSequence, String awsFuncAndQual
+	) {
+		List<Sequence> preparedSeqs = sequences;
+		if (reversingSequence) {
+			preparedSeqs = preparedSeqs.stream()
+				.map(s -> s.reverseCompliment())
+				.collect(Collectors.toList());
 		}
-		return Lists.newArrayList(results.values());
+		Map<Strain<VirusT>, CompletableFuture<List<NucAminoJsonDecoder.Result<VirusT>>>> futures = new TreeMap<>();
+		for (Strain<VirusT> strain : virusInstance.getStrains()) {
+			futures.put(strain, alignByStrain(strain, preparedSeqs, awsFuncAndQual));
+		}
+
+		return CompletableFuture
+			.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+			.thenCompose(ignored -> {
+				Map<Sequence, Map<Strain<VirusT>, StringBuilder>> errors = new LinkedHashMap<>();
+				Map<Sequence, AlignedSequence<VirusT>> results = new LinkedHashMap<>();
+				for (Map.Entry<Strain<VirusT>, CompletableFuture<List<NucAminoJsonDecoder.Result<VirusT>>>> entry : futures.entrySet()) {
+					Strain<VirusT> strain = entry.getKey();
+					List<NucAminoJsonDecoder.Result<VirusT>> alignmentResults = entry.getValue().join();
+					List<AlignedSequence<VirusT>> alignedSeqs = new ArrayList<>();
+					for (int i = 0; i < sequences.size(); i ++) {
+						NucAminoJsonDecoder.Result<VirusT> result = alignmentResults.get(i);
+						if (result != null) {
+							alignedSeqs.add(processAlignmentResult(
+								strain, sequences.get(i), result,
+								reversingSequence, errors
+							));
+						}
+					}
+					results = selectBestAlignments(alignedSeqs, results);
+				}
+				if (!reversingSequence && !errors.isEmpty()) {
+					// retry the reverse complement of failed sequences
+					int numStrains = virusInstance.getStrains().size();
+					List<Sequence> errorSeqs = errors
+						.entrySet().stream()
+						.filter(e -> e.getValue().size() == numStrains)
+						.map(e -> e.getKey())
+						.collect(Collectors.toList());
+					if (!errorSeqs.isEmpty()) {
+						final Map<Sequence, AlignedSequence<VirusT>> knownResults = results;
+						return alignChunk(errorSeqs, true, awsFuncAndQual)
+							.thenApply(reversedResults -> Lists.newArrayList(
+								selectBestAlignments(reversedResults, knownResults).values()));
+					}
+				}
+				return CompletableFuture.completedFuture(Lists.newArrayList(results.values()));
+			});
 	}
 
 	private AlignedGeneSeq<VirusT> geneSeqFromReport(
-			Sequence sequence, Gene<VirusT> gene, Map<?, ?> report,
+			Sequence sequence, Gene<VirusT> gene, NucAminoJsonDecoder.Result<VirusT> report,
 			boolean sequenceReversed) {
 		Integer[] aaRange = GENE_AA_RANGE.get(gene);
 		int aaStart = aaRange[0];
-		int aaEnd = aaRange[1];
 		int geneLength = gene.getAASize();
-		int polFirstAA = ((Double) report.get("FirstAA")).intValue();
-		int polLastAA = ((Double) report.get("LastAA")).intValue();
+		int polFirstAA = report.getFirstAA();
+		int polLastAA = report.getLastAA();
 		int firstAA = Math.max(polFirstAA - aaStart + 1, 1);
 		int lastAA = Math.min(polLastAA - aaStart + 1, geneLength);
 		int aaSize = Math.max(0, lastAA - firstAA + 1);
@@ -375,43 +541,15 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 			), aaSize == 0);
 		}
 
-		List<?> polAlignedSites = (List<?>) report.get("AlignedSites");
-		List<AlignedSite> alignedSites = polAlignedSites.stream()
-			.map(m -> (Map<?, ?>) m)
-			.filter(m -> {
-				int posAA = ((Double) m.get("PosAA")).intValue();
-				return posAA >= aaStart && posAA <= aaEnd;
-			})
-			.map(m -> new AlignedSite(
-				((Double) m.get("PosAA")).intValue() - aaStart + 1,
-				((Double) m.get("PosNA")).intValue(),
-				((Double) m.get("LengthNA")).intValue()
-			))
-			.collect(Collectors.toList());
+		// sites, mutations and frame shifts were decoded per gene
+		List<AlignedSite> alignedSites = report.getAlignedSites(gene);
 
 		int firstNA = alignedSites.get(0).getPosNA();
 		AlignedSite lastSite = alignedSites.get(alignedSites.size() - 1);
 		int lastNA = lastSite.getPosNA() - 1 + lastSite.getLengthNA();
 
-		List<?> polMutations = (List<?>) report.get("Mutations");
-		List<Mutation<VirusT>> mutations = polMutations.stream()
-			.map(m -> (Map<?, ?>) m)
-			.filter(m -> {
-				int posAA = ((Double) m.get("Position")).intValue();
-				return posAA >= aaStart && posAA <= aaEnd;
-			})
-			.map(m -> CodonMutation.fromNucAminoMutation(gene, aaStart, m))
-			.collect(Collectors.toList());
-
-		List<?> polFrameShifts = (List<?>) report.get("FrameShifts");
-		List<FrameShift<VirusT>> frameShifts = polFrameShifts.stream()
-			.map(fs -> (Map<?, ?>) fs)
-			.filter(fs -> {
-				int posAA = ((Double) fs.get("Position")).intValue();
-				return posAA >= aaStart && posAA <= aaEnd;
-			})
-			.map(fs -> FrameShift.fromNucAminoFrameShift(gene, aaStart, fs))
-			.collect(Collectors.toList());
+		List<Mutation<VirusT>> mutations = report.getMutations(gene);
+		List<FrameShift<VirusT>> frameShifts = report.getFrameShifts(gene);
 
 		int[] trimDels = trimGaps(sequence, firstAA, lastAA, mutations, frameShifts);
 		int trimDelsLeft = trimDels[0];
@@ -588,58 +726,42 @@ public class NucAminoAligner<VirusT extends Virus<VirusT>> {
 	}
 
 	/**
-	 * Process the JSON output of NucAmino
-	 * @param sequences - input unaligned sequences
-	 * @param jsonString - string output of NucAmino
+	 * Process the NucAmino alignment result of a sequence
+	 * @param sequence - input unaligned sequence
+	 * @param result - alignment result of NucAmino
 	 * @param errors - map of failed sequences and the errors
-	 * @return list of AlignedSequence for all input sequences
+	 * @return AlignedSequence of the input sequence
 	 */
-	private List<AlignedSequence<VirusT>> processCommandOutput(
-			Strain<VirusT> strain, Collection<Sequence> sequences, String jsonString,
+	private AlignedSequence<VirusT> processAlignmentResult(
+			Strain<VirusT> strain, Sequence sequence, NucAminoJsonDecoder.Result<VirusT> result,
 			boolean sequenceReversed, Map<Sequence, Map<Strain<VirusT>, StringBuilder>> errors) {
 
-		Map<?, ?> jsonObj = Json.loads(
-			jsonString, new TypeToken<Map<?, ?>>(){}.getType());
-		List<?> alignmentResults = (List<?>) jsonObj.get("POL");
-		List<AlignedSequence<VirusT>> alignedSequences = new ArrayList<>();
-		Map<String, Sequence> sequenceMap = sequences.stream()
-			.collect(Collectors.toMap(seq -> seq.getHeader(), seq -> seq));
-		for (Object _result : alignmentResults) {
-			Map<?, ?> result = (Map<?, ?>) _result;
-			// TODO: should we use hash key to prevent name conflict?
-			String name = (String) result.get("Name");
-			Sequence sequence = sequenceMap.get(name);
-			Map<?, ?> report = (Map<?, ?>) result.get("Report");
-			Map<Gene<VirusT>, AlignedGeneSeq<VirusT>> alignedGeneSeqs = new TreeMap<>();
-			Map<Gene<VirusT>, String> discardedGenes = new LinkedHashMap<>();
-			String error = (String) result.get("Error");
-			if (!error.isEmpty()) {
-				errors.putIfAbsent(sequence, new TreeMap<>());
-				errors.get(sequence).putIfAbsent(strain, new StringBuilder());
-				errors.get(sequence).get(strain).append(error);
-			} else {
-				for (Gene<VirusT> gene : strain.getGenes()) {
-					try {
-						alignedGeneSeqs.put(gene, geneSeqFromReport(sequence, gene, report, sequenceReversed));
-					} catch (MisAlignedException e) {
-						if (!e.isSuppressible()) {
-							discardedGenes.put(gene, e.getMessage());
-						}
+		Map<Gene<VirusT>, AlignedGeneSeq<VirusT>> alignedGeneSeqs = new TreeMap<>();
+		Map<Gene<VirusT>, String> discardedGenes = new LinkedHashMap<>();
+		String error = result.getError();
+		if (!error.isEmpty()) {
+			errors.putIfAbsent(sequence, new TreeMap<>());
+			errors.get(sequence).putIfAbsent(strain, new StringBuilder());
+			errors.get(sequence).get(strain).append(error);
+		} else {
+			for (Gene<VirusT> gene : strain.getGenes()) {
+				try {
+					alignedGeneSeqs.put(gene, geneSeqFromReport(sequence, gene, result, sequenceReversed));
+				} catch (MisAlignedException e) {
+					if (!e.isSuppressible()) {
+						discardedGenes.put(gene, e.getMessage());
 					}
 				}
-				if (alignedGeneSeqs.isEmpty()) {
-					errors.putIfAbsent(sequence, new TreeMap<>());
-					errors.get(sequence).putIfAbsent(strain, new StringBuilder());
-					errors.get(sequence).get(strain).append("No aligned results were found.");
-				}
 			}
-			alignedSequences.add(
-				new AlignedSequence<>(
-					strain, sequence, alignedGeneSeqs,
-					discardedGenes, sequenceReversed)
-			);
+			if (alignedGeneSeqs.isEmpty()) {
+				errors.putIfAbsent(sequence, new TreeMap<>());
+				errors.get(sequence).putIfAbsent(strain, new StringBuilder());
+				errors.get(sequence).get(strain).append("No aligned results were found.");
+			}
 		}
-		return alignedSequences;
+		return new AlignedSequence<>(
+			strain, sequence, alignedGeneSeqs,
+			discardedGenes, sequenceReversed);
 
 		// AlignmentExtension extResult = new AlignmentExtension(
 		// 	sequence, gene, firstAA, lastAA, firstNA, lastNA,
@@ -0,0 +1,415 @@
+/*
+
+	Copyright (C) 2017-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.sequences;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import edu.stanford.hivdb.mutations.CodonMutation;
+import edu.stanford.hivdb.mutations.FrameShift;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Streaming decoder of NucAmino JSON output.
+ *
+ * Aligned sites, mutations and frame shifts are deserialized straight into
+ * {@link AlignedSite}, {@link CodonMutation} and {@link FrameShift} objects
+ * of the gene they belong to, without building intermediate maps or boxing
+ * numbers. Sites outside of all genes of the strain are skipped.
+ */
+public class NucAminoJsonDecoder<VirusT extends Virus<VirusT>> {
+
+	/**
+	 * Decoded NucAmino result of a single sequence.
+	 */
+	public static class Result<VirusT extends Virus<VirusT>> {
+		private String name = "";
+		private String error = "";
+		private int firstAA;
+		private int lastAA;
+		private final Map<Gene<VirusT>, List<AlignedSite>> alignedSites = new HashMap<>();
+		private final Map<Gene<VirusT>, List<Mutation<VirusT>>> mutations = new HashMap<>();
+		private final Map<Gene<VirusT>, List<FrameShift<VirusT>>> frameShifts = new HashMap<>();
+
+		public String getName() { return name; }
+
+		public String getError() { return error; }
+
+		/**
+		 * @return first amino acid position relative to the NucAmino profile gene
+		 */
+		public int getFirstAA() { return firstAA; }
+
+		/**
+		 * @return last amino acid position relative to the NucAmino profile gene
+		 */
+		public int getLastAA() { return lastAA; }
+
+		public List<AlignedSite> getAlignedSites(Gene<VirusT> gene) {
+			return alignedSites.getOrDefault(gene, Collections.emptyList());
+		}
+
+		public List<Mutation<VirusT>> getMutations(Gene<VirusT> gene) {
+			return mutations.getOrDefault(gene, Collections.emptyList());
+		}
+
+		public List<FrameShift<VirusT>> getFrameShifts(Gene<VirusT> gene) {
+			return frameShifts.getOrDefault(gene, Collections.emptyList());
+		}
+	}
+
+	private final List<Gene<VirusT>> genes;
+	private final int[] geneAAStarts;
+	private final int[] geneAAEnds;
+
+	public NucAminoJsonDecoder(Strain<VirusT> strain) {
+		genes = new ArrayList<>(strain.getGenes());
+		geneAAStarts = new int[genes.size()];
+		geneAAEnds = new int[genes.size()];
+		int geneOffset = strain.getNucaminoGeneOffset();
+		for (int i = 0; i < genes.size(); i ++) {
+			geneAAStarts[i] = geneOffset + 1;
+			geneAAEnds[i] = geneOffset + genes.get(i).getAASize();
+			geneOffset += genes.get(i).getAASize();
+		}
+	}
+
+	/**
+	 * Finds the gene of given NucAmino position.
+	 *
+	 * @param posAA
+	 * @return index of the gene or -1 if the position is not in any gene
+	 */
+	private int locateGene(int posAA) {
+		for (int i = 0; i < genes.size(); i ++) {
+			if (posAA >= geneAAStarts[i] && posAA <= geneAAEnds[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static <T, VirusT extends Virus<VirusT>> void addTo(
+		Map<Gene<VirusT>, List<T>> map, Gene<VirusT> gene, T item
+	) {
+		List<T> list = map.get(gene);
+		if (list == null) {
+			list = new ArrayList<>();
+			map.put(gene, list);
+		}
+		list.add(item);
+	}
+
+	private static String nextStringOrEmpty(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return "";
+		}
+		return reader.nextString();
+	}
+
+	/**
+	 * Decodes the output of NucAmino, i.e. the results of a batch.
+	 *
+	 * @param jsonString
+	 * @return list of decoded results in output order
+	 */
+	public List<Result<VirusT>> decodeOutput(String jsonString) {
+		List<Result<VirusT>> results = new ArrayList<>();
+		try (JsonReader reader = new JsonReader(new StringReader(jsonString))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("POL")) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						results.add(readResult(reader));
+					}
+					reader.endArray();
+				}
+				else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IOException | IllegalStateException e) {
+			throw new RuntimeException("Unable to decode NucAmino output", e);
+		}
+		return results;
+	}
+
+	/**
+	 * Decodes a single result encoded by {@link #encodeResult(Result)}.
+	 *
+	 * @param jsonString
+	 * @return decoded result
+	 */
+	public Result<VirusT> decodeResult(String jsonString) {
+		try (JsonReader reader = new JsonReader(new StringReader(jsonString))) {
+			return readResult(reader);
+		} catch (IOException | IllegalStateException e) {
+			throw new RuntimeException("Unable to decode NucAmino result", e);
+		}
+	}
+
+	private Result<VirusT> readResult(JsonReader reader) throws IOException {
+		Result<VirusT> result = new Result<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "Name":
+					result.name = nextStringOrEmpty(reader);
+					break;
+				case "Error":
+					result.error = nextStringOrEmpty(reader);
+					break;
+				case "Report":
+					if (reader.peek() == JsonToken.NULL) {
+						reader.nextNull();
+					}
+					else {
+						readReport(reader, result);
+					}
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return result;
+	}
+
+	private void readReport(JsonReader reader, Result<VirusT> result) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "FirstAA":
+					result.firstAA = reader.nextInt();
+					break;
+				case "LastAA":
+					result.lastAA = reader.nextInt();
+					break;
+				case "AlignedSites":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readAlignedSite(reader, result);
+					}
+					reader.endArray();
+					break;
+				case "Mutations":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readMutation(reader, result);
+					}
+					reader.endArray();
+					break;
+				case "FrameShifts":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readFrameShift(reader, result);
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private void readAlignedSite(JsonReader reader, Result<VirusT> result) throws IOException {
+		int posAA = 0;
+		int posNA = 0;
+		int lengthNA = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "PosAA":
+					posAA = reader.nextInt();
+					break;
+				case "PosNA":
+					posNA = reader.nextInt();
+					break;
+				case "LengthNA":
+					lengthNA = reader.nextInt();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		int geneIdx = locateGene(posAA);
+		if (geneIdx > -1) {
+			addTo(
+				result.alignedSites, genes.get(geneIdx),
+				new AlignedSite(posAA - geneAAStarts[geneIdx] + 1, posNA, lengthNA));
+		}
+	}
+
+	private void readMutation(JsonReader reader, Result<VirusT> result) throws IOException {
+		int posAA = 0;
+		String codonText = "";
+		String insertedCodonsText = "";
+		boolean isInsertion = false;
+		boolean isDeletion = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "Position":
+					posAA = reader.nextInt();
+					break;
+				case "CodonText":
+					codonText = nextStringOrEmpty(reader);
+					break;
+				case "InsertedCodonsText":
+					insertedCodonsText = nextStringOrEmpty(reader);
+					break;
+				case "IsInsertion":
+					isInsertion = reader.nextBoolean();
+					break;
+				case "IsDeletion":
+					isDeletion = reader.nextBoolean();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		int geneIdx = locateGene(posAA);
+		if (geneIdx > -1) {
+			addTo(
+				result.mutations, genes.get(geneIdx),
+				CodonMutation.fromNucAminoMutation(
+					genes.get(geneIdx), posAA - geneAAStarts[geneIdx] + 1,
+					codonText, insertedCodonsText, isInsertion, isDeletion));
+		}
+	}
+
+	private void readFrameShift(JsonReader reader, Result<VirusT> result) throws IOException {
+		int posAA = 0;
+		int gapLength = 0;
+		String nasText = "";
+		boolean isInsertion = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "Position":
+					posAA = reader.nextInt();
+					break;
+				case "GapLength":
+					gapLength = reader.nextInt();
+					break;
+				case "NucleicAcidsText":
+					nasText = nextStringOrEmpty(reader);
+					break;
+				case "IsInsertion":
+					isInsertion = reader.nextBoolean();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		int geneIdx = locateGene(posAA);
+		if (geneIdx > -1) {
+			Gene<VirusT> gene = genes.get(geneIdx);
+			int pos = posAA - geneAAStarts[geneIdx] + 1;
+			addTo(
+				result.frameShifts, gene,
+				FrameShift.fromNucAminoFrameShift(gene, pos, gapLength, nasText, isInsertion));
+		}
+	}
+
+	/**
+	 * Encodes a decoded result into NucAmino's JSON format. Only the
+	 * fields read by this decoder are written.
+	 *
+	 * @param result
+	 * @return JSON string
+	 */
+	public String encodeResult(Result<VirusT> result) {
+		StringWriter output = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(output)) {
+			writer.beginObject();
+			writer.name("Name").value(result.name);
+			writer.name("Error").value(result.error);
+			writer.name("Report").beginObject();
+			writer.name("FirstAA").value(result.firstAA);
+			writer.name("LastAA").value(result.lastAA);
+			writer.name("AlignedSites").beginArray();
+			for (int i = 0; i < genes.size(); i ++) {
+				for (AlignedSite site : result.getAlignedSites(genes.get(i))) {
+					writer.beginObject();
+					writer.name("PosAA").value(site.getPosAA() + geneAAStarts[i] - 1);
+					writer.name("PosNA").value(site.getPosNA());
+					writer.name("LengthNA").value(site.getLengthNA());
+					writer.endObject();
+				}
+			}
+			writer.endArray();
+			writer.name("Mutations").beginArray();
+			for (int i = 0; i < genes.size(); i ++) {
+				for (Mutation<VirusT> mut : result.getMutations(genes.get(i))) {
+					// CodonText is always 3 NAs unless the codon is deleted
+					boolean isDeletion = mut.getTriplet().isEmpty();
+					writer.beginObject();
+					writer.name("Position").value(mut.getPosition() + geneAAStarts[i] - 1);
+					writer.name("CodonText").value(mut.getTriplet());
+					writer.name("InsertedCodonsText").value(mut.getInsertedNAs());
+					writer.name("IsInsertion").value(!isDeletion && mut.isInsertion());
+					writer.name("IsDeletion").value(isDeletion);
+					writer.endObject();
+				}
+			}
+			writer.endArray();
+			writer.name("FrameShifts").beginArray();
+			for (int i = 0; i < genes.size(); i ++) {
+				for (FrameShift<VirusT> fs : result.getFrameShifts(genes.get(i))) {
+					writer.beginObject();
+					writer.name("Position").value(fs.getPosition() + geneAAStarts[i] - 1);
+					writer.name("GapLength").value(fs.getSize());
+					writer.name("NucleicAcidsText").value(fs.getNAs());
+					writer.name("IsInsertion").value(fs.isInsertion());
+					writer.endObject();
+				}
+			}
+			writer.endArray();
+			writer.endObject();
+			writer.endObject();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return output.toString();
+	}
+
+}
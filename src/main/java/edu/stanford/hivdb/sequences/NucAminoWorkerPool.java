@@ -0,0 +1,280 @@
+/*
+
+	Copyright (C) 2017-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.sequences;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import edu.stanford.hivdb.utilities.EnvUtils;
+import edu.stanford.hivdb.utilities.FastaUtils;
+import edu.stanford.hivdb.utilities.SharedExecutor;
+
+/**
+ * A fixed-size pool of NucAmino workers bound to one alignment command
+ * (i.e. one strain profile).
+ *
+ * The NucAmino CLI reads FASTA from stdin until EOF and writes a single
+ * JSON document to stdout, so a process can not be reused for a second
+ * batch. Instead each worker keeps a standby process spawned ahead of
+ * time: the binary is already loaded and its alignment profile initialized
+ * when the next batch arrives, and the replacement process is spawned as
+ * soon as the previous one has been taken. The end of stdout (EOF) frames
+ * the JSON document of each batch.
+ *
+ * Workers are health-checked before use (a standby process which already
+ * exited is replaced) and after use (non-zero exit code, timeout or output
+ * which is not a JSON document). A failed batch is retried on a freshly
+ * spawned process before an exception is raised.
+ *
+ * Following environment variables are used to configure the pool:
+ *
+ *   - NUCAMINO_POOL_SIZE: number of workers per strain (default: number
+ *     of available processors);
+ *   - NUCAMINO_BATCH_SIZE: number of sequences sent to one worker at once
+ *     (default: 50);
+ *   - NUCAMINO_TIMEOUT: timeout in seconds of aligning one batch
+ *     (default: 600);
+ *   - NUCAMINO_MAX_RETRIES: retries of a failed batch (default: 2).
+ */
+public class NucAminoWorkerPool {
+
+	private static final int DEFAULT_BATCH_SIZE = 50;
+	private static final int DEFAULT_TIMEOUT = 600;
+	private static final int DEFAULT_MAX_RETRIES = 2;
+
+	private final String[] command;
+	private final int poolSize;
+	private final int batchSize;
+	private final long timeout;
+	private final int maxRetries;
+	private final BlockingQueue<Worker> idleWorkers;
+	private final Executor ioExecutor = SharedExecutor.getIOInstance();
+	private volatile boolean closed = false;
+
+	/**
+	 * A worker owns one standby NucAmino process at a time.
+	 */
+	private class Worker {
+		private Process standby;
+
+		private Worker() {
+			standby = null;
+		}
+
+		private Process takeProcess() throws IOException {
+			Process proc = standby;
+			standby = null;
+			if (proc == null || !proc.isAlive()) {
+				// health check: the standby process was crashed or never spawned
+				if (proc != null) {
+					proc.destroyForcibly();
+				}
+				proc = spawn();
+			}
+			return proc;
+		}
+
+		private void refill() {
+			if (closed) {
+				return;
+			}
+			Process proc;
+			try {
+				proc = spawn();
+			} catch (IOException e) {
+				// the next takeProcess() will try again
+				standby = null;
+				return;
+			}
+			synchronized (NucAminoWorkerPool.this) {
+				// the pool may be shut down while spawning
+				if (!closed) {
+					standby = proc;
+					return;
+				}
+			}
+			proc.destroyForcibly();
+		}
+
+		private void destroy() {
+			if (standby != null) {
+				standby.destroyForcibly();
+				standby = null;
+			}
+		}
+
+		private String run(List<Sequence> batch) throws IOException, InterruptedException, TimeoutException {
+			// one deadline for writing, reading and exiting
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+			Process proc = takeProcess();
+			refill();
+			try {
+				CompletableFuture<Void> writing = CompletableFuture.runAsync(
+					() -> FastaUtils.writeStream(batch, proc.getOutputStream()),
+					ioExecutor
+				);
+				CompletableFuture<String> reading = CompletableFuture.supplyAsync(() -> {
+					try (
+						BufferedReader stdout = new BufferedReader(new InputStreamReader(
+							proc.getInputStream(), StandardCharsets.UTF_8))
+					) {
+						return stdout.lines().collect(Collectors.joining());
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}, ioExecutor);
+				String output;
+				try {
+					output = reading.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					writing.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+				if (!proc.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					throw new TimeoutException("NucAmino process did not exit in time");
+				}
+				if (proc.exitValue() != 0) {
+					throw new IOException(String.format(
+						"NucAmino process exited with code %d", proc.exitValue()));
+				}
+				if (!output.trim().startsWith("{")) {
+					throw new IOException("NucAmino process returned malformed output");
+				}
+				return output;
+			} finally {
+				proc.destroyForcibly();
+			}
+		}
+	}
+
+	/**
+	 * Creates a worker pool configured by environment variables.
+	 *
+	 * @param command	NucAmino command for aligning sequences from stdin
+	 */
+	public NucAminoWorkerPool(String[] command) {
+		this(
+			command,
+			EnvUtils.getIntEnv("NUCAMINO_POOL_SIZE", Runtime.getRuntime().availableProcessors(), 1),
+			EnvUtils.getIntEnv("NUCAMINO_BATCH_SIZE", DEFAULT_BATCH_SIZE, 1),
+			EnvUtils.getIntEnv("NUCAMINO_TIMEOUT", DEFAULT_TIMEOUT, 1),
+			EnvUtils.getIntEnv("NUCAMINO_MAX_RETRIES", DEFAULT_MAX_RETRIES, 0)
+		);
+	}
+
+	public NucAminoWorkerPool(String[] command, int poolSize, int batchSize, long timeout, int maxRetries) {
+		this.command = Arrays.copyOf(command, command.length);
+		this.poolSize = poolSize;
+		this.batchSize = batchSize;
+		this.timeout = timeout;
+		this.maxRetries = maxRetries;
+		this.idleWorkers = new ArrayBlockingQueue<>(poolSize);
+		for (int i = 0; i < poolSize; i ++) {
+			// workers are warmed up lazily on their first batch
+			idleWorkers.add(new Worker());
+		}
+	}
+
+	private Process spawn() throws IOException {
+		return new ProcessBuilder(command)
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+	}
+
+	public int getPoolSize() { return poolSize; }
+
+	public int getBatchSize() { return batchSize; }
+
+	/**
+	 * Aligns a batch of sequences by one of the idle workers. This method
+	 * blocks until a worker is available.
+	 *
+	 * @param batch	sequences to be aligned; should not exceed batch size
+	 * @return JSON output of NucAmino
+	 */
+	public String align(List<Sequence> batch) {
+		if (closed) {
+			throw new IllegalStateException("NucAmino worker pool was shut down");
+		}
+		Worker worker;
+		try {
+			worker = idleWorkers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		try {
+			Exception lastError = null;
+			for (int attempt = 0; attempt <= maxRetries; attempt ++) {
+				try {
+					return worker.run(batch);
+				} catch (IOException | TimeoutException e) {
+					// restart: the standby process may have crashed together
+					worker.destroy();
+					worker.refill();
+					lastError = e;
+				}
+			}
+			throw new RuntimeException(lastError);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			synchronized (this) {
+				if (closed) {
+					// the standby process was spawned before shutdown
+					worker.destroy();
+				}
+				idleWorkers.add(worker);
+			}
+		}
+	}
+
+	/**
+	 * Terminates all standby processes. Batches which are running are not
+	 * interrupted; the standby processes of their workers are terminated
+	 * once they finish. {@link NucAminoAligner} calls this method from a
+	 * JVM shutdown hook.
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		List<Worker> workers = new ArrayList<>();
+		idleWorkers.drainTo(workers);
+		for (Worker worker : workers) {
+			worker.destroy();
+			idleWorkers.add(worker);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+
+	Copyright (C) 2017-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.sequences;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import edu.stanford.hivdb.utilities.EnvUtils;
+
+/**
+ * Alignment cache with a size-bounded in-memory LRU tier and an optional
+ * on-disk tier ({@link MappedAlignmentStore}).
+ *
+ * Entries found in the on-disk tier are promoted to the in-memory tier.
+ * New entries are written to both tiers.
+ */
+public class TieredAlignmentCache implements AlignmentCache {
+
+	private final int maxMemoryEntries;
+	private final Map<Key, String> memoryTier;
+	private final MappedAlignmentStore diskTier;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache configured by environment variables:
+	 *
+	 *   - NUCAMINO_CACHE_SIZE: max entries of in-memory tier (default:
+	 *     10000; 0 disables the in-memory tier);
+	 *   - NUCAMINO_CACHE_DIR: directory of on-disk tier (default: none).
+	 *
+	 * @param name	file name prefix of the on-disk tier
+	 * @return cache object or null if both tiers are disabled
+	 */
+	public static TieredAlignmentCache fromEnv(String name) {
+		int maxMemoryEntries = EnvUtils.getIntEnv("NUCAMINO_CACHE_SIZE", 10000, 0);
+		String cacheDir = System.getenv("NUCAMINO_CACHE_DIR");
+		File diskFile = null;
+		if (cacheDir != null && !cacheDir.isEmpty()) {
+			diskFile = new File(cacheDir, name + "-alignments.dat");
+		}
+		if (maxMemoryEntries <= 0 && diskFile == null) {
+			return null;
+		}
+		return new TieredAlignmentCache(maxMemoryEntries, diskFile);
+	}
+
+	/**
+	 * @param maxMemoryEntries	max entries of in-memory tier
+	 * @param diskFile			file of on-disk tier; null to disable
+	 */
+	public TieredAlignmentCache(int maxMemoryEntries, File diskFile) {
+		this.maxMemoryEntries = Math.max(0, maxMemoryEntries);
+		this.memoryTier = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = -4536291384105826173L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+				return size() > TieredAlignmentCache.this.maxMemoryEntries;
+			}
+		};
+		this.diskTier = diskFile == null ? null : new MappedAlignmentStore(diskFile);
+	}
+
+	@Override
+	public String get(Key key) {
+		String result;
+		synchronized (memoryTier) {
+			result = memoryTier.get(key);
+		}
+		if (result == null && diskTier != null) {
+			result = diskTier.get(key);
+			if (result != null) {
+				diskHits.incrementAndGet();
+				synchronized (memoryTier) {
+					memoryTier.put(key, result);
+				}
+			}
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		return result;
+	}
+
+	@Override
+	public void put(Key key, String result) {
+		synchronized (memoryTier) {
+			memoryTier.put(key, result);
+		}
+		if (diskTier != null) {
+			diskTier.put(key, result);
+		}
+	}
+
+	@Override
+	public void invalidate(Predicate<Key> predicate) {
+		synchronized (memoryTier) {
+			Iterator<Key> iter = memoryTier.keySet().iterator();
+			while (iter.hasNext()) {
+				if (predicate.test(iter.next())) {
+					iter.remove();
+				}
+			}
+		}
+		if (diskTier != null) {
+			diskTier.invalidate(predicate);
+		}
+	}
+
+	@Override
+	public long getHitCount() { return hits.get(); }
+
+	/**
+	 * @return number of hits which were served by the on-disk tier
+	 */
+	public long getDiskHitCount() { return diskHits.get(); }
+
+	@Override
+	public long getMissCount() { return misses.get(); }
+
+	public int getMemorySize() {
+		synchronized (memoryTier) {
+			return memoryTier.size();
+		}
+	}
+
+}
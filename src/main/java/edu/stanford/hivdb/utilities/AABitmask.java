@@ -0,0 +1,187 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.utilities;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Bitmask representation of a set of amino acids.
+ *
+ * Each bit of an int represents one character of the alphabet '*' (stop
+ * codon), '-' (deletion), 'A' to 'Z' (amino acids and 'X') and '_'
+ * (insertion). Bits are ordered the same way as the characters, so a
+ * bitmask is converted from/to a sorted set of characters without
+ * re-sorting. Set operations are bitwise AND / OR / AND-NOT.
+ */
+public class AABitmask {
+
+	public static final int STOP = 1;
+	public static final int DELETION = 1 << 1;
+	public static final int INSERTION = 1 << 28;
+	public static final int UNKNOWN = 1 << ('X' - 'A' + 2);
+	public static final int NUM_BITS = 29;
+
+	private static final char[] BIT_CHARS = new char[NUM_BITS];
+	private static final int[] CHAR_BITS = new int[128];
+
+	static {
+		BIT_CHARS[0] = '*';
+		BIT_CHARS[1] = '-';
+		for (char aa = 'A'; aa <= 'Z'; aa ++) {
+			BIT_CHARS[aa - 'A' + 2] = aa;
+		}
+		BIT_CHARS[28] = '_';
+		for (int i = 0; i < BIT_CHARS.length; i ++) {
+			CHAR_BITS[BIT_CHARS[i]] = 1 << i;
+		}
+	}
+
+	/**
+	 * Only for static access. DO NOT instantiate this class
+	 */
+	private AABitmask() {}
+
+	/**
+	 * Returns true if the given character is in the alphabet.
+	 *
+	 * @param aa	Amino acid character
+	 * @return		Is supported or not
+	 */
+	public static boolean isSupported(char aa) {
+		return aa < 128 && CHAR_BITS[aa] != 0;
+	}
+
+	/**
+	 * Returns the bit of an amino acid character. Aliases of indels and stop
+	 * codon ('#', 'i', '~', 'd', 'Z' and '.') are normalized the same way as
+	 * {@link edu.stanford.hivdb.mutations.AAMutation#normalizeAAChars}.
+	 *
+	 * @param aa	Amino acid character
+	 * @return		The bit
+	 * @throws IllegalArgumentException if the character is not supported
+	 */
+	public static int bitOf(char aa) {
+		switch (aa) {
+			case '#':
+			case 'i':
+				return INSERTION;
+			case '~':
+			case 'd':
+				return DELETION;
+			case 'Z':
+			case '.':
+				return STOP;
+			default:
+				if (!isSupported(aa)) {
+					throw new IllegalArgumentException(
+						String.format("Invalid amino acid: %s", aa));
+				}
+				return CHAR_BITS[aa];
+		}
+	}
+
+	/**
+	 * Returns the bit index of an amino acid character. Unlike
+	 * {@link #bitOf(char)}, aliases are not normalized.
+	 *
+	 * @param aa	Amino acid character
+	 * @return		The bit index; -1 if the character is not supported
+	 */
+	public static int indexOf(char aa) {
+		return isSupported(aa) ? Integer.numberOfTrailingZeros(CHAR_BITS[aa]) : -1;
+	}
+
+	/**
+	 * Returns the amino acid character of a bit index.
+	 *
+	 * @param index	Bit index
+	 * @return		Amino acid character
+	 */
+	public static char charAt(int index) {
+		return BIT_CHARS[index];
+	}
+
+	public static int fromChars(Collection<Character> aaChars) {
+		int mask = 0;
+		for (char aa : aaChars) {
+			mask |= bitOf(aa);
+		}
+		return mask;
+	}
+
+	public static int fromChars(char[] aaChars) {
+		int mask = 0;
+		for (char aa : aaChars) {
+			mask |= bitOf(aa);
+		}
+		return mask;
+	}
+
+	public static int fromString(CharSequence aas) {
+		int mask = 0;
+		for (int i = 0; i < aas.length(); i ++) {
+			mask |= bitOf(aas.charAt(i));
+		}
+		return mask;
+	}
+
+	public static boolean contains(int mask, char aa) {
+		return isSupported(aa) && (mask & CHAR_BITS[aa]) != 0;
+	}
+
+	public static int size(int mask) {
+		return Integer.bitCount(mask);
+	}
+
+	/**
+	 * Returns the characters of the bitmask in order.
+	 *
+	 * @param mask	Bitmask
+	 * @return		String of characters
+	 */
+	public static String toString(int mask) {
+		char[] aas = new char[Integer.bitCount(mask)];
+		int i = 0;
+		while (mask != 0) {
+			aas[i ++] = BIT_CHARS[Integer.numberOfTrailingZeros(mask)];
+			mask &= mask - 1;
+		}
+		return new String(aas);
+	}
+
+	/**
+	 * Returns a new (modifiable) sorted set of the characters.
+	 *
+	 * @param mask	Bitmask
+	 * @return		Set of characters
+	 */
+	public static Set<Character> toCharSet(int mask) {
+		Set<Character> aaChars = new TreeSet<>();
+		while (mask != 0) {
+			aaChars.add(BIT_CHARS[Integer.numberOfTrailingZeros(mask)]);
+			mask &= mask - 1;
+		}
+		return aaChars;
+	}
+
+}
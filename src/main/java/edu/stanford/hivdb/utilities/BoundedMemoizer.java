@@ -0,0 +1,109 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.utilities;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A concurrent memoizer which, unlike {@link SimpleMemoizer}, evicts the
+ * least recently used results when the number of results exceeds a
+ * maximum size, and records hit/miss statistics.
+ *
+ * Concurrent calls with the same key compute the result only once.
+ *
+ * @param <K>	Key type
+ * @param <O>	Result type
+ */
+public class BoundedMemoizer<K, O> {
+
+	private final Function<K, O> computable;
+	private final long maximumSize;
+	private final Cache<K, O> cache;
+
+	/**
+	 * @param computable	function to compute a result
+	 * @param maximumSize	max number of cached results; 0 disables caching
+	 */
+	public BoundedMemoizer(Function<K, O> computable, long maximumSize) {
+		this.computable = computable;
+		this.maximumSize = Math.max(0, maximumSize);
+		this.cache = CacheBuilder.newBuilder()
+			.maximumSize(this.maximumSize)
+			.recordStats()
+			.build();
+	}
+
+	public O get(K key) {
+		return get(key, computable);
+	}
+
+	/**
+	 * Returns the cached result of given key, or computes it by given
+	 * function instead of the default one.
+	 *
+	 * @param key			Key
+	 * @param computable	function to compute the result on a cache miss
+	 * @return				Result
+	 */
+	public O get(K key, Function<K, ? extends O> computable) {
+		try {
+			return cache.get(key, () -> computable.apply(key));
+		} catch (UncheckedExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		} catch (ExecutionError e) {
+			throw (Error) e.getCause();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long getMaximumSize() { return maximumSize; }
+
+	public long size() { return cache.size(); }
+
+	public CacheStats getStats() { return cache.stats(); }
+
+	public long getHitCount() { return cache.stats().hitCount(); }
+
+	public long getMissCount() { return cache.stats().missCount(); }
+
+	public long getEvictionCount() { return cache.stats().evictionCount(); }
+
+	/**
+	 * @return ratio of hits to requests; 1.0 if there was no request
+	 */
+	public double getHitRate() { return cache.stats().hitRate(); }
+
+}
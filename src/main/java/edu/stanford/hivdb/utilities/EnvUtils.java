@@ -0,0 +1,98 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.utilities;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads configuration from environment variables.
+ */
+public class EnvUtils {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Only for static access. DO NOT instantiate this class
+	 */
+	private EnvUtils() {}
+
+	/**
+	 * Returns the integer value of an environment variable.
+	 *
+	 * A warning is logged and the default value is used if the value is
+	 * not an integer or is less than minValue.
+	 *
+	 * @param name			Name of environment variable
+	 * @param defaultValue	Value used when the variable is not set or invalid
+	 * @param minValue		Minimum valid value
+	 * @return				int value
+	 */
+	public static int getIntEnv(String name, int defaultValue, int minValue) {
+		String value = System.getenv(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue >= minValue) {
+				return intValue;
+			}
+		} catch (NumberFormatException e) {
+			// falls through
+		}
+		LOGGER.warn(
+			"Invalid value of {}: \"{}\" (expected an integer >= {}); default value {} is used",
+			name, value, minValue, defaultValue);
+		return defaultValue;
+	}
+
+	/**
+	 * Returns the long value of an environment variable.
+	 *
+	 * A warning is logged and the default value is used if the value is
+	 * not an integer or is less than minValue.
+	 *
+	 * @param name			Name of environment variable
+	 * @param defaultValue	Value used when the variable is not set or invalid
+	 * @param minValue		Minimum valid value
+	 * @return				long value
+	 */
+	public static long getLongEnv(String name, long defaultValue, long minValue) {
+		String value = System.getenv(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			long longValue = Long.parseLong(value.trim());
+			if (longValue >= minValue) {
+				return longValue;
+			}
+		} catch (NumberFormatException e) {
+			// falls through
+		}
+		LOGGER.warn(
+			"Invalid value of {}: \"{}\" (expected an integer >= {}); default value {} is used",
+			name, value, minValue, defaultValue);
+		return defaultValue;
+	}
+
+}
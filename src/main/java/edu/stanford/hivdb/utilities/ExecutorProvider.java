@@ -0,0 +1,54 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.utilities;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Service provider interface of the executor shared by alignment,
+ * genotyping and drug resistance evaluation.
+ *
+ * An implementation can be registered by {@link SharedExecutor#setProvider}
+ * or through {@link java.util.ServiceLoader} by listing its class name in
+ * META-INF/services/edu.stanford.hivdb.utilities.ExecutorProvider.
+ */
+public interface ExecutorProvider {
+
+	/**
+	 * Creates the executor service. This method is called once per
+	 * lifecycle of the shared executor.
+	 *
+	 * @return ExecutorService
+	 */
+	public ExecutorService createExecutorService();
+
+	/**
+	 * Returns true if tasks waiting for other tasks may starve the executor,
+	 * i.e. the executor has a limited number of threads. Nested submissions
+	 * from the executor's own threads are run inline in this case.
+	 *
+	 * @return boolean
+	 */
+	public default boolean isBounded() {
+		return true;
+	}
+
+}
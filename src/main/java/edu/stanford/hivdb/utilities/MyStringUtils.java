@@ -29,6 +29,17 @@ public class MyStringUtils {
 	 */
 	private MyStringUtils() {}
 
+	// only unaliased characters, since AABitmask merges aliases like 'Z' and '*'
+	private static boolean isAABitmaskSupported(String aas) {
+		for (int i = 0; i < aas.length(); i ++) {
+			char aa = aas.charAt(i);
+			if (!AABitmask.isSupported(aa) || aa == 'Z') {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Returns true if two strings share one or more characters
 	 * @param aas1 	String waiting to be compare
@@ -36,6 +47,9 @@ public class MyStringUtils {
 	 * @return		Has shared characters or not
 	 */
 	public static boolean hasSharedChar(String aas1, String aas2) {
+		if (isAABitmaskSupported(aas1) && isAABitmaskSupported(aas2)) {
+			return (AABitmask.fromString(aas1) & AABitmask.fromString(aas2)) != 0;
+		}
 		for (char aa1 : aas1.toCharArray()) {
 			for (char aa2 : aas2.toCharArray()) {
 				if (aa1 == aa2) {
@@ -0,0 +1,303 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The executor shared by alignment, genotyping and drug resistance
+ * evaluation of all viruses in the same JVM.
+ *
+ * The executor is created by an {@link ExecutorProvider}. The provider is
+ * looked up in following order:
+ *
+ *   1. the provider set by {@link #setProvider(ExecutorProvider)};
+ *   2. the first provider found by {@link ServiceLoader};
+ *   3. {@link DefaultProvider}, configured by environment variables:
+ *      - SIERRA_EXECUTOR_THREADS: number of threads (default: number of
+ *        available processors);
+ *      - SIERRA_EXECUTOR_QUEUE_SIZE: capacity of the task queue (default:
+ *        64 tasks per thread). When the queue is full, the submitting
+ *        thread runs the task itself, which throttles the producer;
+ *      - SIERRA_EXECUTOR_VIRTUAL_THREADS: run each task on a virtual thread
+ *        if the JVM supports them (default: false).
+ *
+ * Tasks which block on I/O (e.g. waiting for a NucAmino process) should
+ * not occupy the CPU-sized shared executor. They are submitted to the
+ * separate, unbounded executor returned by {@link #getIOInstance()}.
+ */
+public class SharedExecutor {
+
+	private static ExecutorProvider provider;
+	private static ExecutorService executorService;
+	private static boolean bounded;
+	private static ExecutorService ioExecutorService;
+	private static final AtomicInteger ioThreadCount = new AtomicInteger();
+	private static final ThreadLocal<Boolean> inSharedTask = ThreadLocal.withInitial(() -> false);
+
+	private static final Executor executor = command -> getExecutorService().execute(() -> {
+		boolean outer = inSharedTask.get();
+		inSharedTask.set(true);
+		try {
+			command.run();
+		} finally {
+			inSharedTask.set(outer);
+		}
+	});
+
+	private static final Executor ioExecutor = command -> getIOExecutorService().execute(command);
+
+	public static class DefaultProvider implements ExecutorProvider {
+
+		private static final AtomicInteger threadCount = new AtomicInteger();
+
+		private final int numThreads;
+		private final int queueSize;
+		private final boolean useVirtualThreads;
+
+		public DefaultProvider() {
+			this(
+				EnvUtils.getIntEnv("SIERRA_EXECUTOR_THREADS", Runtime.getRuntime().availableProcessors(), 1),
+				EnvUtils.getIntEnv("SIERRA_EXECUTOR_QUEUE_SIZE", -1, 1),
+				Boolean.parseBoolean(System.getenv("SIERRA_EXECUTOR_VIRTUAL_THREADS"))
+			);
+		}
+
+		public DefaultProvider(int numThreads, int queueSize, boolean useVirtualThreads) {
+			this.numThreads = Math.max(1, numThreads);
+			this.queueSize = queueSize > 0 ? queueSize : this.numThreads * 64;
+			this.useVirtualThreads = useVirtualThreads && isVirtualThreadSupported();
+		}
+
+		private static boolean isVirtualThreadSupported() {
+			try {
+				Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return true;
+			} catch (NoSuchMethodException | SecurityException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Creates a virtual-thread-per-task executor by reflection, since the
+		 * API is only available since Java 21.
+		 *
+		 * @return ExecutorService
+		 */
+		private static ExecutorService createVirtualThreadExecutor() {
+			try {
+				return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+			} catch (ReflectiveOperationException | SecurityException e) {
+				throw new UnsupportedOperationException(e);
+			}
+		}
+
+		@Override
+		public ExecutorService createExecutorService() {
+			if (useVirtualThreads) {
+				return createVirtualThreadExecutor();
+			}
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+				numThreads, numThreads,
+				60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueSize),
+				runnable -> {
+					Thread thread = new Thread(
+						runnable, "sierra-worker-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy()
+			);
+			threadPool.allowCoreThreadTimeOut(true);
+			return threadPool;
+		}
+
+		@Override
+		public boolean isBounded() {
+			return !useVirtualThreads;
+		}
+
+	}
+
+	private SharedExecutor() {}
+
+	/**
+	 * Sets the provider of shared executor. The current executor (if any)
+	 * is shut down gracefully.
+	 *
+	 * @param newProvider
+	 */
+	public static synchronized void setProvider(ExecutorProvider newProvider) {
+		shutdown();
+		provider = newProvider;
+	}
+
+	private static ExecutorProvider getProvider() {
+		if (provider == null) {
+			Iterator<ExecutorProvider> providers = ServiceLoader.load(ExecutorProvider.class).iterator();
+			provider = providers.hasNext() ? providers.next() : new DefaultProvider();
+		}
+		return provider;
+	}
+
+	private static synchronized ExecutorService getExecutorService() {
+		if (executorService == null || executorService.isShutdown()) {
+			ExecutorProvider curProvider = getProvider();
+			executorService = curProvider.createExecutorService();
+			bounded = curProvider.isBounded();
+		}
+		return executorService;
+	}
+
+	/**
+	 * Returns the shared executor. Tasks submitted to this executor are
+	 * marked, so that nested bulk operations can detect them.
+	 *
+	 * @return Executor
+	 */
+	public static Executor getInstance() {
+		return executor;
+	}
+
+	/**
+	 * Returns the executor for tasks which block on I/O, such as running
+	 * a NucAmino process or invoking a remote function. The executor
+	 * creates threads on demand and reuses idle ones; the number of
+	 * concurrent tasks should be limited by the caller.
+	 *
+	 * @return Executor
+	 */
+	public static Executor getIOInstance() {
+		return ioExecutor;
+	}
+
+	private static synchronized ExecutorService getIOExecutorService() {
+		if (ioExecutorService == null || ioExecutorService.isShutdown()) {
+			ioExecutorService = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(
+					runnable, "sierra-io-" + ioThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return ioExecutorService;
+	}
+
+	/**
+	 * Applies given function to all items on the shared executor and waits
+	 * for the results.
+	 *
+	 * When called from a task of a bounded shared executor, the items are
+	 * processed in current thread, since waiting for queued tasks from the
+	 * executor's own threads can deadlock it.
+	 *
+	 * @param items
+	 * @param func
+	 * @return results in the order of items
+	 */
+	public static <T, R> List<R> invokeAll(Collection<T> items, Function<? super T, ? extends R> func) {
+		List<R> results = new ArrayList<>(items.size());
+		boolean inline;
+		synchronized (SharedExecutor.class) {
+			inline = items.size() < 2 || (inSharedTask.get() && bounded);
+		}
+		if (inline) {
+			for (T item : items) {
+				results.add(func.apply(item));
+			}
+			return results;
+		}
+		List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+		for (T item : items) {
+			futures.add(CompletableFuture.supplyAsync(() -> func.apply(item), executor));
+		}
+		for (CompletableFuture<R> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Shuts down the shared executor and the I/O executor gracefully: no
+	 * new task is accepted and submitted tasks are executed. New executors
+	 * are created when they are used again.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return true if all tasks were finished in time
+	 * @throws InterruptedException
+	 */
+	public static boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		ExecutorService curExecutorService;
+		ExecutorService curIOExecutorService;
+		synchronized (SharedExecutor.class) {
+			curExecutorService = executorService;
+			curIOExecutorService = ioExecutorService;
+			executorService = null;
+			ioExecutorService = null;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		boolean terminated = true;
+		for (ExecutorService service : new ExecutorService[] {curExecutorService, curIOExecutorService}) {
+			if (service != null) {
+				service.shutdown();
+				terminated &= service.awaitTermination(
+					Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		}
+		return terminated;
+	}
+
+	private static synchronized void shutdown() {
+		if (executorService != null) {
+			executorService.shutdown();
+			executorService = null;
+		}
+	}
+
+}
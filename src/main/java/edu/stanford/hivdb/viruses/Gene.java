@@ -93,6 +93,10 @@ public class Gene<VirusT extends Virus<VirusT>> implements Comparable<Gene<Virus
 	public String getName() {
 		return name;
 	}
+
+	public Integer getOrdinal() {
+		return ordinal;
+	}
 	
 	/**
 	 * Get corresponding gene in main strain.
@@ -46,6 +46,7 @@ import edu.stanford.hivdb.drugs.DrugClass;
 import edu.stanford.hivdb.genotypes.Genotype;
 import edu.stanford.hivdb.genotypes.GenotypeReference;
 import edu.stanford.hivdb.genotypes.Genotyper;
+import edu.stanford.hivdb.mutations.AAMutation;
 import edu.stanford.hivdb.mutations.AminoAcidPercent;
 import edu.stanford.hivdb.mutations.AminoAcidPercents;
 import edu.stanford.hivdb.mutations.CodonPercents;
@@ -179,6 +180,19 @@ public interface Virus<VirusT extends Virus<VirusT>> {
 
 	public Mutation<VirusT> parseMutationString(String mutText);
 
+	/**
+	 * Returns the canonical (shared) instance of an AA mutation, so that its
+	 * classification is only computed once per JVM.
+	 *
+	 * @param gene		Gene
+	 * @param position	Position
+	 * @param aaChars	AA chars
+	 * @return			AAMutation
+	 */
+	public default AAMutation<VirusT> internMutation(Gene<VirusT> gene, int position, Set<Character> aaChars) {
+		return AAMutation.intern(gene, position, aaChars);
+	}
+
 	public MutationSet<VirusT> newMutationSet(String formattedMuts);
 
 	public MutationSet<VirusT> newMutationSet(Collection<String> formattedMuts);
@@ -0,0 +1,144 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.drugresistance.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.mutations.AAMutation;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class NativeASIEvaluatorTest {
+
+	private static final String AAS = "ACDEFGHIKLMNPQRSTVWY*";
+	private static final int[] PR_POSITIONS = new int[] {
+		10, 30, 32, 33, 46, 47, 48, 50, 54, 73, 76, 82, 84, 88, 89, 90
+	};
+	private static final int[] RT_POSITIONS = new int[] {
+		41, 65, 67, 69, 70, 74, 100, 101, 103, 106, 115, 151,
+		181, 184, 188, 190, 210, 215, 219, 230
+	};
+
+	private final static TestVirus virus = TestVirus.getInstance();
+
+	private static MutationSet<TestVirus> randomMutations(Random random, Gene<TestVirus> gene, int[] hotPositions) {
+		List<Mutation<TestVirus>> muts = new ArrayList<>();
+		int numMuts = random.nextInt(10);
+		for (int i = 0; i < numMuts; i ++) {
+			int pos = (
+				random.nextInt(5) == 0 ?
+				1 + random.nextInt(gene.getAASize()) :
+				hotPositions[random.nextInt(hotPositions.length)]
+			);
+			int dice = random.nextInt(20);
+			StringBuilder aas = new StringBuilder();
+			if (dice == 0) {
+				aas.append('_');
+			}
+			else if (dice == 1) {
+				aas.append('-');
+			}
+			else {
+				// mostly single AA, sometimes mixtures
+				int numAAs = dice < 15 ? 1 : 2 + random.nextInt(6);
+				for (int j = 0; j < numAAs; j ++) {
+					aas.append(AAS.charAt(random.nextInt(AAS.length())));
+				}
+			}
+			muts.add(new AAMutation<>(gene, pos, aas.toString().toCharArray()));
+		}
+		MutationSet<TestVirus> mutations = new MutationSet<>();
+		for (Mutation<TestVirus> mut : muts) {
+			mutations = mutations.mergesWith(mut);
+		}
+		return mutations;
+	}
+
+	private static List<MutationSet<TestVirus>> getMutationCorpus() {
+		List<MutationSet<TestVirus>> corpus = new ArrayList<>();
+		for (String muts : Arrays.asList(
+			"",
+			"PR:50L",
+			"PR:46I,PR:84V,PR:90M",
+			"PR:32I,PR:47A,PR:50V,PR:54L,PR:76V,PR:84V",
+			"PR:54VA,PR:82AF,PR:84V",
+			"RT:65R,RT:184V",
+			"RT:41L,RT:67N,RT:70R,RT:210W,RT:215Y,RT:219Q",
+			"RT:69_,RT:151M",
+			"RT:67-,RT:70E",
+			"RT:100I,RT:103N,RT:181C,RT:188L,RT:190S",
+			"RT:101E,RT:181C,RT:230L"
+		)) {
+			corpus.add(virus.newMutationSet(muts));
+		}
+		Random random = new Random(20200101);
+		Gene<TestVirus> pr = virus.getGene("TestPR");
+		Gene<TestVirus> rt = virus.getGene("TestRT");
+		for (int i = 0; i < 2000; i ++) {
+			corpus.add(
+				randomMutations(random, pr, PR_POSITIONS)
+				.mergesWith(randomMutations(random, rt, RT_POSITIONS)));
+		}
+		return corpus;
+	}
+
+	@Test
+	public void testBundledAlgorithmsSupported() {
+		DrugResistanceAlgorithm<TestVirus> alg1 = virus.getDrugResistAlgorithm("TESTALG_1.0");
+		DrugResistanceAlgorithm<TestVirus> alg2 = virus.getDrugResistAlgorithm("TESTALG_2.0");
+		assertTrue(alg1.getCompiled().getNativeEvaluator().isGeneSupported("PR"));
+		assertTrue(alg1.getCompiled().getNativeEvaluator().isGeneSupported("RT"));
+		assertTrue(alg2.getCompiled().getNativeEvaluator().isGeneSupported("PR"));
+		// residues with wildtype prefix are left to the ASI interpreter
+		assertFalse(alg2.getCompiled().getNativeEvaluator().isGeneSupported("RT"));
+	}
+
+	@Test
+	public void testBundledAlgorithmsSameAsASI() {
+		assertEquals(
+			Collections.emptyList(),
+			NativeASIEvaluator.compareWithASI(virus, getMutationCorpus()));
+	}
+
+	@Test
+	public void testUncompilableAlgorithmFallsBack() {
+		String xmlText = virus.getDrugResistAlgorithm("TESTALG_1.0").getXMLText();
+		// an unknown SIR can not be compiled by the native evaluator
+		CompiledAlgorithm compiled = CompiledAlgorithm.compile(
+			xmlText.replace("<SIR>I</SIR>", "<SIR>X</SIR>"));
+		NativeASIEvaluator evaluator = compiled.getNativeEvaluator();
+		assertFalse(evaluator.isGeneSupported("PR"));
+		assertFalse(evaluator.isGeneSupported("RT"));
+	}
+
+}
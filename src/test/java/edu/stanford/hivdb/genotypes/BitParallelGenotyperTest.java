@@ -0,0 +1,129 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.genotypes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.testutils.TestVirus;
+
+public class BitParallelGenotyperTest {
+
+	private static final String NAS = "ACGTACGTACGTRYKMSWBDHVN.";
+	private static final int NUM_SEQUENCES = 300;
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static Genotyper<TestVirus> treeGenotyper = new Genotyper<>(virus);
+	private final static Genotyper<TestVirus> bitGenotyper = new BitParallelGenotyper<>(virus);
+	private final static List<String> sequences = new ArrayList<>();
+	private final static int[] firstNAs = new int[NUM_SEQUENCES];
+
+	static {
+		// derive query sequences from the fixture references, with random
+		// substitutions, ambiguous NAs, SDRM codons (TestPR 30N is AAC)
+		// and partial coverage of the compared range
+		Random random = new Random(20201017);
+		List<GenotypeReference<TestVirus>> refs = virus.getGenotypeReferences();
+		for (int i = 0; i < NUM_SEQUENCES; i ++) {
+			StringBuilder seq = new StringBuilder(
+				refs.get(random.nextInt(refs.size())).getSequence());
+			for (int j = 0; j < seq.length(); j ++) {
+				if (random.nextDouble() < 0.05) {
+					seq.setCharAt(j, NAS.charAt(random.nextInt(NAS.length())));
+				}
+			}
+			if (random.nextBoolean()) {
+				int codonStart = random.nextBoolean() ? 87 : 86;
+				seq.replace(codonStart, codonStart + 3, "AAC");
+			}
+			int firstNA = 1 + random.nextInt(120);
+			int lastNA = firstNA + 60 + random.nextInt(160);
+			for (int j = seq.length(); j < lastNA; j ++) {
+				// extends beyond the compared range
+				seq.append(NAS.charAt(random.nextInt(4)));
+			}
+			sequences.add(seq.substring(firstNA - 1, lastNA));
+			firstNAs[i] = firstNA;
+		}
+	}
+
+	private static List<String> describe(List<BoundGenotype<TestVirus>> matches) {
+		List<String> result = new ArrayList<>();
+		for (BoundGenotype<TestVirus> match : matches) {
+			result.add(String.format(
+				"%s %d-%d %s %.6f",
+				match.getReferenceAccession(),
+				match.getFirstNA(), match.getLastNA(),
+				match.getDiscordanceList(), match.getDistance()));
+		}
+		return result;
+	}
+
+	private static List<String> describe(GenotypeResult<TestVirus> result) {
+		return describe(result.getAllMatches());
+	}
+
+	@Test
+	public void testCompareAllSameAsMismatchTree() {
+		for (int i = 0; i < NUM_SEQUENCES; i ++) {
+			assertEquals(
+				describe(treeGenotyper.compareAll(sequences.get(i), firstNAs[i])),
+				describe(bitGenotyper.compareAll(sequences.get(i), firstNAs[i])));
+		}
+	}
+
+	@Test
+	public void testBatchSameAsSingle() {
+		for (Genotyper<TestVirus> genotyper : Arrays.asList(treeGenotyper, bitGenotyper)) {
+			List<GenotypeResult<TestVirus>> results = genotyper.compareAll(sequences, firstNAs);
+			assertEquals(NUM_SEQUENCES, results.size());
+			for (int i = 0; i < NUM_SEQUENCES; i ++) {
+				assertEquals(
+					describe(treeGenotyper.compareAll(sequences.get(i), firstNAs[i])),
+					describe(results.get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testTopKSameAsCompareAll() {
+		for (int topK : new int[] {1, 3, 10}) {
+			for (int i = 0; i < NUM_SEQUENCES; i ++) {
+				GenotypeResult<TestVirus> expected = treeGenotyper.compareAll(sequences.get(i), firstNAs[i]);
+				GenotypeResult<TestVirus> result = bitGenotyper.compareTopK(sequences.get(i), firstNAs[i], topK);
+				assertEquals(
+					describe(expected.getAllMatches().subList(0, topK)),
+					describe(result.getAllMatches().subList(0, topK)));
+				assertEquals(
+					describe(Collections.singletonList(expected.getBestMatch())),
+					describe(Collections.singletonList(result.getBestMatch())));
+			}
+		}
+	}
+
+}
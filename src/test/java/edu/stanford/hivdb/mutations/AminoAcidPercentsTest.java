@@ -0,0 +1,194 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.utilities.AABitmask;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class AminoAcidPercentsTest {
+
+	private static final String RESOURCE = "TestVirus/aapcnt/rx-all_subtype-all.json";
+	private static final String AAS = "ACDEFGHIKLMNPQRSTVWY*_-X";
+	private static final int MAX_POSITION = 120;
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = Arrays.asList(
+		virus.getGene("TestPR"), virus.getGene("TestRT"));
+	private final static AminoAcidPercents<TestVirus> aaPcnts = new AminoAcidPercents<>(
+		RESOURCE, virus, virus.getMainStrain());
+
+	// the records and the position map built the way AminoAcidPercents
+	// did before it was backed by dense arrays
+	private final static List<AminoAcidPercent<TestVirus>> expectedRecords = new ArrayList<>();
+	private final static Map<GenePosition<TestVirus>, Map<Character, AminoAcidPercent<TestVirus>>> expectedMap = new HashMap<>();
+
+	static {
+		try (InputStream stream = AminoAcidPercentsTest.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+			List<Map<String, ?>> data = new Gson().fromJson(
+				IOUtils.toString(stream, StandardCharsets.UTF_8),
+				new TypeToken<List<Map<String, ?>>>(){}.getType());
+			for (Map<String, ?> aaPcnt : data) {
+				expectedRecords.add(new AminoAcidPercent<>(
+					virus.getMainStrain().getGene((String) aaPcnt.get("gene")),
+					((Double) aaPcnt.get("position")).intValue(),
+					((String) aaPcnt.get("aa")).charAt(0),
+					(Double) aaPcnt.get("percent"),
+					((Double) aaPcnt.get("count")).intValue(),
+					((Double) aaPcnt.get("total")).intValue(),
+					(String) aaPcnt.get("reason"),
+					(Boolean) aaPcnt.get("isUnusual")
+				));
+			}
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+		for (AminoAcidPercent<TestVirus> aaPcnt : expectedRecords) {
+			expectedMap
+				.computeIfAbsent(aaPcnt.getGenePosition(), gp -> new LinkedHashMap<>())
+				.put(aaPcnt.getAA(), aaPcnt);
+		}
+	}
+
+	private static AminoAcidPercent<TestVirus> getExpected(Gene<TestVirus> gene, int pos, char aa) {
+		Map<Character, AminoAcidPercent<TestVirus>> posAAPcnts = expectedMap.get(new GenePosition<>(gene, pos));
+		if (posAAPcnts == null) {
+			return null;
+		}
+		AminoAcidPercent<TestVirus> aaPcnt = posAAPcnts.get(aa);
+		if (aaPcnt != null) {
+			return aaPcnt;
+		}
+		int total = posAAPcnts.values().iterator().next().getTotal();
+		return new AminoAcidPercent<>(gene, pos, aa, .0, 0, total, "PCNT", true);
+	}
+
+	private static String describe(AminoAcidPercent<TestVirus> aaPcnt) {
+		if (aaPcnt == null) {
+			return null;
+		}
+		return String.format(
+			"%s %d %s %s %d %d %s %s",
+			aaPcnt.getGene(), aaPcnt.getPosition(), aaPcnt.getAA(),
+			aaPcnt.getPercent(), aaPcnt.getCount(), aaPcnt.getTotal(),
+			aaPcnt.getReason(), aaPcnt.isUnusual());
+	}
+
+	private static List<String> describe(Collection<AminoAcidPercent<TestVirus>> aaPcnts) {
+		List<String> result = new ArrayList<>();
+		for (AminoAcidPercent<TestVirus> aaPcnt : aaPcnts) {
+			result.add(describe(aaPcnt));
+		}
+		return result;
+	}
+
+	@Test
+	public void testRecordsSameAsJSON() {
+		assertEquals(describe(expectedRecords), describe(aaPcnts.get()));
+		for (Gene<TestVirus> gene : genes) {
+			List<AminoAcidPercent<TestVirus>> expected = new ArrayList<>();
+			for (AminoAcidPercent<TestVirus> aaPcnt : expectedRecords) {
+				if (aaPcnt.getGene().equals(gene)) {
+					expected.add(aaPcnt);
+				}
+			}
+			assertEquals(describe(expected), describe(aaPcnts.get(gene)));
+		}
+	}
+
+	@Test
+	public void testPositionsSameAsPositionMap() {
+		for (Gene<TestVirus> gene : genes) {
+			for (int pos = 1; pos <= MAX_POSITION; pos ++) {
+				GenePosition<TestVirus> gp = new GenePosition<>(gene, pos);
+				Map<Character, AminoAcidPercent<TestVirus>> expected = expectedMap.get(gp);
+				if (expected == null) {
+					// used to throw NullPointerException
+					assertTrue(aaPcnts.get(gene, pos).isEmpty());
+					assertTrue(aaPcnts.get(gp).isEmpty());
+				}
+				else {
+					assertEquals(describe(expected.values()), describe(aaPcnts.get(gene, pos)));
+					assertEquals(describe(expected.values()), describe(aaPcnts.get(gp)));
+				}
+				for (char aa : AAS.toCharArray()) {
+					assertEquals(describe(getExpected(gene, pos, aa)), describe(aaPcnts.get(gene, pos, aa)));
+					assertEquals(describe(getExpected(gene, pos, aa)), describe(aaPcnts.get(gp, aa)));
+				}
+			}
+		}
+		assertNull(aaPcnts.get(genes.get(0), 0, 'A'));
+	}
+
+	@Test
+	public void testMixturesSameAsPositionMap() {
+		Random random = new Random(20201017);
+		for (int i = 0; i < 5000; i ++) {
+			Gene<TestVirus> gene = genes.get(random.nextInt(genes.size()));
+			int pos = 1 + random.nextInt(MAX_POSITION);
+			StringBuilder mixture = new StringBuilder();
+			int numAAs = 1 + random.nextInt(5);
+			for (int j = 0; j < numAAs; j ++) {
+				mixture.append(AAS.charAt(random.nextInt(AAS.length())));
+			}
+			String aas = mixture.toString();
+			int aaMask = AABitmask.fromString(aas);
+
+			boolean expectedUnusual = false;
+			double expectedPcnt = .0;
+			for (char aa : aas.toCharArray()) {
+				AminoAcidPercent<TestVirus> aaPcnt = getExpected(gene, pos, aa);
+				if (aaPcnt != null) {
+					expectedUnusual = expectedUnusual || aaPcnt.isUnusual();
+					// an AA with no data counts as 0%
+					expectedPcnt = Math.max(expectedPcnt, aaPcnt.getPercent());
+				}
+			}
+			assertEquals(aas, expectedUnusual, aaPcnts.containsUnusualAA(gene, pos, aas));
+			assertEquals(aas, expectedUnusual, aaPcnts.containsUnusualAA(gene, pos, aaMask));
+			assertEquals(aas, expectedPcnt, aaPcnts.getHighestAAPercentValue(gene, pos, aas), 0);
+			assertEquals(aas, expectedPcnt, aaPcnts.getHighestAAPercentValue(gene, pos, aaMask), 0);
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class CodonPercentsTest {
+
+	private static final String RESOURCE = "TestVirus/codonpcnt/rx-all_subtype-all.json";
+	private static final String NAS = "ACGT";
+	private static final int MAX_POSITION = 120;
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = Arrays.asList(
+		virus.getGene("TestPR"), virus.getGene("TestRT"));
+	private final static CodonPercents<TestVirus> codonPcnts = new CodonPercents<>(
+		RESOURCE, virus, virus.getMainStrain());
+
+	// the records and the position map built the way CodonPercents did
+	// before it was backed by dense arrays
+	private final static List<CodonPercent<TestVirus>> expectedRecords = new ArrayList<>();
+	private final static Map<GenePosition<TestVirus>, Map<String, CodonPercent<TestVirus>>> expectedMap = new HashMap<>();
+
+	static {
+		try (InputStream stream = CodonPercentsTest.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+			List<Map<String, ?>> data = new Gson().fromJson(
+				IOUtils.toString(stream, StandardCharsets.UTF_8),
+				new TypeToken<List<Map<String, ?>>>(){}.getType());
+			for (Map<String, ?> cdPcnt : data) {
+				expectedRecords.add(new CodonPercent<>(
+					virus.getMainStrain().getGene((String) cdPcnt.get("gene")),
+					((Double) cdPcnt.get("position")).intValue(),
+					(String) cdPcnt.get("codon"),
+					((String) cdPcnt.get("aa")).charAt(0),
+					(Double) cdPcnt.get("percent"),
+					((Double) cdPcnt.get("count")).intValue(),
+					((Double) cdPcnt.get("total")).intValue()
+				));
+			}
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+		for (CodonPercent<TestVirus> cdPcnt : expectedRecords) {
+			expectedMap
+				.computeIfAbsent(cdPcnt.getGenePosition(), gp -> new LinkedHashMap<>())
+				.put(cdPcnt.getCodon(), cdPcnt);
+		}
+	}
+
+	/**
+	 * Same as the previous CodonPercents.get(gene, pos, codon), except
+	 * that unseen codons are not added to the position map any more.
+	 */
+	private static CodonPercent<TestVirus> getExpected(Gene<TestVirus> gene, int pos, String codon) {
+		Map<String, CodonPercent<TestVirus>> posCodons = expectedMap.get(new GenePosition<>(gene, pos));
+		if (posCodons == null) {
+			throw new IllegalArgumentException(
+				String.format("Argument 'pos' is out of range: %d", pos));
+		}
+		if (posCodons.containsKey(codon)) {
+			return posCodons.get(codon);
+		}
+		int total = posCodons.values().iterator().next().getTotal();
+		if (codon.matches("^(ins|del)$")) {
+			char aa = codon.equals("ins") ? '_' : '-';
+			return new CodonPercent<>(gene, pos, codon, aa, .0, 0, total);
+		}
+		else if (codon.matches("^[ACGT]{3}$")) {
+			return new CodonPercent<>(gene, pos, codon, 'X', .0, 0, total);
+		}
+		throw new IllegalArgumentException(
+			String.format("Invalid argument codon \"%s\" at %s%d", codon, gene, pos));
+	}
+
+	private static String describe(CodonPercent<TestVirus> cdPcnt) {
+		return String.format(
+			"%s %d %s %s %s %d %d",
+			cdPcnt.getGene(), cdPcnt.getPosition(), cdPcnt.getCodon(), cdPcnt.getAA(),
+			cdPcnt.getPercent(), cdPcnt.getCount(), cdPcnt.getTotal());
+	}
+
+	private static List<String> describe(Collection<CodonPercent<TestVirus>> cdPcnts) {
+		List<String> result = new ArrayList<>();
+		for (CodonPercent<TestVirus> cdPcnt : cdPcnts) {
+			result.add(describe(cdPcnt));
+		}
+		return result;
+	}
+
+	private static String describeGet(Gene<TestVirus> gene, int pos, String codon, boolean expected) {
+		try {
+			return describe(
+				expected ? getExpected(gene, pos, codon) :
+				codonPcnts.get(gene, pos, codon));
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+
+	private static String randomCodon(Random random) {
+		switch (random.nextInt(10)) {
+			case 0:
+				return "ins";
+			case 1:
+				return "del";
+			case 2:
+				return "NNN";
+			default:
+				StringBuilder codon = new StringBuilder();
+				for (int i = 0; i < 3; i ++) {
+					codon.append(NAS.charAt(random.nextInt(NAS.length())));
+				}
+				return codon.toString();
+		}
+	}
+
+	@Test
+	public void testRecordsSameAsJSON() {
+		assertEquals(describe(expectedRecords), describe(codonPcnts.get()));
+		for (Gene<TestVirus> gene : genes) {
+			List<CodonPercent<TestVirus>> expected = new ArrayList<>();
+			for (CodonPercent<TestVirus> cdPcnt : expectedRecords) {
+				if (cdPcnt.getGene().equals(gene)) {
+					expected.add(cdPcnt);
+				}
+			}
+			assertEquals(describe(expected), describe(codonPcnts.get(gene)));
+		}
+	}
+
+	@Test
+	public void testPositionsSameAsPositionMap() {
+		Random random = new Random(20201017);
+		for (Gene<TestVirus> gene : genes) {
+			for (int pos = 1; pos <= MAX_POSITION; pos ++) {
+				Map<String, CodonPercent<TestVirus>> expected = expectedMap.get(new GenePosition<>(gene, pos));
+				if (expected == null) {
+					assertTrue(codonPcnts.get(gene, pos).isEmpty());
+				}
+				else {
+					for (String codon : expected.keySet()) {
+						assertEquals(describeGet(gene, pos, codon, true), describeGet(gene, pos, codon, false));
+					}
+				}
+				for (int i = 0; i < 20; i ++) {
+					String codon = randomCodon(random);
+					assertEquals(describeGet(gene, pos, codon, true), describeGet(gene, pos, codon, false));
+				}
+				if (expected != null) {
+					// unseen codons are not listed
+					assertEquals(describe(expected.values()), describe(codonPcnts.get(gene, pos)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMixturesSameAsPositionMap() {
+		Random random = new Random(20201018);
+		for (int i = 0; i < 5000; i ++) {
+			Gene<TestVirus> gene = genes.get(random.nextInt(genes.size()));
+			int pos = 1 + random.nextInt(MAX_POSITION);
+			if (!expectedMap.containsKey(new GenePosition<>(gene, pos))) {
+				continue;
+			}
+			String[] codons = new String[1 + random.nextInt(4)];
+			double expectedPcnt = .0;
+			for (int j = 0; j < codons.length; j ++) {
+				do {
+					codons[j] = randomCodon(random);
+				} while (codons[j].equals("NNN"));
+				expectedPcnt = Math.max(expectedPcnt, getExpected(gene, pos, codons[j]).getPercent());
+			}
+			assertEquals(
+				String.join(",", codons), expectedPcnt,
+				codonPcnts.getHighestCodonPercentValue(gene, pos, codons), 0);
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.drugs.DrugClass;
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class MutationClassificationIndexTest {
+
+	private static final String AAS = "ACDEFGHIKLMNPQRSTVWY*_-";
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static MutationClassificationIndex<TestVirus> index =
+		MutationClassificationIndex.getInstance(virus);
+
+	private static DrugClass<TestVirus> getExpectedDRMDrugClass(Mutation<TestVirus> mut) {
+		for (Map.Entry<DrugClass<TestVirus>, MutationSet<TestVirus>> entry : virus.getDrugResistMutations().entrySet()) {
+			if (entry.getValue().hasSharedAAMutation(mut)) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	private static List<MutationType<TestVirus>> getExpectedMutationTypes(Mutation<TestVirus> mut) {
+		List<MutationType<TestVirus>> types = new ArrayList<>();
+		for (MutationTypePair<TestVirus> mtp : virus.getMutationTypePairs()) {
+			if (mtp.isMutationMatched(mut)) {
+				types.add(mtp.getMutationType());
+			}
+		}
+		return types;
+	}
+
+	private static void assertSameAsMutationSets(Mutation<TestVirus> mut) {
+		DrugClass<TestVirus> drugClass = getExpectedDRMDrugClass(mut);
+		assertEquals(mut.toString(), drugClass != null, index.isDRM(mut));
+		assertEquals(mut.toString(), drugClass, index.getDRMDrugClass(mut));
+		assertEquals(
+			mut.toString(),
+			virus.getApobecMutations().hasSharedAAMutation(mut),
+			index.isApobecMutation(mut));
+		assertEquals(mut.toString(), getExpectedMutationTypes(mut), index.getMutationTypes(mut));
+	}
+
+	@Test
+	public void testHighlyMixedMutation() {
+		Gene<TestVirus> pr = virus.getGene("TestPR");
+		Gene<TestVirus> rt = virus.getGene("TestRT");
+		// more AAs than AAMutation.DEFAULT_MAX_DISPLAY_AAS
+		Mutation<TestVirus> prMut = new AAMutation<>(pr, 50, "ACDEFGHV".toCharArray());
+		Mutation<TestVirus> rtMut = new AAMutation<>(rt, 184, "ACDEFGHIKL".toCharArray());
+		assertEquals(8, prMut.getAAChars().size());
+		assertTrue(index.isDRM(prMut));
+		assertTrue(index.isSDRM(prMut));
+		assertEquals(virus.getDrugClass("PI"), index.getDRMDrugClass(prMut));
+		assertTrue(index.isDRM(rtMut));
+		assertTrue(index.isApobecMutation(rtMut));
+		assertTrue(index.isApobecDRM(rtMut));
+		assertEquals(virus.getDrugClass("NRTI"), index.getDRMDrugClass(rtMut));
+		assertSameAsMutationSets(prMut);
+		assertSameAsMutationSets(rtMut);
+	}
+
+	@Test
+	public void testReferenceAndStopAreIgnored() {
+		Gene<TestVirus> pr = virus.getGene("TestPR");
+		// I50 is the reference; "*" never matches
+		Mutation<TestVirus> mut = new AAMutation<>(pr, 50, "I*".toCharArray());
+		assertEquals(false, index.isDRM(mut));
+		assertSameAsMutationSets(mut);
+	}
+
+	@Test
+	public void testSameAsMutationSets() {
+		Random random = new Random(20200101);
+		Gene<TestVirus> pr = virus.getGene("TestPR");
+		Gene<TestVirus> rt = virus.getGene("TestRT");
+		for (int i = 0; i < 5000; i ++) {
+			Gene<TestVirus> gene = random.nextBoolean() ? pr : rt;
+			int pos = 1 + random.nextInt(gene.getAASize());
+			if (random.nextBoolean()) {
+				// half of the mutations are at DRM positions
+				List<Mutation<TestVirus>> drms = new ArrayList<>();
+				for (MutationSet<TestVirus> dcDRMs : virus.getDrugResistMutations().values()) {
+					drms.addAll(dcDRMs.getGeneMutations(gene));
+				}
+				pos = drms.get(random.nextInt(drms.size())).getPosition();
+			}
+			int numAAs = 1 + random.nextInt(12);
+			StringBuilder aas = new StringBuilder();
+			for (int j = 0; j < numAAs; j ++) {
+				aas.append(
+					random.nextInt(4) == 0 ?
+					gene.getRefChar(pos) :
+					AAS.charAt(random.nextInt(AAS.length())));
+			}
+			assertSameAsMutationSets(new AAMutation<>(gene, pos, aas.toString().toCharArray()));
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class MutationSetTest {
+
+	private static final String AAS = "ACDEFGHIKLMNPQRSTVWY*_-";
+	private static final int MAX_POSITION = 30;
+	private static final int NUM_ROUNDS = 500;
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = new ArrayList<>(
+		virus.getGenes(virus.getMainStrain()));
+
+	/**
+	 * Builds the gene position map the way MutationSet did before it was
+	 * backed by sorted int keys: mutations are added one by one, reference
+	 * and duplicated mutations are skipped, and mutations at the same
+	 * position are merged.
+	 */
+	private static TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> expected(
+		Collection<Mutation<TestVirus>> muts
+	) {
+		TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> map = new TreeMap<>();
+		for (Mutation<TestVirus> mut : muts) {
+			if (mut == null) {
+				continue;
+			}
+			GenePosition<TestVirus> gp = mut.getGenePosition();
+			Mutation<TestVirus> origMut = map.get(gp);
+			if (mut.equals(origMut) || mut.getReference().equals(mut.getAAs())) {
+				continue;
+			}
+			if (origMut != null) {
+				mut = origMut.mergesWith(mut.getAAChars());
+			}
+			map.put(gp, mut);
+		}
+		return map;
+	}
+
+	private static TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> expectedIntersection(
+		Collection<Mutation<TestVirus>> left, Collection<Mutation<TestVirus>> right
+	) {
+		TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> leftMap = expected(left);
+		List<Mutation<TestVirus>> result = new ArrayList<>();
+		for (Map.Entry<GenePosition<TestVirus>, Mutation<TestVirus>> entry : leftMap.entrySet()) {
+			Set<Character> otherAAChars = new TreeSet<>();
+			boolean found = false;
+			for (Mutation<TestVirus> mut : right) {
+				if (mut.getGenePosition().equals(entry.getKey())) {
+					otherAAChars.addAll(mut.getAAChars());
+					found = true;
+				}
+			}
+			if (found) {
+				result.add(entry.getValue().intersectsWith(otherAAChars));
+			}
+		}
+		return expected(result);
+	}
+
+	private static TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> expectedSubtraction(
+		Collection<Mutation<TestVirus>> left, Collection<Mutation<TestVirus>> right
+	) {
+		TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> rightMap = expected(right);
+		List<Mutation<TestVirus>> result = new ArrayList<>();
+		for (Map.Entry<GenePosition<TestVirus>, Mutation<TestVirus>> entry : expected(left).entrySet()) {
+			Mutation<TestVirus> otherMut = rightMap.get(entry.getKey());
+			result.add(
+				otherMut == null ? entry.getValue() :
+				entry.getValue().subtractsBy(otherMut.getAAChars()));
+		}
+		return expected(result);
+	}
+
+	private static Mutation<TestVirus> randomMutation(Random random) {
+		Gene<TestVirus> gene = genes.get(random.nextInt(genes.size()));
+		int pos = 1 + random.nextInt(MAX_POSITION);
+		Set<Character> aas = new TreeSet<>();
+		if (random.nextInt(5) == 0) {
+			aas.add(gene.getRefChar(pos));
+		}
+		int numAAs = 1 + random.nextInt(3);
+		for (int i = 0; i < numAAs; i ++) {
+			aas.add(AAS.charAt(random.nextInt(AAS.length())));
+		}
+		return new AAMutation<>(gene, pos, aas);
+	}
+
+	private static List<Mutation<TestVirus>> randomMutations(Random random) {
+		List<Mutation<TestVirus>> muts = new ArrayList<>();
+		int numMuts = random.nextInt(25);
+		for (int i = 0; i < numMuts; i ++) {
+			muts.add(randomMutation(random));
+		}
+		return muts;
+	}
+
+	private static void assertSameSet(
+		TreeMap<GenePosition<TestVirus>, Mutation<TestVirus>> expected,
+		MutationSet<TestVirus> result, Random random
+	) {
+		TreeSet<Mutation<TestVirus>> expectedSet = new TreeSet<>(expected.values());
+		assertEquals(new ArrayList<>(expectedSet), new ArrayList<>(result));
+		assertEquals(new ArrayList<>(expected.keySet()), result.getPositions());
+		assertEquals(expectedSet.size(), result.size());
+		assertEquals(expectedSet, result);
+		assertEquals(expectedSet.hashCode(), result.hashCode());
+		assertEquals(expectedSet.toString(), result.toString());
+		for (Gene<TestVirus> gene : genes) {
+			for (int pos = 1; pos <= MAX_POSITION; pos ++) {
+				assertEquals(
+					expected.get(new GenePosition<>(gene, pos)),
+					result.get(gene, pos));
+			}
+		}
+		for (int i = 0; i < 20; i ++) {
+			Mutation<TestVirus> probe = randomMutation(random);
+			assertEquals(expectedSet.contains(probe), result.contains(probe));
+			assertEquals(expectedSet.lower(probe), result.lower(probe));
+			assertEquals(expectedSet.floor(probe), result.floor(probe));
+			assertEquals(expectedSet.ceiling(probe), result.ceiling(probe));
+			assertEquals(expectedSet.higher(probe), result.higher(probe));
+		}
+		if (!expectedSet.isEmpty()) {
+			assertEquals(expectedSet.first(), result.first());
+			assertEquals(expectedSet.last(), result.last());
+		}
+	}
+
+	@Test
+	public void testConstructorSameAsPositionMap() {
+		Random random = new Random(20201017);
+		for (int i = 0; i < NUM_ROUNDS; i ++) {
+			List<Mutation<TestVirus>> muts = randomMutations(random);
+			assertSameSet(expected(muts), new MutationSet<>(muts), random);
+		}
+	}
+
+	@Test
+	public void testSetOperationsSameAsPositionMap() {
+		Random random = new Random(20201018);
+		for (int i = 0; i < NUM_ROUNDS; i ++) {
+			List<Mutation<TestVirus>> left = randomMutations(random);
+			List<Mutation<TestVirus>> right = randomMutations(random);
+			MutationSet<TestVirus> leftSet = new MutationSet<>(left);
+			MutationSet<TestVirus> rightSet = new MutationSet<>(right);
+			List<Mutation<TestVirus>> merged = new ArrayList<>(leftSet);
+			merged.addAll(right);
+
+			assertSameSet(expected(merged), leftSet.mergesWith(rightSet), random);
+			assertSameSet(expected(merged), leftSet.mergesWith(right), random);
+			assertSameSet(expectedIntersection(left, rightSet), leftSet.intersectsWith(rightSet), random);
+			assertSameSet(expectedIntersection(left, right), leftSet.intersectsWith(right), random);
+			assertSameSet(expectedSubtraction(left, right), leftSet.subtractsBy(rightSet), random);
+			assertSameSet(expectedSubtraction(left, right), leftSet.subtractsBy(right), random);
+		}
+	}
+
+	@Test
+	public void testFilterAndCompareSameAsPositionMap() {
+		Random random = new Random(20201019);
+		Gene<TestVirus> gene = genes.get(0);
+		for (int i = 0; i < NUM_ROUNDS; i ++) {
+			MutationSet<TestVirus> left = new MutationSet<>(randomMutations(random));
+			MutationSet<TestVirus> right = new MutationSet<>(randomMutations(random));
+			List<Mutation<TestVirus>> filtered = new ArrayList<>();
+			for (Mutation<TestVirus> mut : left.getSplitted()) {
+				if (mut.getPosition() % 2 == 0) {
+					filtered.add(mut);
+				}
+			}
+			assertSameSet(expected(filtered), left.filterBy(mut -> mut.getPosition() % 2 == 0), random);
+
+			List<Mutation<TestVirus>> geneMuts = new ArrayList<>();
+			for (Mutation<TestVirus> mut : left.getSplitted()) {
+				if (mut.getGene() == gene) {
+					geneMuts.add(mut);
+				}
+			}
+			assertSameSet(expected(geneMuts), left.getGeneMutations(gene), random);
+
+			List<Mutation<TestVirus>> leftSplitted = new ArrayList<>(left.getSplitted());
+			List<Mutation<TestVirus>> rightSplitted = new ArrayList<>(right.getSplitted());
+			int expectedCmp = leftSplitted.size() - rightSplitted.size();
+			for (int j = 0; j < Math.min(leftSplitted.size(), rightSplitted.size()); j ++) {
+				int cmp = leftSplitted.get(j).compareTo(rightSplitted.get(j));
+				if (cmp != 0) {
+					expectedCmp = cmp;
+					break;
+				}
+			}
+			assertEquals(Integer.signum(expectedCmp), Integer.signum(left.compareTo(right)));
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.mutations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class PositionCodonReadsTest {
+
+	private static final String NAS = "ACGTACGTACGTRN";
+	private static final int NUM_POSITIONS = 200;
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = Arrays.asList(
+		virus.getGene("TestPR"), virus.getGene("TestRT"));
+
+	private static String randomCodon(Random random) {
+		StringBuilder codon = new StringBuilder();
+		for (int i = 0; i < 3; i ++) {
+			codon.append(NAS.charAt(random.nextInt(NAS.length())));
+		}
+		switch (random.nextInt(10)) {
+			case 0:
+				// deletion
+				return codon.substring(0, random.nextInt(3));
+			case 1:
+				// insertion
+				return codon + randomCodon(random);
+			case 2:
+				// separators are tolerated
+				return codon.charAt(0) + "-" + codon.substring(1);
+			default:
+				return codon.toString();
+		}
+	}
+
+	/**
+	 * Creates map-backed PositionCodonReads of random positions, in random
+	 * order and with ties of reads.
+	 */
+	private static List<PositionCodonReads<TestVirus>> randomPositionCodonReads(Random random) {
+		Map<String, PositionCodonReads<TestVirus>> allReads = new LinkedHashMap<>();
+		while (allReads.size() < NUM_POSITIONS) {
+			Gene<TestVirus> gene = genes.get(random.nextInt(genes.size()));
+			int pos = 1 + random.nextInt(gene.getAASize());
+			Map<String, Long> codonReads = new LinkedHashMap<>();
+			int numCodons = 1 + random.nextInt(6);
+			long totalReads = 0;
+			for (int i = 0; i < numCodons; i ++) {
+				long reads = 1 + random.nextInt(random.nextBoolean() ? 5 : 5000);
+				codonReads.put(randomCodon(random), reads);
+				totalReads += reads;
+			}
+			allReads.putIfAbsent(
+				gene.getName() + pos,
+				new PositionCodonReads<>(gene, pos, totalReads + random.nextInt(100), codonReads));
+		}
+		return new ArrayList<>(allReads.values());
+	}
+
+	private static List<String> describe(List<CodonReads<TestVirus>> codonReads) {
+		List<String> result = new ArrayList<>();
+		for (CodonReads<TestVirus> cr : codonReads) {
+			result.add(String.format(
+				"%s %s %s %d %d %s %s %s %s",
+				cr.getGene(), cr.getCodon(), cr.getAminoAcid(),
+				cr.getReads(), cr.getTotalReads(), cr.getProportion(),
+				cr.getRefAminoAcid(), cr.isReference(), cr.hasStop()));
+		}
+		return result;
+	}
+
+	private static String getCodonConsensus(PositionCodonReads<TestVirus> pcr, double minProp) {
+		try {
+			return pcr.getCodonConsensus(minProp);
+		} catch (StringIndexOutOfBoundsException e) {
+			// raw deletion codons are shorter than three bases
+			return e.getClass().getSimpleName();
+		}
+	}
+
+	private static void assertSamePositionCodonReads(
+		PositionCodonReads<TestVirus> expected, PositionCodonReads<TestVirus> result
+	) {
+		assertEquals(expected.getGene(), result.getGene());
+		assertEquals(expected.getPosition(), result.getPosition());
+		assertEquals(expected.getGenePositon(), result.getGenePositon());
+		assertEquals(expected.getTotalReads(), result.getTotalReads());
+		assertEquals(
+			new ArrayList<>(expected.getAllCodonReads().entrySet()),
+			new ArrayList<>(result.getAllCodonReads().entrySet()));
+		assertEquals(describe(expected.getCodonReads()), describe(result.getCodonReads()));
+		for (double minProp : new double[] {.0, .01, .2}) {
+			for (boolean mutationOnly : new boolean[] {false, true}) {
+				assertEquals(
+					describe(expected.getCodonReads(mutationOnly, .5, minProp)),
+					describe(result.getCodonReads(mutationOnly, .5, minProp)));
+			}
+			assertEquals(
+				new ArrayList<>(expected.getCodonWithPrevalence(minProp).entrySet()),
+				new ArrayList<>(result.getCodonWithPrevalence(minProp).entrySet()));
+			assertEquals(getCodonConsensus(expected, minProp), getCodonConsensus(result, minProp));
+		}
+		assertEquals(Json.dumps(expected), Json.dumps(result));
+	}
+
+	@Test
+	public void testStoreSameAsMap() {
+		Random random = new Random(20201017);
+		for (int round = 0; round < 20; round ++) {
+			List<PositionCodonReads<TestVirus>> allReads = randomPositionCodonReads(random);
+			CodonReadsStore<TestVirus> store = CodonReadsStore.fromPositionCodonReads(allReads);
+			assertEquals(NUM_POSITIONS, store.getNumPositions());
+			for (PositionCodonReads<TestVirus> pcr : allReads) {
+				int posIdx = store.indexOf(pcr.getGene(), (int) pcr.getPosition());
+				assertSamePositionCodonReads(pcr, store.getPositionCodonReads(posIdx));
+			}
+		}
+	}
+
+	@Test
+	public void testSummedStoreSameAsMap() {
+		Random random = new Random(20201018);
+		for (int round = 0; round < 20; round ++) {
+			List<PositionCodonReads<TestVirus>> allReads = randomPositionCodonReads(random);
+			CodonReadsStore.Builder<TestVirus> builder = CodonReadsStore.newBuilder();
+			List<PositionCodonReads<TestVirus>> expected = new ArrayList<>();
+			for (PositionCodonReads<TestVirus> pcr : allReads) {
+				// codon frequency table rows; read depth is the sum of reads
+				long totalReads = 0;
+				for (Map.Entry<String, Long> e : pcr.getAllCodonReads().entrySet()) {
+					builder.addCodonReads(pcr.getGene(), (int) pcr.getPosition(), e.getKey(), e.getValue());
+					totalReads += e.getValue();
+				}
+				expected.add(new PositionCodonReads<>(
+					pcr.getGene(), (int) pcr.getPosition(), totalReads, pcr.getAllCodonReads()));
+			}
+			CodonReadsStore<TestVirus> store = builder.build();
+			for (PositionCodonReads<TestVirus> pcr : expected) {
+				int posIdx = store.indexOf(pcr.getGene(), (int) pcr.getPosition());
+				assertSamePositionCodonReads(pcr, store.getPositionCodonReads(posIdx));
+			}
+		}
+	}
+
+}
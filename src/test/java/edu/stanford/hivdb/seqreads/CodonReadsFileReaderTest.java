@@ -0,0 +1,142 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.seqreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.mutations.CodonReadsStore;
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Strain;
+
+public class CodonReadsFileReaderTest {
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static Strain<TestVirus> strain = virus.getMainStrain();
+
+	/**
+	 * Returns at most given number of bytes per read call.
+	 */
+	private static InputStream trickle(String text, int maxRead) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, maxRead));
+			}
+		};
+	}
+
+	private static CodonReadsStore<TestVirus> read(String text) {
+		return CodonReadsFileReader.readStream(trickle(text, Integer.MAX_VALUE), strain);
+	}
+
+	private static void assertRejected(String text, int lineNumber) {
+		try {
+			read(text);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + lineNumber + " "));
+		}
+	}
+
+	@Test
+	public void testHeaderAndComments() {
+		CodonReadsStore<TestVirus> store = read(
+			"gene,position,codon,reads\n" +
+			"# comment\n" +
+			"\n" +
+			"PR,1,CCT,10\r\n" +
+			"PR,1,CCC,5\n" +
+			"RT,2,ATC,3");
+		assertEquals(2, store.getNumPositions());
+		assertEquals(virus.getGene("TestPR"), store.getGene(0));
+		assertEquals(1, store.getPosition(0));
+		assertEquals(15, store.getTotalReads(0));
+		assertEquals(virus.getGene("TestRT"), store.getGene(1));
+		assertEquals(3, store.getTotalReads(1));
+	}
+
+	@Test
+	public void testWithoutHeader() {
+		CodonReadsStore<TestVirus> store = read("PR\t1\tCCT\t10\nPR\t2\tCAA\t7\n");
+		assertEquals(2, store.getNumPositions());
+		assertEquals(10, store.getTotalReads(0));
+		assertEquals(7, store.getTotalReads(1));
+	}
+
+	@Test
+	public void testMalformedFirstRow() {
+		assertRejected("PR,1,CCT,abc\nPR,2,CAA,7\n", 1);
+		assertRejected("PR,,CCT,\nPR,2,CAA,7\n", 1);
+		assertRejected("# comment\nPR,x,CCT,10\n", 2);
+		assertRejected("gene,position,codon,reads\nposition,x,CCT,reads\n", 2);
+	}
+
+	@Test
+	public void testOverflow() {
+		assertRejected("PR,1,CCT,99999999999999999999\n", 1);
+		assertRejected("PR,1,CCT,10\nPR,3000000000,CCT,10\n", 2);
+		CodonReadsStore<TestVirus> store = read("PR,1,CCT," + Long.MAX_VALUE + "\n");
+		assertEquals(Long.MAX_VALUE, store.getTotalReads(0));
+	}
+
+	@Test
+	public void testLinesAcrossReads() {
+		StringBuilder text = new StringBuilder("gene,position,codon,reads\n");
+		for (int pos = 1; pos <= 99; pos ++) {
+			text.append("PR,").append(pos).append(",CCT,").append(pos * 1000).append('\n');
+		}
+		for (int maxRead : new int[] {1, 3, 7, 4096}) {
+			CodonReadsStore<TestVirus> store = CodonReadsFileReader.readStream(
+				trickle(text.toString(), maxRead), strain);
+			assertEquals(99, store.getNumPositions());
+			for (int i = 0; i < 99; i ++) {
+				assertEquals(i + 1, store.getPosition(i));
+				assertEquals((i + 1) * 1000, store.getTotalReads(i));
+			}
+		}
+	}
+
+	@Test
+	public void testReadFile() throws IOException {
+		File file = File.createTempFile("codon-reads", ".csv");
+		file.deleteOnExit();
+		try (OutputStream output = new FileOutputStream(file)) {
+			output.write("PR,1,CCT,10\nPR,1,CCC,5\nPR,2,ATC,3\n".getBytes(StandardCharsets.UTF_8));
+		}
+		CodonReadsStore<TestVirus> store = CodonReadsFileReader.readFile(file.getPath(), strain);
+		assertEquals(2, store.getNumPositions());
+		assertEquals(15, store.getTotalReads(0));
+		assertEquals(3, store.getTotalReads(1));
+	}
+
+}
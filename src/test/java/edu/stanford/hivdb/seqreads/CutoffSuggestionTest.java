@@ -0,0 +1,195 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.seqreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.mutations.CodonReads;
+import edu.stanford.hivdb.mutations.CodonReadsStore;
+import edu.stanford.hivdb.mutations.PositionCodonReads;
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class CutoffSuggestionTest {
+
+	private static final String NAS = "ACGT";
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = Arrays.asList(
+		virus.getGene("TestPR"), virus.getGene("TestRT"));
+
+	/**
+	 * The cutoff suggestion as it was computed before it was moved to
+	 * primitive arrays: codon reads are sorted by proportion and visited
+	 * through lists.
+	 *
+	 * @return {looserLimit, stricterLimit}
+	 */
+	private static double[] getExpectedLimits(List<PositionCodonReads<TestVirus>> allReads) {
+		List<CodonReads<TestVirus>> sortedCodonReads = allReads
+			.stream()
+			.flatMap(pcr -> pcr.getCodonReads().stream())
+			.sorted((r1, r2) -> r2.getProportion().compareTo(r1.getProportion()))
+			.collect(Collectors.toList());
+		long totalCount = sortedCodonReads
+			.stream()
+			.mapToLong(r -> r.getReads())
+			.sum();
+		long remainCount = totalCount;
+
+		boolean started = false;
+		double fold = 1;
+		List<Double> proportionInWindow = new ArrayList<>();
+		List<Double> codonPcntsInWindow = new ArrayList<>();
+		List<Double> foldsInWindow = new ArrayList<>();
+
+		for (CodonReads<TestVirus> r : sortedCodonReads) {
+			double proportion = r.getProportion();
+			long curReads = r.getReads();
+			if (proportion > 0.2) {
+				remainCount -= curReads;
+				continue;
+			}
+			fold = (double) r.getTotalReads() * remainCount / totalCount / curReads;
+			if (Double.isNaN(fold)) {
+				fold = 0;
+			}
+			if (!started && fold < 0.8) {
+				started = true;
+			}
+			if (started) {
+				if (fold >= 1) {
+					break;
+				}
+				remainCount -= curReads;
+				proportionInWindow.add(proportion);
+				codonPcntsInWindow.add(r.getCodonPercent());
+				foldsInWindow.add(fold);
+			}
+		}
+
+		if (foldsInWindow.isEmpty()) {
+			return new double[] {.0, .0};
+		}
+
+		double maxFold = Collections.max(foldsInWindow);
+		double nearMaxFold = maxFold * 0.95;
+		maxFold = foldsInWindow.stream().filter(f -> f > nearMaxFold).findFirst().get();
+		int maxFoldIndex = foldsInWindow.indexOf(maxFold);
+
+		proportionInWindow = proportionInWindow.subList(0, maxFoldIndex + 1);
+		codonPcntsInWindow = codonPcntsInWindow.subList(0, maxFoldIndex + 1);
+		foldsInWindow = foldsInWindow.subList(0, maxFoldIndex + 1);
+
+		int minFoldIndex = foldsInWindow.indexOf(Collections.min(foldsInWindow));
+		int tmpsize = foldsInWindow.size();
+		proportionInWindow = proportionInWindow.subList(minFoldIndex, tmpsize);
+		codonPcntsInWindow = codonPcntsInWindow.subList(minFoldIndex, tmpsize);
+
+		double totalRareCodonInWindow = codonPcntsInWindow.stream()
+			.mapToDouble(pcnt -> 1 - Math.sqrt(pcnt))
+			.sum();
+		double rareRate = totalRareCodonInWindow / codonPcntsInWindow.size();
+
+		int newsize = proportionInWindow.size();
+		int indexFromRareRate = (int) Math.ceil(newsize * (1 - rareRate));
+		if (newsize > indexFromRareRate) {
+			return new double[] {
+				proportionInWindow.get(newsize - 1),
+				proportionInWindow.get(indexFromRareRate)
+			};
+		}
+		return new double[] {.0, .0};
+	}
+
+	/**
+	 * Creates codon reads tables of different shapes: shallow or deep
+	 * positions, many ties of reads, and a few deletions.
+	 */
+	private static List<PositionCodonReads<TestVirus>> randomPositionCodonReads(Random random) {
+		List<PositionCodonReads<TestVirus>> allReads = new ArrayList<>();
+		int mode = random.nextInt(4);
+		for (Gene<TestVirus> gene : genes) {
+			for (int pos = 1; pos <= gene.getAASize(); pos ++) {
+				if (random.nextInt(3) == 0) {
+					continue;
+				}
+				Map<String, Long> codonReads = new LinkedHashMap<>();
+				long depth = 100 + random.nextInt(mode == 0 ? 100 : 100000);
+				long left = depth;
+				int numCodons = 1 + random.nextInt(8);
+				for (int i = 0; i < numCodons; i ++) {
+					StringBuilder codon = new StringBuilder();
+					for (int j = 0; j < 3; j ++) {
+						codon.append(NAS.charAt(random.nextInt(NAS.length())));
+					}
+					if (random.nextInt(30) == 0) {
+						codon.setLength(2);
+					}
+					long reads = (
+						i == 0 ? (long) (depth * (0.5 + random.nextDouble() / 2)) :
+						mode == 1 ? 1 + random.nextInt(5) * 10 :
+						(long) (left * Math.pow(random.nextDouble(), 3)));
+					reads = Math.min(reads, left);
+					left -= reads;
+					codonReads.merge(codon.toString(), reads, Long::sum);
+				}
+				allReads.add(new PositionCodonReads<>(gene, pos, depth, codonReads));
+			}
+		}
+		return allReads;
+	}
+
+	@Test
+	public void testSameAsSortedLists() {
+		Random random = new Random(20201017);
+		int numNonZero = 0;
+		for (int i = 0; i < 300; i ++) {
+			List<PositionCodonReads<TestVirus>> allReads = randomPositionCodonReads(random);
+			double[] expected = getExpectedLimits(allReads);
+			CutoffSuggestion<TestVirus> fromList = new CutoffSuggestion<>(allReads);
+			CutoffSuggestion<TestVirus> fromStore = new CutoffSuggestion<>(
+				CodonReadsStore.fromPositionCodonReads(allReads));
+			assertEquals(expected[0], fromList.getLooserLimit(), 0);
+			assertEquals(expected[1], fromList.getStricterLimit(), 0);
+			assertEquals(expected[0], fromStore.getLooserLimit(), 0);
+			assertEquals(expected[1], fromStore.getStricterLimit(), 0);
+			if (expected[0] > 0) {
+				numNonZero ++;
+			}
+		}
+		// the window is found in a reasonable share of the tables
+		assertTrue(String.valueOf(numNonZero), numNonZero > 30);
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.seqreads;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.mutations.MultiCodonsMutation;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.mutations.PositionCodonReads;
+import edu.stanford.hivdb.testutils.TestVirus;
+import edu.stanford.hivdb.viruses.Gene;
+
+public class SequenceReadsTest {
+
+	private static final String NAS = "ACGT";
+	private static final double[] COMMON_CUTOFFS = new double[] {
+		.0, .001, .005, .01, .02, .05, .1, .2, .5
+	};
+
+	private final static TestVirus virus = TestVirus.getInstance();
+	private final static List<Gene<TestVirus>> genes = Arrays.asList(
+		virus.getGene("TestPR"), virus.getGene("TestRT"));
+
+	/**
+	 * Creates a codon reads table with unsequenced gaps, minor variants
+	 * around the common cutoffs and a few indels.
+	 */
+	private static List<PositionCodonReads<TestVirus>> randomPositionCodonReads(Random random) {
+		List<PositionCodonReads<TestVirus>> allReads = new ArrayList<>();
+		for (Gene<TestVirus> gene : genes) {
+			for (int pos = 1; pos <= gene.getAASize(); pos ++) {
+				if (random.nextInt(8) == 0) {
+					continue;
+				}
+				long depth = 100 * (1 + random.nextInt(100));
+				Map<String, Long> codonReads = new LinkedHashMap<>();
+				long left = depth;
+				int numCodons = 1 + random.nextInt(5);
+				for (int i = 0; i < numCodons && left > 0; i ++) {
+					StringBuilder codon = new StringBuilder();
+					for (int j = 0; j < 3; j ++) {
+						codon.append(NAS.charAt(random.nextInt(NAS.length())));
+					}
+					switch (random.nextInt(30)) {
+						case 0:
+							codon.setLength(2);
+							break;
+						case 1:
+							codon.append("AAA");
+							break;
+						default:
+							break;
+					}
+					long reads;
+					if (i == 0) {
+						reads = (long) (depth * (0.5 + random.nextDouble() / 2));
+					}
+					else if (random.nextBoolean()) {
+						// exactly at a cutoff
+						double cutoff = COMMON_CUTOFFS[random.nextInt(COMMON_CUTOFFS.length)];
+						reads = Math.round(depth * cutoff + 0.5) + random.nextInt(3) - 1;
+					}
+					else {
+						reads = 1 + (long) (left * Math.pow(random.nextDouble(), 3));
+					}
+					reads = Math.max(1, Math.min(reads, left));
+					left -= reads;
+					codonReads.merge(codon.toString(), reads, Long::sum);
+				}
+				allReads.add(new PositionCodonReads<>(gene, pos, depth, codonReads));
+			}
+		}
+		return allReads;
+	}
+
+	private static List<Double> randomCutoffs(Random random) {
+		List<Double> cutoffs = new ArrayList<>();
+		int numCutoffs = 1 + random.nextInt(8);
+		for (int i = 0; i < numCutoffs; i ++) {
+			// unordered and possibly duplicated
+			cutoffs.add(
+				random.nextBoolean() ?
+				COMMON_CUTOFFS[random.nextInt(COMMON_CUTOFFS.length)] :
+				random.nextDouble() * .3);
+		}
+		return cutoffs;
+	}
+
+	private static String describe(Mutation<TestVirus> mut) {
+		if (mut == null) {
+			return null;
+		}
+		MultiCodonsMutation<TestVirus> mcMut = (MultiCodonsMutation<TestVirus>) mut;
+		return String.format(
+			"%s %s %s %d",
+			mcMut, mcMut.getTriplet(), mcMut.isUnsequenced(), mcMut.getTotalCount());
+	}
+
+	private static List<String> describe(Collection<Mutation<TestVirus>> muts) {
+		List<String> result = new ArrayList<>();
+		for (Mutation<TestVirus> mut : muts) {
+			result.add(describe(mut));
+		}
+		return result;
+	}
+
+	@Test
+	public void testPositionMutationsSameAsSingleCutoff() {
+		Random random = new Random(20201017);
+		for (int round = 0; round < 20; round ++) {
+			for (PositionCodonReads<TestVirus> pcr : randomPositionCodonReads(random)) {
+				double[] cutoffs = new TreeSet<>(randomCutoffs(random))
+					.stream().mapToDouble(Double::doubleValue).toArray();
+				List<MultiCodonsMutation<TestVirus>> muts =
+					MultiCodonsMutation.fromPositionCodonReads(pcr, cutoffs);
+				assertEquals(cutoffs.length, muts.size());
+				for (int i = 0; i < cutoffs.length; i ++) {
+					assertEquals(
+						describe(MultiCodonsMutation.fromPositionCodonReads(pcr, cutoffs[i])),
+						describe(muts.get(i)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMutationsSameAsSingleCutoff() {
+		Random random = new Random(20201018);
+		for (int round = 0; round < 50; round ++) {
+			SequenceReads<TestVirus> seqReads = SequenceReads.fromCodonReadsTable(
+				"test", virus.getMainStrain(), randomPositionCodonReads(random), .01, 100L);
+			List<Double> cutoffs = randomCutoffs(random);
+			NavigableMap<Double, MutationSet<TestVirus>> allMutations = seqReads.getMutations(cutoffs);
+			assertEquals(new TreeSet<>(cutoffs), allMutations.navigableKeySet());
+			for (double cutoff : cutoffs) {
+				assertEquals(
+					describe(seqReads.getMutations(cutoff)),
+					describe(allMutations.get(cutoff)));
+			}
+			for (GeneSequenceReads<TestVirus> geneSeqReads : seqReads.getAllGeneSequenceReads()) {
+				NavigableMap<Double, MutationSet<TestVirus>> geneMutations = geneSeqReads.getMutations(cutoffs);
+				for (double cutoff : cutoffs) {
+					assertEquals(
+						describe(geneSeqReads.getMutations(cutoff)),
+						describe(geneMutations.get(cutoff)));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,339 @@
+/*
+
+    Copyright (C) 2019-2020 Stanford HIVDB team
+
+    This file is part of Sierra.
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Sierra.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.testutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Chars;
+import com.google.gson.reflect.TypeToken;
+
+import edu.stanford.hivdb.comments.ConditionalComments;
+import edu.stanford.hivdb.drugresistance.algorithm.DrugResistanceAlgorithm;
+import edu.stanford.hivdb.drugs.Drug;
+import edu.stanford.hivdb.drugs.DrugClass;
+import edu.stanford.hivdb.genotypes.Genotype;
+import edu.stanford.hivdb.genotypes.GenotypeReference;
+import edu.stanford.hivdb.genotypes.Genotyper;
+import edu.stanford.hivdb.mutations.AminoAcidPercents;
+import edu.stanford.hivdb.mutations.CodonPercents;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.mutations.MutationType;
+import edu.stanford.hivdb.mutations.MutationTypePair;
+import edu.stanford.hivdb.utilities.AAUtils;
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * A minimal virus for tests, with one strain and two genes (PR and RT).
+ *
+ * Everything is loaded from the resources under "TestVirus/". Genotype
+ * references cover the PR gene only. Amino acid and codon percents are
+ * only provided for treatment "all" and subtype "all". Other prevalence
+ * data, conditional comments and a default genotyper are not provided.
+ */
+public class TestVirus implements Virus<TestVirus> {
+
+	private static final String VIRUS_NAME = "TestVirus";
+	private static final String RESOURCE_PREFIX = "TestVirus/";
+	private static final Pattern MUTATION_PATTERN = Pattern.compile(
+		"^(?:__ASI__)?(?:(PR|RT):)?[A-Z]?(\\d+)([A-Za-z*_#~.-]+)$");
+	private static final String[] ALGORITHMS = new String[] {
+		"TESTALG_1.0", "TESTALG_2.0"
+	};
+
+	static {
+		Virus.registerInstance(new TestVirus());
+	}
+
+	public static TestVirus getInstance() {
+		return Virus.getInstance(TestVirus.class);
+	}
+
+	private static String loadResource(String name) {
+		try (
+			InputStream stream = TestVirus.class.getClassLoader()
+				.getResourceAsStream(RESOURCE_PREFIX + name)
+		) {
+			return IOUtils.toString(stream, "UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final Map<String, Strain<TestVirus>> strains;
+	private final Map<String, Gene<TestVirus>> genes;
+	private final Map<String, DrugClass<TestVirus>> drugClasses;
+	private final Map<String, Drug<TestVirus>> drugs;
+	private final Map<String, MutationType<TestVirus>> mutationTypes;
+	private final List<MutationTypePair<TestVirus>> mutationTypePairs;
+	private final Map<String, Genotype<TestVirus>> genotypes;
+	private final List<GenotypeReference<TestVirus>> genotypeReferences;
+	private Map<DrugClass<TestVirus>, MutationSet<TestVirus>> drugResistMutations;
+	private MutationSet<TestVirus> apobecMutations;
+	private List<DrugResistanceAlgorithm<TestVirus>> algorithms;
+	private AminoAcidPercents<TestVirus> aminoAcidPercents;
+	private CodonPercents<TestVirus> codonPercents;
+
+	private TestVirus() {
+		strains = Strain.loadJson(loadResource("strains.json"), this);
+		genes = Gene.loadJson(loadResource("genes.json"), this);
+		drugClasses = DrugClass.loadJson(loadResource("drug-classes.json"), this);
+		drugs = Drug.loadJson(loadResource("drugs.json"), this);
+		mutationTypes = MutationType.loadJson(loadResource("mutation-types.json"), this);
+		mutationTypePairs = MutationTypePair.loadJson(loadResource("mutation-type-pairs.json"), this);
+		genotypes = Genotype.loadJson(loadResource("genotypes.json"), this);
+		genotypeReferences = GenotypeReference.loadJson(loadResource("genotype-references.json"), this);
+	}
+
+	@Override
+	public String getName() {
+		return VIRUS_NAME;
+	}
+
+	@Override
+	public Collection<Strain<TestVirus>> getStrains() {
+		return strains.values();
+	}
+
+	@Override
+	public Collection<Gene<TestVirus>> getGenes(Strain<TestVirus> strain) {
+		return (
+			genes.values().stream()
+			.filter(gene -> gene.getStrain() == strain)
+			.collect(Collectors.toList())
+		);
+	}
+
+	@Override
+	public Gene<TestVirus> getGene(String name) {
+		return genes.get(name);
+	}
+
+	@Override
+	public Collection<DrugClass<TestVirus>> getDrugClasses() {
+		return new LinkedHashSet<>(drugClasses.values());
+	}
+
+	@Override
+	public Map<String, DrugClass<TestVirus>> getDrugClassSynonymMap() {
+		return drugClasses;
+	}
+
+	@Override
+	public Collection<Drug<TestVirus>> getDrugs() {
+		return new LinkedHashSet<>(drugs.values());
+	}
+
+	@Override
+	public Map<String, Drug<TestVirus>> getDrugSynonymMap() {
+		return drugs;
+	}
+
+	@Override
+	public Collection<Genotype<TestVirus>> getGenotypes() {
+		return genotypes.values();
+	}
+
+	@Override
+	public Genotype<TestVirus> getGenotypeUnknown() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Genotyper<TestVirus> getGenotyper() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public List<GenotypeReference<TestVirus>> getGenotypeReferences() {
+		return genotypeReferences;
+	}
+
+	@Override
+	public Strain<TestVirus> getMainStrain() {
+		return strains.values().iterator().next();
+	}
+
+	@Override
+	public Gene<TestVirus> extractMutationGene(String mutText) {
+		Matcher m = MUTATION_PATTERN.matcher(mutText.trim());
+		if (m.matches() && m.group(1) != null) {
+			return getMainStrain().getGene(m.group(1));
+		}
+		return null;
+	}
+
+	@Override
+	public Mutation<TestVirus> parseMutationString(Gene<TestVirus> defaultGene, String mutText) {
+		Matcher m = MUTATION_PATTERN.matcher(mutText.trim());
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Invalid mutation: " + mutText);
+		}
+		Gene<TestVirus> gene = m.group(1) == null ? defaultGene : getMainStrain().getGene(m.group(1));
+		return internMutation(
+			gene, Integer.parseInt(m.group(2)),
+			Sets.newTreeSet(Chars.asList(AAUtils.normalizeAAs(m.group(3)).toCharArray())));
+	}
+
+	@Override
+	public Mutation<TestVirus> parseMutationString(String mutText) {
+		return parseMutationString(null, mutText);
+	}
+
+	@Override
+	public MutationSet<TestVirus> newMutationSet(String formattedMuts) {
+		return MutationSet.parseString(this, formattedMuts);
+	}
+
+	@Override
+	public MutationSet<TestVirus> newMutationSet(Collection<String> formattedMuts) {
+		return MutationSet.parseString(this, formattedMuts);
+	}
+
+	@Override
+	public MutationSet<TestVirus> newMutationSet(Gene<TestVirus> defaultGene, String formattedMuts) {
+		return MutationSet.parseString(defaultGene, formattedMuts);
+	}
+
+	@Override
+	public MutationSet<TestVirus> newMutationSet(Gene<TestVirus> defaultGene, Collection<String> formattedMuts) {
+		return MutationSet.parseString(defaultGene, formattedMuts);
+	}
+
+	@Override
+	public Map<DrugClass<TestVirus>, MutationSet<TestVirus>> getDrugResistMutations() {
+		if (drugResistMutations == null) {
+			Map<String, List<Map<String, ?>>> raw = Json.loads(
+				loadResource("drms.json"),
+				new TypeToken<Map<String, List<Map<String, ?>>>>(){});
+			Map<DrugClass<TestVirus>, MutationSet<TestVirus>> drms = new LinkedHashMap<>();
+			for (Map.Entry<String, List<Map<String, ?>>> entry : raw.entrySet()) {
+				drms.put(
+					getDrugClass(entry.getKey()),
+					MutationSet.loadJsonMap(entry.getValue(), this::getGene));
+			}
+			drugResistMutations = Collections.unmodifiableMap(drms);
+		}
+		return drugResistMutations;
+	}
+
+	@Override
+	public Map<DrugClass<TestVirus>, MutationSet<TestVirus>> getSurveilDrugResistMutations() {
+		return getDrugResistMutations();
+	}
+
+	@Override
+	public Map<DrugClass<TestVirus>, MutationSet<TestVirus>> getRxSelectedMutations() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public MutationSet<TestVirus> getApobecMutations() {
+		if (apobecMutations == null) {
+			apobecMutations = MutationSet.loadJson(loadResource("apobecs.json"), this::getGene);
+		}
+		return apobecMutations;
+	}
+
+	@Override
+	public MutationSet<TestVirus> getApobecDRMs() {
+		MutationSet<TestVirus> drms = new MutationSet<>();
+		for (MutationSet<TestVirus> dcDRMs : getDrugResistMutations().values()) {
+			drms = drms.mergesWith(dcDRMs);
+		}
+		return getApobecMutations().intersectsWith(drms);
+	}
+
+	@Override
+	public AminoAcidPercents<TestVirus> getAminoAcidPercents(Strain<TestVirus> strain, String treatment, String subtype) {
+		if (!treatment.equals("all") || !subtype.equals("all")) {
+			throw new UnsupportedOperationException();
+		}
+		if (aminoAcidPercents == null) {
+			aminoAcidPercents = new AminoAcidPercents<>(
+				RESOURCE_PREFIX + "aapcnt/rx-all_subtype-all.json", this, strain);
+		}
+		return aminoAcidPercents;
+	}
+
+	@Override
+	public CodonPercents<TestVirus> getCodonPercents(Strain<TestVirus> strain, String treatment, String subtype) {
+		if (!treatment.equals("all") || !subtype.equals("all")) {
+			throw new UnsupportedOperationException();
+		}
+		if (codonPercents == null) {
+			codonPercents = new CodonPercents<>(
+				RESOURCE_PREFIX + "codonpcnt/rx-all_subtype-all.json", this, strain);
+		}
+		return codonPercents;
+	}
+
+	@Override
+	public Collection<MutationType<TestVirus>> getMutationTypes() {
+		return mutationTypes.values();
+	}
+
+	@Override
+	public Collection<MutationTypePair<TestVirus>> getMutationTypePairs() {
+		return mutationTypePairs;
+	}
+
+	@Override
+	public List<String> getMainSubtypes(Strain<TestVirus> strain) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<DrugResistanceAlgorithm<TestVirus>> getDrugResistAlgorithms() {
+		if (algorithms == null) {
+			List<DrugResistanceAlgorithm<TestVirus>> algs = new ArrayList<>();
+			for (String name : ALGORITHMS) {
+				algs.add(new DrugResistanceAlgorithm<>(
+					name, this, loadResource("algorithms/" + name + ".xml")));
+			}
+			algorithms = Collections.unmodifiableList(algs);
+		}
+		return algorithms;
+	}
+
+	@Override
+	public ConditionalComments<TestVirus> getConditionalComments() {
+		throw new UnsupportedOperationException();
+	}
+
+}